@@ -0,0 +1,68 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+
+/**
+ * TalsimResults of different sizes, derived from the example TalsimResult
+ * shipped with the converter. Used by the benchmarks and the load test.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class BenchmarkData {
+
+	static final String EXAMPLE_TALSIM_RESULT = "TalsimResult_example.xml";
+
+	private BenchmarkData() {
+	}
+
+	/**
+	 * @param copies
+	 *            how often the "series" nodes of the example TalsimResult (5
+	 *            series of 960 events each) are repeated
+	 * @return the encoded TalsimResult
+	 */
+	public static byte[] createTalsimResult(int copies) throws IOException {
+		String example;
+		try (InputStream input = BenchmarkData.class.getClassLoader().getResourceAsStream(EXAMPLE_TALSIM_RESULT)) {
+			if (input == null)
+				throw new IOException("Resource '" + EXAMPLE_TALSIM_RESULT + "' not found");
+			example = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+		}
+
+		int seriesBegin = example.indexOf("<" + Constants.TALSIM_SERIES_NODE + ">");
+		String seriesEndTag = "</" + Constants.TALSIM_SERIES_NODE + ">";
+		int seriesEnd = example.lastIndexOf(seriesEndTag) + seriesEndTag.length();
+
+		String series = example.substring(seriesBegin, seriesEnd);
+
+		StringBuilder talsimResult = new StringBuilder(example.length() * copies);
+		talsimResult.append(example, 0, seriesBegin);
+		for (int i = 0; i < copies; i++)
+			talsimResult.append(series).append('\n');
+		talsimResult.append(example, seriesEnd, example.length());
+
+		return talsimResult.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parses a TalsimResult into a DOM like the converter did before
+	 * streaming the TalsimResult.
+	 */
+	static Document parseDocument(byte[] talsimResult) throws Exception {
+		DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+
+		DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
+
+		return docBuilder.parse(new ByteArrayInputStream(talsimResult));
+	}
+
+}
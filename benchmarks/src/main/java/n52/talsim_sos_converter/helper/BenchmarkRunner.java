@@ -0,0 +1,34 @@
+package n52.talsim_sos_converter.helper;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks like the JMH main class, but always reports the
+ * allocation rate ({@code -prof gc}) along with the throughput. Accepts the
+ * JMH command line options, e.g. {@code java -jar target/benchmarks.jar
+ * TalsimParsingBenchmark -p copies=10 -rf json}.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class BenchmarkRunner {
+
+	/**
+	 * JVM argument of the benchmark forks: the logging configuration of the
+	 * converter logs everything, which would dominate the measurements
+	 */
+	static final String LOG_CONFIGURATION = "-Dlog4j.configurationFile=log4j2-benchmarks.xml";
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+		Options options = new OptionsBuilder().parent(commandLineOptions).addProfiler(GCProfiler.class).build();
+
+		new Runner(options).run();
+	}
+
+}
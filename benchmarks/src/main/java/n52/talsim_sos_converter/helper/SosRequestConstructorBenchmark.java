@@ -0,0 +1,122 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Construction of the SOS requests from the example TalsimResult, from its
+ * DOM (as the converter originally did) and from the observations of the
+ * {@link TalsimStreamReader}.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = BenchmarkRunner.LOG_CONFIGURATION)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SosRequestConstructorBenchmark {
+
+	private String insertObservationTemplate;
+	private String insertSensorTemplate;
+
+	private Document talsimDocument;
+	private Node seriesNode;
+	private Node headerNode;
+	private Node eventNode;
+	private String timeZone;
+
+	private TalsimObservation observation;
+	private List<TalsimSeriesHeader> headersOfStation;
+	private Map<String, String> insertObservationParameters;
+
+	@Setup
+	public void loadTalsimResult() throws Exception {
+		insertObservationTemplate = ResourceLoader.loadInsertObservationRequestTemplate();
+		insertSensorTemplate = ResourceLoader.loadInsertSensorRequestTemplate();
+
+		byte[] talsimResult = BenchmarkData.createTalsimResult(1);
+
+		talsimDocument = BenchmarkData.parseDocument(talsimResult);
+		seriesNode = talsimDocument.getElementsByTagName(Constants.TALSIM_SERIES_NODE).item(0);
+		headerNode = talsimDocument.getElementsByTagName(Constants.TALSIM_HEADER_NODE).item(0);
+		eventNode = talsimDocument.getElementsByTagName(Constants.TALSIM_RESULT_EVENT_NODE).item(1);
+		timeZone = talsimDocument.getElementsByTagName(Constants.TALSIM_RESULT_TIME_ZONE_NODE).item(0)
+				.getTextContent().trim();
+
+		try (TalsimStreamReader reader = new TalsimStreamReader(new ByteArrayInputStream(talsimResult))) {
+			reader.next();
+			observation = reader.next();
+		}
+
+		// all series of the example belong to the same station
+		headersOfStation = new ArrayList<TalsimSeriesHeader>(
+				TalsimStreamReader.readAllHeaders(new ByteArrayInputStream(talsimResult)));
+
+		TalsimSeriesHeader header = observation.getHeader();
+		insertObservationParameters = SosRequestConstructor.createInsertObservationParametersMap(
+				TalsimStation.of(header), header.getParameterId(), header.getUnits(), observation.getDate(),
+				observation.getTime(), observation.getValue(), header.getTimeZone());
+	}
+
+	@Benchmark
+	public String createInsertObservationRequest() {
+		return SosRequestConstructor.createInsertObservationRequest(observation, insertObservationTemplate);
+	}
+
+	@Benchmark
+	public String createInsertObservationRequestFromDocument() throws Exception {
+		return SosRequestConstructor.createInsertObservationRequest(eventNode, headerNode, timeZone,
+				insertObservationTemplate);
+	}
+
+	/**
+	 * all 960 InsertObservation requests of a "series" node at once
+	 */
+	@Benchmark
+	public List<String> createInsertObservationRequestsForSeriesNode() throws Exception {
+		return SosRequestConstructor.createInsertObservationRequestsForSeriesNode(talsimDocument, seriesNode,
+				insertObservationTemplate);
+	}
+
+	@Benchmark
+	public String createInsertSensorRequest() {
+		return SosRequestConstructor.createInsertSensorRequest(headersOfStation, insertSensorTemplate);
+	}
+
+	@Benchmark
+	public String createInsertSensorRequestFromDocument() throws Exception {
+		return SosRequestConstructor.createInsertSensorRequest(talsimDocument, insertSensorTemplate);
+	}
+
+	@Benchmark
+	public String replacePlaceholdersInTemplate() {
+		return SosRequestConstructor.replacePlaceholdersInTemplate(insertObservationTemplate,
+				insertObservationParameters);
+	}
+
+	@Benchmark
+	public String generateDateAndTimeString() {
+		return SosRequestConstructor.generateDateAndTimeString(observation.getDate(), observation.getTime(),
+				observation.getHeader().getTimeZone());
+	}
+
+}
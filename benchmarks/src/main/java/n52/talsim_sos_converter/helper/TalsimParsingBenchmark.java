@@ -0,0 +1,68 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.w3c.dom.Document;
+
+/**
+ * Parsing of TalsimResults of different sizes, into a DOM (as the converter
+ * originally did) and by the {@link TalsimStreamReader}.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = BenchmarkRunner.LOG_CONFIGURATION)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TalsimParsingBenchmark {
+
+	/**
+	 * copies of the 4800 events of the example TalsimResult
+	 */
+	@Param({ "1", "10", "50" })
+	public int copies;
+
+	private byte[] talsimResult;
+
+	@Setup
+	public void createTalsimResult() throws Exception {
+		talsimResult = BenchmarkData.createTalsimResult(copies);
+	}
+
+	@Benchmark
+	public Document parseDocument() throws Exception {
+		return BenchmarkData.parseDocument(talsimResult);
+	}
+
+	@Benchmark
+	public void readObservations(Blackhole blackhole) throws Exception {
+		try (TalsimStreamReader reader = new TalsimStreamReader(new ByteArrayInputStream(talsimResult))) {
+			TalsimObservation observation;
+			while ((observation = reader.next()) != null)
+				blackhole.consume(observation);
+		}
+	}
+
+	@Benchmark
+	public List<TalsimSeriesHeader> readAllHeaders() throws Exception {
+		return TalsimStreamReader.readAllHeaders(new ByteArrayInputStream(talsimResult));
+	}
+
+}
@@ -0,0 +1,266 @@
+package n52.talsim_sos_converter.loadtest;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import n52.talsim_sos_converter.IngestionReport;
+import n52.talsim_sos_converter.StubSos;
+import n52.talsim_sos_converter.TalsimSosConverter;
+import n52.talsim_sos_converter.helper.BenchmarkData;
+import n52.talsim_sos_converter.helper.LatencyHistogram;
+
+/**
+ * Load test of the whole converter: inserts a TalsimResult several times into
+ * a SOS instance, usually a {@link StubSos}, and measures the
+ * throughput, the response times and the heap use, e.g. to size a deployment
+ * before rollout.
+ *
+ * The runs are started like
+ * {@link TalsimSosConverter#insertOutputToSOSAsync(java.io.InputStream, URL, java.util.concurrent.Executor, n52.talsim_sos_converter.IngestionProgressListener)}
+ * by a long-running process, i.e. they share one converter and one thread
+ * pool.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class LoadTest {
+
+	private static final long HEAP_SAMPLING_INTERVAL_MILLIS = 50;
+
+	private int numberOfRuns = 10;
+	private int maxParallelRuns = 2;
+	private int numberOfThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+	private int copies = 1;
+	private Path talsimFile = null;
+
+	private final TalsimSosConverter converter;
+
+	/**
+	 * @param converter
+	 *            the converter to load, configured like the deployment to
+	 *            size (e.g. its maximum number of requests in flight)
+	 */
+	public LoadTest(TalsimSosConverter converter) {
+		this.converter = converter;
+	}
+
+	/**
+	 * @param numberOfRuns
+	 *            how often the TalsimResult is inserted (default 10)
+	 */
+	public void setNumberOfRuns(int numberOfRuns) {
+		this.numberOfRuns = numberOfRuns;
+	}
+
+	/**
+	 * @param maxParallelRuns
+	 *            the maximum number of insertions at the same time, like
+	 *            several files dropped at once (default 2)
+	 */
+	public void setMaxParallelRuns(int maxParallelRuns) {
+		if (maxParallelRuns < 1)
+			throw new IllegalArgumentException("maxParallelRuns must be positive");
+
+		this.maxParallelRuns = maxParallelRuns;
+	}
+
+	/**
+	 * @param numberOfThreads
+	 *            the size of the thread pool of the converter (default: the
+	 *            number of processors)
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		if (numberOfThreads < 2)
+			throw new IllegalArgumentException("numberOfThreads must be at least 2");
+
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * @param copies
+	 *            the size of the inserted TalsimResult in copies of the series
+	 *            of the example TalsimResult, 4800 events each (default 1);
+	 *            ignored if a TalsimResult file is set
+	 */
+	public void setCopies(int copies) {
+		this.copies = copies;
+	}
+
+	/**
+	 * @param talsimFile
+	 *            the TalsimResult to insert instead of the example
+	 */
+	public void setTalsimFile(Path talsimFile) {
+		this.talsimFile = talsimFile;
+	}
+
+	/**
+	 * Runs the load test against the SOS instance with the given URL.
+	 */
+	public LoadTestResult run(URL sosURL) throws Exception {
+		byte[] talsimResult = talsimFile != null ? Files.readAllBytes(talsimFile)
+				: BenchmarkData.createTalsimResult(copies);
+
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		AtomicLong peakHeapUsedBytes = new AtomicLong();
+		ScheduledExecutorService heapSampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "heap-sampler");
+			thread.setDaemon(true);
+			return thread;
+		});
+		heapSampler.scheduleAtFixedRate(
+				() -> peakHeapUsedBytes.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max), 0,
+				HEAP_SAMPLING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+		long gcsBefore = getNumberOfGcs();
+		long gcTimeBefore = getGcTimeMillis();
+
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		Semaphore runPermits = new Semaphore(maxParallelRuns);
+		LatencyHistogram runDurations = new LatencyHistogram();
+		List<CompletableFuture<IngestionReport>> runs = new ArrayList<CompletableFuture<IngestionReport>>();
+
+		long start = System.nanoTime();
+		try {
+			for (int i = 0; i < numberOfRuns; i++) {
+				runPermits.acquire();
+
+				long runStart = System.nanoTime();
+				CompletableFuture<IngestionReport> run = converter.insertOutputToSOSAsync(
+						new ByteArrayInputStream(talsimResult), sosURL, executor, null);
+				run.whenComplete((report, throwable) -> {
+					runDurations.record(System.nanoTime() - runStart);
+					runPermits.release();
+				});
+				runs.add(run);
+			}
+
+			CompletableFuture.allOf(runs.toArray(new CompletableFuture<?>[0])).exceptionally(throwable -> null)
+					.join();
+		} finally {
+			executor.shutdown();
+			heapSampler.shutdown();
+		}
+		long durationNanos = System.nanoTime() - start;
+
+		int numberOfFailedRuns = 0;
+		Throwable firstFailure = null;
+		long numberOfInsertedObservations = 0;
+		long numberOfRequests = 0;
+		long numberOfBytesSent = 0;
+		long allocatedBytes = 0;
+		LatencyHistogram responseTimes = new LatencyHistogram();
+
+		for (CompletableFuture<IngestionReport> run : runs) {
+			IngestionReport report;
+			try {
+				report = run.get();
+			} catch (ExecutionException e) {
+				numberOfFailedRuns++;
+				if (firstFailure == null)
+					firstFailure = e.getCause() instanceof CompletionException ? e.getCause().getCause()
+							: e.getCause();
+				continue;
+			}
+
+			numberOfInsertedObservations += report.getNumberOfInsertedObservations();
+			numberOfRequests += report.getNumberOfRequests();
+			numberOfBytesSent += report.getNumberOfBytesSent();
+			allocatedBytes += report.getAllocatedBytes();
+			responseTimes.add(report.getResponseTimes());
+		}
+
+		long numberOfGcs = getNumberOfGcs() - gcsBefore;
+		long gcTimeMillis = getGcTimeMillis() - gcTimeBefore;
+
+		System.gc();
+		long heapUsedAfterGcBytes = memory.getHeapMemoryUsage().getUsed();
+
+		return new LoadTestResult(numberOfRuns, numberOfFailedRuns, firstFailure, durationNanos,
+				numberOfInsertedObservations, numberOfRequests, numberOfBytesSent, responseTimes, runDurations,
+				peakHeapUsedBytes.get(), heapUsedAfterGcBytes, allocatedBytes, numberOfGcs, gcTimeMillis);
+	}
+
+	private static long getNumberOfGcs() {
+		long numberOfGcs = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			numberOfGcs += Math.max(0, gc.getCollectionCount());
+		return numberOfGcs;
+	}
+
+	private static long getGcTimeMillis() {
+		long gcTimeMillis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			gcTimeMillis += Math.max(0, gc.getCollectionTime());
+		return gcTimeMillis;
+	}
+
+	/**
+	 * Runs a load test against a {@link StubSos}, configured by system
+	 * properties (defaults in brackets):
+	 * <ul>
+	 * <li>{@code loadtest.runs} [10], {@code loadtest.parallelRuns} [2],
+	 * {@code loadtest.threads} [processors], {@code loadtest.copies} [1],
+	 * {@code loadtest.file}: see the setters</li>
+	 * <li>{@code loadtest.maxInFlightRequests} [unlimited]: see
+	 * {@link TalsimSosConverter#setMaxInFlightRequests(int)}</li>
+	 * <li>{@code loadtest.latencyMillis} [5], {@code loadtest.jitterMillis}
+	 * [5], {@code loadtest.errorRate} [0], {@code loadtest.sosThreads} [16]:
+	 * the behaviour of the stub SOS instance</li>
+	 * </ul>
+	 * E.g. {@code java -Dloadtest.runs=20 -cp target/benchmarks.jar
+	 * n52.talsim_sos_converter.loadtest.LoadTest}
+	 */
+	public static void main(String[] args) throws Exception {
+		// the logging configuration of the converter logs everything
+		if (System.getProperty("log4j.configurationFile") == null)
+			System.setProperty("log4j.configurationFile", "log4j2-benchmarks.xml");
+
+		TalsimSosConverter converter = new TalsimSosConverter();
+		converter.setAuthorizationToken("loadtest");
+		converter.setProgressReportInterval(0);
+		if (System.getProperty("loadtest.maxInFlightRequests") != null)
+			converter.setMaxInFlightRequests(Integer.getInteger("loadtest.maxInFlightRequests"));
+
+		LoadTest loadTest = new LoadTest(converter);
+		loadTest.setNumberOfRuns(Integer.getInteger("loadtest.runs", 10));
+		loadTest.setMaxParallelRuns(Integer.getInteger("loadtest.parallelRuns", 2));
+		loadTest.setNumberOfThreads(
+				Integer.getInteger("loadtest.threads", Math.max(2, Runtime.getRuntime().availableProcessors())));
+		loadTest.setCopies(Integer.getInteger("loadtest.copies", 1));
+		if (System.getProperty("loadtest.file") != null)
+			loadTest.setTalsimFile(Paths.get(System.getProperty("loadtest.file")));
+
+		try (StubSos sos = new StubSos(Integer.getInteger("loadtest.sosThreads", 16))) {
+			sos.setResponseDelay(Long.getLong("loadtest.latencyMillis", 5), Long.getLong("loadtest.jitterMillis", 5));
+			sos.setErrorRate(Double.parseDouble(System.getProperty("loadtest.errorRate", "0")));
+			// each run registers the stations of the TalsimResult again
+			sos.acceptDuplicateProcedures();
+
+			LoadTestResult result = loadTest.run(sos.getURL());
+
+			System.out.println(result);
+			System.out.println(String.format("stub SOS instance: %d InsertSensor, %d InsertObservation requests, "
+					+ "%d exception reports, at most %d requests at the same time", sos.getInsertSensorRequests(),
+					sos.getInsertObservationRequests(), sos.getExceptionReports(), sos.getMaxConcurrentRequests()));
+		}
+	}
+
+}
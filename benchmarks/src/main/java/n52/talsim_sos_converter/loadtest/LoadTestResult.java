@@ -0,0 +1,168 @@
+package n52.talsim_sos_converter.loadtest;
+
+import java.util.Locale;
+
+import n52.talsim_sos_converter.helper.LatencyHistogram;
+
+/**
+ * Outcome of a {@link LoadTest}: the throughput of the converter, the
+ * response times of the SOS instance, the durations of the runs and the heap
+ * use of the JVM.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class LoadTestResult {
+
+	private final int numberOfRuns;
+	private final int numberOfFailedRuns;
+	private final Throwable firstFailure;
+
+	private final long durationNanos;
+	private final long numberOfInsertedObservations;
+	private final long numberOfRequests;
+	private final long numberOfBytesSent;
+
+	private final LatencyHistogram responseTimes;
+	private final LatencyHistogram runDurations;
+
+	private final long peakHeapUsedBytes;
+	private final long heapUsedAfterGcBytes;
+	private final long allocatedBytes;
+	private final long numberOfGcs;
+	private final long gcTimeMillis;
+
+	LoadTestResult(int numberOfRuns, int numberOfFailedRuns, Throwable firstFailure, long durationNanos,
+			long numberOfInsertedObservations, long numberOfRequests, long numberOfBytesSent,
+			LatencyHistogram responseTimes, LatencyHistogram runDurations, long peakHeapUsedBytes,
+			long heapUsedAfterGcBytes, long allocatedBytes, long numberOfGcs, long gcTimeMillis) {
+		this.numberOfRuns = numberOfRuns;
+		this.numberOfFailedRuns = numberOfFailedRuns;
+		this.firstFailure = firstFailure;
+		this.durationNanos = durationNanos;
+		this.numberOfInsertedObservations = numberOfInsertedObservations;
+		this.numberOfRequests = numberOfRequests;
+		this.numberOfBytesSent = numberOfBytesSent;
+		this.responseTimes = responseTimes;
+		this.runDurations = runDurations;
+		this.peakHeapUsedBytes = peakHeapUsedBytes;
+		this.heapUsedAfterGcBytes = heapUsedAfterGcBytes;
+		this.allocatedBytes = allocatedBytes;
+		this.numberOfGcs = numberOfGcs;
+		this.gcTimeMillis = gcTimeMillis;
+	}
+
+	public int getNumberOfRuns() {
+		return numberOfRuns;
+	}
+
+	public int getNumberOfFailedRuns() {
+		return numberOfFailedRuns;
+	}
+
+	/**
+	 * @return the cause of the first failed run, or {@code null} if all runs
+	 *         succeeded
+	 */
+	public Throwable getFirstFailure() {
+		return firstFailure;
+	}
+
+	public long getDurationMillis() {
+		return durationNanos / 1000000;
+	}
+
+	/**
+	 * @return the observations inserted by the successful runs
+	 */
+	public long getNumberOfInsertedObservations() {
+		return numberOfInsertedObservations;
+	}
+
+	/**
+	 * @return the inserted observations (i.e. "event" nodes) per second over
+	 *         the whole load test
+	 */
+	public double getEventsPerSecond() {
+		return durationNanos > 0 ? numberOfInsertedObservations / (durationNanos / 1e9) : 0;
+	}
+
+	public long getNumberOfRequests() {
+		return numberOfRequests;
+	}
+
+	public long getNumberOfBytesSent() {
+		return numberOfBytesSent;
+	}
+
+	/**
+	 * @return the response times of the SOS instance, measured by the
+	 *         converter
+	 */
+	public LatencyHistogram getResponseTimes() {
+		return responseTimes.copy();
+	}
+
+	/**
+	 * @return the durations of the runs, including the failed ones
+	 */
+	public LatencyHistogram getRunDurations() {
+		return runDurations.copy();
+	}
+
+	/**
+	 * @return the maximum of the sampled used heap
+	 */
+	public long getPeakHeapUsedBytes() {
+		return peakHeapUsedBytes;
+	}
+
+	/**
+	 * @return the used heap after a full garbage collection at the end of the
+	 *         load test, e.g. to detect leaks
+	 */
+	public long getHeapUsedAfterGcBytes() {
+		return heapUsedAfterGcBytes;
+	}
+
+	/**
+	 * @return the bytes allocated by the threads of the successful runs
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public long getNumberOfGcs() {
+		return numberOfGcs;
+	}
+
+	public long getGcTimeMillis() {
+		return gcTimeMillis;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		result.append(String.format(Locale.ROOT, "runs:              %d (%d failed) in %d ms%n", numberOfRuns,
+				numberOfFailedRuns, getDurationMillis()));
+		result.append(String.format(Locale.ROOT, "throughput:        %.1f events/s (%d observations, %d requests, %d bytes)%n",
+				getEventsPerSecond(), numberOfInsertedObservations, numberOfRequests, numberOfBytesSent));
+		result.append(String.format(Locale.ROOT, "response times:    %s%n", formatPercentiles(responseTimes)));
+		result.append(String.format(Locale.ROOT, "run durations:     %s%n", formatPercentiles(runDurations)));
+		result.append(String.format(Locale.ROOT, "heap:              peak %.1f MB, after GC %.1f MB, allocated %.1f MB%n",
+				peakHeapUsedBytes / 1e6, heapUsedAfterGcBytes / 1e6, allocatedBytes / 1e6));
+		result.append(String.format(Locale.ROOT, "garbage collector: %d collections, %d ms", numberOfGcs, gcTimeMillis));
+
+		if (firstFailure != null)
+			result.append(String.format(Locale.ROOT, "%nfirst failure:     %s", firstFailure));
+
+		return result.toString();
+	}
+
+	private static String formatPercentiles(LatencyHistogram histogram) {
+		return String.format(Locale.ROOT, "p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+				histogram.getPercentileNanos(50) / 1e6, histogram.getPercentileNanos(90) / 1e6,
+				histogram.getPercentileNanos(99) / 1e6, histogram.getMaxNanos() / 1e6);
+	}
+
+}
@@ -0,0 +1,72 @@
+package n52.talsim_sos_converter.loadtest;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.StubSos;
+import n52.talsim_sos_converter.TalsimSosConverter;
+
+/**
+ * Runs small {@link LoadTest}s against a {@link StubSos}.
+ */
+public class LoadTestTest extends TestCase {
+
+	public LoadTestTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(LoadTestTest.class);
+	}
+
+	public void testThroughputAndResponseTimesAreMeasured() throws Exception {
+		try (StubSos sos = new StubSos(2)) {
+			sos.setResponseDelay(1, 1);
+			sos.acceptDuplicateProcedures();
+
+			LoadTest loadTest = new LoadTest(createConverter());
+			loadTest.setNumberOfRuns(2);
+			loadTest.setMaxParallelRuns(2);
+
+			LoadTestResult result = loadTest.run(sos.getURL());
+
+			assertEquals(0, result.getNumberOfFailedRuns());
+			assertEquals(2 * 4800, result.getNumberOfInsertedObservations());
+			assertEquals(2 * 4800, sos.getInsertObservationRequests());
+			assertEquals(2, sos.getInsertSensorRequests());
+			assertEquals(2 * 4801, result.getNumberOfRequests());
+			assertTrue(sos.getMaxConcurrentRequests() <= 2);
+
+			assertTrue(result.getEventsPerSecond() > 0);
+			assertEquals(2 * 4801, result.getResponseTimes().getCount());
+			assertTrue(result.getResponseTimes().getPercentileNanos(50) >= 1000000);
+			assertEquals(2, result.getRunDurations().getCount());
+			assertTrue(result.getPeakHeapUsedBytes() > 0);
+			assertTrue(result.toString().contains("events/s"));
+		}
+	}
+
+	public void testExceptionReportsLetRunsFail() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			sos.setErrorRate(1);
+
+			LoadTest loadTest = new LoadTest(createConverter());
+			loadTest.setNumberOfRuns(2);
+
+			LoadTestResult result = loadTest.run(sos.getURL());
+
+			assertEquals(2, result.getNumberOfFailedRuns());
+			assertEquals(0, result.getNumberOfInsertedObservations());
+			assertNotNull(result.getFirstFailure());
+			assertEquals(2, sos.getExceptionReports());
+		}
+	}
+
+	private static TalsimSosConverter createConverter() {
+		TalsimSosConverter converter = new TalsimSosConverter();
+		converter.setAuthorizationToken("loadtest");
+		converter.setProgressReportInterval(0);
+		return converter;
+	}
+
+}
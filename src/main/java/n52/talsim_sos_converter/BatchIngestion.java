@@ -0,0 +1,387 @@
+package n52.talsim_sos_converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import n52.talsim_sos_converter.helper.ResourceLoader;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+import n52.talsim_sos_converter.helper.TalsimStation;
+import n52.talsim_sos_converter.helper.TalsimStreamReader;
+
+/**
+ * Inserts many TalsimResult files, e.g. a whole archive after a model
+ * recalibration, into a SOS instance.
+ *
+ * Several files are inserted at the same time, all of them on a shared
+ * {@link ForkJoinPool}: the stations of all files become independent lanes
+ * of work, so idle threads steal the work of large files once the small files
+ * are done. The files are started largest first, so that a large file does
+ * not start last and stretch the total duration. Files containing the same
+ * station are inserted one after another, in the given order (e.g. the
+ * alphabetical order of {@link #listFiles(Path, String)}), as a newer file
+ * would otherwise advance the watermark of a station before an older file has
+ * been inserted, see
+ * {@link TalsimSosConverter#setWatermarkIndex(n52.talsim_sos_converter.helper.SeriesWatermarkIndex)}.
+ * The total number of HTTP requests in flight is limited via
+ * {@link TalsimSosConverter#setMaxInFlightRequests(int)}, so the batch scales
+ * with the number of cores and the capacity of the SOS instance rather than
+ * with the number of files.
+ *
+ * A failing file does not abort the batch; it is reported via the
+ * {@link BatchProgressListener} and the {@link BatchReport}.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class BatchIngestion {
+
+	private static Logger logger = LoggerFactory.getLogger(BatchIngestion.class);
+
+	/**
+	 * pattern of the file names of the TalsimResult files inserted by default
+	 */
+	public static final String DEFAULT_GLOB = "*.xml";
+
+	private final TalsimSosConverter converter;
+	private final URL sosURL;
+	private final ForkJoinPool pool;
+
+	private int maxConcurrentFiles;
+	private BatchProgressListener progressListener = BatchProgressListener.NONE;
+
+	/**
+	 * @param converter
+	 *            the converter shared by all files; its limit of the HTTP
+	 *            requests in flight applies to the whole batch
+	 * @param sosURL
+	 *            URL to the SOS-T (transactional SOS instance)
+	 * @param pool
+	 *            the pool that parses the files and sends the requests. As
+	 *            sending a request blocks a thread, its parallelism should be
+	 *            at least the maximum number of requests in flight.
+	 */
+	public BatchIngestion(TalsimSosConverter converter, URL sosURL, ForkJoinPool pool) {
+		this.converter = converter;
+		this.sosURL = sosURL;
+		this.pool = pool;
+		this.maxConcurrentFiles = pool.getParallelism();
+	}
+
+	/**
+	 * Sets the number of files inserted at the same time. More files keep
+	 * more stations busy, but each file holds an open file handle and up to
+	 * {@link TalsimSosConverter#setMaxPendingObservations(int)} parsed
+	 * observations.
+	 *
+	 * @param maxConcurrentFiles
+	 *            a positive number, default is the parallelism of the pool
+	 */
+	public void setMaxConcurrentFiles(int maxConcurrentFiles) {
+		if (maxConcurrentFiles < 1)
+			throw new IllegalArgumentException("maxConcurrentFiles must be positive");
+
+		this.maxConcurrentFiles = maxConcurrentFiles;
+	}
+
+	/**
+	 * @param progressListener
+	 *            receives a notification per file, may be {@code null}
+	 */
+	public void setProgressListener(BatchProgressListener progressListener) {
+		this.progressListener = progressListener != null ? progressListener : BatchProgressListener.NONE;
+	}
+
+	/**
+	 * @param directory
+	 *            the directory containing the TalsimResult files;
+	 *            subdirectories are not searched
+	 * @param glob
+	 *            pattern of the file names, e.g. {@value #DEFAULT_GLOB}
+	 * @return the matching files in alphabetical order
+	 * @throws IOException
+	 */
+	public static List<Path> listFiles(Path directory, String glob) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, glob)) {
+			for (Path entry : entries) {
+				if (Files.isRegularFile(entry))
+					files.add(entry);
+			}
+		}
+
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Inserts all files of {@code directory} matching {@code glob}.
+	 *
+	 * @see #insertAsync(List)
+	 */
+	public CompletableFuture<BatchReport> insertAsync(Path directory, String glob) {
+		try {
+			return insertAsync(listFiles(directory, glob));
+		} catch (IOException e) {
+			CompletableFuture<BatchReport> failed = new CompletableFuture<BatchReport>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+	}
+
+	/**
+	 * Inserts the given files.
+	 *
+	 * @param talsimFiles
+	 *            the TalsimResult files
+	 * @return a {@link CompletableFuture} that is completed once all files
+	 *         have been processed, successfully or not. Cancelling it cancels
+	 *         the files in progress and does not start any further file.
+	 */
+	public CompletableFuture<BatchReport> insertAsync(List<Path> talsimFiles) {
+		return new Batch(talsimFiles).start();
+	}
+
+	/**
+	 * @return the stations of the TalsimResult file or an empty set if its
+	 *         headers could not be read
+	 */
+	private static Set<TalsimStation> readStations(Path talsimFile) {
+		Set<TalsimStation> stations = new HashSet<TalsimStation>();
+
+		try (InputStream talsimOutput = Files.newInputStream(talsimFile)) {
+			for (TalsimSeriesHeader header : TalsimStreamReader.readAllHeaders(talsimOutput))
+				stations.add(TalsimStation.of(header));
+		} catch (Exception e) {
+			// the insertion of the file fails and reports the cause
+			stations.clear();
+		}
+
+		return stations;
+	}
+
+	/**
+	 * State of a single call of {@link BatchIngestion#insertAsync(List)}.
+	 */
+	private class Batch {
+
+		private final long startTimeMillis = System.currentTimeMillis();
+		private final int numberOfFiles;
+
+		// guarded by this, largest files first
+		private final List<Path> pendingFiles = new ArrayList<Path>();
+		private final Map<Path, Set<TalsimStation>> stationsByFile = new HashMap<Path, Set<TalsimStation>>();
+		// the pending files of each station in the given order
+		private final Map<TalsimStation, Queue<Path>> pendingFilesByStation = new HashMap<TalsimStation, Queue<Path>>();
+		private final Set<TalsimStation> busyStations = new HashSet<TalsimStation>();
+		private int numberOfRunningFiles = 0;
+
+		private final Map<Path, CompletableFuture<IngestionReport>> runningFiles = new ConcurrentHashMap<Path, CompletableFuture<IngestionReport>>();
+		private final AtomicInteger numberOfProcessedFiles = new AtomicInteger();
+
+		private final Map<Path, IngestionReport> reports = new LinkedHashMap<Path, IngestionReport>();
+		private final Map<Path, Throwable> failures = new LinkedHashMap<Path, Throwable>();
+
+		private final CompletableFuture<BatchReport> result = new CompletableFuture<BatchReport>();
+
+		private Batch(List<Path> talsimFiles) {
+			this.numberOfFiles = talsimFiles.size();
+
+			// largest files first
+			Map<Path, Long> sizes = new HashMap<Path, Long>();
+			for (Path talsimFile : talsimFiles) {
+				try {
+					sizes.put(talsimFile, Files.size(talsimFile));
+				} catch (IOException e) {
+					// the insertion of the file fails and reports the cause
+					sizes.put(talsimFile, 0L);
+				}
+			}
+
+			List<Path> sortedFiles = new ArrayList<Path>(talsimFiles);
+			sortedFiles.sort(Comparator.comparing(sizes::get, Comparator.reverseOrder()));
+			pendingFiles.addAll(sortedFiles);
+
+			for (Path talsimFile : talsimFiles) {
+				Set<TalsimStation> stations = readStations(talsimFile);
+				stationsByFile.put(talsimFile, stations);
+
+				for (TalsimStation station : stations)
+					pendingFilesByStation.computeIfAbsent(station, key -> new ArrayDeque<Path>()).add(talsimFile);
+			}
+		}
+
+		private CompletableFuture<BatchReport> start() {
+			if (logger.isInfoEnabled())
+				logger.info("Inserting {} TalsimResult file(s) into SOS instance with URL '{}', {} at a time.",
+						numberOfFiles, sosURL, maxConcurrentFiles);
+
+			result.whenComplete((report, throwable) -> {
+				if (result.isCancelled()) {
+					synchronized (this) {
+						pendingFiles.clear();
+					}
+					for (CompletableFuture<IngestionReport> runningFile : runningFiles.values())
+						runningFile.cancel(true);
+				}
+			});
+
+			if (numberOfFiles == 0)
+				complete();
+
+			startNextFiles();
+
+			return result;
+		}
+
+		/**
+		 * Starts the largest pending files whose stations are not being
+		 * inserted and whose older files of the same stations are done, until
+		 * {@code maxConcurrentFiles} files are running.
+		 */
+		private void startNextFiles() {
+			List<Path> startedFiles = new ArrayList<Path>();
+
+			synchronized (this) {
+				Iterator<Path> pending = pendingFiles.iterator();
+				while (numberOfRunningFiles < maxConcurrentFiles && pending.hasNext()) {
+					Path talsimFile = pending.next();
+					if (!isStartable(talsimFile))
+						continue;
+
+					pending.remove();
+					for (TalsimStation station : stationsByFile.get(talsimFile)) {
+						pendingFilesByStation.get(station).remove();
+						busyStations.add(station);
+					}
+					numberOfRunningFiles++;
+					startedFiles.add(talsimFile);
+				}
+			}
+
+			for (Path talsimFile : startedFiles)
+				startFile(talsimFile);
+		}
+
+		private boolean isStartable(Path talsimFile) {
+			for (TalsimStation station : stationsByFile.get(talsimFile)) {
+				if (busyStations.contains(station) || pendingFilesByStation.get(station).peek() != talsimFile)
+					return false;
+			}
+			return true;
+		}
+
+		private void startFile(Path talsimFile) {
+			progressListener.onFileStarted(talsimFile);
+
+			CompletableFuture<IngestionReport> fileResult = converter.insertOutputToSOSAsync(talsimFile, sosURL,
+					pool, IngestionProgressListener.NONE);
+			runningFiles.put(talsimFile, fileResult);
+
+			fileResult.whenComplete((report, throwable) -> {
+				runningFiles.remove(talsimFile);
+
+				if (throwable == null)
+					onFileCompleted(talsimFile, report);
+				else
+					onFileFailed(talsimFile, throwable);
+
+				synchronized (this) {
+					busyStations.removeAll(stationsByFile.get(talsimFile));
+					numberOfRunningFiles--;
+				}
+
+				if (numberOfProcessedFiles.incrementAndGet() == numberOfFiles)
+					complete();
+				else if (!result.isDone())
+					startNextFiles();
+			});
+		}
+
+		private void onFileCompleted(Path talsimFile, IngestionReport report) {
+			synchronized (this) {
+				reports.put(talsimFile, report);
+			}
+
+			if (logger.isInfoEnabled())
+				logger.info("Inserted file '{}': {}", talsimFile, report);
+
+			progressListener.onFileCompleted(talsimFile, report);
+		}
+
+		private void onFileFailed(Path talsimFile, Throwable throwable) {
+			if (throwable instanceof CompletionException && throwable.getCause() != null)
+				throwable = throwable.getCause();
+
+			synchronized (this) {
+				failures.put(talsimFile, throwable);
+			}
+
+			if (logger.isErrorEnabled())
+				logger.error("Insertion of file '{}' failed.", talsimFile, throwable);
+
+			progressListener.onFileFailed(talsimFile, throwable);
+		}
+
+		private synchronized void complete() {
+			BatchReport report = new BatchReport(new LinkedHashMap<Path, IngestionReport>(reports),
+					new LinkedHashMap<Path, Throwable>(failures), startTimeMillis, System.currentTimeMillis());
+
+			if (logger.isInfoEnabled())
+				logger.info("Batch insertion finished: {}", report);
+
+			result.complete(report);
+		}
+
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: BatchIngestion <sosURL> <directory> [glob] [maxInFlightRequests]");
+			System.exit(2);
+		}
+
+		String glob = args.length > 2 ? args[2] : DEFAULT_GLOB;
+		int maxInFlightRequests = args.length > 3 ? Integer.parseInt(args[3])
+				: 4 * Runtime.getRuntime().availableProcessors();
+
+		TalsimSosConverter converter = new TalsimSosConverter();
+		converter.setAuthorizationToken(ResourceLoader.fetchAuthorizationToken());
+		converter.setMaxInFlightRequests(maxInFlightRequests);
+
+		ForkJoinPool pool = new ForkJoinPool(
+				Math.max(Runtime.getRuntime().availableProcessors(), maxInFlightRequests));
+
+		BatchReport report = new BatchIngestion(converter, new URL(args[0]), pool)
+				.insertAsync(Paths.get(args[1]), glob).get();
+
+		pool.shutdown();
+		System.exit(report.isSuccessful() ? 0 : 1);
+	}
+
+}
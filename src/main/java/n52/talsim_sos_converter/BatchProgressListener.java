@@ -0,0 +1,55 @@
+package n52.talsim_sos_converter;
+
+import java.nio.file.Path;
+
+/**
+ * Callback interface to follow the progress of a {@link BatchIngestion} file
+ * by file.
+ *
+ * All methods have an empty default implementation. As several files are
+ * inserted at the same time, callbacks concerning different files may be
+ * invoked concurrently.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public interface BatchProgressListener {
+
+	/**
+	 * A listener that ignores all progress notifications.
+	 */
+	BatchProgressListener NONE = new BatchProgressListener() {
+	};
+
+	/**
+	 * Called before the insertion of a file starts.
+	 *
+	 * @param talsimFile
+	 *            the TalsimResult file
+	 */
+	default void onFileStarted(Path talsimFile) {
+	}
+
+	/**
+	 * Called after a file has been inserted.
+	 *
+	 * @param talsimFile
+	 *            the TalsimResult file
+	 * @param report
+	 *            the report of the insertion of the file
+	 */
+	default void onFileCompleted(Path talsimFile, IngestionReport report) {
+	}
+
+	/**
+	 * Called after the insertion of a file failed. The other files of the
+	 * batch are inserted nevertheless.
+	 *
+	 * @param talsimFile
+	 *            the TalsimResult file
+	 * @param failure
+	 *            the cause of the failure
+	 */
+	default void onFileFailed(Path talsimFile, Throwable failure) {
+	}
+}
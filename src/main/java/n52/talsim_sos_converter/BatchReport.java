@@ -0,0 +1,76 @@
+package n52.talsim_sos_converter;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Outcome of a {@link BatchIngestion}: the {@link IngestionReport} of each
+ * inserted file and the failure of each file that could not be inserted.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class BatchReport {
+
+	private final Map<Path, IngestionReport> reports;
+	private final Map<Path, Throwable> failures;
+	private final long startTimeMillis;
+	private final long endTimeMillis;
+
+	BatchReport(Map<Path, IngestionReport> reports, Map<Path, Throwable> failures, long startTimeMillis,
+			long endTimeMillis) {
+		this.reports = Collections.unmodifiableMap(reports);
+		this.failures = Collections.unmodifiableMap(failures);
+		this.startTimeMillis = startTimeMillis;
+		this.endTimeMillis = endTimeMillis;
+	}
+
+	/**
+	 * @return the reports of the inserted files
+	 */
+	public Map<Path, IngestionReport> getReports() {
+		return reports;
+	}
+
+	/**
+	 * @return the cause of the failure of each file that could not be
+	 *         inserted
+	 */
+	public Map<Path, Throwable> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return {@code true} if all files have been inserted
+	 */
+	public boolean isSuccessful() {
+		return failures.isEmpty();
+	}
+
+	/**
+	 * @return the number of InsertObservation requests accepted by the SOS
+	 *         instance for all files
+	 */
+	public long getNumberOfInsertedObservations() {
+		long numberOfInsertedObservations = 0;
+		for (IngestionReport report : reports.values())
+			numberOfInsertedObservations += report.getNumberOfInsertedObservations();
+		return numberOfInsertedObservations;
+	}
+
+	/**
+	 * @return the wall clock time of the whole batch in milliseconds
+	 */
+	public long getDurationMillis() {
+		return endTimeMillis - startTimeMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "BatchReport [numberOfInsertedFiles=" + reports.size() + ", numberOfFailedFiles=" + failures.size()
+				+ ", numberOfInsertedObservations=" + getNumberOfInsertedObservations() + ", durationMillis="
+				+ getDurationMillis() + "]";
+	}
+
+}
@@ -0,0 +1,211 @@
+package n52.talsim_sos_converter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import n52.talsim_sos_converter.helper.IngestionJournal;
+import n52.talsim_sos_converter.helper.IngestionMetrics;
+import n52.talsim_sos_converter.helper.RequestRateLimiter;
+import n52.talsim_sos_converter.helper.TalsimStation;
+
+/**
+ * Holds the state of a single insertion run: the registered
+ * {@link IngestionProgressListener}, the cancellation flag and the counters
+ * that end up in the {@link IngestionReport}.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+class IngestionContext {
+
+	private IngestionProgressListener progressListener;
+
+	private volatile boolean cancelled = false;
+
+	private IngestionJournal journal = null;
+	private boolean recordingProgress = true;
+	private RequestRateLimiter rateLimiter = null;
+	private RequestGate requestGate = null;
+
+	private final AtomicInteger numberOfSeries = new AtomicInteger();
+	private final AtomicInteger numberOfInsertedObservations = new AtomicInteger();
+	private final AtomicInteger numberOfSkippedObservations = new AtomicInteger();
+	private final AtomicInteger numberOfSuppressedObservations = new AtomicInteger();
+
+	private final IngestionMetrics metrics = new IngestionMetrics();
+
+	private Set<TalsimStation> registeredStations = ConcurrentHashMap.newKeySet();
+
+	IngestionContext(IngestionProgressListener progressListener) {
+		this.progressListener = progressListener != null ? progressListener : IngestionProgressListener.NONE;
+	}
+
+	IngestionProgressListener getProgressListener() {
+		return progressListener;
+	}
+
+	/**
+	 * Replaces the listener, e.g. by one that wraps it. Must be called before
+	 * the insertion starts.
+	 */
+	void setProgressListener(IngestionProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * @return the journal of the insertion run or {@code null} if the run is
+	 *         not journaled
+	 */
+	IngestionJournal getJournal() {
+		return journal;
+	}
+
+	void setJournal(IngestionJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @return {@code false} if the run must not advance watermarks or write
+	 *         to its journal, e.g. as it inserts only part of the series
+	 */
+	boolean isRecordingProgress() {
+		return recordingProgress;
+	}
+
+	void setRecordingProgress(boolean recordingProgress) {
+		this.recordingProgress = recordingProgress;
+	}
+
+	/**
+	 * @return the limiter of the InsertObservation requests of the run, or
+	 *         {@code null} if not limited
+	 */
+	RequestRateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	void setRateLimiter(RequestRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * @return the gate every HTTP request of the run has to pass, or
+	 *         {@code null} if the run is not scheduled
+	 */
+	RequestGate getRequestGate() {
+		return requestGate;
+	}
+
+	void setRequestGate(RequestGate requestGate) {
+		this.requestGate = requestGate;
+	}
+
+	/**
+	 * @return the stations whose InsertSensor request has been acknowledged
+	 *         by the SOS instance during this run, or during another pass over
+	 *         the same file sharing the set
+	 */
+	Set<TalsimStation> getRegisteredStations() {
+		return registeredStations;
+	}
+
+	/**
+	 * Shares the registered stations with another pass over the same file.
+	 * Must be called before the insertion starts.
+	 */
+	void setRegisteredStations(Set<TalsimStation> registeredStations) {
+		this.registeredStations = registeredStations;
+	}
+
+	/**
+	 * @return the measurements of the insertion run
+	 */
+	IngestionMetrics getMetrics() {
+		return metrics;
+	}
+
+	void cancel() {
+		this.cancelled = true;
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @throws CancellationException
+	 *             if the insertion run has been cancelled
+	 */
+	void throwIfCancelled() {
+		if (cancelled)
+			throw new CancellationException("Insertion of TalsimResult has been cancelled.");
+	}
+
+	/**
+	 * Wraps {@code input} so that any read operation fails as soon as the
+	 * insertion run is cancelled. This aborts the parsing of the TalsimResult
+	 * without having to wait for the end of the document.
+	 */
+	InputStream wrapCancellable(InputStream input) {
+		return new FilterInputStream(input) {
+
+			@Override
+			public int read() throws IOException {
+				checkNotCancelled();
+				return super.read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				checkNotCancelled();
+				return super.read(b, off, len);
+			}
+
+			private void checkNotCancelled() throws InterruptedIOException {
+				if (cancelled)
+					throw new InterruptedIOException("Parsing of TalsimResult has been cancelled.");
+			}
+		};
+	}
+
+	void incrementNumberOfSeries() {
+		numberOfSeries.incrementAndGet();
+	}
+
+	int getNumberOfSeries() {
+		return numberOfSeries.get();
+	}
+
+	void incrementInsertedObservations() {
+		numberOfInsertedObservations.incrementAndGet();
+		metrics.incrementInsertedObservations();
+	}
+
+	int getNumberOfInsertedObservations() {
+		return numberOfInsertedObservations.get();
+	}
+
+	void incrementSkippedObservations() {
+		numberOfSkippedObservations.incrementAndGet();
+		metrics.incrementSkippedObservations();
+	}
+
+	int getNumberOfSkippedObservations() {
+		return numberOfSkippedObservations.get();
+	}
+
+	void addSuppressedObservations(int number) {
+		numberOfSuppressedObservations.addAndGet(number);
+	}
+
+	int getNumberOfSuppressedObservations() {
+		return numberOfSuppressedObservations.get();
+	}
+
+}
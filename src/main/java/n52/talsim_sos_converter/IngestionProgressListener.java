@@ -0,0 +1,75 @@
+package n52.talsim_sos_converter;
+
+import n52.talsim_sos_converter.helper.TalsimObservation;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+
+/**
+ * Callback interface to follow the progress of an (asynchronous) insertion of
+ * a TalsimResult into a SOS instance, e.g. started via
+ * {@link TalsimSosConverter#insertOutputToSOSAsync(java.io.InputStream, java.net.URL, java.util.concurrent.Executor, IngestionProgressListener)}.
+ *
+ * All methods have an empty default implementation, so implementors only have
+ * to override the callbacks they are interested in. Callbacks are invoked on
+ * the thread that performs the insertion and should therefore return quickly.
+ * As the stations of a TalsimResult are inserted independently of each other,
+ * callbacks concerning different stations may be invoked concurrently.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public interface IngestionProgressListener {
+
+	/**
+	 * A listener that ignores all progress notifications.
+	 */
+	IngestionProgressListener NONE = new IngestionProgressListener() {
+	};
+
+	/**
+	 * Called after the SOS instance accepted the InsertSensor request.
+	 *
+	 * @param procedureIdentifier
+	 *            the identifier of the inserted procedure (station)
+	 */
+	default void onSensorInserted(String procedureIdentifier) {
+	}
+
+	/**
+	 * Called before the first InsertObservation request of a "series" node is
+	 * sent.
+	 *
+	 * @param header
+	 *            the header of the "series" node
+	 */
+	default void onSeriesStarted(TalsimSeriesHeader header) {
+	}
+
+	/**
+	 * Called after the SOS instance accepted a single InsertObservation
+	 * request.
+	 *
+	 * @param observation
+	 *            the inserted observation
+	 */
+	default void onObservationInserted(TalsimObservation observation) {
+	}
+
+	/**
+	 * Called after all InsertObservation requests of a "series" node were
+	 * accepted.
+	 *
+	 * @param header
+	 *            the header of the "series" node
+	 */
+	default void onSeriesCompleted(TalsimSeriesHeader header) {
+	}
+
+	/**
+	 * Called once the whole TalsimResult has been parsed and inserted.
+	 *
+	 * @param numberOfSeries
+	 *            the number of "series" nodes within the TalsimResult
+	 */
+	default void onTalsimResultCompleted(int numberOfSeries) {
+	}
+}
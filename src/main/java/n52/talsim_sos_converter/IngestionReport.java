@@ -0,0 +1,251 @@
+package n52.talsim_sos_converter;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import n52.talsim_sos_converter.helper.IngestionFailure;
+import n52.talsim_sos_converter.helper.IngestionMetrics;
+import n52.talsim_sos_converter.helper.IngestionStage;
+import n52.talsim_sos_converter.helper.LatencyHistogram;
+import n52.talsim_sos_converter.helper.SosRequestType;
+import n52.talsim_sos_converter.helper.StageTiming;
+
+/**
+ * Outcome of a successful insertion of a TalsimResult into a SOS instance:
+ * what has been parsed, inserted and skipped, what has been sent to the SOS
+ * instance and where the time has been spent.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class IngestionReport {
+
+	private final URL sosURL;
+	private final int numberOfSeries;
+	private final int numberOfInsertedObservations;
+	private final int numberOfSuppressedObservations;
+	private final int numberOfSkippedObservations;
+	private final long startTimeMillis;
+	private final long endTimeMillis;
+
+	private final long numberOfParsedEvents;
+	private final long numberOfFilteredEvents;
+	private final Map<SosRequestType, Long> numberOfRequests = new EnumMap<SosRequestType, Long>(
+			SosRequestType.class);
+	private final long numberOfBytesSent;
+	private final Map<IngestionStage, StageTiming> stageTimings = new EnumMap<IngestionStage, StageTiming>(
+			IngestionStage.class);
+	private final LatencyHistogram responseTimes;
+	private final Map<String, Long> allocatedBytesPerThread;
+	private final List<IngestionFailure> failures;
+
+	public IngestionReport(URL sosURL, int numberOfSeries, int numberOfInsertedObservations,
+			int numberOfSuppressedObservations, long startTimeMillis, long endTimeMillis) {
+		this(sosURL, numberOfSeries, numberOfInsertedObservations, numberOfSuppressedObservations, 0,
+				startTimeMillis, endTimeMillis, new IngestionMetrics());
+	}
+
+	/**
+	 * @param metrics
+	 *            the measurements of the insertion run; they are copied, so
+	 *            later measurements do not change the report
+	 */
+	public IngestionReport(URL sosURL, int numberOfSeries, int numberOfInsertedObservations,
+			int numberOfSuppressedObservations, int numberOfSkippedObservations, long startTimeMillis,
+			long endTimeMillis, IngestionMetrics metrics) {
+		this.sosURL = sosURL;
+		this.numberOfSeries = numberOfSeries;
+		this.numberOfInsertedObservations = numberOfInsertedObservations;
+		this.numberOfSuppressedObservations = numberOfSuppressedObservations;
+		this.numberOfSkippedObservations = numberOfSkippedObservations;
+		this.startTimeMillis = startTimeMillis;
+		this.endTimeMillis = endTimeMillis;
+
+		this.numberOfParsedEvents = metrics.getNumberOfParsedEvents();
+		this.numberOfFilteredEvents = metrics.getNumberOfFilteredEvents();
+		for (SosRequestType type : SosRequestType.values())
+			numberOfRequests.put(type, metrics.getNumberOfRequests(type));
+		this.numberOfBytesSent = metrics.getNumberOfBytesSent();
+		for (IngestionStage stage : IngestionStage.values())
+			stageTimings.put(stage, metrics.getStageTiming(stage));
+		this.responseTimes = metrics.getResponseTimes();
+		this.allocatedBytesPerThread = Collections.unmodifiableMap(metrics.getAllocatedBytesPerThread());
+		this.failures = Collections.unmodifiableList(metrics.getFailures());
+	}
+
+	/**
+	 * @return the URL of the SOS instance the TalsimResult was inserted into
+	 */
+	public URL getSosURL() {
+		return sosURL;
+	}
+
+	/**
+	 * @return the number of processed "series" nodes
+	 */
+	public int getNumberOfSeries() {
+		return numberOfSeries;
+	}
+
+	/**
+	 * @return the number of "event" nodes parsed from the TalsimResult,
+	 *         excluding those dropped by a
+	 *         {@link n52.talsim_sos_converter.helper.TalsimEventFilter}
+	 */
+	public long getNumberOfParsedEvents() {
+		return numberOfParsedEvents;
+	}
+
+	/**
+	 * @return the number of "event" nodes dropped by a
+	 *         {@link n52.talsim_sos_converter.helper.TalsimEventFilter}
+	 */
+	public long getNumberOfFilteredEvents() {
+		return numberOfFilteredEvents;
+	}
+
+	/**
+	 * @return the number of InsertObservation requests accepted by the SOS
+	 *         instance
+	 */
+	public int getNumberOfInsertedObservations() {
+		return numberOfInsertedObservations;
+	}
+
+	/**
+	 * @return the number of observations not inserted because they were
+	 *         within the deadband of their series, see
+	 *         {@link n52.talsim_sos_converter.helper.DeadbandFilter}
+	 */
+	public int getNumberOfSuppressedObservations() {
+		return numberOfSuppressedObservations;
+	}
+
+	/**
+	 * @return the number of observations not inserted because the SOS
+	 *         instance already holds them, e.g. according to a watermark or a
+	 *         journal
+	 */
+	public int getNumberOfSkippedObservations() {
+		return numberOfSkippedObservations;
+	}
+
+	/**
+	 * @return the number of requests answered by the SOS instance
+	 */
+	public long getNumberOfRequests() {
+		long total = 0;
+		for (long number : numberOfRequests.values())
+			total += number;
+		return total;
+	}
+
+	/**
+	 * @return the number of requests of the given kind answered by the SOS
+	 *         instance
+	 */
+	public long getNumberOfRequests(SosRequestType type) {
+		return numberOfRequests.get(type);
+	}
+
+	/**
+	 * @return the size of all request bodies sent to the SOS instance
+	 */
+	public long getNumberOfBytesSent() {
+		return numberOfBytesSent;
+	}
+
+	/**
+	 * @return the time spent within the given stage, summed over all threads
+	 */
+	public StageTiming getStageTiming(IngestionStage stage) {
+		return stageTimings.get(stage);
+	}
+
+	/**
+	 * @param percentile
+	 *            the percentile between 0 and 100, e.g. 99
+	 * @return the response time of the SOS instance below which
+	 *         {@code percentile} percent of the requests were answered, in
+	 *         milliseconds
+	 */
+	public double getResponseTimePercentileMillis(double percentile) {
+		return responseTimes.getPercentileNanos(percentile) / 1000000d;
+	}
+
+	/**
+	 * @return the response times of all requests, e.g. to combine the
+	 *         reports of several files
+	 */
+	public LatencyHistogram getResponseTimes() {
+		return responseTimes.copy();
+	}
+
+	/**
+	 * @return the bytes allocated by each thread while parsing, building,
+	 *         sending and verifying; empty if the JVM does not support
+	 *         measuring allocations
+	 */
+	public Map<String, Long> getAllocatedBytesPerThread() {
+		return allocatedBytesPerThread;
+	}
+
+	/**
+	 * @return the bytes allocated by all threads while parsing, building,
+	 *         sending and verifying
+	 */
+	public long getAllocatedBytes() {
+		long total = 0;
+		for (long allocatedBytes : allocatedBytesPerThread.values())
+			total += allocatedBytes;
+		return total;
+	}
+
+	/**
+	 * @return the failures that did not abort the insertion, e.g. a series
+	 *         whose data availability could not be determined
+	 */
+	public List<IngestionFailure> getFailures() {
+		return failures;
+	}
+
+	public long getStartTimeMillis() {
+		return startTimeMillis;
+	}
+
+	public long getEndTimeMillis() {
+		return endTimeMillis;
+	}
+
+	/**
+	 * @return the wall clock time of the whole insertion in milliseconds
+	 */
+	public long getDurationMillis() {
+		return endTimeMillis - startTimeMillis;
+	}
+
+	/**
+	 * @return the number of inserted observations per second of the whole
+	 *         insertion
+	 */
+	public double getObservationsPerSecond() {
+		return numberOfInsertedObservations * 1000d / Math.max(1, getDurationMillis());
+	}
+
+	@Override
+	public String toString() {
+		return "IngestionReport [sosURL=" + sosURL + ", numberOfSeries=" + numberOfSeries
+				+ ", numberOfParsedEvents=" + numberOfParsedEvents + ", numberOfInsertedObservations="
+				+ numberOfInsertedObservations + ", numberOfSuppressedObservations=" + numberOfSuppressedObservations
+				+ ", numberOfSkippedObservations=" + numberOfSkippedObservations + ", numberOfRequests="
+				+ getNumberOfRequests() + ", numberOfBytesSent=" + numberOfBytesSent + ", responseTimeP50Millis="
+				+ getResponseTimePercentileMillis(50) + ", responseTimeP99Millis="
+				+ getResponseTimePercentileMillis(99) + ", stageTimings=" + stageTimings + ", allocatedBytes="
+				+ getAllocatedBytes() + ", numberOfFailures=" + failures.size() + ", durationMillis="
+				+ getDurationMillis() + "]";
+	}
+
+}
@@ -0,0 +1,468 @@
+package n52.talsim_sos_converter;
+
+import java.io.Closeable;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import n52.talsim_sos_converter.helper.MetricsRegistry;
+
+/**
+ * Queues the ingestion jobs of several teams that share the same SOS
+ * instances, so that a large backfill cannot starve the operational
+ * ingestion:
+ * <ul>
+ * <li>each SOS endpoint has a quota: a maximum number of requests in flight
+ * and optionally a maximum request rate, enforced across all jobs</li>
+ * <li>the capacity of an endpoint is shared between the jobs by weighted
+ * fair queuing: each request of a job is tagged with a virtual finish time
+ * that advances by {@code 1 / weight} per request, and the waiting request
+ * with the smallest tag is sent next. A job with twice the weight gets twice
+ * the requests of a busy endpoint.</li>
+ * <li>as the requests of a station are sent one after another, a job often
+ * has a single request waiting. To let the weights take effect nevertheless,
+ * the endpoint anticipates the next request of a job whose request has just
+ * been answered: for up to {@value #ANTICIPATION_MICROS} µs, it is not
+ * passed by a request with a later tag.</li>
+ * <li>requests of {@link Priority#URGENT} jobs are sent before those of
+ * {@link Priority#NORMAL} jobs, which are sent before those of
+ * {@link Priority#BULK} jobs. Urgent jobs are also started immediately,
+ * regardless of the maximum number of running jobs.</li>
+ * </ul>
+ *
+ * All jobs are inserted by the same {@link TalsimSosConverter}. As requests
+ * waiting for their turn block a thread of the executor, the executor should
+ * not be bounded below the number of stations of all running jobs, e.g. a
+ * cached thread pool.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class IngestionScheduler implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(IngestionScheduler.class);
+
+	/**
+	 * default maximum number of requests in flight to an endpoint without an
+	 * explicit quota
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 8;
+
+	/**
+	 * default maximum number of running jobs
+	 */
+	public static final int DEFAULT_MAX_RUNNING_JOBS = 4;
+
+	/**
+	 * maximum time an endpoint waits for the next request of the job whose
+	 * request has just been answered
+	 */
+	static final long ANTICIPATION_MICROS = 5000;
+
+	/**
+	 * Priority classes of the jobs, highest first.
+	 */
+	public enum Priority {
+		/**
+		 * e.g. the operational forecast
+		 */
+		URGENT,
+
+		NORMAL,
+
+		/**
+		 * e.g. the backfill of an archive
+		 */
+		BULK
+	}
+
+	private final TalsimSosConverter converter;
+	private final Executor executor;
+
+	// keyed by the external form, URL#equals and URL#hashCode resolve the host
+	private final Map<String, EndpointQueue> endpoints = new HashMap<String, EndpointQueue>();
+	private int maxRunningJobs = DEFAULT_MAX_RUNNING_JOBS;
+
+	private final PriorityQueue<Job> pendingJobs = new PriorityQueue<Job>();
+	private int numberOfRunningJobs = 0;
+	private final AtomicLong jobSequence = new AtomicLong();
+	private boolean closed = false;
+
+	private MetricsRegistry metricsRegistry = null;
+
+	/**
+	 * @param converter
+	 *            the converter that inserts all jobs
+	 * @param executor
+	 *            the {@link Executor} that performs the insertions
+	 */
+	public IngestionScheduler(TalsimSosConverter converter, Executor executor) {
+		this.converter = converter;
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the quota of a SOS endpoint. Endpoints without a quota may receive
+	 * {@value #DEFAULT_MAX_CONCURRENT_REQUESTS} concurrent requests at any
+	 * rate.
+	 *
+	 * @param sosURL
+	 *            URL of the SOS instance
+	 * @param maxConcurrentRequests
+	 *            maximum number of requests in flight to the SOS instance
+	 * @param requestsPerSecond
+	 *            maximum rate of requests to the SOS instance, or 0 for no
+	 *            limit
+	 */
+	public synchronized void setEndpointQuota(URL sosURL, int maxConcurrentRequests, double requestsPerSecond) {
+		if (maxConcurrentRequests < 1 || requestsPerSecond < 0)
+			throw new IllegalArgumentException(
+					"maxConcurrentRequests must be positive and requestsPerSecond must not be negative");
+
+		getEndpointQueue(sosURL).setQuota(maxConcurrentRequests, requestsPerSecond);
+	}
+
+	/**
+	 * @param maxRunningJobs
+	 *            maximum number of jobs being inserted at the same time,
+	 *            urgent jobs excluded; default is
+	 *            {@value #DEFAULT_MAX_RUNNING_JOBS}
+	 */
+	public synchronized void setMaxRunningJobs(int maxRunningJobs) {
+		if (maxRunningJobs < 1)
+			throw new IllegalArgumentException("maxRunningJobs must be positive");
+
+		this.maxRunningJobs = maxRunningJobs;
+		startPendingJobs();
+	}
+
+	/**
+	 * Publishes the number of pending and running jobs and, for each
+	 * endpoint, the number of waiting requests and requests in flight.
+	 *
+	 * @param metricsRegistry
+	 *            the registry of the live metrics
+	 */
+	public synchronized void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+
+		metricsRegistry.registerGauge("talsim_scheduler_jobs", "Ingestion jobs of the scheduler",
+				this::getNumberOfPendingJobs, "state", "pending");
+		metricsRegistry.registerGauge("talsim_scheduler_jobs", "Ingestion jobs of the scheduler",
+				this::getNumberOfRunningJobs, "state", "running");
+
+		for (Map.Entry<String, EndpointQueue> endpoint : endpoints.entrySet())
+			endpoint.getValue().registerMetrics(metricsRegistry, endpoint.getKey());
+	}
+
+	private synchronized long getNumberOfPendingJobs() {
+		return pendingJobs.size();
+	}
+
+	private synchronized long getNumberOfRunningJobs() {
+		return numberOfRunningJobs;
+	}
+
+	/**
+	 * Queues the insertion of a TalsimResult file.
+	 *
+	 * @param talsimFile
+	 *            path to a TASLIM XML output file
+	 * @param sosURL
+	 *            URL to the SOS-T (transactional SOS instance)
+	 * @param priority
+	 *            the priority class of the job
+	 * @param weight
+	 *            share of the job within its priority class, e.g. 1
+	 * @param progressListener
+	 *            receives progress notifications, may be {@code null}
+	 * @return a {@link CompletableFuture} that is completed once the job has
+	 *         been inserted. Cancelling it removes a pending job from the
+	 *         queue or cancels a running one.
+	 */
+	public synchronized CompletableFuture<IngestionReport> submit(Path talsimFile, URL sosURL, Priority priority,
+			double weight, IngestionProgressListener progressListener) {
+		if (!(weight > 0))
+			throw new IllegalArgumentException("weight must be positive, but was " + weight);
+		if (closed)
+			throw new IllegalStateException("The scheduler has been closed.");
+
+		Job job = new Job(talsimFile, sosURL, priority, weight, progressListener);
+
+		job.result.whenComplete((report, throwable) -> {
+			if (job.result.isCancelled())
+				removePendingJob(job);
+		});
+
+		if (priority == Priority.URGENT) {
+			start(job);
+		} else {
+			pendingJobs.add(job);
+			startPendingJobs();
+		}
+
+		if (logger.isInfoEnabled())
+			logger.info("Queued {} job for file '{}' with weight {}; {} job(s) running, {} pending.", priority,
+					talsimFile, weight, numberOfRunningJobs, pendingJobs.size());
+
+		return job.result;
+	}
+
+	private synchronized void removePendingJob(Job job) {
+		pendingJobs.remove(job);
+	}
+
+	private void startPendingJobs() {
+		while (numberOfRunningJobs < maxRunningJobs && !pendingJobs.isEmpty())
+			start(pendingJobs.poll());
+	}
+
+	private void start(Job job) {
+		numberOfRunningJobs++;
+
+		IngestionContext context = new IngestionContext(job.progressListener);
+		context.setRequestGate(getEndpointQueue(job.sosURL).createGate(job));
+
+		CompletableFuture<IngestionReport> insertion = converter.insertOutputToSOSAsync(job.talsimFile,
+				job.sosURL, executor, context);
+
+		// propagate cancellation of the job to the running insertion
+		job.result.whenComplete((report, throwable) -> {
+			if (job.result.isCancelled())
+				insertion.cancel(true);
+		});
+
+		insertion.whenComplete((report, throwable) -> {
+			if (throwable != null)
+				job.result.completeExceptionally(throwable);
+			else
+				job.result.complete(report);
+
+			onJobFinished();
+		});
+	}
+
+	private synchronized void onJobFinished() {
+		numberOfRunningJobs--;
+		startPendingJobs();
+	}
+
+	private synchronized EndpointQueue getEndpointQueue(URL sosURL) {
+		String endpoint = sosURL.toExternalForm();
+
+		EndpointQueue endpointQueue = endpoints.get(endpoint);
+		if (endpointQueue == null) {
+			endpointQueue = new EndpointQueue();
+			endpoints.put(endpoint, endpointQueue);
+
+			if (metricsRegistry != null)
+				endpointQueue.registerMetrics(metricsRegistry, endpoint);
+		}
+		return endpointQueue;
+	}
+
+	/**
+	 * Cancels all pending jobs. Running jobs are completed.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+
+		for (Job job : pendingJobs.toArray(new Job[0]))
+			job.result.cancel(false);
+		pendingJobs.clear();
+	}
+
+	/**
+	 * A queued ingestion job. Pending jobs are ordered by priority, then by
+	 * submission.
+	 */
+	private class Job implements Comparable<Job> {
+
+		private final Path talsimFile;
+		private final URL sosURL;
+		private final Priority priority;
+		private final double weight;
+		private final IngestionProgressListener progressListener;
+		private final long sequence = jobSequence.incrementAndGet();
+
+		private final CompletableFuture<IngestionReport> result = new CompletableFuture<IngestionReport>();
+
+		// virtual finish time of the latest request of the job, guarded by its EndpointQueue
+		private double lastFinishTag = 0;
+
+		private Job(Path talsimFile, URL sosURL, Priority priority, double weight,
+				IngestionProgressListener progressListener) {
+			this.talsimFile = talsimFile;
+			this.sosURL = sosURL;
+			this.priority = priority;
+			this.weight = weight;
+			this.progressListener = progressListener;
+		}
+
+		@Override
+		public int compareTo(Job other) {
+			int byPriority = priority.compareTo(other.priority);
+			return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+		}
+
+	}
+
+	/**
+	 * The requests waiting for an endpoint, ordered by priority class, then
+	 * by virtual finish time.
+	 */
+	private static class EndpointQueue {
+
+		private int maxConcurrentRequests = DEFAULT_MAX_CONCURRENT_REQUESTS;
+		private long intervalNanos = 0;
+
+		private final PriorityQueue<WaitingRequest> waitingRequests = new PriorityQueue<WaitingRequest>();
+		private int inFlightRequests = 0;
+		private double virtualTime = 0;
+		private long nextPermitNanos = System.nanoTime();
+		private long requestSequence = 0;
+
+		// the job whose next request is anticipated, see ANTICIPATION_MICROS
+		private Job anticipatedJob = null;
+		private long anticipationDeadlineNanos = 0;
+
+		private synchronized void setQuota(int maxConcurrentRequests, double requestsPerSecond) {
+			this.maxConcurrentRequests = maxConcurrentRequests;
+			this.intervalNanos = requestsPerSecond > 0 ? (long) (1000000000L / requestsPerSecond) : 0;
+			notifyAll();
+		}
+
+		private void registerMetrics(MetricsRegistry registry, String endpoint) {
+			registry.registerGauge("talsim_scheduler_waiting_requests", "Requests waiting for their turn",
+					this::getNumberOfWaitingRequests, "endpoint", endpoint);
+			registry.registerGauge("talsim_scheduler_requests_in_flight", "Requests admitted to the endpoint",
+					this::getNumberOfInFlightRequests, "endpoint", endpoint);
+		}
+
+		private synchronized long getNumberOfWaitingRequests() {
+			return waitingRequests.size();
+		}
+
+		private synchronized long getNumberOfInFlightRequests() {
+			return inFlightRequests;
+		}
+
+		private RequestGate createGate(Job job) {
+			return new RequestGate() {
+
+				@Override
+				public void acquire() throws InterruptedException {
+					EndpointQueue.this.acquire(job);
+				}
+
+				@Override
+				public void release() {
+					EndpointQueue.this.release(job);
+				}
+			};
+		}
+
+		private synchronized void acquire(Job job) throws InterruptedException {
+			job.lastFinishTag = nextFinishTag(job);
+
+			WaitingRequest request = new WaitingRequest(job, job.lastFinishTag, requestSequence++);
+			waitingRequests.add(request);
+
+			if (anticipatedJob == job)
+				anticipatedJob = null;
+
+			try {
+				long waitNanos;
+				while ((waitNanos = getWaitNanos(request)) != 0) {
+					if (waitNanos > 0)
+						wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+					else
+						wait();
+				}
+			} catch (InterruptedException e) {
+				waitingRequests.remove(request);
+				notifyAll();
+				throw e;
+			}
+
+			waitingRequests.poll();
+			inFlightRequests++;
+			virtualTime = request.finishTag;
+			nextPermitNanos = Math.max(nextPermitNanos, System.nanoTime()) + intervalNanos;
+
+			// the next waiting request may be admitted as well
+			notifyAll();
+		}
+
+		private double nextFinishTag(Job job) {
+			return Math.max(virtualTime, job.lastFinishTag) + 1.0 / job.weight;
+		}
+
+		/**
+		 * @return 0 if the request may be sent now, the time to wait in
+		 *         nanoseconds or -1 to wait for a notification
+		 */
+		private long getWaitNanos(WaitingRequest request) {
+			if (waitingRequests.peek() != request || inFlightRequests >= maxConcurrentRequests)
+				return -1;
+
+			long now = System.nanoTime();
+
+			if (anticipatedJob != null) {
+				long anticipationNanos = anticipationDeadlineNanos - now;
+
+				if (anticipationNanos > 0 && request.compareTo(
+						new WaitingRequest(anticipatedJob, nextFinishTag(anticipatedJob), Long.MAX_VALUE)) > 0)
+					return anticipationNanos;
+
+				anticipatedJob = null;
+			}
+
+			return Math.max(0, nextPermitNanos - now);
+		}
+
+		private synchronized void release(Job job) {
+			inFlightRequests--;
+
+			anticipatedJob = job;
+			anticipationDeadlineNanos = System.nanoTime() + ANTICIPATION_MICROS * 1000;
+
+			notifyAll();
+		}
+
+	}
+
+	private static class WaitingRequest implements Comparable<WaitingRequest> {
+
+		private final Job job;
+		private final double finishTag;
+		private final long sequence;
+
+		private WaitingRequest(Job job, double finishTag, long sequence) {
+			this.job = job;
+			this.finishTag = finishTag;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(WaitingRequest other) {
+			int byPriority = job.priority.compareTo(other.job.priority);
+			if (byPriority != 0)
+				return byPriority;
+
+			int byFinishTag = Double.compare(finishTag, other.finishTag);
+			return byFinishTag != 0 ? byFinishTag : Long.compare(sequence, other.sequence);
+		}
+
+	}
+
+}
@@ -0,0 +1,47 @@
+package n52.talsim_sos_converter;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Handle of a latest-first insertion of a TalsimResult file, see
+ * {@link TalsimSosConverter#insertOutputToSOSLatestFirstAsync(java.nio.file.Path, java.net.URL, long, double, java.util.concurrent.Executor, IngestionProgressListener)}.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class LatestFirstInsertion {
+
+	private final CompletableFuture<IngestionReport> recentResult;
+	private final CompletableFuture<IngestionReport> backfillResult;
+
+	LatestFirstInsertion(CompletableFuture<IngestionReport> recentResult,
+			CompletableFuture<IngestionReport> backfillResult) {
+		this.recentResult = recentResult;
+		this.backfillResult = backfillResult;
+	}
+
+	/**
+	 * @return a {@link CompletableFuture} that is completed once the recent
+	 *         observations of all series have been inserted
+	 */
+	public CompletableFuture<IngestionReport> getRecentResult() {
+		return recentResult;
+	}
+
+	/**
+	 * @return a {@link CompletableFuture} that is completed once the older
+	 *         observations have been inserted as well, i.e. the whole file
+	 */
+	public CompletableFuture<IngestionReport> getBackfillResult() {
+		return backfillResult;
+	}
+
+	/**
+	 * Cancels the insertion, including a backfill in progress.
+	 */
+	public void cancel() {
+		recentResult.cancel(true);
+		backfillResult.cancel(true);
+	}
+
+}
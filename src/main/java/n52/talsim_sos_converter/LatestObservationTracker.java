@@ -0,0 +1,68 @@
+package n52.talsim_sos_converter;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import n52.talsim_sos_converter.helper.SeriesWatermarkIndex;
+import n52.talsim_sos_converter.helper.TalsimObservation;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+
+/**
+ * {@link IngestionProgressListener} that remembers the latest inserted
+ * observation of each series and forwards all notifications to another
+ * listener. Used to advance the watermarks of a latest-first insertion once
+ * its backfill has succeeded.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+class LatestObservationTracker implements IngestionProgressListener {
+
+	private final IngestionProgressListener delegate;
+
+	private final Map<TalsimSeriesHeader, Long> latestPhenomenonTimes = new ConcurrentHashMap<TalsimSeriesHeader, Long>();
+
+	LatestObservationTracker(IngestionProgressListener delegate) {
+		this.delegate = delegate != null ? delegate : IngestionProgressListener.NONE;
+	}
+
+	/**
+	 * Advances the watermark of each series to its latest inserted
+	 * observation.
+	 */
+	void advanceWatermarks(SeriesWatermarkIndex watermarkIndex, URL sosURL) throws IOException {
+		for (Map.Entry<TalsimSeriesHeader, Long> entry : latestPhenomenonTimes.entrySet())
+			watermarkIndex.advance(sosURL, entry.getKey(), entry.getValue());
+
+		watermarkIndex.force();
+	}
+
+	@Override
+	public void onSensorInserted(String procedureIdentifier) {
+		delegate.onSensorInserted(procedureIdentifier);
+	}
+
+	@Override
+	public void onSeriesStarted(TalsimSeriesHeader header) {
+		delegate.onSeriesStarted(header);
+	}
+
+	@Override
+	public void onObservationInserted(TalsimObservation observation) {
+		latestPhenomenonTimes.merge(observation.getHeader(), observation.getPhenomenonTimeMillis(), Math::max);
+		delegate.onObservationInserted(observation);
+	}
+
+	@Override
+	public void onSeriesCompleted(TalsimSeriesHeader header) {
+		delegate.onSeriesCompleted(header);
+	}
+
+	@Override
+	public void onTalsimResultCompleted(int numberOfSeries) {
+		delegate.onTalsimResultCompleted(numberOfSeries);
+	}
+
+}
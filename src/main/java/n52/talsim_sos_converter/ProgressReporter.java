@@ -0,0 +1,249 @@
+package n52.talsim_sos_converter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import n52.talsim_sos_converter.helper.ObservationAggregation;
+import n52.talsim_sos_converter.helper.TalsimEventFilter;
+import n52.talsim_sos_converter.helper.TalsimObservation;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+
+/**
+ * {@link IngestionProgressListener} that logs a summary of the progress of an
+ * insertion at most once per interval instead of a message per observation:
+ * the inserted observations per second, the estimated time until the
+ * insertion is finished and the percentage done of each running series.
+ *
+ * The number of events of a series is estimated from the "startDate",
+ * "endDate" and "timeStep" of its header. If the headers of all series are
+ * known in advance (e.g. when inserting a file), the percentage and the ETA
+ * refer to the whole TalsimResult, otherwise to the series started so far.
+ *
+ * Recording an inserted observation only increments counters, so the
+ * reporter can be left enabled for large TalsimResults. All notifications are
+ * forwarded to another listener.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+class ProgressReporter implements IngestionProgressListener {
+
+	private static Logger logger = LoggerFactory.getLogger(ProgressReporter.class);
+
+	/**
+	 * maximum number of running series listed by a progress message
+	 */
+	static final int MAX_LISTED_SERIES = 10;
+
+	private final IngestionProgressListener delegate;
+	private final long intervalNanos;
+
+	private final Map<Integer, Long> expectedObservationsBySeries = new ConcurrentHashMap<Integer, Long>();
+	private final AtomicLong expectedObservations = new AtomicLong();
+
+	private final LongAdder insertedObservations = new LongAdder();
+	// inserted observations plus the events of completed series that were not inserted (e.g. filtered)
+	private final LongAdder doneObservations = new LongAdder();
+
+	private final Map<TalsimSeriesHeader, SeriesProgress> runningSeries = new ConcurrentHashMap<TalsimSeriesHeader, SeriesProgress>();
+
+	private final AtomicLong nextReportNanos;
+	private long lastReportNanos;
+	private long lastReportInsertedObservations = 0;
+
+	/**
+	 * @param delegate
+	 *            receives all notifications, may be {@code null}
+	 * @param intervalMillis
+	 *            the minimum time between two progress messages
+	 * @param seriesHeaders
+	 *            the headers of all series of the TalsimResult, or
+	 *            {@code null} if they are not known in advance
+	 */
+	ProgressReporter(IngestionProgressListener delegate, long intervalMillis, List<TalsimSeriesHeader> seriesHeaders) {
+		this.delegate = delegate != null ? delegate : IngestionProgressListener.NONE;
+		this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+
+		if (seriesHeaders != null) {
+			for (TalsimSeriesHeader header : seriesHeaders)
+				addExpectedObservations(header);
+		}
+
+		lastReportNanos = System.nanoTime();
+		nextReportNanos = new AtomicLong(lastReportNanos + intervalNanos);
+	}
+
+	/**
+	 * @return the estimated number of events of the series, or {@code 0} if
+	 *         its header does not allow an estimation
+	 */
+	static long estimateNumberOfEvents(TalsimSeriesHeader header) {
+		long endMillis = TalsimEventFilter.getEndMillis(header);
+		long startMillis = TalsimEventFilter.getStartMillis(header);
+		if (endMillis == Long.MIN_VALUE || startMillis == Long.MIN_VALUE || endMillis < startMillis)
+			return 0;
+
+		try {
+			return (endMillis - startMillis) / ObservationAggregation.parseTimeStepMillis(header) + 1;
+		} catch (RuntimeException e) {
+			return 0;
+		}
+	}
+
+	private long addExpectedObservations(TalsimSeriesHeader header) {
+		Long expected = expectedObservationsBySeries.computeIfAbsent(header.getSeriesIndex(), seriesIndex -> {
+			long numberOfEvents = estimateNumberOfEvents(header);
+			expectedObservations.addAndGet(numberOfEvents);
+			return numberOfEvents;
+		});
+		return expected;
+	}
+
+	@Override
+	public void onSensorInserted(String procedureIdentifier) {
+		delegate.onSensorInserted(procedureIdentifier);
+	}
+
+	@Override
+	public void onSeriesStarted(TalsimSeriesHeader header) {
+		runningSeries.put(header, new SeriesProgress(addExpectedObservations(header)));
+		delegate.onSeriesStarted(header);
+	}
+
+	@Override
+	public void onObservationInserted(TalsimObservation observation) {
+		insertedObservations.increment();
+		doneObservations.increment();
+
+		SeriesProgress series = runningSeries.get(observation.getHeader());
+		if (series != null)
+			series.insertedObservations.increment();
+
+		long now = System.nanoTime();
+		long next = nextReportNanos.get();
+		if (now - next >= 0 && nextReportNanos.compareAndSet(next, now + intervalNanos))
+			report(now);
+
+		delegate.onObservationInserted(observation);
+	}
+
+	@Override
+	public void onSeriesCompleted(TalsimSeriesHeader header) {
+		SeriesProgress series = runningSeries.remove(header);
+		if (series != null) {
+			long inserted = series.insertedObservations.sum();
+			// the remaining events were skipped or filtered
+			doneObservations.add(Math.max(0, series.expectedObservations - inserted));
+
+			if (logger.isDebugEnabled())
+				logger.debug("Completed series {}: {} observations inserted.", formatSeries(header), inserted);
+		}
+
+		delegate.onSeriesCompleted(header);
+	}
+
+	@Override
+	public void onTalsimResultCompleted(int numberOfSeries) {
+		delegate.onTalsimResultCompleted(numberOfSeries);
+	}
+
+	private synchronized void report(long now) {
+		if (logger.isInfoEnabled())
+			logger.info(formatProgress(now));
+	}
+
+	/**
+	 * @return a progress message covering the observations inserted since
+	 *         the previous message
+	 */
+	synchronized String formatProgress(long now) {
+		long inserted = insertedObservations.sum();
+		long done = doneObservations.sum();
+		long expected = Math.max(expectedObservations.get(), done);
+
+		double seconds = (now - lastReportNanos) / 1e9;
+		double observationsPerSecond = seconds > 0 ? (inserted - lastReportInsertedObservations) / seconds : 0;
+		lastReportNanos = now;
+		lastReportInsertedObservations = inserted;
+
+		StringBuilder message = new StringBuilder();
+		message.append(String.format(Locale.ROOT, "Inserted %d observations, %.1f%% of %d done, %.1f observations/s",
+				inserted, getPercentDone(done, expected), expected, observationsPerSecond));
+
+		if (observationsPerSecond > 0)
+			message.append(", ETA ").append(formatDuration((long) ((expected - done) / observationsPerSecond)));
+
+		List<Map.Entry<TalsimSeriesHeader, SeriesProgress>> series = new ArrayList<Map.Entry<TalsimSeriesHeader, SeriesProgress>>(
+				runningSeries.entrySet());
+		series.sort((a, b) -> Integer.compare(a.getKey().getSeriesIndex(), b.getKey().getSeriesIndex()));
+
+		if (!series.isEmpty())
+			message.append(". Running series:");
+
+		for (int i = 0; i < series.size() && i < MAX_LISTED_SERIES; i++) {
+			SeriesProgress progress = series.get(i).getValue();
+			message.append(i > 0 ? ", " : " ").append(formatSeries(series.get(i).getKey())).append(' ');
+			message.append(String.format(Locale.ROOT, "%.1f%%", getPercentDone(progress.insertedObservations.sum(),
+					progress.expectedObservations)));
+		}
+
+		if (series.size() > MAX_LISTED_SERIES)
+			message.append(" and ").append(series.size() - MAX_LISTED_SERIES).append(" more");
+
+		return message.append('.').toString();
+	}
+
+	/**
+	 * @return the percentage of the estimated observations that were inserted
+	 *         or skipped, in [0, 100]
+	 */
+	double getPercentDone() {
+		return getPercentDone(doneObservations.sum(), expectedObservations.get());
+	}
+
+	/**
+	 * @return the percentage of the estimated observations of a running series
+	 *         that were inserted, or {@code -1} if the series is not running
+	 */
+	double getPercentDone(TalsimSeriesHeader header) {
+		SeriesProgress series = runningSeries.get(header);
+		if (series == null)
+			return -1;
+		return getPercentDone(series.insertedObservations.sum(), series.expectedObservations);
+	}
+
+	private static double getPercentDone(long done, long expected) {
+		if (expected <= 0)
+			return 0;
+		return Math.min(100.0, 100.0 * done / expected);
+	}
+
+	private static String formatSeries(TalsimSeriesHeader header) {
+		return header.getLocationId() + "/" + header.getParameterId();
+	}
+
+	private static String formatDuration(long seconds) {
+		return String.format(Locale.ROOT, "%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+	}
+
+	private static class SeriesProgress {
+
+		private final long expectedObservations;
+		private final LongAdder insertedObservations = new LongAdder();
+
+		private SeriesProgress(long expectedObservations) {
+			this.expectedObservations = expectedObservations;
+		}
+
+	}
+
+}
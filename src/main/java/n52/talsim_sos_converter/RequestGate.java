@@ -0,0 +1,26 @@
+package n52.talsim_sos_converter;
+
+/**
+ * Admission control for the HTTP requests of an insertion run: each request
+ * to the SOS instance has to acquire the gate before it is sent and releases
+ * it once the response has been received.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+interface RequestGate {
+
+	/**
+	 * Blocks until the next request of the run may be sent.
+	 *
+	 * @throws InterruptedException
+	 */
+	void acquire() throws InterruptedException;
+
+	/**
+	 * Called once the response of a request admitted by
+	 * {@link #acquire()} has been received, successfully or not.
+	 */
+	void release();
+
+}
@@ -0,0 +1,378 @@
+package n52.talsim_sos_converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import n52.talsim_sos_converter.helper.LeaseDirectory;
+import n52.talsim_sos_converter.helper.LeaseDirectory.Lease;
+import n52.talsim_sos_converter.helper.ResourceLoader;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+import n52.talsim_sos_converter.helper.TalsimStation;
+import n52.talsim_sos_converter.helper.TalsimStreamReader;
+
+/**
+ * Worker of an ingestion that is shared by several converter processes, on
+ * one host or on several hosts sharing a file system. Each process runs a
+ * worker on the same directory of TalsimResult files and the same
+ * {@link LeaseDirectory}; the workers split the files between them:
+ * <ul>
+ * <li>a worker claims a file by acquiring the lease of the file and the
+ * leases of all stations contained in it. Hence, a file is inserted by one
+ * worker only and a station is never inserted by two workers at the same
+ * time, even if it is contained in several files.</li>
+ * <li>the leases are renewed while the file is inserted. If a worker crashes,
+ * its leases expire and another worker inserts the file again; with a shared
+ * journal directory (see
+ * {@link TalsimSosConverter#setJournalDirectory(Path)}) it resumes where the
+ * crashed worker stopped.</li>
+ * <li>a processed file is marked {@value #DONE_MARK} or
+ * {@value #FAILED_MARK} within the lease directory. Failed files are not
+ * retried until their mark is deleted.</li>
+ * </ul>
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class ShardedIngestion {
+
+	private static Logger logger = LoggerFactory.getLogger(ShardedIngestion.class);
+
+	/**
+	 * default time after which the leases of a crashed worker expire
+	 */
+	public static final long DEFAULT_LEASE_DURATION_MILLIS = 60 * 1000;
+
+	/**
+	 * mark of the files inserted successfully
+	 */
+	public static final String DONE_MARK = "done";
+
+	/**
+	 * mark of the files whose insertion failed
+	 */
+	public static final String FAILED_MARK = "failed";
+
+	private static final String FILE_LEASE_PREFIX = "file-";
+	private static final String STATION_LEASE_PREFIX = "station-";
+
+	private final TalsimSosConverter converter;
+	private final URL sosURL;
+	private final Executor executor;
+	private final LeaseDirectory leaseDirectory;
+
+	private long pollIntervalMillis;
+	private BatchProgressListener progressListener = BatchProgressListener.NONE;
+
+	/**
+	 * @param converter
+	 *            the converter used for all files
+	 * @param sosURL
+	 *            URL to the SOS-T (transactional SOS instance)
+	 * @param executor
+	 *            the {@link Executor} that performs the insertion of each file
+	 * @param leaseDirectory
+	 *            the lease directory shared by all workers
+	 */
+	public ShardedIngestion(TalsimSosConverter converter, URL sosURL, Executor executor,
+			LeaseDirectory leaseDirectory) {
+		this.converter = converter;
+		this.sosURL = sosURL;
+		this.executor = executor;
+		this.leaseDirectory = leaseDirectory;
+		this.pollIntervalMillis = Math.max(10, leaseDirectory.getLeaseDurationMillis() / 4);
+	}
+
+	/**
+	 * @param pollIntervalMillis
+	 *            time to wait before checking again for files claimed by
+	 *            other workers, default is a quarter of the lease duration
+	 */
+	public void setPollIntervalMillis(long pollIntervalMillis) {
+		this.pollIntervalMillis = pollIntervalMillis;
+	}
+
+	/**
+	 * @param progressListener
+	 *            receives a notification per file inserted by this worker,
+	 *            may be {@code null}
+	 */
+	public void setProgressListener(BatchProgressListener progressListener) {
+		this.progressListener = progressListener != null ? progressListener : BatchProgressListener.NONE;
+	}
+
+	/**
+	 * Inserts all files of {@code directory} matching {@code glob}.
+	 *
+	 * @see #insert(List)
+	 */
+	public BatchReport insert(Path directory, String glob) throws IOException, InterruptedException {
+		return insert(BatchIngestion.listFiles(directory, glob));
+	}
+
+	/**
+	 * Inserts the given files together with the other workers. Returns once
+	 * every file has been processed by any of the workers.
+	 *
+	 * @param talsimFiles
+	 *            the TalsimResult files, the same for all workers
+	 * @return the report of the files processed by this worker
+	 * @throws IOException
+	 *             if the lease directory is not accessible
+	 * @throws InterruptedException
+	 */
+	public BatchReport insert(List<Path> talsimFiles) throws IOException, InterruptedException {
+		long startTimeMillis = System.currentTimeMillis();
+
+		Map<Path, IngestionReport> reports = new LinkedHashMap<Path, IngestionReport>();
+		Map<Path, Throwable> failures = new LinkedHashMap<Path, Throwable>();
+
+		ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "lease-renewer-" + leaseDirectory.getOwnerId());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			while (true) {
+				boolean allProcessed = true;
+				boolean claimedAny = false;
+
+				for (Path talsimFile : talsimFiles) {
+					String fileKey = FILE_LEASE_PREFIX + talsimFile.getFileName();
+					if (isProcessed(fileKey))
+						continue;
+
+					allProcessed = false;
+
+					try (Lease fileLease = leaseDirectory.tryAcquire(fileKey)) {
+						// processed by another worker while we were checking
+						if (fileLease == null || isProcessed(fileKey))
+							continue;
+
+						claimedAny |= insertClaimedFile(talsimFile, fileLease, renewer, reports, failures);
+					}
+				}
+
+				if (allProcessed)
+					break;
+
+				if (!claimedAny)
+					Thread.sleep(pollIntervalMillis);
+			}
+		} finally {
+			renewer.shutdownNow();
+		}
+
+		return new BatchReport(reports, failures, startTimeMillis, System.currentTimeMillis());
+	}
+
+	private boolean isProcessed(String fileKey) {
+		return leaseDirectory.isMarked(fileKey, DONE_MARK) || leaseDirectory.isMarked(fileKey, FAILED_MARK);
+	}
+
+	/**
+	 * @return {@code false} if the file could not be inserted now as one of
+	 *         its stations is inserted by another worker
+	 */
+	private boolean insertClaimedFile(Path talsimFile, Lease fileLease, ScheduledExecutorService renewer,
+			Map<Path, IngestionReport> reports, Map<Path, Throwable> failures)
+			throws IOException, InterruptedException {
+
+		List<TalsimSeriesHeader> headers;
+		try (InputStream talsimOutput = Files.newInputStream(talsimFile)) {
+			headers = TalsimStreamReader.readAllHeaders(talsimOutput);
+		} catch (Exception e) {
+			onFileFailed(talsimFile, fileLease.getKey(), e, failures);
+			return true;
+		}
+
+		List<Lease> leases = acquireStationLeases(headers);
+		if (leases == null) {
+			if (logger.isDebugEnabled())
+				logger.debug("A station of file '{}' is inserted by another worker, postponing the file.",
+						talsimFile);
+			return false;
+		}
+		leases.add(fileLease);
+
+		progressListener.onFileStarted(talsimFile);
+
+		if (logger.isInfoEnabled())
+			logger.info("Worker '{}' claimed file '{}'.", leaseDirectory.getOwnerId(), talsimFile);
+
+		FileExecutor fileExecutor = new FileExecutor(executor);
+		CompletableFuture<IngestionReport> result = converter.insertOutputToSOSAsync(talsimFile, sosURL,
+				fileExecutor, IngestionProgressListener.NONE);
+
+		long renewalIntervalMillis = Math.max(1, leaseDirectory.getLeaseDurationMillis() / 3);
+		ScheduledFuture<?> renewal = renewer.scheduleWithFixedDelay(() -> {
+			for (Lease lease : leases) {
+				if (!lease.renew()) {
+					if (logger.isErrorEnabled())
+						logger.error("Lost {}, aborting insertion of file '{}'.", lease, talsimFile);
+					result.cancel(true);
+				}
+			}
+		}, renewalIntervalMillis, renewalIntervalMillis, TimeUnit.MILLISECONDS);
+
+		try {
+			IngestionReport report = result.get();
+
+			leaseDirectory.mark(fileLease.getKey(), DONE_MARK, report.toString());
+			reports.put(talsimFile, report);
+			progressListener.onFileCompleted(talsimFile, report);
+		} catch (CancellationException e) {
+			// the lease has been lost, so another worker inserts the file
+		} catch (ExecutionException e) {
+			onFileFailed(talsimFile, fileLease.getKey(), e.getCause(), failures);
+		} finally {
+			try {
+				// the requests of a cancelled or failed insertion may still be in flight
+				fileExecutor.awaitIdle();
+			} finally {
+				renewal.cancel(false);
+
+				// the file lease is released by the caller
+				for (Lease lease : leases) {
+					if (lease != fileLease)
+						lease.close();
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Acquires the leases of all stations of a file, in a fixed order.
+	 *
+	 * @return the leases or {@code null} if any of them is held by another
+	 *         worker; in that case, no lease is held
+	 */
+	private List<Lease> acquireStationLeases(List<TalsimSeriesHeader> headers) throws IOException {
+		TreeSet<String> stations = new TreeSet<String>();
+		for (TalsimSeriesHeader header : headers)
+			stations.add(TalsimStation.of(header).getProcedureIdentifier());
+
+		List<Lease> leases = new ArrayList<Lease>();
+		for (String station : stations) {
+			Lease lease = leaseDirectory.tryAcquire(STATION_LEASE_PREFIX + station);
+
+			if (lease == null) {
+				for (Lease acquiredLease : leases)
+					acquiredLease.close();
+				return null;
+			}
+			leases.add(lease);
+		}
+		return leases;
+	}
+
+	private void onFileFailed(Path talsimFile, String fileKey, Throwable failure, Map<Path, Throwable> failures)
+			throws IOException {
+		if (logger.isErrorEnabled())
+			logger.error("Insertion of file '{}' failed.", talsimFile, failure);
+
+		leaseDirectory.mark(fileKey, FAILED_MARK, String.valueOf(failure));
+		failures.put(talsimFile, failure);
+		progressListener.onFileFailed(talsimFile, failure);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: ShardedIngestion <sosURL> <directory> <leaseDirectory> [glob] [workerId]");
+			System.exit(2);
+		}
+
+		String glob = args.length > 3 ? args[3] : BatchIngestion.DEFAULT_GLOB;
+		// e.g. "12345@hostname"
+		String workerId = args.length > 4 ? args[4] : ManagementFactory.getRuntimeMXBean().getName();
+
+		TalsimSosConverter converter = new TalsimSosConverter();
+		converter.setAuthorizationToken(ResourceLoader.fetchAuthorizationToken());
+
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+		LeaseDirectory leaseDirectory = new LeaseDirectory(Paths.get(args[2]), workerId,
+				DEFAULT_LEASE_DURATION_MILLIS);
+
+		BatchReport report = new ShardedIngestion(converter, new URL(args[0]), executor, leaseDirectory)
+				.insert(Paths.get(args[1]), glob);
+
+		executor.shutdown();
+		System.exit(report.isSuccessful() ? 0 : 1);
+	}
+
+	/**
+	 * Executes the tasks of a single file on the executor of the worker and
+	 * keeps track of the tasks not finished yet, so that the leases of the
+	 * file are released only once no request of it is in flight anymore.
+	 */
+	private static class FileExecutor implements Executor {
+
+		private final Executor executor;
+		private int runningTasks = 0;
+
+		private FileExecutor(Executor executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			synchronized (this) {
+				runningTasks++;
+			}
+
+			try {
+				executor.execute(() -> {
+					try {
+						task.run();
+					} finally {
+						taskFinished();
+					}
+				});
+			} catch (RuntimeException e) {
+				taskFinished();
+				throw e;
+			}
+		}
+
+		private synchronized void taskFinished() {
+			if (--runningTasks == 0)
+				notifyAll();
+		}
+
+		/**
+		 * Waits until all tasks have finished. The tasks of a cancelled
+		 * insertion finish as soon as their current request is answered.
+		 */
+		private synchronized void awaitIdle() throws InterruptedException {
+			while (runningTasks > 0)
+				wait();
+		}
+
+	}
+
+}
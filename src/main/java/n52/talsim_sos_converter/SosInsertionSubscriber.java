@@ -0,0 +1,959 @@
+package n52.talsim_sos_converter;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import n52.talsim_sos_converter.helper.DataAvailability;
+import n52.talsim_sos_converter.helper.DeadbandFilter;
+import n52.talsim_sos_converter.helper.IngestionFailure;
+import n52.talsim_sos_converter.helper.IngestionJournal;
+import n52.talsim_sos_converter.helper.IngestionMetrics;
+import n52.talsim_sos_converter.helper.IngestionStage;
+import n52.talsim_sos_converter.helper.ObservationAggregation;
+import n52.talsim_sos_converter.helper.SensorRegistry;
+import n52.talsim_sos_converter.helper.SeriesInsertionEvent;
+import n52.talsim_sos_converter.helper.SeriesMirror;
+import n52.talsim_sos_converter.helper.SeriesMirror.MirroredSeries;
+import n52.talsim_sos_converter.helper.SeriesWatermarkIndex;
+import n52.talsim_sos_converter.helper.SosFanOut;
+import n52.talsim_sos_converter.helper.SosRequestConstructor;
+import n52.talsim_sos_converter.helper.SosRequestSender;
+import n52.talsim_sos_converter.helper.SosRequestSink;
+import n52.talsim_sos_converter.helper.SosRequestType;
+import n52.talsim_sos_converter.helper.TalsimObservation;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+import n52.talsim_sos_converter.helper.TalsimStation;
+
+/**
+ * {@link Flow.Subscriber} that inserts the {@link TalsimObservation}s emitted
+ * by a {@link n52.talsim_sos_converter.helper.TalsimObservationPublisher} into
+ * a SOS instance.
+ *
+ * Each station ({@link TalsimStation}) of the TalsimResult gets its own
+ * <i>lane</i>: a chain of tasks that is executed in order on the lane
+ * {@link Executor}. The first task of a lane sends the InsertSensor request of
+ * the station, all subsequent tasks send the InsertObservation requests of the
+ * station. Lanes of different stations run independently of each other, so
+ * InsertSensor requests of different stations are sent concurrently and a
+ * slow station does not hold up the others.
+ *
+ * At most {@code maxPendingObservations} observations are requested from the
+ * publisher but not yet inserted, which bounds the memory used by the lanes
+ * and throttles parsing.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+class SosInsertionSubscriber implements Flow.Subscriber<TalsimObservation> {
+
+	private static Logger logger = LoggerFactory.getLogger(SosInsertionSubscriber.class);
+
+	private static final String INSERT_OBSERVATION_RESPONSE_STRING = "InsertObservationResponse";
+	private static final String INSERT_SENSOR_RESPONSE_STRING = "InsertSensorResponse";
+
+	private final URL sosURL;
+	private final String insertSensorRequestTemplate;
+	private final String insertObservationRequestTemplate;
+	private final String authorization_token;
+	private final IngestionContext context;
+	private final Executor laneExecutor;
+	private final int maxPendingObservations;
+
+	private SensorRegistry sensorRegistry;
+	private Semaphore requestPermits;
+	private SeriesWatermarkIndex watermarkIndex;
+	private boolean forceFullReload;
+	private SeriesMirror seriesMirror;
+	private String getDataAvailabilityRequestTemplate;
+	private SosRequestSink requestSink;
+	private DeadbandFilter deadbandFilter;
+	private ObservationAggregation aggregation;
+	private SosFanOut fanOut;
+
+	private boolean qualifiedStationIdentifiers = false;
+
+	private final CompletableFuture<IngestionReport> result = new CompletableFuture<IngestionReport>();
+	private final long startTimeMillis = System.currentTimeMillis();
+
+	/*
+	 * the tail of the task chain of each station; only modified from within
+	 * the (serialized) signals of the publisher
+	 */
+	private final Map<TalsimStation, CompletableFuture<Void>> stationLanes = new LinkedHashMap<TalsimStation, CompletableFuture<Void>>();
+
+	private volatile Flow.Subscription subscription;
+
+	/*
+	 * the "series" node currently emitted by the publisher and the series
+	 * inserted from it: the series itself or, with aggregation, one series per
+	 * aggregate; only modified from within the signals of the publisher
+	 */
+	private TalsimSeriesHeader currentHeader;
+	private ObservationAggregation.SeriesAggregator currentAggregator;
+	private final Map<TalsimSeriesHeader, OpenSeries> openSeries = new LinkedHashMap<TalsimSeriesHeader, OpenSeries>();
+
+	SosInsertionSubscriber(URL sosURL, String insertSensorRequestTemplate, String insertObservationRequestTemplate,
+			String authorization_token, IngestionContext context, Executor laneExecutor, int maxPendingObservations) {
+		this.sosURL = sosURL;
+		this.insertSensorRequestTemplate = insertSensorRequestTemplate;
+		this.insertObservationRequestTemplate = insertObservationRequestTemplate;
+		this.authorization_token = authorization_token;
+		this.context = context;
+		this.laneExecutor = laneExecutor;
+		this.maxPendingObservations = maxPendingObservations;
+
+		result.whenComplete((report, throwable) -> {
+			if (result.isCancelled())
+				closeJournal();
+		});
+	}
+
+	/**
+	 * @param sensorRegistry
+	 *            registry of stations that are already registered at the SOS
+	 *            instance, may be {@code null} to always send the InsertSensor
+	 *            request
+	 */
+	void setSensorRegistry(SensorRegistry sensorRegistry) {
+		this.sensorRegistry = sensorRegistry;
+	}
+
+	/**
+	 * @param requestPermits
+	 *            permits for the HTTP requests in flight, shared with other
+	 *            insertions; may be {@code null} for no limit
+	 */
+	void setRequestPermits(Semaphore requestPermits) {
+		this.requestPermits = requestPermits;
+	}
+
+	/**
+	 * @param watermarkIndex
+	 *            index of the latest inserted observation of each series, may
+	 *            be {@code null} to insert all observations
+	 * @param forceFullReload
+	 *            if {@code true}, all observations are inserted regardless of
+	 *            the index, which is still updated
+	 */
+	void setWatermarkIndex(SeriesWatermarkIndex watermarkIndex, boolean forceFullReload) {
+		this.watermarkIndex = watermarkIndex;
+		this.forceFullReload = forceFullReload;
+	}
+
+	/**
+	 * @param seriesMirror
+	 *            mirror of the previously inserted observations, may be
+	 *            {@code null} to insert all observations
+	 */
+	void setSeriesMirror(SeriesMirror seriesMirror) {
+		this.seriesMirror = seriesMirror;
+	}
+
+	/**
+	 * @param getDataAvailabilityRequestTemplate
+	 *            template of the GetDataAvailability request used to ask the
+	 *            SOS instance which time ranges of each series it already
+	 *            holds, may be {@code null} to skip this reconciliation
+	 */
+	void setDataAvailabilityReconciliation(String getDataAvailabilityRequestTemplate) {
+		this.getDataAvailabilityRequestTemplate = getDataAvailabilityRequestTemplate;
+	}
+
+	/**
+	 * @param requestSink
+	 *            receives the encoded requests instead of the SOS instance,
+	 *            may be {@code null} to send the requests directly
+	 */
+	void setRequestSink(SosRequestSink requestSink) {
+		this.requestSink = requestSink;
+	}
+
+	/**
+	 * @param deadbandFilter
+	 *            filter that suppresses observations hardly differing from
+	 *            their predecessors, may be {@code null} to insert all
+	 *            observations
+	 */
+	void setDeadbandFilter(DeadbandFilter deadbandFilter) {
+		this.deadbandFilter = deadbandFilter;
+	}
+
+	/**
+	 * @param aggregation
+	 *            downsampling stage that replaces the observations of each
+	 *            series by aggregated series, may be {@code null} to insert
+	 *            the original observations
+	 */
+	void setAggregation(ObservationAggregation aggregation) {
+		this.aggregation = aggregation;
+	}
+
+	/**
+	 * @param fanOut
+	 *            receives each request accepted by the SOS instance for
+	 *            delivery to further SOS instances, may be {@code null}
+	 */
+	void setFanOut(SosFanOut fanOut) {
+		this.fanOut = fanOut;
+	}
+
+	/**
+	 * @param qualifiedStationIdentifiers
+	 *            {@code true} to suffix the procedure and offering identifiers
+	 *            of each station with its "locationId"
+	 */
+	void setQualifiedStationIdentifiers(boolean qualifiedStationIdentifiers) {
+		this.qualifiedStationIdentifiers = qualifiedStationIdentifiers;
+	}
+
+	/**
+	 * @return a {@link CompletableFuture} that is completed once all
+	 *         observations have been inserted
+	 */
+	CompletableFuture<IngestionReport> getResult() {
+		return result;
+	}
+
+	/**
+	 * Starts the InsertSensor requests of all stations of {@code headers}
+	 * concurrently, before the first observation arrives. Has to be called
+	 * before subscribing.
+	 *
+	 * @param headers
+	 *            the headers of all "series" nodes of the TalsimResult
+	 */
+	void registerStations(List<TalsimSeriesHeader> headers) {
+		if (aggregation != null)
+			headers = aggregation.deriveHeaders(headers);
+
+		Map<TalsimStation, List<TalsimSeriesHeader>> headersPerStation = new LinkedHashMap<TalsimStation, List<TalsimSeriesHeader>>();
+
+		for (TalsimSeriesHeader header : headers) {
+			TalsimStation station = stationOf(header);
+			List<TalsimSeriesHeader> headersOfStation = headersPerStation.get(station);
+			if (headersOfStation == null) {
+				headersOfStation = new ArrayList<TalsimSeriesHeader>();
+				headersPerStation.put(station, headersOfStation);
+			}
+			headersOfStation.add(header);
+		}
+
+		if (logger.isInfoEnabled())
+			logger.info("TalsimResult contains {} station(s). Sending their InsertSensorRequests concurrently.",
+					headersPerStation.size());
+
+		for (Entry<TalsimStation, List<TalsimSeriesHeader>> stationEntry : headersPerStation.entrySet()) {
+			List<TalsimSeriesHeader> headersOfStation = stationEntry.getValue();
+
+			stationLanes.put(stationEntry.getKey(), CompletableFuture
+					.runAsync(laneTask(() -> processInsertSensorRequest(headersOfStation)), laneExecutor));
+		}
+	}
+
+	/**
+	 * Cancels the subscription, so that the publisher stops emitting
+	 * observations to this subscriber.
+	 */
+	void cancel() {
+		Flow.Subscription currentSubscription = subscription;
+		if (currentSubscription != null)
+			currentSubscription.cancel();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		this.subscription = subscription;
+
+		if (context.isCancelled() || result.isDone())
+			subscription.cancel();
+		else
+			subscription.request(maxPendingObservations);
+	}
+
+	@Override
+	public void onNext(TalsimObservation observation) {
+		if (result.isDone())
+			return;
+
+		TalsimSeriesHeader header = observation.getHeader();
+
+		if (header != currentHeader) {
+			completeCurrentSeries();
+			currentHeader = header;
+
+			if (aggregation != null) {
+				try {
+					currentAggregator = aggregation.forSeries(header);
+				} catch (IllegalArgumentException e) {
+					fail(e);
+					return;
+				}
+			}
+		}
+
+		if (currentAggregator == null) {
+			process(observation, true);
+			return;
+		}
+
+		List<TalsimObservation> aggregatedObservations = currentAggregator.accept(observation);
+
+		if (aggregatedObservations.isEmpty())
+			subscription.request(1);
+
+		for (int i = 0; i < aggregatedObservations.size(); i++)
+			process(aggregatedObservations.get(i), i == aggregatedObservations.size() - 1);
+	}
+
+	/**
+	 * Filters and inserts a single observation of an open series.
+	 *
+	 * @param requestNext
+	 *            if {@code true}, the next observation is requested from the
+	 *            publisher once the observation has been processed
+	 */
+	private void process(TalsimObservation observation, boolean requestNext) {
+		OpenSeries series = openSeries.get(observation.getHeader());
+
+		if (series == null) {
+			series = startSeries(observation.getHeader());
+
+			if (result.isDone())
+				return;
+		}
+
+		/*
+		 * the deadband is applied first, so that its decisions do not depend
+		 * on what previous runs inserted
+		 */
+		if (series.filter != null && !series.filter.accept(observation)) {
+			if (requestNext)
+				subscription.request(1);
+			return;
+		}
+
+		if (isAlreadyInserted(series, observation)) {
+			context.incrementSkippedObservations();
+			series.event.numberOfSkippedObservations++;
+			if (requestNext)
+				subscription.request(1);
+			return;
+		}
+
+		insertObservation(series, observation, requestNext);
+	}
+
+	private void insertObservation(OpenSeries series, TalsimObservation observation, boolean requestNext) {
+		final MirroredSeries mirroredSeries = series.mirroredSeries;
+
+		series.event.numberOfObservations++;
+		context.getMetrics().onObservationQueued();
+
+		enqueue(stationOf(observation.getHeader()), () -> {
+			try {
+				processInsertObservationRequest(observation);
+			} finally {
+				context.getMetrics().onObservationProcessed();
+			}
+
+			if (mirroredSeries != null)
+				recordInMirror(mirroredSeries, observation);
+
+			if (requestNext)
+				subscription.request(1);
+		});
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		fail(throwable);
+	}
+
+	@Override
+	public void onComplete() {
+		completeCurrentSeries();
+
+		CompletableFuture<?>[] lanes = stationLanes.values().toArray(new CompletableFuture<?>[0]);
+
+		CompletableFuture.allOf(lanes).whenComplete((ignored, throwable) -> {
+			if (throwable != null)
+				return; // already handled by the failing lane task
+
+			if (context.isCancelled()) {
+				fail(new CancellationException("Insertion of TalsimResult has been cancelled."));
+				return;
+			}
+
+			if (logger.isInfoEnabled())
+				logger.info("Insertion of Sensor and Observations from TalsimResult to SOS instance succeded.");
+
+			if (logger.isInfoEnabled() && context.getNumberOfSkippedObservations() > 0)
+				logger.info("Skipped {} observations that had already been inserted by previous runs.",
+						context.getNumberOfSkippedObservations());
+
+			if (logger.isInfoEnabled() && context.getNumberOfSuppressedObservations() > 0)
+				logger.info("Suppressed {} observations within the deadband of their series.",
+						context.getNumberOfSuppressedObservations());
+
+			if (context.getJournal() != null && context.isRecordingProgress()) {
+				try {
+					context.getJournal().complete();
+				} catch (IOException e) {
+					if (logger.isWarnEnabled())
+						logger.warn("Could not mark journal of TalsimResult as completed.", e);
+				}
+			} else {
+				closeJournal();
+			}
+
+			context.getProgressListener().onTalsimResultCompleted(context.getNumberOfSeries());
+
+			IngestionReport report = new IngestionReport(sosURL, context.getNumberOfSeries(),
+					context.getNumberOfInsertedObservations(), context.getNumberOfSuppressedObservations(),
+					context.getNumberOfSkippedObservations(), startTimeMillis, System.currentTimeMillis(),
+					context.getMetrics());
+
+			if (logger.isInfoEnabled())
+				logger.info("{}", report);
+
+			result.complete(report);
+		});
+	}
+
+	private boolean isAlreadyInserted(OpenSeries series, TalsimObservation observation) {
+		long phenomenonTimeMillis = observation.getPhenomenonTimeMillis();
+
+		IngestionJournal journal = context.getJournal();
+		if (journal != null
+				&& journal.isAcknowledged(observation.getHeader().getSeriesIndex(), observation.getEventIndex()))
+			return true;
+
+		return phenomenonTimeMillis <= series.watermark || isUnchangedInMirror(series, observation)
+				|| series.dataAvailability.covers(phenomenonTimeMillis);
+	}
+
+	private boolean isUnchangedInMirror(OpenSeries series, TalsimObservation observation) {
+		if (series.mirroredSeries == null || forceFullReload)
+			return false;
+
+		try {
+			return series.mirroredSeries.isUnchanged(observation.getPhenomenonTimeMillis(),
+					observation.getValueAsDouble());
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private void recordInMirror(MirroredSeries mirroredSeries, TalsimObservation observation) {
+		try {
+			mirroredSeries.record(observation.getPhenomenonTimeMillis(), observation.getValueAsDouble());
+		} catch (NumberFormatException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Value of observation {} is not a number and is not mirrored.", observation);
+		}
+	}
+
+	private void fail(Throwable throwable) {
+		if (throwable instanceof CompletionException && throwable.getCause() != null)
+			throwable = throwable.getCause();
+
+		if (result.completeExceptionally(throwable)) {
+			closeJournal();
+
+			if (logger.isErrorEnabled() && !context.isCancelled())
+				logger.error("Insertion of TalsimResult into SOS instance with URL '{}' failed.", sosURL, throwable);
+
+			cancel();
+		}
+	}
+
+	private void closeJournal() {
+		if (context.getJournal() == null)
+			return;
+
+		try {
+			context.getJournal().close();
+		} catch (IOException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Could not close journal of TalsimResult.", e);
+		}
+	}
+
+	/**
+	 * Opens a series for insertion. If the series cannot be opened, the
+	 * insertion fails.
+	 */
+	private OpenSeries startSeries(TalsimSeriesHeader header) {
+		OpenSeries series = new OpenSeries(header);
+		series.event.begin();
+		openSeries.put(header, series);
+		context.incrementNumberOfSeries();
+
+		if (logger.isInfoEnabled())
+			logger.info("Start processing of next 'series' node: {}", header);
+
+		if (watermarkIndex != null && !forceFullReload) {
+			series.watermark = watermarkIndex.getWatermark(sosURL, header);
+
+			if (logger.isDebugEnabled() && series.watermark != SeriesWatermarkIndex.NO_WATERMARK)
+				logger.debug("Skipping observations of series up to watermark {}.", new DateTime(series.watermark,
+						DateTimeZone.UTC));
+		}
+
+		if (seriesMirror != null) {
+			try {
+				series.mirroredSeries = seriesMirror.load(sosURL, header);
+			} catch (IOException e) {
+				fail(e);
+				return series;
+			}
+		}
+
+		if (getDataAvailabilityRequestTemplate != null)
+			series.dataAvailability = fetchDataAvailability(header);
+
+		if (deadbandFilter != null)
+			series.filter = deadbandFilter.forSeries(header);
+
+		TalsimStation station = stationOf(header);
+
+		if (!stationLanes.containsKey(station)) {
+			// station was not known in advance, register it lazily
+			List<TalsimSeriesHeader> headersOfStation = new ArrayList<TalsimSeriesHeader>();
+			headersOfStation.add(header);
+
+			stationLanes.put(station, CompletableFuture
+					.runAsync(laneTask(() -> processInsertSensorRequest(headersOfStation)), laneExecutor));
+		}
+
+		enqueue(station, () -> context.getProgressListener().onSeriesStarted(header));
+
+		return series;
+	}
+
+	private DataAvailability fetchDataAvailability(TalsimSeriesHeader header) {
+		IngestionMetrics.Measurement building = context.getMetrics().start(IngestionStage.BUILD);
+		String getDataAvailabilityRequest = SosRequestConstructor.createGetDataAvailabilityRequest(
+				stationOf(header), header, getDataAvailabilityRequestTemplate);
+		byte[] encodedRequest = getDataAvailabilityRequest.getBytes(StandardCharsets.UTF_8);
+		building.stop();
+
+		if (logger.isDebugEnabled())
+			logger.debug("Following GetDataAvailabilityRequest was constructed: {}", getDataAvailabilityRequest);
+
+		IngestionStage stage = IngestionStage.SEND;
+		try {
+			String response = send(SosRequestType.GET_DATA_AVAILABILITY, encodedRequest);
+
+			stage = IngestionStage.VERIFY;
+			IngestionMetrics.Measurement verifying = context.getMetrics().start(IngestionStage.VERIFY);
+			DataAvailability dataAvailability = DataAvailability.parse(response);
+			verifying.stop();
+
+			if (logger.isInfoEnabled() && !dataAvailability.isEmpty())
+				logger.info("SOS instance already holds observations of series {}. Observations within the "
+						+ "available time ranges are skipped.", header);
+
+			return dataAvailability;
+		} catch (Exception e) {
+			/*
+			 * e.g. the procedure is not known to the SOS instance yet;
+			 * inserting all observations is always safe
+			 */
+			if (logger.isWarnEnabled())
+				logger.warn("Could not determine data availability of series {}. Inserting all observations.",
+						header, e);
+
+			context.getMetrics().addFailure(new IngestionFailure(stage, header.toString(), e));
+
+			return DataAvailability.NONE;
+		}
+	}
+
+	private void completeCurrentSeries() {
+		if (currentAggregator != null) {
+			// aggregates of the last grid cell
+			for (TalsimObservation aggregatedObservation : currentAggregator.complete())
+				process(aggregatedObservation, false);
+
+			currentAggregator = null;
+		}
+
+		for (OpenSeries series : openSeries.values())
+			completeSeries(series);
+
+		openSeries.clear();
+	}
+
+	private void completeSeries(OpenSeries series) {
+		final TalsimSeriesHeader header = series.header;
+		final MirroredSeries mirroredSeries = series.mirroredSeries;
+		final SeriesInsertionEvent event = series.event;
+
+		if (series.filter != null) {
+			// the last observation of a series is always inserted
+			TalsimObservation lastObservation = series.filter.complete();
+			if (lastObservation != null) {
+				if (isAlreadyInserted(series, lastObservation)) {
+					context.incrementSkippedObservations();
+					series.event.numberOfSkippedObservations++;
+				} else {
+					insertObservation(series, lastObservation, false);
+				}
+			}
+
+			context.addSuppressedObservations(series.filter.getNumberOfSuppressedObservations());
+		}
+
+		enqueue(stationOf(header), () -> {
+			if (watermarkIndex != null)
+				watermarkIndex.force();
+			if (requestSink != null)
+				requestSink.flush();
+			if (mirroredSeries != null)
+				mirroredSeries.store();
+			if (context.getJournal() != null && context.isRecordingProgress())
+				context.getJournal().completeSeries(header.getSeriesIndex());
+			context.getProgressListener().onSeriesCompleted(header);
+
+			event.end();
+			if (event.shouldCommit()) {
+				event.station = header.getLocationId();
+				event.parameter = header.getParameterId();
+				event.commit();
+			}
+		});
+	}
+
+	private void enqueue(TalsimStation station, LaneTask task) {
+		CompletableFuture<Void> lane = stationLanes.get(station);
+
+		stationLanes.put(station, lane.thenRunAsync(laneTask(task), laneExecutor));
+	}
+
+	private Runnable laneTask(LaneTask task) {
+		return () -> {
+			try {
+				context.throwIfCancelled();
+
+				if (result.isDone())
+					return; // another lane failed, do not send further requests
+
+				task.run();
+			} catch (Throwable e) {
+				fail(e);
+				throw new CompletionException(e);
+			}
+		};
+	}
+
+	private TalsimStation stationOf(TalsimSeriesHeader header) {
+		return TalsimStation.of(header, qualifiedStationIdentifiers);
+	}
+
+	private void processInsertSensorRequest(List<TalsimSeriesHeader> headersOfStation) throws Exception {
+
+		TalsimStation station = stationOf(headersOfStation.get(0));
+
+		if (context.getRegisteredStations().contains(station)) {
+			if (logger.isDebugEnabled())
+				logger.debug("Station {} has been registered by a previous pass over the TalsimResult. Skipping "
+						+ "InsertSensorRequest.", station);
+			return;
+		}
+
+		// a SOS instance rejects the InsertSensor request of a procedure it already knows
+		IngestionJournal journal = context.getJournal();
+		boolean isRegistered = sensorRegistry != null && sensorRegistry.isRegistered(sosURL, station);
+		boolean isInserted = isRegistered
+				|| (journal != null && journal.isSensorInserted(station.getProcedureIdentifier()));
+
+		// the mirrors are tracked separately, they may have been added after the station was registered
+		boolean isDeliveredToMirrors = fanOut == null || fanOut.isSensorDelivered(station, sensorRegistry);
+
+		if (isInserted && isDeliveredToMirrors) {
+			if (logger.isInfoEnabled())
+				logger.info("Station {} is already registered at the SOS instance. Skipping InsertSensorRequest.",
+						station);
+			return;
+		}
+
+		if (logger.isDebugEnabled())
+			logger.debug("Building InsertSensorRequest of station {}.", station);
+
+		IngestionMetrics.Measurement building = context.getMetrics().start(IngestionStage.BUILD);
+		String insertSensorRequest = SosRequestConstructor.createInsertSensorRequest(station, headersOfStation,
+				insertSensorRequestTemplate);
+
+		// encoded once for the SOS instance and all mirrors
+		byte[] encodedRequest = insertSensorRequest.getBytes(StandardCharsets.UTF_8);
+		building.stop();
+
+		if (logger.isDebugEnabled())
+			logger.debug("The following InsertSensorRequest was constructed: {}", insertSensorRequest);
+
+		context.throwIfCancelled();
+
+		if (isInserted) {
+			if (logger.isInfoEnabled())
+				logger.info("Station {} is already registered at the SOS instance. Sending InsertSensorRequest "
+						+ "to mirrors only.", station);
+
+			fanOut.deliverInsertSensor(station, encodedRequest, sensorRegistry);
+			return;
+		}
+
+		if (requestSink != null) {
+			requestSink.accept(SosRequestType.INSERT_SENSOR, insertSensorRequest);
+		} else {
+			if (logger.isDebugEnabled())
+				logger.debug("Sending InsertSensorRequest.");
+
+			String response_insertSensor = send(SosRequestType.INSERT_SENSOR, encodedRequest);
+
+			if (logger.isDebugEnabled())
+				logger.debug("The SOS instance sent the following response to the InsertSensorRequest: {}",
+						response_insertSensor);
+
+			// throw exception if insertion was not successful
+
+			if (logger.isDebugEnabled())
+				logger.debug("Inspecting response of InsertSensor operation.");
+
+			IngestionMetrics.Measurement verifying = context.getMetrics().start(IngestionStage.VERIFY);
+			checkResponse_insertSensor(response_insertSensor);
+			verifying.stop();
+
+			if (logger.isInfoEnabled())
+				logger.info("InsertSensorRequest of station {} succeeded.", station);
+		}
+
+		if (fanOut != null)
+			fanOut.deliverInsertSensor(station, encodedRequest, sensorRegistry);
+
+		if (sensorRegistry != null)
+			sensorRegistry.register(sosURL, station);
+
+		// also by runs that do not record progress otherwise, the station is registered anyway
+		if (journal != null)
+			journal.acknowledgeSensor(station.getProcedureIdentifier());
+
+		context.getRegisteredStations().add(station);
+
+		context.getProgressListener().onSensorInserted(station.getProcedureIdentifier());
+	}
+
+	private void processInsertObservationRequest(TalsimObservation observation) throws Exception {
+
+		// the progress is reported by a ProgressReporter, only a sample of the requests is logged in detail
+		boolean logDetails = logger.isTraceEnabled() || (logger.isDebugEnabled()
+				&& observation.getEventIndex() % SosRequestConstructor.DETAIL_SAMPLING_INTERVAL == 0);
+
+		if (logDetails)
+			logger.debug("Building InsertObservationRequest #{} of series {}", observation.getEventIndex(),
+					observation.getHeader());
+
+		IngestionMetrics.Measurement building = context.getMetrics().start(IngestionStage.BUILD);
+		String insertObservationRequest = SosRequestConstructor.createInsertObservationRequest(
+				stationOf(observation.getHeader()), observation, insertObservationRequestTemplate);
+
+		// encoded once for the SOS instance and all mirrors
+		byte[] encodedRequest = insertObservationRequest.getBytes(StandardCharsets.UTF_8);
+		building.stop();
+
+		if (logDetails)
+			logger.debug("Following InsertObservationRequest was constructed: {}", insertObservationRequest);
+
+		context.throwIfCancelled();
+
+		if (context.getRateLimiter() != null)
+			context.getRateLimiter().acquire();
+
+		if (requestSink != null) {
+			requestSink.accept(SosRequestType.INSERT_OBSERVATION, insertObservationRequest);
+		} else {
+			if (logDetails)
+				logger.debug("Sending InsertObservationRequest #{}.", observation.getEventIndex());
+
+			String sosResponse_insertObservation = send(SosRequestType.INSERT_OBSERVATION, encodedRequest);
+
+			if (logDetails)
+				logger.debug("Inspecting response of InsertObservation operation.");
+
+			// throw exception if insertion was not successful
+			IngestionMetrics.Measurement verifying = context.getMetrics().start(IngestionStage.VERIFY);
+			checkResponse_insertObservation(sosResponse_insertObservation);
+			verifying.stop();
+
+			if (logDetails)
+				logger.debug("InsertObservationRequest #{} succeeded.", observation.getEventIndex());
+		}
+
+		if (fanOut != null)
+			fanOut.deliver(SosRequestType.INSERT_OBSERVATION, encodedRequest);
+
+		if (watermarkIndex != null && context.isRecordingProgress())
+			watermarkIndex.advance(sosURL, observation.getHeader(), observation.getPhenomenonTimeMillis());
+
+		if (context.getJournal() != null && context.isRecordingProgress())
+			context.getJournal().acknowledge(observation.getHeader().getSeriesIndex(), observation.getEventIndex());
+
+		context.incrementInsertedObservations();
+		context.getProgressListener().onObservationInserted(observation);
+	}
+
+	/**
+	 * Sends an encoded request to the SOS instance once a request permit is
+	 * available and records its response time.
+	 */
+	private String send(SosRequestType type, byte[] encodedRequest) throws Exception {
+		acquireRequestPermit();
+		context.getMetrics().onRequestStarted();
+		try {
+			IngestionMetrics.Measurement sending = context.getMetrics().start(IngestionStage.SEND);
+
+			String response;
+			switch (type) {
+			case INSERT_SENSOR:
+				response = SosRequestSender.sendInsertSensorRequestToSOS(sosURL, encodedRequest, authorization_token);
+				break;
+			case INSERT_OBSERVATION:
+				response = SosRequestSender.sendInsertObservationRequestToSOS(sosURL, encodedRequest,
+						authorization_token);
+				break;
+			default:
+				response = SosRequestSender.sendGetDataAvailabilityRequestToSOS(sosURL, encodedRequest,
+						authorization_token);
+			}
+
+			context.getMetrics().recordRequest(type, encodedRequest.length, sending.stop());
+			return response;
+		} finally {
+			context.getMetrics().onRequestFinished();
+			releaseRequestPermit();
+		}
+	}
+
+	private void acquireRequestPermit() throws InterruptedException {
+		if (requestPermits != null)
+			requestPermits.acquire();
+
+		RequestGate requestGate = context.getRequestGate();
+		if (requestGate != null) {
+			try {
+				requestGate.acquire();
+			} catch (InterruptedException e) {
+				if (requestPermits != null)
+					requestPermits.release();
+				throw e;
+			}
+		}
+	}
+
+	private void releaseRequestPermit() {
+		if (context.getRequestGate() != null)
+			context.getRequestGate().release();
+
+		if (requestPermits != null)
+			requestPermits.release();
+	}
+
+	private void checkResponse_insertSensor(String response_insertSensor) throws Exception {
+		/*
+		 * check if response contains the String "InsertSensorResponse"
+		 *
+		 * If yes, then assume that request was accepted and insertion was
+		 * successful
+		 *
+		 * If no, assume that something went wrong and throw exception
+		 */
+
+		if (logger.isTraceEnabled())
+			logger.trace(
+					"Check if response of InsertSensor operation includes String '{}'. The response message is: {}",
+					INSERT_SENSOR_RESPONSE_STRING, response_insertSensor);
+
+		if (response_insertSensor.contains(INSERT_SENSOR_RESPONSE_STRING))
+			return;
+		else {
+			if (logger.isErrorEnabled())
+				logger.error("InsertSensorRequest failed! SOS instance returned the following response: {}",
+						response_insertSensor);
+
+			throw new Exception("InsertSensorRequest failed! SOS instance returned the following response: "
+					+ response_insertSensor);
+		}
+	}
+
+	private void checkResponse_insertObservation(String response_insertObservation) throws Exception {
+		/*
+		 * check if response contains th String "InsertObservationResponse"
+		 *
+		 * If yes, then assume that request was accepted and insertion was
+		 * successful
+		 *
+		 * If no, assume that something went wrong and throw exception
+		 */
+
+		if (logger.isTraceEnabled())
+			logger.trace(
+					"Check if response of InsertObservation operation includes String '{}'. The response message is: {}",
+					INSERT_OBSERVATION_RESPONSE_STRING, response_insertObservation);
+
+		if (response_insertObservation.contains(INSERT_OBSERVATION_RESPONSE_STRING))
+			return;
+		else {
+			if (logger.isErrorEnabled())
+				logger.error("InsertObservationRequest failed! SOS instance returned the following response: {}",
+						response_insertObservation);
+
+			throw new Exception("InsertObservationRequest failed! SOS instance returned the following response: "
+					+ response_insertObservation);
+		}
+	}
+
+	/**
+	 * State of a series that is currently inserted.
+	 */
+	private static class OpenSeries {
+
+		private final TalsimSeriesHeader header;
+		private long watermark = SeriesWatermarkIndex.NO_WATERMARK;
+		private MirroredSeries mirroredSeries;
+		private DataAvailability dataAvailability = DataAvailability.NONE;
+		private DeadbandFilter.SeriesFilter filter;
+
+		// recorded by the Java Flight Recorder once all observations have been inserted
+		private final SeriesInsertionEvent event = new SeriesInsertionEvent();
+
+		private OpenSeries(TalsimSeriesHeader header) {
+			this.header = header;
+		}
+
+	}
+
+	/**
+	 * A single step within the lane of a station.
+	 */
+	private interface LaneTask {
+		void run() throws Exception;
+	}
+
+}
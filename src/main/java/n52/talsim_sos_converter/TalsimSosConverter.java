@@ -2,38 +2,399 @@ package n52.talsim_sos_converter;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.ProtocolException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 import n52.talsim_sos_converter.helper.Constants;
+import n52.talsim_sos_converter.helper.DeadbandFilter;
+import n52.talsim_sos_converter.helper.IngestionJournal;
+import n52.talsim_sos_converter.helper.MetricsRegistry;
+import n52.talsim_sos_converter.helper.ObservationAggregation;
+import n52.talsim_sos_converter.helper.RequestRateLimiter;
 import n52.talsim_sos_converter.helper.ResourceLoader;
-import n52.talsim_sos_converter.helper.SosRequestConstructor;
-import n52.talsim_sos_converter.helper.SosRequestSender;
+import n52.talsim_sos_converter.helper.SensorRegistry;
+import n52.talsim_sos_converter.helper.SeriesMirror;
+import n52.talsim_sos_converter.helper.SeriesWatermarkIndex;
+import n52.talsim_sos_converter.helper.SosFanOut;
+import n52.talsim_sos_converter.helper.SosRequestSink;
+import n52.talsim_sos_converter.helper.TalsimEventFilter;
+import n52.talsim_sos_converter.helper.TalsimObservationPublisher;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+import n52.talsim_sos_converter.helper.TalsimStation;
+import n52.talsim_sos_converter.helper.TalsimStreamReader;
 
 public class TalsimSosConverter {
 
 	private Logger logger = LoggerFactory.getLogger(getClass());
 
-	private static final String INSERT_OBSERVATION_RESPONSE_STRING = "InsertObservationResponse";
-	private static final String INSERT_SENSOR_RESPONSE_STRING = "InsertSensorResponse";
+	/**
+	 * default value for {@link #setMaxPendingObservations(int)}
+	 */
+	public static final int DEFAULT_MAX_PENDING_OBSERVATIONS = 256;
+
+	private int maxPendingObservations = DEFAULT_MAX_PENDING_OBSERVATIONS;
+
+	private Semaphore requestPermits = null;
+
+	private SensorRegistry sensorRegistry = null;
+
+	private SeriesWatermarkIndex watermarkIndex = null;
+	private boolean forceFullReload = false;
+
+	private SeriesMirror seriesMirror = null;
+
+	private boolean reconcileWithDataAvailability = false;
+
+	private String authorizationToken = null;
+
+	private String insertSensorRequestTemplate = null;
+	private String insertObservationRequestTemplate = null;
+	private String getDataAvailabilityRequestTemplate = null;
+
+	private Path journalDirectory = null;
+
+	/**
+	 * default value for {@link #setJournalRetention(long)}: one week
+	 */
+	public static final long DEFAULT_JOURNAL_RETENTION_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+	private static final long JOURNAL_EXPIRY_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+	private long journalRetentionMillis = DEFAULT_JOURNAL_RETENTION_MILLIS;
+	private final AtomicLong nextJournalExpiryMillis = new AtomicLong();
+
+	private SosRequestSink requestSink = null;
+	private DeadbandFilter deadbandFilter = null;
+	private ObservationAggregation aggregation = null;
+	private TalsimEventFilter eventFilter = null;
+	private SosFanOut fanOut = null;
+	private boolean qualifiedStationIdentifiers = false;
+
+	private MetricsRegistry metricsRegistry = null;
+
+	/**
+	 * default value for {@link #setProgressReportInterval(long)}
+	 */
+	public static final long DEFAULT_PROGRESS_REPORT_INTERVAL_MILLIS = 10000;
+
+	private long progressReportIntervalMillis = DEFAULT_PROGRESS_REPORT_INTERVAL_MILLIS;
+
+	/**
+	 * Sets the maximum number of parsed observations that may wait for their
+	 * insertion at any time. A higher value lets the insertion of different
+	 * stations of the same TalsimResult overlap more, at the cost of memory.
+	 *
+	 * @param maxPendingObservations
+	 *            a positive number, default is
+	 *            {@link #DEFAULT_MAX_PENDING_OBSERVATIONS}
+	 */
+	public void setMaxPendingObservations(int maxPendingObservations) {
+		if (maxPendingObservations < 1)
+			throw new IllegalArgumentException("maxPendingObservations must be positive");
+
+		this.maxPendingObservations = maxPendingObservations;
+	}
+
+	/**
+	 * Limits the number of HTTP requests that are in flight at the same time
+	 * across <i>all</i> insertions of this converter, e.g. of the files of a
+	 * {@link BatchIngestion}. Requests exceeding the limit wait for a
+	 * previous request to be answered.
+	 *
+	 * @param maxInFlightRequests
+	 *            a positive number, or 0 (default) for no limit
+	 */
+	public void setMaxInFlightRequests(int maxInFlightRequests) {
+		if (maxInFlightRequests < 0)
+			throw new IllegalArgumentException("maxInFlightRequests must not be negative");
+
+		this.requestPermits = maxInFlightRequests > 0 ? new Semaphore(maxInFlightRequests, true) : null;
+	}
+
+	/**
+	 * Sets the {@link SensorRegistry} that remembers which stations are
+	 * already registered at a SOS instance. If set, the InsertSensor request
+	 * of a station is only sent if the station is not contained in the
+	 * registry; stations inserted successfully are added to it.
+	 *
+	 * @param sensorRegistry
+	 *            the registry to use, or {@code null} (default) to send the
+	 *            InsertSensor request of each station in every run
+	 */
+	public void setSensorRegistry(SensorRegistry sensorRegistry) {
+		this.sensorRegistry = sensorRegistry;
+	}
+
+	/**
+	 * Sets the {@link SeriesWatermarkIndex} used for incremental insertion. If
+	 * set, observations of a series that are not later than the latest
+	 * observation inserted by a previous run are skipped, and the index is
+	 * advanced with each inserted observation.
+	 *
+	 * @param watermarkIndex
+	 *            the index to use, or {@code null} (default) to insert all
+	 *            observations
+	 */
+	public void setWatermarkIndex(SeriesWatermarkIndex watermarkIndex) {
+		this.watermarkIndex = watermarkIndex;
+	}
+
+	/**
+	 * Sets the {@link SeriesMirror} used for incremental insertion. If set,
+	 * an observation is only inserted if the mirror does not contain an
+	 * observation of the same series with the same phenomenon time and value.
+	 * In contrast to the {@link SeriesWatermarkIndex}, this also detects
+	 * changed values within the time window of previous runs.
+	 *
+	 * @param seriesMirror
+	 *            the mirror to use, or {@code null} (default) to insert all
+	 *            observations
+	 */
+	public void setSeriesMirror(SeriesMirror seriesMirror) {
+		this.seriesMirror = seriesMirror;
+	}
+
+	/**
+	 * Enables the reconciliation with the data already held by the SOS
+	 * instance. If enabled, the time ranges of each series already available
+	 * in the SOS instance are requested via the GetDataAvailability operation
+	 * before its observations are inserted, and observations within these
+	 * ranges are skipped. This does not require any local state, e.g. when
+	 * re-ingesting archives on a fresh node.
+	 *
+	 * @param reconcileWithDataAvailability
+	 *            {@code true} to enable the reconciliation, default is
+	 *            {@code false}
+	 */
+	public void setReconcileWithDataAvailability(boolean reconcileWithDataAvailability) {
+		this.reconcileWithDataAvailability = reconcileWithDataAvailability;
+	}
+
+	/**
+	 * Enables the checkpoint/resume journal for insertions of TalsimResult
+	 * files (see {@link #insertOutputToSOS(Path, URL)}). The progress of each
+	 * file is recorded in an {@link IngestionJournal} within
+	 * {@code journalDirectory}; a rerun on a file whose insertion failed
+	 * continues with the first observation not acknowledged by the SOS
+	 * instance.
+	 *
+	 * @param journalDirectory
+	 *            directory of the journals, or {@code null} (default) to
+	 *            disable journaling
+	 */
+	public void setJournalDirectory(Path journalDirectory) {
+		this.journalDirectory = journalDirectory;
+	}
+
+	/**
+	 * Sets how long the journal of a completed file is kept. Until then, a
+	 * rerun on the same file is skipped; afterwards the journal is deleted
+	 * and a rerun inserts the file again. Expired journals are deleted at
+	 * most once an hour, when a file is inserted.
+	 *
+	 * @param journalRetentionMillis
+	 *            the retention in milliseconds, default is
+	 *            {@link #DEFAULT_JOURNAL_RETENTION_MILLIS}
+	 */
+	public void setJournalRetention(long journalRetentionMillis) {
+		if (journalRetentionMillis < 0)
+			throw new IllegalArgumentException("journalRetentionMillis must not be negative");
+
+		this.journalRetentionMillis = journalRetentionMillis;
+		this.nextJournalExpiryMillis.set(0);
+	}
+
+	/**
+	 * Sets a {@link SosRequestSink} that receives the encoded InsertSensor and
+	 * InsertObservation requests instead of the SOS instance. For instance, a
+	 * {@link n52.talsim_sos_converter.helper.RequestSpool} decouples parsing
+	 * and encoding from the delivery, which is then done in the background by
+	 * a {@link n52.talsim_sos_converter.helper.SpoolDrainer}.
+	 *
+	 * With a sink, an insertion completes as soon as all requests have been
+	 * accepted by the sink; a {@link SensorRegistry},
+	 * {@link SeriesWatermarkIndex}, {@link SeriesMirror} or journal is updated
+	 * at that point as well.
+	 *
+	 * A {@link n52.talsim_sos_converter.helper.RequestBundleWriter} writes the
+	 * requests to a bundle file that can be delivered later by a
+	 * {@link n52.talsim_sos_converter.helper.RequestBundleReplayer}. Unless
+	 * reconciling with the data availability, no authorization token is
+	 * needed when using a sink.
+	 *
+	 * @param requestSink
+	 *            the sink, or {@code null} (default) to send all requests to
+	 *            the SOS instance directly
+	 */
+	public void setRequestSink(SosRequestSink requestSink) {
+		this.requestSink = requestSink;
+	}
+
+	/**
+	 * Sets a {@link DeadbandFilter} that suppresses observations whose value
+	 * hardly differs from the last inserted value of their series. The number
+	 * of suppressed observations is reported by
+	 * {@link IngestionReport#getNumberOfSuppressedObservations()}.
+	 *
+	 * @param deadbandFilter
+	 *            the filter, or {@code null} (default) to insert all
+	 *            observations
+	 */
+	public void setDeadbandFilter(DeadbandFilter deadbandFilter) {
+		this.deadbandFilter = deadbandFilter;
+	}
+
+	/**
+	 * Sets a downsampling stage that replaces the observations of each series
+	 * by aggregates on a coarser time grid, e.g. hourly mean, minimum and
+	 * maximum instead of 15-minute values. The aggregated series are inserted
+	 * with procedures and offerings of their own; the original observations
+	 * are not inserted. A {@link DeadbandFilter} applies to the aggregated
+	 * series.
+	 *
+	 * @param aggregation
+	 *            the aggregation, or {@code null} (default) to insert the
+	 *            original observations
+	 */
+	public void setAggregation(ObservationAggregation aggregation) {
+		this.aggregation = aggregation;
+	}
+
+	/**
+	 * Sets a {@link TalsimEventFilter} that drops "event" nodes while parsing,
+	 * e.g. events equal to "missVal" or outside a time window. Series without
+	 * any event within the time window are not parsed at all.
+	 *
+	 * @param eventFilter
+	 *            the filter, or {@code null} (default) to insert all events
+	 */
+	public void setEventFilter(TalsimEventFilter eventFilter) {
+		this.eventFilter = eventFilter;
+	}
+
+	/**
+	 * Sets a {@link SosFanOut} that mirrors the insertion into further SOS
+	 * instances. Each request accepted by the SOS instance the insertion is
+	 * started for is handed to the fan-out, encoded only once. Failures of a
+	 * mirror do not fail the insertion.
+	 *
+	 * @param fanOut
+	 *            the fan-out, or {@code null} (default) for no mirrors
+	 */
+	public void setFanOut(SosFanOut fanOut) {
+		this.fanOut = fanOut;
+	}
+
+	/**
+	 * Suffixes the procedure and offering identifiers of each station with
+	 * "_" and the value of node "locationId", see {@link TalsimStation}. This
+	 * is required if stations of different locations share a "stationName"
+	 * or if the SOS instance allows only one procedure per offering, e.g. for
+	 * TalsimResults with several stations.
+	 *
+	 * Enabling it for a SOS instance that already contains data registers new
+	 * procedures and offerings; the existing observations remain with the
+	 * previous identifiers (see README).
+	 *
+	 * @param qualifiedStationIdentifiers
+	 *            {@code true} for qualified identifiers, {@code false}
+	 *            (default) for procedure "stationName" and offering
+	 *            {@link Constants#OFFERING_IDENTIFIER_VALUE}
+	 */
+	public void setQualifiedStationIdentifiers(boolean qualifiedStationIdentifiers) {
+		this.qualifiedStationIdentifiers = qualifiedStationIdentifiers;
+	}
+
+	/**
+	 * Sets a {@link MetricsRegistry} that receives the live metrics of all
+	 * insertions of this converter, e.g. the parsed events, the requests in
+	 * flight and the response times of the SOS instance.
+	 *
+	 * @param metricsRegistry
+	 *            the registry, or {@code null} (default) for no live metrics
+	 */
+	public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	/**
+	 * Sets the minimum time between two progress messages logged during an
+	 * insertion. A message summarizes the inserted observations per second,
+	 * the estimated time until the insertion is finished and the percentage
+	 * done of each running series. Details of single observations are only
+	 * logged for a sample of the observations at DEBUG level.
+	 *
+	 * @param progressReportIntervalMillis
+	 *            the interval in milliseconds (default
+	 *            {@value #DEFAULT_PROGRESS_REPORT_INTERVAL_MILLIS}), or
+	 *            {@code 0} to log no progress messages
+	 */
+	public void setProgressReportInterval(long progressReportIntervalMillis) {
+		if (progressReportIntervalMillis < 0)
+			throw new IllegalArgumentException("progressReportIntervalMillis must not be negative");
+
+		this.progressReportIntervalMillis = progressReportIntervalMillis;
+	}
+
+	/**
+	 * Sets the token for the request header 'Authorization'. If not set, the
+	 * token is fetched via {@link ResourceLoader#fetchAuthorizationToken()}
+	 * for each insertion.
+	 *
+	 * @param authorizationToken
+	 *            the token, or {@code null} to fetch it from the local
+	 *            properties file
+	 */
+	public void setAuthorizationToken(String authorizationToken) {
+		this.authorizationToken = authorizationToken;
+	}
+
+	/**
+	 * @param forceFullReload
+	 *            if {@code true}, all observations are inserted even if they
+	 *            are older than the watermark of their series or unchanged
+	 *            compared to the {@link SeriesMirror}; both are still updated.
+	 *            Default is {@code false}.
+	 */
+	public void setForceFullReload(boolean forceFullReload) {
+		this.forceFullReload = forceFullReload;
+	}
+
+	/**
+	 * Primes the {@link SensorRegistry} set via
+	 * {@link #setSensorRegistry(SensorRegistry)} with the procedures and
+	 * offerings announced in the capabilities of the SOS instance.
+	 *
+	 * @param sosURL
+	 *            URL to the SOS-T (transactional SOS instance)
+	 * @return the number of procedure/offering pairs found in the
+	 *         capabilities
+	 * @throws Exception
+	 */
+	public int primeSensorRegistry(URL sosURL) throws Exception {
+		if (sensorRegistry == null)
+			throw new IllegalStateException("No SensorRegistry has been set.");
+
+		return sensorRegistry.primeFromCapabilities(sosURL, fetchAuthorizationToken());
+	}
 
 	/**
 	 * Parses the TALSIM output/result and uses the transactional SOS methods to
 	 * insert both the sensor and all included measurements to the SOS instance
 	 * with the specified URL
-	 * 
+	 *
 	 * @param talsimOutput
 	 *            an {@link InputStream} of the TASLIM XML output including
 	 *            sensor definition and measurements. However, it does not
@@ -41,213 +402,527 @@ public class TalsimSosConverter {
 	 * @param sosURL
 	 *            URL to the SOS-T (transactional SOS instance), to which the
 	 *            data from {@code talsimOutput} should be transferred to
-	 * @return <b>true</b> if insertion was successful, <b>false</b> otherwise
+	 * @return the {@link IngestionReport} of the successful insertion
 	 * @throws Exception
+	 *             if the insertion failed
 	 */
-	public boolean insertOutputToSOS(InputStream talsimOutput, URL sosURL) throws Exception {
+	public IngestionReport insertOutputToSOS(InputStream talsimOutput, URL sosURL) throws Exception {
 
-		if (logger.isInfoEnabled())
-			logger.info("Begin Insertion of TalsimResult into SOS instance with URL '{}'.", sosURL);
+		// run the whole insertion on the calling thread
+		CompletableFuture<IngestionReport> result = insertOutputToSOSAsync(talsimOutput, sosURL, Runnable::run,
+				IngestionProgressListener.NONE);
 
-		/*
-		 * parse TalsimResult.xml
-		 */
+		return awaitResult(result);
+	}
 
-		if (logger.isInfoEnabled())
-			logger.info("Parsing TalsimResult InputStream.");
+	/**
+	 * Non-blocking variant of {@link #insertOutputToSOS(InputStream, URL)}. The
+	 * whole insertion is executed on the given {@code executor}; the calling
+	 * thread returns immediately.
+	 *
+	 * Cancelling the returned {@link CompletableFuture} (via
+	 * {@link CompletableFuture#cancel(boolean)}) stops the insertion as soon as
+	 * possible: parsing of {@code talsimOutput} is aborted with the next read
+	 * operation and no further request is built or sent to the SOS instance.
+	 * Requests that have already been accepted by the SOS instance are not
+	 * rolled back.
+	 *
+	 * @param talsimOutput
+	 *            an {@link InputStream} of the TASLIM XML output
+	 * @param sosURL
+	 *            URL to the SOS-T (transactional SOS instance), to which the
+	 *            data from {@code talsimOutput} should be transferred to
+	 * @param executor
+	 *            the {@link Executor} that performs the insertion
+	 * @param progressListener
+	 *            receives progress notifications, may be {@code null}
+	 * @return a {@link CompletableFuture} that is completed with an
+	 *         {@link IngestionReport} once the insertion succeeded, or
+	 *         completed exceptionally if the insertion failed
+	 */
+	public CompletableFuture<IngestionReport> insertOutputToSOSAsync(InputStream talsimOutput, URL sosURL,
+			Executor executor, IngestionProgressListener progressListener) {
 
-		// create a new DocumentBuilderFactory
-		Document talsimDocument = parseTalsimDocument(talsimOutput);
+		return startInsertion(talsimOutput, sosURL, executor, new IngestionContext(progressListener), null,
+				eventFilter);
+	}
 
-		// load template files
+	/**
+	 * Parses the TalsimResult file and inserts its contents into the SOS
+	 * instance like {@link #insertOutputToSOS(InputStream, URL)}.
+	 *
+	 * In contrast to the {@link InputStream} variant, the "header" nodes of
+	 * the file are read in advance. Hence, the InsertSensor requests of all
+	 * stations contained in the file are sent before the first observation
+	 * and declare the units of all "series" nodes of their station.
+	 *
+	 * @param talsimFile
+	 *            path to a TASLIM XML output file
+	 * @param sosURL
+	 *            URL to the SOS-T (transactional SOS instance)
+	 * @return the {@link IngestionReport} of the successful insertion
+	 * @throws Exception
+	 *             if the insertion failed
+	 */
+	public IngestionReport insertOutputToSOS(Path talsimFile, URL sosURL) throws Exception {
 
-		if (logger.isInfoEnabled())
-			logger.info(
-					"Loading template reource files for InsertSensorRequest and InsertObservationRequest and fetching authorization token.");
+		return awaitResult(
+				insertOutputToSOSAsync(talsimFile, sosURL, Runnable::run, IngestionProgressListener.NONE));
+	}
 
-		String insertSensorRequestTemplate = ResourceLoader.loadInsertSensorRequestTemplate();
-		String insertObservationRequestTemplate = ResourceLoader.loadInsertObservationRequestTemplate();
-		String authorization_token = ResourceLoader.fetchAuthorizationToken();
+	/**
+	 * Non-blocking variant of {@link #insertOutputToSOS(Path, URL)}. The
+	 * InsertSensor requests of all stations contained in the file are sent
+	 * concurrently on the given {@code executor}; afterwards the observations
+	 * of each station are streamed to the SOS instance independently of the
+	 * other stations.
+	 *
+	 * @param talsimFile
+	 *            path to a TASLIM XML output file
+	 * @param sosURL
+	 *            URL to the SOS-T (transactional SOS instance)
+	 * @param executor
+	 *            the {@link Executor} that performs the insertion
+	 * @param progressListener
+	 *            receives progress notifications, may be {@code null}; it may
+	 *            be invoked concurrently for different stations
+	 * @return a {@link CompletableFuture} that is completed with an
+	 *         {@link IngestionReport} once the insertion succeeded
+	 * @see #insertOutputToSOSAsync(InputStream, URL, Executor,
+	 *      IngestionProgressListener)
+	 */
+	public CompletableFuture<IngestionReport> insertOutputToSOSAsync(Path talsimFile, URL sosURL, Executor executor,
+			IngestionProgressListener progressListener) {
 
-		/*
-		 * create InsertSensor Request and send it to SOS-T
-		 */
+		return insertOutputToSOSAsync(talsimFile, sosURL, executor, new IngestionContext(progressListener));
+	}
 
-		if (logger.isInfoEnabled())
-			logger.info("Starting to build and send InsertSensorRequest.");
+	/**
+	 * Inserts the TalsimResult file within the given, preconfigured
+	 * {@link IngestionContext}, e.g. of a job of an
+	 * {@link IngestionScheduler}.
+	 */
+	CompletableFuture<IngestionReport> insertOutputToSOSAsync(Path talsimFile, URL sosURL, Executor executor,
+			IngestionContext context) {
 
-		processInsertSensorRequest(sosURL, talsimDocument, insertSensorRequestTemplate, authorization_token);
+		CompletableFuture<IngestionReport> result = readAllHeadersAsync(talsimFile, executor)
+				.thenCompose(seriesHeaders -> insertFileAsync(talsimFile, sosURL, executor, context,
+						selectHeaders(seriesHeaders, eventFilter), eventFilter));
 
-		/*
-		 * process InsertObsrvation
-		 */
+		propagateCancellation(result, context);
 
-		if (logger.isInfoEnabled())
-			logger.info("Starting to build and send InsertObservationRequests.");
+		return result;
+	}
 
-		processInsertObservationRequests(sosURL, talsimDocument, insertObservationRequestTemplate, authorization_token);
+	/**
+	 * Inserts a TalsimResult file latest-first, so that the values that matter
+	 * most to dashboards are available as soon as possible:
+	 * <ol>
+	 * <li>the observations of the last {@code recentWindowMillis} (up to the
+	 * latest "endDate" of all series) are inserted for every series</li>
+	 * <li>afterwards the older observations are backfilled, limited to
+	 * {@code backfillRequestsPerSecond} InsertObservation requests per
+	 * second</li>
+	 * </ol>
+	 *
+	 * The recent pass neither advances a {@link SeriesWatermarkIndex} nor
+	 * writes to a journal, as it leaves gaps in the series. Only once the
+	 * backfill succeeded, the watermarks are advanced to the recent
+	 * observations, so an aborted backfill is resumed by the next run.
+	 *
+	 * @param talsimFile
+	 *            path to a TASLIM XML output file
+	 * @param sosURL
+	 *            URL to the SOS-T (transactional SOS instance)
+	 * @param recentWindowMillis
+	 *            length of the recent period inserted first, in milliseconds
+	 * @param backfillRequestsPerSecond
+	 *            maximum rate of InsertObservation requests of the backfill,
+	 *            or 0 for no limit
+	 * @param executor
+	 *            the {@link Executor} that performs the insertion
+	 * @param progressListener
+	 *            receives progress notifications of both passes, may be
+	 *            {@code null}
+	 * @return the handle of the insertion
+	 */
+	public LatestFirstInsertion insertOutputToSOSLatestFirstAsync(Path talsimFile, URL sosURL,
+			long recentWindowMillis, double backfillRequestsPerSecond, Executor executor,
+			IngestionProgressListener progressListener) {
 
-		if (logger.isInfoEnabled())
-			logger.info("Insertion of Sensor and Observations from TalsimResult to SOS instance succeded.");
+		TalsimEventFilter baseEventFilter = eventFilter != null ? eventFilter : new TalsimEventFilter();
+		RequestRateLimiter backfillRateLimiter = backfillRequestsPerSecond > 0
+				? new RequestRateLimiter(backfillRequestsPerSecond) : null;
 
-		return true;
-	}
+		LatestObservationTracker recentObservations = new LatestObservationTracker(progressListener);
 
-	private void processInsertObservationRequests(URL SosURL, Document talsimDocument,
-			String insertObservationRequestTemplate, String authorization_token)
-			throws Exception, ProtocolException, IOException {
-		/*
-		 * each series node contains information for one observableProperty,
-		 * hence different request have to be set-up for different series nodes
-		 */
+		IngestionContext recentContext = new IngestionContext(recentObservations);
+		recentContext.setRecordingProgress(false);
 
-		if (logger.isInfoEnabled())
-			logger.info("Extracting all 'series' nodes from parsed TalsimResult.");
+		IngestionContext backfillContext = new IngestionContext(progressListener);
+		backfillContext.setRateLimiter(backfillRateLimiter);
+		// a SOS instance rejects a second InsertSensor request of a station
+		backfillContext.setRegisteredStations(recentContext.getRegisteredStations());
 
-		NodeList seriesNodes = talsimDocument.getElementsByTagName(Constants.TALSIM_SERIES_NODE);
-		int numberOfSeriesNodes = seriesNodes.getLength();
+		CompletableFuture<List<TalsimSeriesHeader>> headers = readAllHeadersAsync(talsimFile, executor);
 
-		if (logger.isInfoEnabled())
-			logger.info("Number of extracted 'series' nodes is '{}'.", numberOfSeriesNodes);
+		CompletableFuture<IngestionReport> recentResult = headers.thenCompose(seriesHeaders -> {
+			long recentBeginMillis = computeRecentBeginMillis(seriesHeaders, recentWindowMillis);
 
-		/*
-		 * for each event in seriesNode: create InsertObservation requests and
-		 * send them to SOS-T
-		 */
-		for (int i = 0; i < numberOfSeriesNodes; i++) {
-			Node seriesNode = seriesNodes.item(i);
+			/*
+			 * the recent pass registers the stations with the series of both
+			 * passes, as the backfill does not register them again
+			 */
+			return insertFileAsync(talsimFile, sosURL, executor, recentContext,
+					selectHeaders(seriesHeaders, baseEventFilter),
+					baseEventFilter.restrictTimeWindow(recentBeginMillis, Long.MAX_VALUE));
+		});
 
-			if (logger.isInfoEnabled())
-				logger.info("Start processing of next 'series' node.");
+		CompletableFuture<IngestionReport> backfillResult = recentResult.thenCompose(recentReport -> {
+			List<TalsimSeriesHeader> seriesHeaders = headers.join();
+			long recentBeginMillis = computeRecentBeginMillis(seriesHeaders, recentWindowMillis);
 
 			if (logger.isInfoEnabled())
-				logger.info("Begin building of InsertObservationRequests for current 'series' node.");
+				logger.info("Inserted recent observations of TalsimResult '{}'. Starting backfill.", talsimFile);
+
+			if (recentBeginMillis == Long.MIN_VALUE) // all observations have been inserted already
+				return CompletableFuture.completedFuture(new IngestionReport(sosURL, 0, 0, 0,
+						System.currentTimeMillis(), System.currentTimeMillis()));
+
+			TalsimEventFilter backfillEventFilter = baseEventFilter.restrictTimeWindow(Long.MIN_VALUE,
+					recentBeginMillis - 1);
+
+			return insertFileAsync(talsimFile, sosURL, executor, backfillContext,
+					selectHeaders(seriesHeaders, backfillEventFilter), backfillEventFilter);
+		}).thenApply(backfillReport -> {
+			try {
+				if (watermarkIndex != null)
+					recentObservations.advanceWatermarks(watermarkIndex, sosURL);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+			return backfillReport;
+		});
 
-			List<String> insertObservationRequests = SosRequestConstructor.createInsertObservationRequestsForSeriesNode(
-					talsimDocument, seriesNode, insertObservationRequestTemplate);
+		propagateCancellation(recentResult, recentContext);
+		propagateCancellation(backfillResult, backfillContext);
+		backfillResult.whenComplete((report, throwable) -> {
+			if (backfillResult.isCancelled())
+				recentContext.cancel();
+		});
 
-			if (logger.isInfoEnabled())
-				logger.info("Number of constructued InsertObservationRequests is '{}'.",
-						insertObservationRequests.size());
-
-			if (logger.isInfoEnabled())
-				logger.info("Start to send InsertObservationRequests to SOS instance.");
+		return new LatestFirstInsertion(recentResult, backfillResult);
+	}
 
-			for (String insertObservationRequest : insertObservationRequests) {
+	/**
+	 * @return the begin of the recent window, or {@link Long#MIN_VALUE} if no
+	 *         series has an "endDate"
+	 */
+	private static long computeRecentBeginMillis(List<TalsimSeriesHeader> seriesHeaders, long recentWindowMillis) {
+		long latestEndMillis = Long.MIN_VALUE;
+		for (TalsimSeriesHeader header : seriesHeaders)
+			latestEndMillis = Math.max(latestEndMillis, TalsimEventFilter.getEndMillis(header));
 
-				if (logger.isInfoEnabled())
-					logger.info("Sending next InsertObservationRequest.");
+		return latestEndMillis == Long.MIN_VALUE ? Long.MIN_VALUE : latestEndMillis - recentWindowMillis;
+	}
 
-				String sosResponse_insertObservation = SosRequestSender.sendInsertObservationRequestToSOS(SosURL,
-						insertObservationRequest, authorization_token);
+	private CompletableFuture<List<TalsimSeriesHeader>> readAllHeadersAsync(Path talsimFile, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			try (InputStream talsimOutput = Files.newInputStream(talsimFile)) {
+				return TalsimStreamReader.readAllHeaders(talsimOutput);
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
 
-				if (logger.isInfoEnabled())
-					logger.info("Inspecting response of InsertObservation operation.");
+	/**
+	 * @return the headers of the series that may have events within the time
+	 *         window of {@code eventFilter}, so that stations without any
+	 *         event are not registered
+	 */
+	private static List<TalsimSeriesHeader> selectHeaders(List<TalsimSeriesHeader> seriesHeaders,
+			TalsimEventFilter eventFilter) {
+		List<TalsimSeriesHeader> selectedHeaders = new ArrayList<TalsimSeriesHeader>(seriesHeaders);
+		if (eventFilter != null)
+			selectedHeaders.removeIf(eventFilter::excludes);
+		return selectedHeaders;
+	}
 
-				// throw exception if insertion was not successful
-				checkResponse_insertObservation(sosResponse_insertObservation);
+	private CompletableFuture<IngestionReport> insertFileAsync(Path talsimFile, URL sosURL, Executor executor,
+			IngestionContext context, List<TalsimSeriesHeader> selectedHeaders, TalsimEventFilter runEventFilter) {
 
-				if (logger.isInfoEnabled())
-					logger.info("InsertObservationRequest succeeded.");
+		try {
+			if (journalDirectory != null) {
+				deleteExpiredJournals();
+				context.setJournal(IngestionJournal.open(journalDirectory, talsimFile, sosURL));
 			}
+
+			return startInsertion(Files.newInputStream(talsimFile), sosURL, executor, context, selectedHeaders,
+					runEventFilter);
+		} catch (Exception e) {
+			closeJournal(context);
+
+			CompletableFuture<IngestionReport> failed = new CompletableFuture<IngestionReport>();
+			failed.completeExceptionally(e);
+			return failed;
 		}
 	}
 
-	private void processInsertSensorRequest(URL SosURL, Document talsimDocument, String insertSensorRequestTemplate,
-			String authorization_token) throws Exception, IOException {
+	private void deleteExpiredJournals() {
+		long now = System.currentTimeMillis();
+		long nextExpiryMillis = nextJournalExpiryMillis.get();
 
-		if (logger.isInfoEnabled())
-			logger.info("Building InsertSensorRequest.");
+		if (now < nextExpiryMillis
+				|| !nextJournalExpiryMillis.compareAndSet(nextExpiryMillis, now + JOURNAL_EXPIRY_INTERVAL_MILLIS))
+			return;
 
-		String insertSensorRequest = SosRequestConstructor.createInsertSensorRequest(talsimDocument,
-				insertSensorRequestTemplate);
+		try {
+			IngestionJournal.deleteExpiredJournals(journalDirectory, journalRetentionMillis);
+		} catch (IOException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Could not delete expired journals from '{}'.", journalDirectory, e);
+		}
+	}
 
-		if (logger.isInfoEnabled())
-			logger.info("The following InsertSensorRequest was constructed: {}", insertSensorRequest);
+	private void propagateCancellation(CompletableFuture<IngestionReport> result, IngestionContext context) {
+		result.whenComplete((report, throwable) -> {
+			// propagate cancellation of the future to the running insertion
+			if (result.isCancelled())
+				context.cancel();
 
-		if (logger.isInfoEnabled())
-			logger.info("Sending InsertSensorRequest.");
+			// the journal may have been opened before the insertion started
+			if (throwable != null)
+				closeJournal(context);
+		});
+	}
 
-		String response_insertSensor = SosRequestSender.sendInsertSensorRequestToSOS(SosURL, insertSensorRequest,
-				authorization_token);
+	private void closeJournal(IngestionContext context) {
+		if (context.getJournal() == null)
+			return;
 
-		if (logger.isInfoEnabled())
-			logger.info("The SOS instance sent the following response to the InsertSensorRequest: {}",
-					response_insertSensor);
+		try {
+			context.getJournal().close();
+		} catch (IOException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Could not close journal of TalsimResult.", e);
+		}
+	}
 
-		// throw exception if insertion was not successful
+	private CompletableFuture<IngestionReport> startInsertion(InputStream talsimOutput, URL sosURL,
+			Executor executor, IngestionContext context, List<TalsimSeriesHeader> seriesHeaders,
+			TalsimEventFilter runEventFilter) {
+
+		TalsimObservationPublisher publisher = new TalsimObservationPublisher(context.wrapCancellable(talsimOutput),
+				executor);
+		publisher.setEventFilter(runEventFilter);
+		publisher.setMetrics(context.getMetrics());
+
+		CompletableFuture<IngestionReport> result = insertObservationsToSOSAsync(publisher, sosURL, executor,
+				context, seriesHeaders);
+
+		if (result.isDone()) {
+			// e.g. the authorization token is missing, do not parse the TalsimResult at all
+			try {
+				talsimOutput.close();
+			} catch (IOException e) {
+				if (logger.isWarnEnabled())
+					logger.warn("Could not close TalsimResult.", e);
+			}
+			return result;
+		}
 
-		if (logger.isInfoEnabled())
-			logger.info("Inspecting response of InsertSensor operation.");
+		try {
+			publisher.connect();
+		} catch (RuntimeException e) {
+			// e.g. a RejectedExecutionException of the executor
+			result.completeExceptionally(e);
+		}
 
-		checkResponse_insertSensor(response_insertSensor);
+		return result;
+	}
 
-		if (logger.isInfoEnabled())
-			logger.info("InsertSensorRequest succeeded.");
+	/**
+	 * Creates a {@link TalsimObservationPublisher} that parses
+	 * {@code talsimOutput} on the given {@code executor} and emits each "event"
+	 * node to all of its subscribers. Subscribers - e.g. the SOS insertion
+	 * started via
+	 * {@link #insertObservationsToSOSAsync(TalsimObservationPublisher, URL, Executor, IngestionProgressListener)}
+	 * - have to subscribe before {@link TalsimObservationPublisher#connect()} is
+	 * called.
+	 *
+	 * @param talsimOutput
+	 *            an {@link InputStream} of the TASLIM XML output
+	 * @param executor
+	 *            the {@link Executor} that parses the document
+	 * @return a new, not yet connected {@link TalsimObservationPublisher}
+	 */
+	public TalsimObservationPublisher createObservationPublisher(InputStream talsimOutput, Executor executor) {
+		TalsimObservationPublisher publisher = new TalsimObservationPublisher(talsimOutput, executor);
+		publisher.setEventFilter(eventFilter);
+		return publisher;
 	}
 
-	private void checkResponse_insertSensor(String response_insertSensor) throws Exception {
-		/*
-		 * check if response contains the String "InsertSensorResponse"
-		 * 
-		 * If yes, then assume that request was accepted and insertion was
-		 * successful
-		 * 
-		 * If no, assume that something went wrong and throw exception
-		 */
+	/**
+	 * Subscribes the SOS insertion to the given, not yet connected
+	 * {@code publisher}. The insertion starts as soon as the publisher is
+	 * connected. As the publisher respects the demand of all of its
+	 * subscribers, the pace of the insertion also throttles any other
+	 * subscriber of the same publisher (and vice versa).
+	 *
+	 * Cancelling the returned {@link CompletableFuture} cancels the
+	 * subscription of the SOS insertion; other subscribers are not affected.
+	 *
+	 * @param publisher
+	 *            the {@link TalsimObservationPublisher} emitting the parsed
+	 *            TalsimResult
+	 * @param sosURL
+	 *            URL to the SOS-T (transactional SOS instance)
+	 * @param executor
+	 *            the {@link Executor} that sends the requests of the
+	 *            different stations
+	 * @param progressListener
+	 *            receives progress notifications, may be {@code null}
+	 * @return a {@link CompletableFuture} that is completed with an
+	 *         {@link IngestionReport} once all observations were inserted
+	 */
+	public CompletableFuture<IngestionReport> insertObservationsToSOSAsync(TalsimObservationPublisher publisher,
+			URL sosURL, Executor executor, IngestionProgressListener progressListener) {
+		return insertObservationsToSOSAsync(publisher, sosURL, executor, new IngestionContext(progressListener),
+				null);
+	}
 
-		if (logger.isDebugEnabled())
-			logger.debug(
-					"Check if response of InsertSensor operation includes String '{}'. The response message is: {}",
-					INSERT_SENSOR_RESPONSE_STRING, response_insertSensor);
+	private CompletableFuture<IngestionReport> insertObservationsToSOSAsync(TalsimObservationPublisher publisher,
+			URL sosURL, Executor executor, IngestionContext context, List<TalsimSeriesHeader> seriesHeaders) {
 
-		if (response_insertSensor.contains(INSERT_SENSOR_RESPONSE_STRING))
-			return;
-		else {
-			if (logger.isErrorEnabled())
-				logger.error("InsertSensorRequest failed! SOS instance returned the following response: {}",
-						response_insertSensor);
+		if (logger.isInfoEnabled())
+			logger.info("Begin Insertion of TalsimResult into SOS instance with URL '{}'.", sosURL);
+
+		context.getMetrics().setRegistry(metricsRegistry);
 
-			throw new Exception("InsertSensorRequest failed! SOS instance returned the following response: "
-					+ response_insertSensor);
+		if (progressReportIntervalMillis > 0) {
+			// aggregated series are not known in advance
+			context.setProgressListener(new ProgressReporter(context.getProgressListener(),
+					progressReportIntervalMillis, aggregation == null ? seriesHeaders : null));
 		}
-	}
 
-	private void checkResponse_insertObservation(String response_insertObservation) throws Exception {
-		/*
-		 * check if response contains th String "InsertObservationResponse"
-		 * 
-		 * If yes, then assume that request was accepted and insertion was
-		 * successful
-		 * 
-		 * If no, assume that something went wrong and throw exception
-		 */
+		// load template files
 
-		if (logger.isDebugEnabled())
-			logger.debug(
-					"Check if response of InsertObservation operation includes String '{}'. The response message is: {}",
-					INSERT_OBSERVATION_RESPONSE_STRING, response_insertObservation);
+		if (logger.isInfoEnabled())
+			logger.info(
+					"Loading template reource files for InsertSensorRequest and InsertObservationRequest and fetching authorization token.");
 
-		if (response_insertObservation.contains(INSERT_OBSERVATION_RESPONSE_STRING))
-			return;
-		else {
+		String insertSensorRequestTemplate;
+		String insertObservationRequestTemplate;
+		String getDataAvailabilityRequestTemplate = null;
+		String authorization_token;
+		try {
+			insertSensorRequestTemplate = getInsertSensorRequestTemplate();
+			insertObservationRequestTemplate = getInsertObservationRequestTemplate();
+			if (reconcileWithDataAvailability)
+				getDataAvailabilityRequestTemplate = getGetDataAvailabilityRequestTemplate();
+			// a sink alone does not contact the SOS instance, e.g. when writing a request bundle
+			if (requestSink != null && !reconcileWithDataAvailability)
+				authorization_token = authorizationToken;
+			else
+				authorization_token = fetchAuthorizationToken();
+		} catch (Exception e) {
 			if (logger.isErrorEnabled())
-				logger.error("InsertObservationRequest failed! SOS instance returned the following response: {}",
-						response_insertObservation);
+				logger.error("Could not load request templates or authorization token.", e);
 
-			throw new Exception("InsertObservationRequest failed! SOS instance returned the following response: "
-					+ response_insertObservation);
+			CompletableFuture<IngestionReport> failed = new CompletableFuture<IngestionReport>();
+			failed.completeExceptionally(e);
+			return failed;
 		}
+
+		SosInsertionSubscriber subscriber = new SosInsertionSubscriber(sosURL, insertSensorRequestTemplate,
+				insertObservationRequestTemplate, authorization_token, context, executor, maxPendingObservations);
+		subscriber.setSensorRegistry(sensorRegistry);
+		subscriber.setRequestPermits(requestPermits);
+		subscriber.setWatermarkIndex(watermarkIndex, forceFullReload);
+		subscriber.setSeriesMirror(seriesMirror);
+		subscriber.setDataAvailabilityReconciliation(getDataAvailabilityRequestTemplate);
+		subscriber.setRequestSink(requestSink);
+		subscriber.setDeadbandFilter(deadbandFilter);
+		subscriber.setAggregation(aggregation);
+		subscriber.setFanOut(fanOut);
+		subscriber.setQualifiedStationIdentifiers(qualifiedStationIdentifiers);
+
+		if (seriesHeaders != null) {
+			try {
+				subscriber.registerStations(seriesHeaders);
+			} catch (IllegalArgumentException e) {
+				// e.g. a "timeStep" not supported by the aggregation
+				CompletableFuture<IngestionReport> failed = new CompletableFuture<IngestionReport>();
+				failed.completeExceptionally(e);
+				return failed;
+			}
+		}
+
+		CompletableFuture<IngestionReport> result = subscriber.getResult();
+
+		context.getMetrics().onInsertionStarted();
+
+		result.whenComplete((report, throwable) -> {
+			// propagate cancellation of the future to the running insertion
+			if (result.isCancelled()) {
+				context.cancel();
+				subscriber.cancel();
+			}
+
+			if (throwable instanceof CompletionException && throwable.getCause() != null)
+				throwable = throwable.getCause();
+			context.getMetrics().onInsertionFinished(throwable);
+		});
+
+		if (logger.isInfoEnabled())
+			logger.info("Starting to build and send InsertSensorRequest and InsertObservationRequests.");
+
+		publisher.subscribe(subscriber);
+
+		return result;
 	}
 
-	private Document parseTalsimDocument(InputStream talsimOutput)
-			throws ParserConfigurationException, SAXException, IOException {
-		DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+	/*
+	 * the templates are loaded once per converter, so a long-running process
+	 * (e.g. a WatchFolderDaemon) does not reload them for every file
+	 */
+	private synchronized String getInsertSensorRequestTemplate() throws IOException {
+		if (insertSensorRequestTemplate == null)
+			insertSensorRequestTemplate = ResourceLoader.loadInsertSensorRequestTemplate();
+		return insertSensorRequestTemplate;
+	}
 
-		DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
+	private synchronized String getInsertObservationRequestTemplate() throws IOException {
+		if (insertObservationRequestTemplate == null)
+			insertObservationRequestTemplate = ResourceLoader.loadInsertObservationRequestTemplate();
+		return insertObservationRequestTemplate;
+	}
 
-		Document talsimDocument = docBuilder.parse(talsimOutput);
-		return talsimDocument;
+	private synchronized String getGetDataAvailabilityRequestTemplate() throws IOException {
+		if (getDataAvailabilityRequestTemplate == null)
+			getDataAvailabilityRequestTemplate = ResourceLoader.loadGetDataAvailabilityRequestTemplate();
+		return getDataAvailabilityRequestTemplate;
+	}
+
+	private String fetchAuthorizationToken() throws IOException {
+		if (authorizationToken != null)
+			return authorizationToken;
+
+		return ResourceLoader.fetchAuthorizationToken();
+	}
+
+	private static <T> T awaitResult(CompletableFuture<T> result) throws Exception {
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof CompletionException && cause.getCause() != null)
+				cause = cause.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw e;
+		}
 	}
 
 }
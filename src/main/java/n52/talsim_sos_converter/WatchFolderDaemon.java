@@ -0,0 +1,364 @@
+package n52.talsim_sos_converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import n52.talsim_sos_converter.helper.MetricsRegistry;
+import n52.talsim_sos_converter.helper.PrometheusEndpoint;
+import n52.talsim_sos_converter.helper.ResourceLoader;
+
+/**
+ * Long-running ingestion of the TalsimResult files dropped into one or more
+ * directories. In contrast to starting a new JVM per file, the request
+ * templates, the authorization token, the HTTP connections to the SOS
+ * instance (kept alive by the JVM) and the JIT-compiled code are shared by all
+ * files.
+ *
+ * A file must only become visible to the daemon once it has been written
+ * completely:
+ * <ul>
+ * <li>by default, the producer writes the file under another name (e.g.
+ * "result.xml.tmp") and renames it to its final name ending with
+ * {@value #DEFAULT_FILE_EXTENSION} within the drop directory. The rename must
+ * be atomic, i.e. on the same file system.</li>
+ * <li>if a marker file extension is set, the producer creates an empty marker
+ * file (e.g. "result.xml.ready") after having written "result.xml". The marker
+ * is deleted once the file has been ingested.</li>
+ * </ul>
+ *
+ * The files are ingested one after another. Afterwards, each file is moved to
+ * subdirectory {@value #DONE_DIRECTORY_NAME} or
+ * {@value #FAILED_DIRECTORY_NAME} of its drop directory. Files present when
+ * the daemon is started are ingested first.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class WatchFolderDaemon implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(WatchFolderDaemon.class);
+
+	/**
+	 * extension of the files ingested by default
+	 */
+	public static final String DEFAULT_FILE_EXTENSION = ".xml";
+
+	/**
+	 * subdirectory of a drop directory receiving the ingested files
+	 */
+	public static final String DONE_DIRECTORY_NAME = "done";
+
+	/**
+	 * subdirectory of a drop directory receiving the files whose ingestion
+	 * failed
+	 */
+	public static final String FAILED_DIRECTORY_NAME = "failed";
+
+	/**
+	 * system property holding the port of the {@link PrometheusEndpoint}
+	 * started by {@link #main(String[])}; no endpoint is started if unset
+	 */
+	public static final String METRICS_PORT_PROPERTY = "talsim.metrics.port";
+
+	private final TalsimSosConverter converter;
+	private final URL sosURL;
+	private final Executor executor;
+
+	private final List<Path> dropDirectories = new ArrayList<Path>();
+	private String markerFileExtension = null;
+	private IngestionProgressListener progressListener = IngestionProgressListener.NONE;
+
+	private WatchService watchService;
+	private Thread thread;
+	private volatile boolean running = false;
+
+	private final AtomicLong numberOfIngestedFiles = new AtomicLong();
+	private final AtomicLong numberOfFailedFiles = new AtomicLong();
+
+	/**
+	 * @param converter
+	 *            the converter shared by all files, configured like for a
+	 *            single file (e.g. with a journal directory or a sensor
+	 *            registry)
+	 * @param sosURL
+	 *            URL to the SOS-T (transactional SOS instance)
+	 * @param executor
+	 *            the {@link Executor} that performs the insertion of each file
+	 */
+	public WatchFolderDaemon(TalsimSosConverter converter, URL sosURL, Executor executor) {
+		this.converter = converter;
+		this.sosURL = sosURL;
+		this.executor = executor;
+	}
+
+	/**
+	 * Adds a directory to be watched; it must be called before
+	 * {@link #start()}. The directory and its subdirectories
+	 * {@value #DONE_DIRECTORY_NAME} and {@value #FAILED_DIRECTORY_NAME} are
+	 * created if they do not exist.
+	 *
+	 * @param dropDirectory
+	 *            the directory the TalsimResult files are dropped into
+	 * @throws IOException
+	 */
+	public void addDropDirectory(Path dropDirectory) throws IOException {
+		if (thread != null)
+			throw new IllegalStateException("The daemon has already been started.");
+
+		Files.createDirectories(dropDirectory.resolve(DONE_DIRECTORY_NAME));
+		Files.createDirectories(dropDirectory.resolve(FAILED_DIRECTORY_NAME));
+
+		dropDirectories.add(dropDirectory.toAbsolutePath());
+	}
+
+	/**
+	 * Files are only ingested once a marker file of the same name with the
+	 * given extension appended exists, e.g. ".ready" for marker file
+	 * "result.xml.ready" of "result.xml". The default is {@code null}, i.e.
+	 * each file ending with {@value #DEFAULT_FILE_EXTENSION} is ingested as
+	 * soon as it appears.
+	 *
+	 * @param markerFileExtension
+	 *            the extension of the marker files, or {@code null}
+	 */
+	public void setMarkerFileExtension(String markerFileExtension) {
+		this.markerFileExtension = markerFileExtension;
+	}
+
+	/**
+	 * @param progressListener
+	 *            receives the progress notifications of all files
+	 */
+	public void setProgressListener(IngestionProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * @return the number of files ingested successfully so far
+	 */
+	public long getNumberOfIngestedFiles() {
+		return numberOfIngestedFiles.get();
+	}
+
+	/**
+	 * @return the number of files whose ingestion failed so far
+	 */
+	public long getNumberOfFailedFiles() {
+		return numberOfFailedFiles.get();
+	}
+
+	/**
+	 * Starts watching the drop directories in the background.
+	 *
+	 * @throws IOException
+	 *             if a drop directory could not be watched
+	 */
+	public synchronized void start() throws IOException {
+		if (dropDirectories.isEmpty())
+			throw new IllegalStateException("No drop directory has been added.");
+
+		watchService = dropDirectories.get(0).getFileSystem().newWatchService();
+		for (Path dropDirectory : dropDirectories)
+			dropDirectory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+
+		running = true;
+		thread = new Thread(this::watch, "watch-folder-daemon");
+		thread.start();
+
+		if (logger.isInfoEnabled())
+			logger.info("Watching drop directories {} for TalsimResult files to be inserted into SOS '{}'.",
+					dropDirectories, sosURL);
+	}
+
+	private void watch() {
+		try {
+			// files dropped while the daemon was not running
+			for (Path dropDirectory : dropDirectories)
+				scan(dropDirectory);
+
+			while (running) {
+				WatchKey key = watchService.take();
+				Path dropDirectory = (Path) key.watchable();
+
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (!running)
+						break;
+
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+						scan(dropDirectory);
+					else
+						onCreated(dropDirectory.resolve((Path) event.context()));
+				}
+
+				if (!key.reset() && logger.isErrorEnabled())
+					logger.error("Drop directory '{}' is no longer accessible.", dropDirectory);
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed by close()
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			if (logger.isErrorEnabled())
+				logger.error("Watching the drop directories failed.", e);
+		}
+	}
+
+	private void scan(Path dropDirectory) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(dropDirectory)) {
+			for (Path entry : entries)
+				files.add(entry);
+		}
+
+		// the model names its files by time, so ingest them in that order
+		Collections.sort(files);
+
+		for (Path file : files) {
+			if (!running)
+				return;
+			onCreated(file);
+		}
+	}
+
+	private void onCreated(Path file) {
+		String fileName = file.getFileName().toString();
+
+		if (markerFileExtension != null) {
+			if (!fileName.endsWith(markerFileExtension))
+				return;
+
+			Path talsimFile = file.resolveSibling(
+					fileName.substring(0, fileName.length() - markerFileExtension.length()));
+			if (Files.isRegularFile(talsimFile))
+				ingest(talsimFile);
+			else if (logger.isWarnEnabled())
+				logger.warn("Marker file '{}' refers to missing file '{}'.", file, talsimFile);
+
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				if (logger.isWarnEnabled())
+					logger.warn("Could not delete marker file '{}'.", file, e);
+			}
+		} else if (fileName.endsWith(DEFAULT_FILE_EXTENSION) && Files.isRegularFile(file)) {
+			ingest(file);
+		}
+	}
+
+	private void ingest(Path talsimFile) {
+		if (logger.isInfoEnabled())
+			logger.info("Ingesting dropped file '{}'.", talsimFile);
+
+		String targetDirectory;
+		try {
+			IngestionReport report = converter
+					.insertOutputToSOSAsync(talsimFile, sosURL, executor, progressListener).get();
+
+			numberOfIngestedFiles.incrementAndGet();
+			targetDirectory = DONE_DIRECTORY_NAME;
+
+			if (logger.isInfoEnabled())
+				logger.info("Ingested dropped file '{}': {}", talsimFile, report);
+		} catch (InterruptedException e) {
+			// the file remains in the drop directory and is ingested after a restart
+			Thread.currentThread().interrupt();
+			running = false;
+			return;
+		} catch (Exception e) {
+			numberOfFailedFiles.incrementAndGet();
+			targetDirectory = FAILED_DIRECTORY_NAME;
+
+			if (logger.isErrorEnabled())
+				logger.error("Ingesting dropped file '{}' failed.", talsimFile, e);
+		}
+
+		Path target = talsimFile.resolveSibling(targetDirectory).resolve(talsimFile.getFileName());
+		try {
+			Files.move(talsimFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			if (logger.isErrorEnabled())
+				logger.error("Could not move file '{}' to '{}'.", talsimFile, target, e);
+		}
+	}
+
+	/**
+	 * Stops watching the drop directories. A file being ingested is finished
+	 * first.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (thread == null)
+			return;
+
+		running = false;
+		watchService.close();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		thread = null;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: WatchFolderDaemon <sosURL> <dropDirectory> [<dropDirectory> ...]");
+			System.exit(2);
+		}
+
+		// fetch the token once instead of for every file
+		TalsimSosConverter converter = new TalsimSosConverter();
+		converter.setAuthorizationToken(ResourceLoader.fetchAuthorizationToken());
+
+		// live metrics via JMX and, if a port is given, for Prometheus
+		MetricsRegistry metricsRegistry = new MetricsRegistry();
+		metricsRegistry.registerMBean();
+		converter.setMetricsRegistry(metricsRegistry);
+
+		Integer metricsPort = Integer.getInteger(METRICS_PORT_PROPERTY);
+		PrometheusEndpoint metricsEndpoint = metricsPort != null
+				? new PrometheusEndpoint(metricsRegistry, new InetSocketAddress(metricsPort)) : null;
+
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+		WatchFolderDaemon daemon = new WatchFolderDaemon(converter, new URL(args[0]), executor);
+		for (int i = 1; i < args.length; i++)
+			daemon.addDropDirectory(Paths.get(args[i]));
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				daemon.close();
+			} catch (IOException e) {
+				// shutting down anyway
+			}
+			executor.shutdown();
+			if (metricsEndpoint != null)
+				metricsEndpoint.close();
+		}));
+
+		daemon.start();
+	}
+
+}
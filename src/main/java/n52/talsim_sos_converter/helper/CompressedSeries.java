@@ -0,0 +1,254 @@
+package n52.talsim_sos_converter.helper;
+
+import java.util.Arrays;
+
+/**
+ * Compact, append-only encoding of a time series of (timestamp, double value)
+ * pairs following the "Gorilla" scheme (Pelkonen et al., VLDB 2015):
+ * <ul>
+ * <li>timestamps are stored as <i>delta-of-delta</i>; for series with a
+ * regular time step (like TALSIM's "timeStep") this takes a single bit per
+ * observation. As the timestamps are milliseconds rather than the seconds of
+ * the paper, the value ranges are about 1000 times larger (17, 19 and 22
+ * bits instead of 7, 9 and 12 bits), so that a change of the time step by up
+ * to about a minute still takes a short bucket.</li>
+ * <li>values are XORed with their predecessor and only the meaningful bits
+ * are stored; unchanged values take a single bit</li>
+ * </ul>
+ *
+ * Timestamps have to be appended in strictly ascending order.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class CompressedSeries {
+
+	/**
+	 * bits of the delta-of-delta buckets for timestamps in milliseconds
+	 */
+	private static final int[] DELTA_OF_DELTA_BITS = { 17, 19, 22 };
+
+	private byte[] bits = new byte[64];
+	private long bitLength = 0;
+
+	private int size = 0;
+
+	private long previousTimestamp;
+	private long previousDelta;
+	private long previousValueBits;
+	private int previousLeadingZeros = Integer.MAX_VALUE;
+	private int previousTrailingZeros = 0;
+
+	/**
+	 * Appends a new observation.
+	 *
+	 * @param timestamp
+	 *            milliseconds since the epoch, greater than the timestamp of
+	 *            the previously appended observation
+	 * @param value
+	 *            the value of the observation
+	 */
+	public void append(long timestamp, double value) {
+		long valueBits = Double.doubleToRawLongBits(value);
+
+		if (size == 0) {
+			writeBits(timestamp, 64);
+			writeBits(valueBits, 64);
+			previousDelta = 0;
+		} else {
+			if (timestamp <= previousTimestamp)
+				throw new IllegalArgumentException("Timestamps have to be appended in ascending order.");
+
+			long delta = timestamp - previousTimestamp;
+			writeDeltaOfDelta(delta - previousDelta);
+			previousDelta = delta;
+
+			writeValue(valueBits);
+		}
+
+		previousTimestamp = timestamp;
+		previousValueBits = valueBits;
+		size++;
+	}
+
+	private void writeDeltaOfDelta(long deltaOfDelta) {
+		if (deltaOfDelta == 0) {
+			writeBits(0b0, 1);
+		} else if (fits(deltaOfDelta, DELTA_OF_DELTA_BITS[0])) {
+			writeBits(0b10, 2);
+			writeBits(deltaOfDelta, DELTA_OF_DELTA_BITS[0]);
+		} else if (fits(deltaOfDelta, DELTA_OF_DELTA_BITS[1])) {
+			writeBits(0b110, 3);
+			writeBits(deltaOfDelta, DELTA_OF_DELTA_BITS[1]);
+		} else if (fits(deltaOfDelta, DELTA_OF_DELTA_BITS[2])) {
+			writeBits(0b1110, 4);
+			writeBits(deltaOfDelta, DELTA_OF_DELTA_BITS[2]);
+		} else {
+			writeBits(0b1111, 4);
+			writeBits(deltaOfDelta, 64);
+		}
+	}
+
+	/**
+	 * @return whether {@code value} can be represented as two's complement of
+	 *         {@code numberOfBits} bits
+	 */
+	private static boolean fits(long value, int numberOfBits) {
+		return value >= -(1L << (numberOfBits - 1)) && value < (1L << (numberOfBits - 1));
+	}
+
+	private void writeValue(long valueBits) {
+		long xor = valueBits ^ previousValueBits;
+
+		if (xor == 0) {
+			writeBits(0b0, 1);
+			return;
+		}
+
+		int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+		int trailingZeros = Long.numberOfTrailingZeros(xor);
+
+		if (leadingZeros >= previousLeadingZeros && trailingZeros >= previousTrailingZeros) {
+			// meaningful bits fit into the window of the previous value
+			writeBits(0b10, 2);
+			writeBits(xor >>> previousTrailingZeros, 64 - previousLeadingZeros - previousTrailingZeros);
+		} else {
+			int meaningfulBits = 64 - leadingZeros - trailingZeros;
+			writeBits(0b11, 2);
+			writeBits(leadingZeros, 5);
+			writeBits(meaningfulBits - 1, 6);
+			writeBits(xor >>> trailingZeros, meaningfulBits);
+
+			previousLeadingZeros = leadingZeros;
+			previousTrailingZeros = trailingZeros;
+		}
+	}
+
+	private void writeBits(long value, int numberOfBits) {
+		ensureCapacity(bitLength + numberOfBits);
+
+		for (int i = numberOfBits - 1; i >= 0; i--) {
+			if (((value >>> i) & 1L) != 0) {
+				int byteIndex = (int) (bitLength >>> 3);
+				bits[byteIndex] |= (byte) (0x80 >>> (int) (bitLength & 7));
+			}
+			bitLength++;
+		}
+	}
+
+	private void ensureCapacity(long requiredBits) {
+		int requiredBytes = (int) ((requiredBits + 7) >>> 3);
+		if (requiredBytes > bits.length)
+			bits = Arrays.copyOf(bits, Math.max(requiredBytes, bits.length * 2));
+	}
+
+	/**
+	 * @return the number of appended observations
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the encoded observations; the array may be longer than
+	 *         {@link #getByteLength()}
+	 */
+	byte[] getBytes() {
+		return bits;
+	}
+
+	/**
+	 * @return the number of bytes used by the encoded observations
+	 */
+	public int getByteLength() {
+		return (int) ((bitLength + 7) >>> 3);
+	}
+
+	/**
+	 * Decodes {@code size} observations that have been encoded by
+	 * {@link #append(long, double)}.
+	 *
+	 * @param bytes
+	 *            the encoded observations
+	 * @param size
+	 *            the number of encoded observations
+	 * @param timestamps
+	 *            receives the timestamps, at least of length {@code size}
+	 * @param values
+	 *            receives the values, at least of length {@code size}
+	 */
+	public static void decode(byte[] bytes, int size, long[] timestamps, double[] values) {
+		BitReader reader = new BitReader(bytes);
+
+		long timestamp = 0;
+		long delta = 0;
+		long valueBits = 0;
+		int leadingZeros = 0;
+		int trailingZeros = 0;
+
+		for (int i = 0; i < size; i++) {
+			if (i == 0) {
+				timestamp = reader.readBits(64);
+				valueBits = reader.readBits(64);
+			} else {
+				delta += readDeltaOfDelta(reader);
+				timestamp += delta;
+
+				if (reader.readBit()) {
+					if (reader.readBit()) {
+						leadingZeros = (int) reader.readBits(5);
+						int meaningfulBits = (int) reader.readBits(6) + 1;
+						trailingZeros = 64 - leadingZeros - meaningfulBits;
+					}
+					int meaningfulBits = 64 - leadingZeros - trailingZeros;
+					valueBits ^= reader.readBits(meaningfulBits) << trailingZeros;
+				}
+			}
+
+			timestamps[i] = timestamp;
+			values[i] = Double.longBitsToDouble(valueBits);
+		}
+	}
+
+	private static long readDeltaOfDelta(BitReader reader) {
+		if (!reader.readBit())
+			return 0;
+		if (!reader.readBit())
+			return reader.readSignedBits(DELTA_OF_DELTA_BITS[0]);
+		if (!reader.readBit())
+			return reader.readSignedBits(DELTA_OF_DELTA_BITS[1]);
+		if (!reader.readBit())
+			return reader.readSignedBits(DELTA_OF_DELTA_BITS[2]);
+		return reader.readBits(64);
+	}
+
+	private static class BitReader {
+
+		private final byte[] bytes;
+		private long position = 0;
+
+		BitReader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		boolean readBit() {
+			int bit = (bytes[(int) (position >>> 3)] >>> (7 - (int) (position & 7))) & 1;
+			position++;
+			return bit != 0;
+		}
+
+		long readBits(int numberOfBits) {
+			long value = 0;
+			for (int i = 0; i < numberOfBits; i++)
+				value = (value << 1) | (readBit() ? 1L : 0L);
+			return value;
+		}
+
+		long readSignedBits(int numberOfBits) {
+			long value = readBits(numberOfBits);
+			// sign extension of the two's complement representation
+			return (value << (64 - numberOfBits)) >> (64 - numberOfBits);
+		}
+	}
+
+}
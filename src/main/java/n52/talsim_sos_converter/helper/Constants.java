@@ -19,6 +19,7 @@ public class Constants {
 	 */
 	public static final String PATH_TO_INSERT_SENSOR_REQUEST_TEMPLATE = "InsertSensor_template.xml";
 	public static final String PATH_TO_INSERT_OBSERVATION_REQUEST_TEMPLATE = "InsertObservation_template.xml";
+	public static final String PATH_TO_GET_DATA_AVAILABILITY_REQUEST_TEMPLATE = "GetDataAvailability_template.xml";
 	
 	/*
 	 * AUTHORIZATION TOKEN
@@ -45,9 +46,13 @@ public class Constants {
 
 	// station information
 	public static final String TALSIM_HEADER_NODE = "header";
+	public static final String TALSIM_RESULT_TYPE_NODE = "type";
 	public static final String TALSIM_RESULT_PARAMETER_ID_NODE = "parameterId";
 	public static final String TALSIM_RESULT_LOCATION_ID_NODE = "locationId";
 	public static final String TALSIM_RESULT_TIME_ZONE_NODE = "timeZone";
+	public static final String TALSIM_RESULT_TIME_STEP_NODE = "timeStep";
+	public static final String TALSIM_RESULT_TIME_STEP_UNIT_ATTRIBUTE = "unit";
+	public static final String TALSIM_RESULT_TIME_STEP_MULTIPLIER_ATTRIBUTE = "multiplier";
 	public static final String TALSIM_RESULT_START_DATE_NODE = "startDate";
 	public static final String TALSIM_RESULT_START_DATE_DATE_ATTRIBUTE = "date";
 	public static final String TALSIM_RESULT_START_DATE_TIME_ATTRIBUTE = "time";
@@ -131,6 +136,12 @@ public class Constants {
 	public static final String INSERT_OBSERVATION_UOM_NAME_PLACEHOLDER = "%UOM_NAME%";
 	public static final String INSERT_OBSERVATION_RESULT_VALUE_PLACEHOLDER = "%RESULT_VALUE%";
 
+	/*
+	 * GetDataAvailability PLACEHOLDER CONSTANTS
+	 */
+	public static final String GET_DATA_AVAILABILITY_PROCEDURE_IDENTIFIER_PLACEHOLDER = "%PROCEDURE_IDENTIFIER%";
+	public static final String GET_DATA_AVAILABILITY_OBSERVABLE_PROPERTY_IDENTIFIER_PLACEHOLDER = "%OBSERVABLE_PROPERTY%";
+
 	/*
 	 * OBSERVABLE PROPERTY CONSTANTS
 	 */
@@ -146,7 +157,17 @@ public class Constants {
 	public static final String OBSERVABLE_PROPERTY_OUTPUT_VALUE_QA1 = "Abgabe";
 	public static final String OBSERVABLE_PROPERTY_OUTPUT_NAME_QH1 = "Hochwasserentlastung";
 	public static final String OBSERVABLE_PROPERTY_OUTPUT_VALUE_QH1 = "Hochwasserentlastung";
-	
+
+	/*
+	 * DEFAULT UNITS OF MEASURE - used within InsertSensor requests for those
+	 * output observable properties whose "series" node has not been parsed
+	 * (yet)
+	 */
+	public static final String DEFAULT_UOM_1ZU = "m3/s";
+	public static final String DEFAULT_UOM_VOL = "Tsd.m3";
+	public static final String DEFAULT_UOM_WSP = "mNN";
+	public static final String DEFAULT_UOM_QA1 = "m3/s";
+	public static final String DEFAULT_UOM_QH1 = "m3/s";
 
 	/*
 	 * OFFERING
@@ -0,0 +1,119 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.joda.time.DateTime;
+
+/**
+ * The time ranges for which a SOS instance already holds observations of a
+ * procedure and observable property, as returned by the GetDataAvailability
+ * operation.
+ *
+ * Note that a SOS instance reports a single time range per procedure,
+ * observable property and feature of interest. Gaps within that range are not
+ * visible, so observations missing within a reported range are not detected.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class DataAvailability {
+
+	/**
+	 * availability of a series without any observation in the SOS instance
+	 */
+	public static final DataAvailability NONE = new DataAvailability(Collections.<long[]> emptyList());
+
+	private static final String DATA_AVAILABILITY_RESPONSE_ELEMENT = "GetDataAvailabilityResponse";
+	private static final String BEGIN_POSITION_ELEMENT = "beginPosition";
+	private static final String END_POSITION_ELEMENT = "endPosition";
+	private static final String TIME_POSITION_ELEMENT = "timePosition";
+
+	private final List<long[]> timeRanges;
+
+	private DataAvailability(List<long[]> timeRanges) {
+		this.timeRanges = timeRanges;
+	}
+
+	/**
+	 * @param phenomenonTimeMillis
+	 *            phenomenon time in milliseconds since the epoch
+	 * @return {@code true} if {@code phenomenonTimeMillis} lies within one of
+	 *         the time ranges (including their bounds)
+	 */
+	public boolean covers(long phenomenonTimeMillis) {
+		for (long[] timeRange : timeRanges) {
+			if (phenomenonTimeMillis >= timeRange[0] && phenomenonTimeMillis <= timeRange[1])
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return {@code true} if the SOS instance holds no observations
+	 */
+	public boolean isEmpty() {
+		return timeRanges.isEmpty();
+	}
+
+	/**
+	 * Parses a GetDataAvailability response.
+	 *
+	 * @param response
+	 *            the response of the SOS instance
+	 * @return the time ranges contained in the response
+	 * @throws Exception
+	 *             if the response is not a GetDataAvailability response, e.g.
+	 *             an exception report
+	 */
+	public static DataAvailability parse(String response) throws Exception {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		XMLStreamReader xmlReader = factory.createXMLStreamReader(new StringReader(response));
+
+		List<long[]> timeRanges = new ArrayList<long[]>();
+		boolean isDataAvailabilityResponse = false;
+		long begin = Long.MIN_VALUE;
+
+		try {
+			while (xmlReader.hasNext()) {
+				if (xmlReader.next() != XMLStreamConstants.START_ELEMENT)
+					continue;
+
+				String elementName = xmlReader.getLocalName();
+
+				if (elementName.equals(DATA_AVAILABILITY_RESPONSE_ELEMENT)) {
+					isDataAvailabilityResponse = true;
+				} else if (elementName.equals(BEGIN_POSITION_ELEMENT)) {
+					begin = parseTime(xmlReader);
+				} else if (elementName.equals(END_POSITION_ELEMENT)) {
+					timeRanges.add(new long[] { begin, parseTime(xmlReader) });
+				} else if (elementName.equals(TIME_POSITION_ELEMENT)) {
+					long instant = parseTime(xmlReader);
+					timeRanges.add(new long[] { instant, instant });
+				}
+			}
+		} finally {
+			xmlReader.close();
+		}
+
+		if (!isDataAvailabilityResponse)
+			throw new Exception("Response is no GetDataAvailabilityResponse: " + response);
+
+		return new DataAvailability(timeRanges);
+	}
+
+	private static long parseTime(XMLStreamReader xmlReader) throws XMLStreamException {
+		return DateTime.parse(xmlReader.getElementText().trim()).getMillis();
+	}
+
+}
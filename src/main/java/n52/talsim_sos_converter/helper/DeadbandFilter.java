@@ -0,0 +1,165 @@
+package n52.talsim_sos_converter.helper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Change-only filter that drops observations whose value hardly differs from
+ * the last inserted value of the same series, e.g. the many nearly identical
+ * values of a reservoir volume or water level series.
+ *
+ * A deadband is configured per parameter ID (e.g. "WSP"). An observation is
+ * suppressed if its value differs from the last emitted value by no more than
+ * the absolute tolerance or the relative tolerance (with respect to the last
+ * emitted value), whichever is larger. The first and last observation of each
+ * series are always emitted, and an observation is emitted at the latest after
+ * the maximum gap since the last emitted one, so the series can still be
+ * reconstructed by step interpolation. Observations with a non-numeric value
+ * are always emitted.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class DeadbandFilter {
+
+	private final Map<String, Deadband> deadbandsPerParameter = new HashMap<String, Deadband>();
+	private Deadband defaultDeadband = null;
+
+	/**
+	 * Sets the deadband for all series of a parameter.
+	 *
+	 * @param parameterId
+	 *            the parameter ID, e.g. "1ZU"
+	 * @param absoluteTolerance
+	 *            maximum absolute difference of a suppressed value
+	 * @param relativeTolerance
+	 *            maximum difference of a suppressed value relative to the last
+	 *            emitted value, e.g. 0.01 for 1 %
+	 * @param maxGapMillis
+	 *            maximum time between two emitted observations in
+	 *            milliseconds, or {@link Long#MAX_VALUE} for no limit
+	 */
+	public void setDeadband(String parameterId, double absoluteTolerance, double relativeTolerance,
+			long maxGapMillis) {
+		deadbandsPerParameter.put(parameterId, new Deadband(absoluteTolerance, relativeTolerance, maxGapMillis));
+	}
+
+	/**
+	 * Sets the deadband for all series of parameters without a deadband of
+	 * their own, see {@link #setDeadband(String, double, double, long)}.
+	 */
+	public void setDefaultDeadband(double absoluteTolerance, double relativeTolerance, long maxGapMillis) {
+		defaultDeadband = new Deadband(absoluteTolerance, relativeTolerance, maxGapMillis);
+	}
+
+	/**
+	 * @param header
+	 *            the header of a "series" node
+	 * @return the filter state of the series, or {@code null} if no deadband
+	 *         applies to the parameter of the series
+	 */
+	public SeriesFilter forSeries(TalsimSeriesHeader header) {
+		Deadband deadband = deadbandsPerParameter.get(header.getParameterId());
+		if (deadband == null)
+			deadband = defaultDeadband;
+
+		return deadband == null ? null : new SeriesFilter(deadband);
+	}
+
+	private static class Deadband {
+
+		private final double absoluteTolerance;
+		private final double relativeTolerance;
+		private final long maxGapMillis;
+
+		private Deadband(double absoluteTolerance, double relativeTolerance, long maxGapMillis) {
+			if (absoluteTolerance < 0 || relativeTolerance < 0 || maxGapMillis <= 0)
+				throw new IllegalArgumentException("Tolerances must not be negative and the maximum gap must be "
+						+ "positive, but were " + absoluteTolerance + ", " + relativeTolerance + ", " + maxGapMillis);
+
+			this.absoluteTolerance = absoluteTolerance;
+			this.relativeTolerance = relativeTolerance;
+			this.maxGapMillis = maxGapMillis;
+		}
+
+	}
+
+	/**
+	 * Filter state of a single series. The observations of the series have to
+	 * be passed in order.
+	 */
+	public static class SeriesFilter {
+
+		private final Deadband deadband;
+
+		private boolean hasEmitted = false;
+		private double lastEmittedValue;
+		private long lastEmittedTimeMillis;
+
+		private TalsimObservation lastSuppressed = null;
+		private int numberOfSuppressedObservations = 0;
+
+		private SeriesFilter(Deadband deadband) {
+			this.deadband = deadband;
+		}
+
+		/**
+		 * @param observation
+		 *            the next observation of the series
+		 * @return {@code true} if the observation is to be inserted,
+		 *         {@code false} if it is suppressed
+		 */
+		public boolean accept(TalsimObservation observation) {
+			double value;
+			try {
+				value = observation.getValueAsDouble();
+			} catch (NumberFormatException e) {
+				lastSuppressed = null;
+				return true;
+			}
+
+			long phenomenonTimeMillis = observation.getPhenomenonTimeMillis();
+
+			if (hasEmitted && phenomenonTimeMillis - lastEmittedTimeMillis < deadband.maxGapMillis) {
+				double tolerance = Math.max(deadband.absoluteTolerance,
+						deadband.relativeTolerance * Math.abs(lastEmittedValue));
+
+				if (Math.abs(value - lastEmittedValue) <= tolerance) {
+					lastSuppressed = observation;
+					numberOfSuppressedObservations++;
+					return false;
+				}
+			}
+
+			hasEmitted = true;
+			lastEmittedValue = value;
+			lastEmittedTimeMillis = phenomenonTimeMillis;
+			lastSuppressed = null;
+			return true;
+		}
+
+		/**
+		 * To be called at the end of the series.
+		 *
+		 * @return the last observation of the series if it has been
+		 *         suppressed and still has to be inserted, otherwise
+		 *         {@code null}
+		 */
+		public TalsimObservation complete() {
+			TalsimObservation last = lastSuppressed;
+			if (last != null)
+				numberOfSuppressedObservations--;
+			lastSuppressed = null;
+			return last;
+		}
+
+		/**
+		 * @return the number of suppressed observations of the series so far
+		 */
+		public int getNumberOfSuppressedObservations() {
+			return numberOfSuppressedObservations;
+		}
+
+	}
+
+}
@@ -0,0 +1,48 @@
+package n52.talsim_sos_converter.helper;
+
+/**
+ * A failure that did not abort an insertion, e.g. a GetDataAvailability
+ * request that could not be answered and was replaced by inserting all
+ * observations of the series.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class IngestionFailure {
+
+	private final IngestionStage stage;
+	private final String subject;
+	private final Throwable cause;
+
+	/**
+	 * @param stage
+	 *            the stage that failed
+	 * @param subject
+	 *            what failed, e.g. the header of a series
+	 * @param cause
+	 *            the cause of the failure
+	 */
+	public IngestionFailure(IngestionStage stage, String subject, Throwable cause) {
+		this.stage = stage;
+		this.subject = subject;
+		this.cause = cause;
+	}
+
+	public IngestionStage getStage() {
+		return stage;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	public Throwable getCause() {
+		return cause;
+	}
+
+	@Override
+	public String toString() {
+		return "IngestionFailure [stage=" + stage + ", subject=" + subject + ", cause=" + cause + "]";
+	}
+
+}
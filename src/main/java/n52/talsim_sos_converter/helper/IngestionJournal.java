@@ -0,0 +1,327 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the progress of the insertion of a single
+ * TalsimResult file into a SOS instance. A failed run can be resumed by a
+ * rerun on the same file: all observations acknowledged by the SOS instance
+ * in a previous run are skipped.
+ *
+ * The journal file is named after a SHA-256 hash of the file contents and the
+ * URL of the SOS instance, so a modified file or another SOS instance starts
+ * from scratch. It contains one record per line:
+ *
+ * <pre>
+ * I &lt;procedure&gt;                 InsertSensor request of the procedure acknowledged
+ * E &lt;seriesIndex&gt; &lt;eventIndex&gt;   observation acknowledged by the SOS instance
+ * S &lt;seriesIndex&gt;                all observations of the series acknowledged
+ * C                            the whole file has been inserted
+ * </pre>
+ *
+ * Records are synced to the storage device every
+ * {@value #SYNC_INTERVAL_RECORDS} records or {@value #SYNC_INTERVAL_MILLIS} ms
+ * and at the end of each series. A record torn by a crash is ignored when
+ * the journal is opened again, so at most the observations acknowledged since
+ * the last sync are inserted twice.
+ *
+ * The journal of a completed file is kept, so that a rerun on the same file
+ * does not insert it again, until it expires (see
+ * {@link #deleteExpiredJournals(Path, long)}).
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class IngestionJournal implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(IngestionJournal.class);
+
+	static final int SYNC_INTERVAL_RECORDS = 256;
+	static final long SYNC_INTERVAL_MILLIS = 1000;
+
+	private static final String JOURNAL_FILE_EXTENSION = ".journal";
+
+	private static final String SENSOR_RECORD = "I";
+	private static final String EVENT_RECORD = "E";
+	private static final String SERIES_RECORD = "S";
+	private static final String COMPLETED_RECORD = "C";
+
+	private final Path journalFile;
+	private final FileChannel channel;
+
+	private final Set<String> insertedSensors = new HashSet<String>();
+	private final Map<Integer, Integer> lastAcknowledgedEvents = new HashMap<Integer, Integer>();
+	private final Set<Integer> completedSeries = new HashSet<Integer>();
+	private boolean completed = false;
+
+	private final StringBuilder pendingRecords = new StringBuilder();
+	private int unsyncedRecords = 0;
+	private long lastSyncMillis = System.currentTimeMillis();
+
+	private IngestionJournal(Path journalFile) throws IOException {
+		this.journalFile = journalFile;
+
+		if (Files.exists(journalFile))
+			load();
+
+		this.channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Opens the journal of {@code talsimFile} within {@code journalDirectory}
+	 * or creates a new one.
+	 *
+	 * @param journalDirectory
+	 *            directory containing the journals; it is created if it does
+	 *            not exist
+	 * @param talsimFile
+	 *            the TalsimResult file to be inserted
+	 * @param sosURL
+	 *            URL of the SOS instance
+	 * @return the journal
+	 * @throws IOException
+	 */
+	public static IngestionJournal open(Path journalDirectory, Path talsimFile, URL sosURL) throws IOException {
+		Files.createDirectories(journalDirectory);
+
+		IngestionJournal journal = new IngestionJournal(
+				journalDirectory.resolve(computeKey(talsimFile, sosURL) + JOURNAL_FILE_EXTENSION));
+
+		if (logger.isInfoEnabled() && journal.hasProgress())
+			logger.info("Resuming insertion of '{}' from journal '{}'.", talsimFile, journal.journalFile);
+
+		return journal;
+	}
+
+	private static String computeKey(Path talsimFile, URL sosURL) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		try (InputStream input = Files.newInputStream(talsimFile)) {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = input.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+		}
+		digest.update(sosURL.toExternalForm().getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest())
+			key.append(String.format("%02x", b));
+		return key.toString();
+	}
+
+	private void load() throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] record = line.split(" ");
+				try {
+					if (record[0].equals(SENSOR_RECORD) && line.length() > 2)
+						insertedSensors.add(line.substring(2));
+					else if (record[0].equals(EVENT_RECORD) && record.length == 3)
+						lastAcknowledgedEvents.merge(Integer.parseInt(record[1]), Integer.parseInt(record[2]),
+								Math::max);
+					else if (record[0].equals(SERIES_RECORD) && record.length == 2)
+						completedSeries.add(Integer.parseInt(record[1]));
+					else if (record[0].equals(COMPLETED_RECORD))
+						completed = true;
+				} catch (NumberFormatException e) {
+					// record torn by a crash
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if a previous run made any progress
+	 */
+	public synchronized boolean hasProgress() {
+		return completed || !insertedSensors.isEmpty() || !completedSeries.isEmpty()
+				|| !lastAcknowledgedEvents.isEmpty();
+	}
+
+	/**
+	 * @return {@code true} if the whole file has already been inserted
+	 */
+	public synchronized boolean isCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @param procedure
+	 *            the SOS procedure identifier of a station
+	 * @return {@code true} if the InsertSensor request of the procedure has
+	 *         been acknowledged by the SOS instance in a previous run, so that
+	 *         sending it again would be rejected as duplicate
+	 */
+	public synchronized boolean isSensorInserted(String procedure) {
+		return completed || insertedSensors.contains(procedure);
+	}
+
+	/**
+	 * Records that the SOS instance acknowledged the InsertSensor request of
+	 * a procedure. The record is synced immediately, as a rerun must not send
+	 * the request again.
+	 */
+	public synchronized void acknowledgeSensor(String procedure) throws IOException {
+		if (insertedSensors.add(procedure))
+			append(SENSOR_RECORD + " " + procedure, true);
+	}
+
+	/**
+	 * @param seriesIndex
+	 *            zero-based index of the "series" node
+	 * @param eventIndex
+	 *            zero-based index of the "event" node within the series
+	 * @return {@code true} if the observation has been acknowledged by the SOS
+	 *         instance in a previous run
+	 */
+	public synchronized boolean isAcknowledged(int seriesIndex, int eventIndex) {
+		if (completed || completedSeries.contains(seriesIndex))
+			return true;
+
+		Integer lastAcknowledgedEvent = lastAcknowledgedEvents.get(seriesIndex);
+		return lastAcknowledgedEvent != null && eventIndex <= lastAcknowledgedEvent;
+	}
+
+	/**
+	 * Records that the SOS instance acknowledged an observation. As the
+	 * observations of a series are inserted in order, all observations of the
+	 * series up to {@code eventIndex} count as acknowledged.
+	 */
+	public synchronized void acknowledge(int seriesIndex, int eventIndex) throws IOException {
+		lastAcknowledgedEvents.merge(seriesIndex, eventIndex, Math::max);
+		append(EVENT_RECORD + " " + seriesIndex + " " + eventIndex, false);
+	}
+
+	/**
+	 * Records that all observations of a series have been acknowledged.
+	 */
+	public synchronized void completeSeries(int seriesIndex) throws IOException {
+		completedSeries.add(seriesIndex);
+		append(SERIES_RECORD + " " + seriesIndex, true);
+	}
+
+	/**
+	 * Records that the whole file has been inserted. The journal is compacted
+	 * to this single record and closed.
+	 */
+	public synchronized void complete() throws IOException {
+		completed = true;
+		close();
+
+		Path temporaryFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+		Files.write(temporaryFile, (COMPLETED_RECORD + "\n").getBytes(StandardCharsets.UTF_8));
+		Files.move(temporaryFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Deletes the journals of completed files that have not been modified
+	 * within {@code retentionMillis}. A rerun on such a file inserts it from
+	 * scratch. Journals of incomplete files are kept, as they are needed to
+	 * resume.
+	 *
+	 * @param journalDirectory
+	 *            directory containing the journals
+	 * @param retentionMillis
+	 *            how long the journal of a completed file is kept
+	 * @return the number of deleted journals
+	 * @throws IOException
+	 */
+	public static int deleteExpiredJournals(Path journalDirectory, long retentionMillis) throws IOException {
+		if (!Files.isDirectory(journalDirectory))
+			return 0;
+
+		long expiryMillis = System.currentTimeMillis() - retentionMillis;
+		byte[] completedJournal = (COMPLETED_RECORD + "\n").getBytes(StandardCharsets.UTF_8);
+
+		int numberOfDeletedJournals = 0;
+		try (DirectoryStream<Path> journals = Files.newDirectoryStream(journalDirectory,
+				"*" + JOURNAL_FILE_EXTENSION)) {
+			for (Path journal : journals) {
+				try {
+					// a completed journal is compacted to the single completed record
+					if (Files.size(journal) != completedJournal.length
+							|| Files.getLastModifiedTime(journal).toMillis() >= expiryMillis
+							|| !Arrays.equals(Files.readAllBytes(journal), completedJournal))
+						continue;
+
+					Files.delete(journal);
+					numberOfDeletedJournals++;
+				} catch (NoSuchFileException e) {
+					// deleted concurrently
+				}
+			}
+		}
+
+		if (logger.isInfoEnabled() && numberOfDeletedJournals > 0)
+			logger.info("Deleted {} expired journal(s) of completed files from '{}'.", numberOfDeletedJournals,
+					journalDirectory);
+
+		return numberOfDeletedJournals;
+	}
+
+	private void append(String record, boolean sync) throws IOException {
+		pendingRecords.append(record).append('\n');
+		unsyncedRecords++;
+
+		if (sync || unsyncedRecords >= SYNC_INTERVAL_RECORDS
+				|| System.currentTimeMillis() - lastSyncMillis >= SYNC_INTERVAL_MILLIS)
+			sync();
+	}
+
+	private void sync() throws IOException {
+		if (pendingRecords.length() > 0) {
+			ByteBuffer buffer = ByteBuffer.wrap(pendingRecords.toString().getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			pendingRecords.setLength(0);
+		}
+
+		channel.force(false);
+		unsyncedRecords = 0;
+		lastSyncMillis = System.currentTimeMillis();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!channel.isOpen())
+			return;
+
+		try {
+			sync();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,384 @@
+package n52.talsim_sos_converter.helper;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the measurements of a single insertion run: the time spent within
+ * each {@link IngestionStage}, the requests and bytes sent to the SOS
+ * instance, the response times of the SOS instance, the bytes allocated by
+ * each thread and the failures that did not abort the run. Thread-safe.
+ *
+ * If a {@link MetricsRegistry} is set, all measurements are also added to the
+ * live metrics of the process, which outlive the run.
+ *
+ * Wall and CPU time are measured per invocation of a stage, so CPU time is
+ * only available if the JVM supports measuring the CPU time of the current
+ * thread. Likewise, allocated bytes are only counted within the measured
+ * stages and only on JVMs that support it (e.g. HotSpot).
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class IngestionMetrics {
+
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	private static final boolean cpuTimeEnabled = threadBean.isCurrentThreadCpuTimeSupported()
+			&& threadBean.isThreadCpuTimeEnabled();
+
+	private static final com.sun.management.ThreadMXBean allocationBean = getAllocationBean();
+
+	private static final long FINISHED = -1;
+
+	private final Map<IngestionStage, StageAccumulator> stages = new EnumMap<IngestionStage, StageAccumulator>(
+			IngestionStage.class);
+
+	private final Map<SosRequestType, LongAdder> numberOfRequests = new EnumMap<SosRequestType, LongAdder>(
+			SosRequestType.class);
+	private final LongAdder numberOfBytesSent = new LongAdder();
+	private final LatencyHistogram responseTimes = new LatencyHistogram();
+
+	private final LongAdder numberOfParsedEvents = new LongAdder();
+	private final LongAdder numberOfFilteredEvents = new LongAdder();
+
+	private final Map<String, LongAdder> allocatedBytesPerThread = new ConcurrentHashMap<String, LongAdder>();
+
+	private final List<IngestionFailure> failures = Collections.synchronizedList(new ArrayList<IngestionFailure>());
+
+	// observations queued for insertion, or FINISHED once the run is over
+	private final AtomicLong pendingObservations = new AtomicLong();
+
+	private volatile LiveMetrics live = null;
+
+	public IngestionMetrics() {
+		for (IngestionStage stage : IngestionStage.values())
+			stages.put(stage, new StageAccumulator());
+		for (SosRequestType type : SosRequestType.values())
+			numberOfRequests.put(type, new LongAdder());
+	}
+
+	/**
+	 * Has to be called before the run starts.
+	 *
+	 * @param registry
+	 *            the live metrics of the process, may be {@code null}
+	 */
+	public void setRegistry(MetricsRegistry registry) {
+		this.live = registry != null ? new LiveMetrics(registry) : null;
+	}
+
+	private static com.sun.management.ThreadMXBean getAllocationBean() {
+		if (!(threadBean instanceof com.sun.management.ThreadMXBean))
+			return null;
+
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+		return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled() ? bean : null;
+	}
+
+	/**
+	 * Starts measuring an invocation of {@code stage} on the current thread.
+	 *
+	 * @return the measurement, which has to be stopped on the same thread
+	 */
+	public Measurement start(IngestionStage stage) {
+		return new Measurement(stage);
+	}
+
+	/**
+	 * Records a request that has been answered by the SOS instance.
+	 *
+	 * @param type
+	 *            the kind of the request
+	 * @param numberOfBytes
+	 *            the size of the request body
+	 * @param responseTimeNanos
+	 *            the time until the response has been read
+	 */
+	public void recordRequest(SosRequestType type, int numberOfBytes, long responseTimeNanos) {
+		numberOfRequests.get(type).increment();
+		numberOfBytesSent.add(numberOfBytes);
+		responseTimes.record(responseTimeNanos);
+
+		LiveMetrics live = this.live;
+		if (live != null) {
+			live.requests.get(type).increment();
+			live.bytesSent.add(numberOfBytes);
+			live.responseTimes.record(responseTimeNanos);
+		}
+	}
+
+	/**
+	 * Has to be followed by {@link #onRequestFinished()}.
+	 */
+	public void onRequestStarted() {
+		LiveMetrics live = this.live;
+		if (live != null)
+			live.requestsInFlight.increment();
+	}
+
+	public void onRequestFinished() {
+		LiveMetrics live = this.live;
+		if (live != null)
+			live.requestsInFlight.decrement();
+	}
+
+	public void incrementParsedEvents() {
+		numberOfParsedEvents.increment();
+
+		LiveMetrics live = this.live;
+		if (live != null)
+			live.eventsParsed.increment();
+	}
+
+	/**
+	 * An observation has been queued for insertion; has to be followed by
+	 * {@link #onObservationProcessed()} unless the run fails.
+	 */
+	public void onObservationQueued() {
+		if (pendingObservations.getAndUpdate(pending -> pending == FINISHED ? pending : pending + 1) != FINISHED) {
+			LiveMetrics live = this.live;
+			if (live != null)
+				live.pendingObservations.increment();
+		}
+	}
+
+	/**
+	 * A queued observation has been inserted or has failed.
+	 */
+	public void onObservationProcessed() {
+		if (pendingObservations.getAndUpdate(pending -> pending > 0 ? pending - 1 : pending) > 0) {
+			LiveMetrics live = this.live;
+			if (live != null)
+				live.pendingObservations.decrement();
+		}
+	}
+
+	public void incrementInsertedObservations() {
+		LiveMetrics live = this.live;
+		if (live != null)
+			live.observationsInserted.increment();
+	}
+
+	public void incrementSkippedObservations() {
+		LiveMetrics live = this.live;
+		if (live != null)
+			live.observationsSkipped.increment();
+	}
+
+	public void onInsertionStarted() {
+		LiveMetrics live = this.live;
+		if (live != null)
+			live.insertionsRunning.increment();
+	}
+
+	/**
+	 * Ends the run; observations still queued are no longer counted as
+	 * pending.
+	 *
+	 * @param failure
+	 *            the cause of the failure of the run, or {@code null} if it
+	 *            succeeded
+	 */
+	public void onInsertionFinished(Throwable failure) {
+		long remainingObservations = pendingObservations.getAndSet(FINISHED);
+
+		LiveMetrics live = this.live;
+		if (live == null || remainingObservations == FINISHED)
+			return;
+
+		live.pendingObservations.add(-remainingObservations);
+		live.insertionsRunning.decrement();
+
+		// failures are distinguished by their type, e.g. IOException
+		String outcome = failure == null ? "succeeded" : failure.getClass().getSimpleName();
+		live.registry.counter("talsim_insertions_total", "Finished insertions of TalsimResults", "outcome", outcome)
+				.increment();
+	}
+
+	/**
+	 * @param number
+	 *            the number of "event" nodes dropped by a
+	 *            {@link TalsimEventFilter}
+	 */
+	public void addFilteredEvents(long number) {
+		numberOfFilteredEvents.add(number);
+
+		LiveMetrics live = this.live;
+		if (live != null)
+			live.eventsFiltered.add(number);
+	}
+
+	public void addFailure(IngestionFailure failure) {
+		failures.add(failure);
+
+		LiveMetrics live = this.live;
+		if (live != null)
+			live.failures.get(failure.getStage()).increment();
+	}
+
+	public StageTiming getStageTiming(IngestionStage stage) {
+		StageAccumulator accumulator = stages.get(stage);
+		return new StageTiming(accumulator.numberOfInvocations.sum(), accumulator.wallTimeNanos.sum(),
+				accumulator.cpuTimeNanos.sum());
+	}
+
+	/**
+	 * @return the number of requests of the given kind answered by the SOS
+	 *         instance, regardless of whether they succeeded
+	 */
+	public long getNumberOfRequests(SosRequestType type) {
+		return numberOfRequests.get(type).sum();
+	}
+
+	public long getNumberOfBytesSent() {
+		return numberOfBytesSent.sum();
+	}
+
+	/**
+	 * @return a copy of the response times recorded so far
+	 */
+	public LatencyHistogram getResponseTimes() {
+		return responseTimes.copy();
+	}
+
+	/**
+	 * @return the number of "event" nodes emitted by the parser, i.e. not
+	 *         dropped by a {@link TalsimEventFilter}
+	 */
+	public long getNumberOfParsedEvents() {
+		return numberOfParsedEvents.sum();
+	}
+
+	public long getNumberOfFilteredEvents() {
+		return numberOfFilteredEvents.sum();
+	}
+
+	/**
+	 * @return the bytes allocated within the measured stages by each thread,
+	 *         sorted by thread name; empty if the JVM does not support
+	 *         measuring allocations
+	 */
+	public Map<String, Long> getAllocatedBytesPerThread() {
+		Map<String, Long> allocatedBytes = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : allocatedBytesPerThread.entrySet())
+			allocatedBytes.put(entry.getKey(), entry.getValue().sum());
+		return allocatedBytes;
+	}
+
+	public List<IngestionFailure> getFailures() {
+		synchronized (failures) {
+			return new ArrayList<IngestionFailure>(failures);
+		}
+	}
+
+	private static long getCurrentThreadAllocatedBytes() {
+		return allocationBean != null ? allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+	}
+
+	/**
+	 * The metrics of a {@link MetricsRegistry} updated by the run, looked up
+	 * once per run.
+	 */
+	private static class LiveMetrics {
+
+		private final MetricsRegistry registry;
+
+		private final MetricsRegistry.Counter eventsParsed;
+		private final MetricsRegistry.Counter eventsFiltered;
+		private final MetricsRegistry.Counter observationsInserted;
+		private final MetricsRegistry.Counter observationsSkipped;
+		private final Map<SosRequestType, MetricsRegistry.Counter> requests = new EnumMap<SosRequestType, MetricsRegistry.Counter>(
+				SosRequestType.class);
+		private final MetricsRegistry.Counter bytesSent;
+		private final LatencyHistogram responseTimes;
+		private final Map<IngestionStage, MetricsRegistry.Counter> failures = new EnumMap<IngestionStage, MetricsRegistry.Counter>(
+				IngestionStage.class);
+		private final MetricsRegistry.Gauge requestsInFlight;
+		private final MetricsRegistry.Gauge pendingObservations;
+		private final MetricsRegistry.Gauge insertionsRunning;
+
+		private LiveMetrics(MetricsRegistry registry) {
+			this.registry = registry;
+
+			eventsParsed = registry.counter("talsim_events_parsed_total", "Events parsed from TalsimResults");
+			eventsFiltered = registry.counter("talsim_events_filtered_total", "Events dropped by the event filter");
+			observationsInserted = registry.counter("talsim_observations_inserted_total",
+					"Observations accepted by the SOS instance");
+			observationsSkipped = registry.counter("talsim_observations_skipped_total",
+					"Observations skipped as the SOS instance already holds them");
+			for (SosRequestType type : SosRequestType.values())
+				requests.put(type, registry.counter("talsim_sos_requests_total",
+						"Requests answered by the SOS instance", "type", type.name()));
+			bytesSent = registry.counter("talsim_sos_request_bytes_total", "Request bytes sent to the SOS instance");
+			responseTimes = registry.histogram("talsim_sos_response_seconds", "Response times of the SOS instance");
+			for (IngestionStage stage : IngestionStage.values())
+				failures.put(stage, registry.counter("talsim_failures_total",
+						"Failures that did not abort an insertion", "stage", stage.name()));
+			requestsInFlight = registry.gauge("talsim_sos_requests_in_flight", "Requests sent but not answered yet");
+			pendingObservations = registry.gauge("talsim_pending_observations",
+					"Observations queued for insertion");
+			insertionsRunning = registry.gauge("talsim_insertions_running", "Insertions of TalsimResults running");
+		}
+
+	}
+
+	private static class StageAccumulator {
+
+		private final LongAdder numberOfInvocations = new LongAdder();
+		private final LongAdder wallTimeNanos = new LongAdder();
+		private final LongAdder cpuTimeNanos = new LongAdder();
+
+	}
+
+	/**
+	 * A running invocation of a stage on a single thread.
+	 */
+	public class Measurement {
+
+		private final IngestionStage stage;
+		private final long startWallNanos;
+		private final long startCpuNanos;
+		private final long startAllocatedBytes;
+
+		private Measurement(IngestionStage stage) {
+			this.stage = stage;
+			this.startAllocatedBytes = getCurrentThreadAllocatedBytes();
+			this.startCpuNanos = cpuTimeEnabled ? threadBean.getCurrentThreadCpuTime() : 0;
+			this.startWallNanos = System.nanoTime();
+		}
+
+		/**
+		 * Stops the measurement and adds it to the stage.
+		 *
+		 * @return the elapsed wall time in nanoseconds
+		 */
+		public long stop() {
+			long wallNanos = System.nanoTime() - startWallNanos;
+
+			StageAccumulator accumulator = stages.get(stage);
+			accumulator.numberOfInvocations.increment();
+			accumulator.wallTimeNanos.add(wallNanos);
+
+			if (cpuTimeEnabled)
+				accumulator.cpuTimeNanos.add(threadBean.getCurrentThreadCpuTime() - startCpuNanos);
+
+			if (allocationBean != null)
+				allocatedBytesPerThread.computeIfAbsent(Thread.currentThread().getName(), name -> new LongAdder())
+						.add(getCurrentThreadAllocatedBytes() - startAllocatedBytes);
+
+			return wallNanos;
+		}
+
+	}
+
+}
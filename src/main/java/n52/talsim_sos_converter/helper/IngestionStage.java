@@ -0,0 +1,33 @@
+package n52.talsim_sos_converter.helper;
+
+/**
+ * The stages each observation passes through during an insertion, as
+ * measured by {@link IngestionMetrics}.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public enum IngestionStage {
+
+	/**
+	 * reading the next "event" node from the TalsimResult
+	 */
+	PARSE,
+
+	/**
+	 * rendering a request template and encoding the request
+	 */
+	BUILD,
+
+	/**
+	 * the HTTP exchange with the SOS instance, excluding the time waiting for
+	 * a request permit
+	 */
+	SEND,
+
+	/**
+	 * inspecting the response of the SOS instance
+	 */
+	VERIFY
+
+}
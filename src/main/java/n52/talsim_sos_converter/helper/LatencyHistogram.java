@@ -0,0 +1,135 @@
+package n52.talsim_sos_converter.helper;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe histogram of durations in nanoseconds with a fixed memory
+ * footprint, regardless of the number of recorded values.
+ *
+ * Each power of two is split into {@value #SUB_BUCKETS} equally sized
+ * buckets, so percentiles are accurate to about 6 %; durations below
+ * {@value #SUB_BUCKETS} ns are recorded exactly.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos
+	 *            the duration to record; negative durations are recorded as 0
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(0, nanos);
+
+		counts.incrementAndGet(getBucketIndex(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		max.accumulateAndGet(nanos, Math::max);
+	}
+
+	/**
+	 * Adds all values recorded by {@code other} to this histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length(); i++) {
+			long bucketCount = other.counts.get(i);
+			if (bucketCount > 0)
+				counts.addAndGet(i, bucketCount);
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		max.accumulateAndGet(other.max.get(), Math::max);
+	}
+
+	/**
+	 * @return a copy of the values recorded so far
+	 */
+	public LatencyHistogram copy() {
+		LatencyHistogram copy = new LatencyHistogram();
+		copy.add(this);
+		return copy;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the sum of all recorded durations in nanoseconds
+	 */
+	public long getSumNanos() {
+		return sum.get();
+	}
+
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile
+	 *            the percentile between 0 and 100, e.g. 99 for the 99th
+	 *            percentile
+	 * @return the upper bound of the duration below which {@code percentile}
+	 *         percent of the recorded durations lie, in nanoseconds; 0 if no
+	 *         value has been recorded
+	 */
+	public long getPercentileNanos(double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("percentile must be between 0 and 100, but was " + percentile);
+
+		long totalCount = count.get();
+		if (totalCount == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+		long cumulativeCount = 0;
+
+		for (int i = 0; i < counts.length(); i++) {
+			cumulativeCount += counts.get(i);
+			if (cumulativeCount >= rank)
+				return Math.min(getBucketUpperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	private static int getBucketIndex(long nanos) {
+		if (nanos < SUB_BUCKETS)
+			return (int) nanos;
+
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long getBucketUpperBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+
+		// the highest buckets would overflow
+		if (shift + SUB_BUCKET_BITS + 1 >= 63)
+			return Long.MAX_VALUE;
+
+		return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram [count=" + getCount() + ", p50=" + getPercentileNanos(50) + ", p99="
+				+ getPercentileNanos(99) + ", max=" + getMaxNanos() + "]";
+	}
+
+}
@@ -0,0 +1,292 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Directory of lease files through which several converter processes - on
+ * one host or on several hosts sharing a file system - claim work without any
+ * coordination service.
+ *
+ * A lease is a file named after its key that contains the identifier of its
+ * owner. It is created atomically, so only one process can hold a lease at
+ * any time. The owner renews the lease by touching the file; a lease not
+ * renewed within the lease duration (e.g. as its owner crashed) has expired
+ * and may be taken over by another process. The clocks of the hosts must
+ * therefore agree to within a small fraction of the lease duration. A lease
+ * taken over while its owner was still renewing it is handed back unless
+ * another process acquired it in the meantime; either way, the owner detects
+ * a lost lease with its next {@link Lease#renew()}.
+ *
+ * Besides leases, the directory holds <i>marks</i>, e.g. to record that a
+ * file has been processed.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class LeaseDirectory {
+
+	private static Logger logger = LoggerFactory.getLogger(LeaseDirectory.class);
+
+	private static final String LEASE_FILE_EXTENSION = ".lease";
+
+	private final Path directory;
+	private final String ownerId;
+	private final long leaseDurationMillis;
+
+	/**
+	 * @param directory
+	 *            the shared lease directory; it is created if it does not
+	 *            exist
+	 * @param ownerId
+	 *            identifier of this process, unique among all processes
+	 *            sharing the directory
+	 * @param leaseDurationMillis
+	 *            time after which a lease not renewed expires
+	 * @throws IOException
+	 */
+	public LeaseDirectory(Path directory, String ownerId, long leaseDurationMillis) throws IOException {
+		if (leaseDurationMillis <= 0)
+			throw new IllegalArgumentException("leaseDurationMillis must be positive");
+
+		this.directory = Files.createDirectories(directory);
+		this.ownerId = ownerId;
+		this.leaseDurationMillis = leaseDurationMillis;
+	}
+
+	public String getOwnerId() {
+		return ownerId;
+	}
+
+	public long getLeaseDurationMillis() {
+		return leaseDurationMillis;
+	}
+
+	/**
+	 * Tries to acquire the lease of {@code key}, taking it over if it has
+	 * expired.
+	 *
+	 * @param key
+	 *            the key of the lease, e.g. the name of a file
+	 * @return the lease or {@code null} if another process holds it
+	 * @throws IOException
+	 */
+	public Lease tryAcquire(String key) throws IOException {
+		Path leaseFile = getFile(key, LEASE_FILE_EXTENSION);
+
+		if (tryCreate(leaseFile))
+			return newLease(key, leaseFile);
+
+		if (!isExpired(leaseFile))
+			return null;
+
+		/*
+		 * take over the expired lease: of several processes trying at the same
+		 * time, only one succeeds in moving it out of the way
+		 */
+		Path expiredFile = leaseFile.resolveSibling(leaseFile.getFileName() + "." + UUID.randomUUID() + ".expired");
+		try {
+			Files.move(leaseFile, expiredFile, StandardCopyOption.ATOMIC_MOVE);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+
+		try {
+			if (!isExpired(expiredFile)) {
+				// renewed by its owner between the check and the move, hand it back
+				restore(key, expiredFile, leaseFile);
+				return null;
+			}
+
+			if (logger.isInfoEnabled())
+				logger.info("Taking over expired lease '{}' of '{}'.", key, readOwner(expiredFile));
+		} finally {
+			Files.deleteIfExists(expiredFile);
+		}
+
+		return tryCreate(leaseFile) ? newLease(key, leaseFile) : null;
+	}
+
+	private Lease newLease(String key, Path leaseFile) throws IOException {
+		return new Lease(key, leaseFile, Files.readAttributes(leaseFile, BasicFileAttributes.class).fileKey());
+	}
+
+	/**
+	 * Hands a lease back to its owner. In contrast to a move, which would
+	 * replace the lease of a process that acquired it in the meantime, a link
+	 * fails if the lease file exists.
+	 */
+	private void restore(String key, Path expiredFile, Path leaseFile) throws IOException {
+		try {
+			Files.createLink(leaseFile, expiredFile);
+		} catch (FileAlreadyExistsException | UnsupportedOperationException e) {
+			// the owner detects the loss when renewing the lease
+			if (logger.isWarnEnabled())
+				logger.warn("Could not hand back lease '{}' to '{}'.", key, readOwner(expiredFile));
+		}
+	}
+
+	private boolean tryCreate(Path leaseFile) throws IOException {
+		Path temporaryFile = leaseFile.resolveSibling(leaseFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+		Files.write(temporaryFile, ownerId.getBytes(StandardCharsets.UTF_8));
+
+		try {
+			// a link is created atomically and fails if the lease file exists
+			Files.createLink(leaseFile, temporaryFile);
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		} catch (UnsupportedOperationException e) {
+			// no hard links, fall back to an empty file written afterwards
+			try {
+				Files.createFile(leaseFile);
+			} catch (FileAlreadyExistsException e1) {
+				return false;
+			}
+			Files.write(leaseFile, ownerId.getBytes(StandardCharsets.UTF_8));
+			return true;
+		} finally {
+			Files.deleteIfExists(temporaryFile);
+		}
+	}
+
+	private boolean isExpired(Path leaseFile) throws IOException {
+		try {
+			long lastRenewalMillis = Files.getLastModifiedTime(leaseFile).toMillis();
+			return System.currentTimeMillis() - lastRenewalMillis > leaseDurationMillis;
+		} catch (NoSuchFileException e) {
+			return true;
+		}
+	}
+
+	private static String readOwner(Path leaseFile) {
+		try {
+			return new String(Files.readAllBytes(leaseFile), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return "?";
+		}
+	}
+
+	/**
+	 * @return {@code true} if {@code key} has been marked with {@code mark}
+	 */
+	public boolean isMarked(String key, String mark) {
+		return Files.exists(getFile(key, "." + mark));
+	}
+
+	/**
+	 * Marks {@code key} with {@code mark}, e.g. "done".
+	 *
+	 * @param content
+	 *            content of the mark file, e.g. a report
+	 * @throws IOException
+	 */
+	public void mark(String key, String mark, String content) throws IOException {
+		Path markFile = getFile(key, "." + mark);
+		Path temporaryFile = markFile.resolveSibling(markFile.getFileName() + "." + UUID.randomUUID() + ".tmp");
+
+		Files.write(temporaryFile, content.getBytes(StandardCharsets.UTF_8));
+		Files.move(temporaryFile, markFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Path getFile(String key, String extension) {
+		// keys are used as file names, so characters invalid on some file systems are replaced
+		return directory.resolve(key.replaceAll("[^A-Za-z0-9._-]", "_") + extension);
+	}
+
+	/**
+	 * A lease held by this process.
+	 */
+	public class Lease implements Closeable {
+
+		private final String key;
+		private final Path leaseFile;
+
+		// identifies the lease file, it changes if the lease is taken over
+		private final Object fileKey;
+
+		private volatile boolean released = false;
+
+		private Lease(String key, Path leaseFile, Object fileKey) {
+			this.key = key;
+			this.leaseFile = leaseFile;
+			this.fileKey = fileKey;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Renews the lease. Has to be called well within the lease duration.
+		 *
+		 * @return {@code false} if the lease has been lost, e.g. taken over by
+		 *         another process after this process did not renew it in time
+		 */
+		public boolean renew() {
+			if (released)
+				return false;
+
+			try {
+				if (!isOwned())
+					return false;
+
+				Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis()));
+
+				// taken over between the check and the renewal, then the lease of the other process was renewed
+				return isOwned();
+			} catch (NoSuchFileException e) {
+				// moved away by a process taking it over
+				return false;
+			} catch (IOException e) {
+				if (logger.isWarnEnabled())
+					logger.warn("Could not renew lease '{}'.", key, e);
+				return false;
+			}
+		}
+
+		private boolean isOwned() throws IOException {
+			if (fileKey != null
+					&& !fileKey.equals(Files.readAttributes(leaseFile, BasicFileAttributes.class).fileKey()))
+				return false;
+
+			return ownerId.equals(readOwner(leaseFile));
+		}
+
+		/**
+		 * Releases the lease, so that other processes may acquire it.
+		 */
+		@Override
+		public void close() throws IOException {
+			if (released)
+				return;
+
+			released = true;
+			try {
+				if (isOwned())
+					Files.deleteIfExists(leaseFile);
+			} catch (NoSuchFileException e) {
+				// lost anyway
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Lease [key=" + key + ", ownerId=" + ownerId + "]";
+		}
+
+	}
+
+}
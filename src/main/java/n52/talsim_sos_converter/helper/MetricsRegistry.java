@@ -0,0 +1,386 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of live metrics of a long-running converter process: counters,
+ * gauges and latency histograms, optionally distinguished by labels (e.g.
+ * the type of a request).
+ *
+ * Updating a metric is lock-free: counters are {@link LongAdder}s, gauges
+ * {@link AtomicLong}s or functions evaluated on read, and histograms
+ * {@link LatencyHistogram}s. The metrics are read by
+ * <ul>
+ * <li>{@link #writePrometheus(Writer)}, which writes them in the Prometheus
+ * text format, see {@link PrometheusEndpoint}</li>
+ * <li>a JMX MBean registered via {@link #registerMBean()}, which exposes each
+ * sample as a read-only attribute</li>
+ * </ul>
+ *
+ * Metric names should follow the Prometheus conventions, e.g.
+ * {@code talsim_events_parsed_total}. Histograms record nanoseconds and are
+ * exported as summary in seconds, so their names should end with
+ * {@code _seconds}.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class MetricsRegistry {
+
+	/**
+	 * name of the MBean registered by {@link #registerMBean()}
+	 */
+	public static final String DEFAULT_OBJECT_NAME = "n52.talsim_sos_converter:type=Metrics";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+	private enum Type {
+		COUNTER, GAUGE, SUMMARY
+	}
+
+	private final Map<String, Family> families = new ConcurrentHashMap<String, Family>();
+
+	private ObjectName registeredName = null;
+
+	/**
+	 * @param labels
+	 *            pairs of label name and label value, e.g.
+	 *            {@code "type", "InsertObservation"}
+	 * @return the counter with the given name and labels, created on first
+	 *         use
+	 */
+	public Counter counter(String name, String help, String... labels) {
+		return (Counter) getFamily(name, help, Type.COUNTER).metrics.computeIfAbsent(formatLabels(labels),
+				key -> new Counter());
+	}
+
+	/**
+	 * @return the gauge with the given name and labels, created on first use
+	 */
+	public Gauge gauge(String name, String help, String... labels) {
+		return (Gauge) getFamily(name, help, Type.GAUGE).metrics.computeIfAbsent(formatLabels(labels),
+				key -> new Gauge());
+	}
+
+	/**
+	 * @return the histogram with the given name and labels, created on first
+	 *         use
+	 */
+	public LatencyHistogram histogram(String name, String help, String... labels) {
+		return (LatencyHistogram) getFamily(name, help, Type.SUMMARY).metrics
+				.computeIfAbsent(formatLabels(labels), key -> new LatencyHistogram());
+	}
+
+	/**
+	 * Registers a counter maintained elsewhere, e.g. by a
+	 * {@link SosFanOut.Endpoint}. Replaces a counter with the same name and
+	 * labels.
+	 *
+	 * @param value
+	 *            evaluated whenever the metrics are read; must be cheap and
+	 *            thread-safe
+	 */
+	public void registerCounter(String name, String help, LongSupplier value, String... labels) {
+		getFamily(name, help, Type.COUNTER).metrics.put(formatLabels(labels), value);
+	}
+
+	/**
+	 * Registers a gauge maintained elsewhere, e.g. the length of a queue.
+	 * Replaces a gauge with the same name and labels.
+	 *
+	 * @param value
+	 *            evaluated whenever the metrics are read; must be cheap and
+	 *            thread-safe
+	 */
+	public void registerGauge(String name, String help, LongSupplier value, String... labels) {
+		getFamily(name, help, Type.GAUGE).metrics.put(formatLabels(labels), value);
+	}
+
+	private Family getFamily(String name, String help, Type type) {
+		Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+
+		if (family.type != type)
+			throw new IllegalArgumentException("Metric '" + name + "' is a " + family.type + ", not a " + type);
+
+		return family;
+	}
+
+	private static String formatLabels(String... labels) {
+		if (labels.length % 2 != 0)
+			throw new IllegalArgumentException("labels must be pairs of name and value");
+		if (labels.length == 0)
+			return "";
+
+		StringBuilder formattedLabels = new StringBuilder("{");
+		for (int i = 0; i < labels.length; i += 2) {
+			if (i > 0)
+				formattedLabels.append(',');
+			formattedLabels.append(labels[i]).append("=\"").append(escapeLabelValue(labels[i + 1])).append('"');
+		}
+		return formattedLabels.append('}').toString();
+	}
+
+	private static String escapeLabelValue(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	/**
+	 * Writes all metrics in the Prometheus text exposition format (version
+	 * 0.0.4).
+	 */
+	public void writePrometheus(Writer writer) throws IOException {
+		for (Family family : new TreeMap<String, Family>(families).values()) {
+			writer.write("# HELP " + family.name + " " + family.help.replace("\\", "\\\\").replace("\n", "\\n")
+					+ "\n");
+			writer.write("# TYPE " + family.name + " " + family.type.name().toLowerCase() + "\n");
+
+			for (Sample sample : family.collect())
+				writer.write(sample.name + sample.labels + " " + formatValue(sample.value) + "\n");
+		}
+		writer.flush();
+	}
+
+	private static String formatValue(double value) {
+		if (value == Math.rint(value) && !Double.isInfinite(value))
+			return Long.toString((long) value);
+		return Double.toString(value);
+	}
+
+	/**
+	 * @return the current value of each sample, keyed by name and labels in
+	 *         the Prometheus notation, e.g.
+	 *         {@code talsim_sos_requests_total{type="INSERT_SENSOR"}}
+	 */
+	public Map<String, Double> getSamples() {
+		Map<String, Double> samples = new TreeMap<String, Double>();
+		for (Family family : families.values()) {
+			for (Sample sample : family.collect())
+				samples.put(sample.name + sample.labels, sample.value);
+		}
+		return samples;
+	}
+
+	/**
+	 * Registers the metrics as MBean named {@value #DEFAULT_OBJECT_NAME} at
+	 * the platform MBean server.
+	 *
+	 * @return the name of the MBean
+	 * @throws JMException
+	 *             e.g. if another registry is registered under this name
+	 */
+	public synchronized ObjectName registerMBean() throws JMException {
+		return registerMBean(new ObjectName(DEFAULT_OBJECT_NAME));
+	}
+
+	/**
+	 * Registers the metrics as MBean with the given name at the platform MBean
+	 * server, e.g. to distinguish several converters within the same JVM.
+	 */
+	public synchronized ObjectName registerMBean(ObjectName name) throws JMException {
+		if (registeredName != null)
+			throw new IllegalStateException("The metrics are already registered as " + registeredName);
+
+		registeredName = ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), name)
+				.getObjectName();
+		return registeredName;
+	}
+
+	/**
+	 * Unregisters the MBean registered via {@link #registerMBean()}, if any.
+	 */
+	public synchronized void unregisterMBean() throws JMException {
+		if (registeredName == null)
+			return;
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(registeredName))
+			server.unregisterMBean(registeredName);
+		registeredName = null;
+	}
+
+	/**
+	 * A monotonically increasing count.
+	 */
+	public static class Counter implements LongSupplier {
+
+		private final LongAdder value = new LongAdder();
+
+		public void increment() {
+			value.increment();
+		}
+
+		public void add(long amount) {
+			value.add(amount);
+		}
+
+		@Override
+		public long getAsLong() {
+			return value.sum();
+		}
+
+	}
+
+	/**
+	 * A value that may go up and down, e.g. the number of requests in flight.
+	 */
+	public static class Gauge implements LongSupplier {
+
+		private final AtomicLong value = new AtomicLong();
+
+		public void increment() {
+			value.incrementAndGet();
+		}
+
+		public void decrement() {
+			value.decrementAndGet();
+		}
+
+		public void add(long amount) {
+			value.addAndGet(amount);
+		}
+
+		public void set(long newValue) {
+			value.set(newValue);
+		}
+
+		@Override
+		public long getAsLong() {
+			return value.get();
+		}
+
+	}
+
+	private static class Sample {
+
+		private final String name;
+		private final String labels;
+		private final double value;
+
+		private Sample(String name, String labels, double value) {
+			this.name = name;
+			this.labels = labels;
+			this.value = value;
+		}
+
+	}
+
+	private static class Family {
+
+		private final String name;
+		private final String help;
+		private final Type type;
+
+		// LongSuppliers or LatencyHistograms, keyed by their formatted labels
+		private final Map<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+		private Family(String name, String help, Type type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+
+		private List<Sample> collect() {
+			List<Sample> samples = new ArrayList<Sample>();
+
+			for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(metrics).entrySet()) {
+				String labels = entry.getKey();
+
+				if (type != Type.SUMMARY) {
+					samples.add(new Sample(name, labels, ((LongSupplier) entry.getValue()).getAsLong()));
+					continue;
+				}
+
+				LatencyHistogram histogram = (LatencyHistogram) entry.getValue();
+				for (double quantile : QUANTILES)
+					samples.add(new Sample(name, addLabel(labels, "quantile", Double.toString(quantile)),
+							histogram.getPercentileNanos(quantile * 100) / 1e9));
+				samples.add(new Sample(name + "_sum", labels, histogram.getSumNanos() / 1e9));
+				samples.add(new Sample(name + "_count", labels, histogram.getCount()));
+			}
+			return samples;
+		}
+
+		private static String addLabel(String labels, String labelName, String labelValue) {
+			String label = labelName + "=\"" + labelValue + "\"";
+			return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+		}
+
+	}
+
+	/**
+	 * Exposes each sample as read-only attribute of type {@code double}.
+	 */
+	private class MetricsMBean implements DynamicMBean {
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Double value = getSamples().get(attribute);
+			if (value == null)
+				throw new AttributeNotFoundException("No metric " + attribute);
+			return value;
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			Map<String, Double> samples = getSamples();
+
+			AttributeList values = new AttributeList();
+			for (String attribute : attributes) {
+				if (samples.containsKey(attribute))
+					values.add(new Attribute(attribute, samples.get(attribute)));
+			}
+			return values;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException("Metric " + attribute.getName() + " is read-only");
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException("The metrics MBean has no operations");
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+
+			for (Family family : new TreeMap<String, Family>(families).values()) {
+				for (Sample sample : family.collect())
+					attributes.add(new MBeanAttributeInfo(sample.name + sample.labels, "double", family.help, true,
+							false, false));
+			}
+
+			return new MBeanInfo(MetricsRegistry.class.getName(), "Metrics of the TalsimSosConverter",
+					attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+		}
+
+	}
+
+}
@@ -0,0 +1,278 @@
+package n52.talsim_sos_converter.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+
+/**
+ * Downsampling stage that resamples each series onto a coarser time grid and
+ * replaces its observations by aggregates such as the mean, minimum or
+ * maximum per grid cell, e.g. to store hourly instead of 15-minute values in
+ * a long-term archive.
+ *
+ * The grid is a multiple of the "timeStep" of the series and aligned to the
+ * epoch (UTC), so hourly cells start at full hours. A cell covers the half-open
+ * interval [start, start + grid) and its aggregate gets the phenomenon time of
+ * the start of the cell. Events equal to the "missVal" of the series or with
+ * a non-numeric value are ignored; a cell without any valid value yields no
+ * aggregate.
+ *
+ * Each aggregate of a series is emitted as a series of its own, with a
+ * procedure and offering derived from the station of the original series and
+ * suffixed with the grid and the aggregate (e.g.
+ * "TalsimResult_TBEV_PT1H_mean"). The observed property remains unchanged.
+ *
+ * Aggregation is streaming: only the current cell of each aggregate is kept in
+ * memory, so the series have to be in time order.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class ObservationAggregation {
+
+	/**
+	 * The aggregate computed per grid cell.
+	 */
+	public enum Aggregate {
+		MEAN, MIN, MAX, LAST
+	}
+
+	private final int timeStepFactor;
+	private final List<Aggregate> aggregates;
+
+	/**
+	 * @param timeStepFactor
+	 *            size of the grid as multiple of the "timeStep" of each
+	 *            series, e.g. 4 to aggregate 15-minute values hourly
+	 * @param aggregates
+	 *            the aggregates to compute
+	 */
+	public ObservationAggregation(int timeStepFactor, Aggregate... aggregates) {
+		if (timeStepFactor < 1)
+			throw new IllegalArgumentException("timeStepFactor must be at least 1, but was " + timeStepFactor);
+		if (aggregates.length == 0)
+			throw new IllegalArgumentException("At least one aggregate is required.");
+
+		this.timeStepFactor = timeStepFactor;
+		this.aggregates = Collections.unmodifiableList(Arrays.asList(aggregates.clone()));
+	}
+
+	public int getTimeStepFactor() {
+		return timeStepFactor;
+	}
+
+	public List<Aggregate> getAggregates() {
+		return aggregates;
+	}
+
+	/**
+	 * @param headers
+	 *            the headers of the original series
+	 * @return the headers of all aggregated series, in order
+	 * @throws IllegalArgumentException
+	 *             if the "timeStep" of a series is not supported
+	 */
+	public List<TalsimSeriesHeader> deriveHeaders(List<TalsimSeriesHeader> headers) {
+		List<TalsimSeriesHeader> derivedHeaders = new ArrayList<TalsimSeriesHeader>();
+
+		for (TalsimSeriesHeader header : headers) {
+			long gridMillis = timeStepFactor * parseTimeStepMillis(header);
+
+			for (Aggregate aggregate : aggregates)
+				derivedHeaders.add(deriveHeader(header, aggregate, gridMillis));
+		}
+		return derivedHeaders;
+	}
+
+	/**
+	 * @param header
+	 *            the header of an original series
+	 * @return the aggregation state of the series
+	 * @throws IllegalArgumentException
+	 *             if the "timeStep" of the series is not supported
+	 */
+	public SeriesAggregator forSeries(TalsimSeriesHeader header) {
+		long gridMillis = timeStepFactor * parseTimeStepMillis(header);
+
+		TalsimSeriesHeader[] derivedHeaders = new TalsimSeriesHeader[aggregates.size()];
+		for (int i = 0; i < derivedHeaders.length; i++)
+			derivedHeaders[i] = deriveHeader(header, aggregates.get(i), gridMillis);
+
+		return new SeriesAggregator(header, gridMillis, derivedHeaders);
+	}
+
+	private TalsimSeriesHeader deriveHeader(TalsimSeriesHeader header, Aggregate aggregate, long gridMillis) {
+		String suffix = "_" + new Period(gridMillis).toString() + "_" + aggregate.name().toLowerCase(Locale.ROOT);
+
+		/*
+		 * the index has to be unique among all aggregated series, as it
+		 * identifies the series within an ingestion journal
+		 */
+		int seriesIndex = header.getSeriesIndex() * aggregates.size() + aggregates.indexOf(aggregate);
+
+		// the derived station gets a procedure of its own, and an offering of its own with qualified identifiers
+		return new TalsimSeriesHeader(seriesIndex, header.getTimeZone(), header.getType(),
+				header.getLocationId() + suffix, header.getParameterId(), header.getTimeStepUnit(),
+				String.valueOf(Long.parseLong(header.getTimeStepMultiplier()) * timeStepFactor),
+				header.getStartDate(), header.getStartTime(), header.getEndDate(), header.getEndTime(),
+				header.getMissVal(), header.getStationName() + suffix, header.getUnits());
+	}
+
+	/**
+	 * @param header
+	 *            the header of a "series" node
+	 * @return the "timeStep" of the series in milliseconds
+	 * @throws IllegalArgumentException
+	 *             if the unit or the multiplier of the "timeStep" is not
+	 *             supported
+	 */
+	public static long parseTimeStepMillis(TalsimSeriesHeader header) {
+		long unitMillis;
+		switch (String.valueOf(header.getTimeStepUnit()).toLowerCase(Locale.ROOT)) {
+		case "second":
+			unitMillis = 1000L;
+			break;
+		case "minute":
+			unitMillis = 60 * 1000L;
+			break;
+		case "hour":
+			unitMillis = 60 * 60 * 1000L;
+			break;
+		case "day":
+			unitMillis = 24 * 60 * 60 * 1000L;
+			break;
+		default:
+			throw new IllegalArgumentException(
+					"Unsupported unit of node 'timeStep' in series " + header + ": " + header.getTimeStepUnit());
+		}
+
+		try {
+			return unitMillis * Long.parseLong(header.getTimeStepMultiplier());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(
+					"Invalid multiplier of node 'timeStep' in series " + header + ": " + header.getTimeStepMultiplier(),
+					e);
+		}
+	}
+
+	/**
+	 * Aggregation state of a single original series. The observations of the
+	 * series have to be passed in time order.
+	 */
+	public class SeriesAggregator {
+
+		private final long gridMillis;
+		private final TalsimSeriesHeader[] derivedHeaders;
+		private final double missVal;
+
+		private long currentCell = Long.MIN_VALUE;
+		private int numberOfValues;
+		private double sum;
+		private double min;
+		private double max;
+		private double last;
+
+		private int numberOfEmittedCells = 0;
+
+		private SeriesAggregator(TalsimSeriesHeader header, long gridMillis, TalsimSeriesHeader[] derivedHeaders) {
+			this.gridMillis = gridMillis;
+			this.derivedHeaders = derivedHeaders;
+
+			double parsedMissVal;
+			try {
+				parsedMissVal = Double.parseDouble(header.getMissVal());
+			} catch (NullPointerException | NumberFormatException e) {
+				parsedMissVal = Double.NaN;
+			}
+			this.missVal = parsedMissVal;
+		}
+
+		/**
+		 * @param observation
+		 *            the next observation of the original series
+		 * @return the aggregates of the previous grid cell if the observation
+		 *         starts a new cell, otherwise an empty list
+		 */
+		public List<TalsimObservation> accept(TalsimObservation observation) {
+			double value;
+			try {
+				value = observation.getValueAsDouble();
+			} catch (NumberFormatException e) {
+				return Collections.emptyList();
+			}
+
+			if (value == missVal || Double.isNaN(value))
+				return Collections.emptyList();
+
+			long cell = Math.floorDiv(observation.getPhenomenonTimeMillis(), gridMillis);
+
+			List<TalsimObservation> aggregatedObservations = Collections.emptyList();
+			if (cell != currentCell) {
+				aggregatedObservations = emitCurrentCell();
+				currentCell = cell;
+			}
+
+			if (numberOfValues == 0) {
+				min = value;
+				max = value;
+			} else {
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			sum += value;
+			last = value;
+			numberOfValues++;
+
+			return aggregatedObservations;
+		}
+
+		/**
+		 * To be called at the end of the original series.
+		 *
+		 * @return the aggregates of the last grid cell
+		 */
+		public List<TalsimObservation> complete() {
+			return emitCurrentCell();
+		}
+
+		private List<TalsimObservation> emitCurrentCell() {
+			if (numberOfValues == 0)
+				return Collections.emptyList();
+
+			DateTime cellStart = new DateTime(currentCell * gridMillis, DateTimeZone.UTC);
+			String date = cellStart.toString("yyyy-MM-dd");
+			String time = cellStart.toString("HH:mm:ss");
+
+			List<TalsimObservation> aggregatedObservations = new ArrayList<TalsimObservation>(derivedHeaders.length);
+			for (int i = 0; i < derivedHeaders.length; i++)
+				aggregatedObservations.add(new TalsimObservation(derivedHeaders[i], numberOfEmittedCells, date, time,
+						String.valueOf(aggregate(aggregates.get(i)))));
+
+			numberOfEmittedCells++;
+			numberOfValues = 0;
+			sum = 0;
+			return aggregatedObservations;
+		}
+
+		private double aggregate(Aggregate aggregate) {
+			switch (aggregate) {
+			case MEAN:
+				return sum / numberOfValues;
+			case MIN:
+				return min;
+			case MAX:
+				return max;
+			default:
+				return last;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,99 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP endpoint that serves the metrics of a {@link MetricsRegistry}
+ * in the Prometheus text format at path {@value #PATH}, so a Prometheus
+ * server can scrape a converter process directly.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class PrometheusEndpoint implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(PrometheusEndpoint.class);
+
+	public static final String PATH = "/metrics";
+
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final MetricsRegistry registry;
+	private final HttpServer server;
+
+	/**
+	 * Starts serving the metrics.
+	 *
+	 * @param registry
+	 *            the metrics to serve
+	 * @param address
+	 *            the address to listen on, e.g.
+	 *            {@code new InetSocketAddress(9404)}; port 0 picks a free
+	 *            port
+	 * @throws IOException
+	 *             if the address cannot be bound
+	 */
+	public PrometheusEndpoint(MetricsRegistry registry, InetSocketAddress address) throws IOException {
+		this.registry = registry;
+
+		server = HttpServer.create(address, 0);
+		server.createContext(PATH, this::handle);
+		server.start();
+
+		if (logger.isInfoEnabled())
+			logger.info("Serving metrics at {}.", getURL());
+	}
+
+	/**
+	 * @return the URL of the metrics, e.g. {@code http://localhost:9404/metrics}
+	 */
+	public URL getURL() throws IOException {
+		return new URL("http", "localhost", server.getAddress().getPort(), PATH);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!"GET".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			try (Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8)) {
+				registry.writePrometheus(writer);
+			}
+
+			byte[] body = buffer.toByteArray();
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(body);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Stops serving the metrics.
+	 */
+	@Override
+	public void close() {
+		server.stop(0);
+	}
+
+}
@@ -0,0 +1,251 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the requests of a bundle written by a {@link RequestBundleWriter}
+ * to a SOS instance.
+ *
+ * The bundle is memory-mapped and the InsertObservation requests are sent by
+ * a configurable number of concurrent threads. An InsertSensor request acts as
+ * a barrier: it is sent only after all preceding requests have been answered,
+ * and no subsequent request is sent before it has been answered, so each
+ * sensor exists before its observations are inserted.
+ *
+ * Requests rejected by the SOS instance or failing due to I/O errors are
+ * counted and logged; they are not retried.
+ *
+ * Usage from the command line:
+ *
+ * <pre>
+ * RequestBundleReplayer &lt;bundleFile&gt; &lt;sosURL&gt; [concurrency] [authorizationToken]
+ * </pre>
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class RequestBundleReplayer {
+
+	private static Logger logger = LoggerFactory.getLogger(RequestBundleReplayer.class);
+
+	/**
+	 * default number of concurrent requests
+	 */
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/**
+	 * maximum size of a mapped region of the bundle file
+	 */
+	private static final long MAPPED_REGION_SIZE = 256 * 1024 * 1024;
+
+	private final Path bundleFile;
+	private final URL sosURL;
+	private final String authorization_token;
+	private final int concurrency;
+
+	private final AtomicLong numberOfDeliveredRequests = new AtomicLong();
+	private final AtomicLong numberOfRejectedRequests = new AtomicLong();
+	private final AtomicLong numberOfFailedRequests = new AtomicLong();
+
+	/**
+	 * @param bundleFile
+	 *            the bundle to replay
+	 * @param sosURL
+	 *            URL of the SOS instance the requests are delivered to
+	 * @param authorization_token
+	 *            the token for the request header 'Authorization'
+	 * @param concurrency
+	 *            maximum number of concurrent InsertObservation requests
+	 */
+	public RequestBundleReplayer(Path bundleFile, URL sosURL, String authorization_token, int concurrency) {
+		if (concurrency < 1)
+			throw new IllegalArgumentException("concurrency must be at least 1, but was " + concurrency);
+
+		this.bundleFile = bundleFile;
+		this.sosURL = sosURL;
+		this.authorization_token = authorization_token;
+		this.concurrency = concurrency;
+	}
+
+	/**
+	 * Sends all requests of the bundle and waits for their responses.
+	 *
+	 * @return {@code true} if all requests were accepted by the SOS instance
+	 * @throws IOException
+	 *             if the bundle could not be read or is no request bundle
+	 * @throws InterruptedException
+	 */
+	public boolean replay() throws IOException, InterruptedException {
+		long startTimeMillis = System.currentTimeMillis();
+
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		Semaphore inFlightRequests = new Semaphore(concurrency);
+
+		try (FileChannel channel = FileChannel.open(bundleFile, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long position = readMagic(channel);
+
+			MappedByteBuffer region = null;
+			long regionStart = position;
+
+			while (position < size) {
+				SosRequestRecord record = region == null ? null : SosRequestRecord.decode(region);
+
+				if (record == null) {
+					// map the next region, starting at the current record
+					long requiredRegionSize = requiredRegionSize(channel, position);
+					if (region != null && regionStart + region.limit() >= size)
+						throw new IOException("Request bundle '" + bundleFile + "' is truncated at byte " + position);
+
+					regionStart = position;
+					region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+							Math.min(Math.max(MAPPED_REGION_SIZE, requiredRegionSize), size - regionStart));
+					continue;
+				}
+
+				position = regionStart + region.position();
+
+				if (record.getType() == SosRequestType.INSERT_SENSOR) {
+					inFlightRequests.acquire(concurrency);
+					try {
+						deliver(record);
+					} finally {
+						inFlightRequests.release(concurrency);
+					}
+				} else {
+					inFlightRequests.acquire();
+					executor.execute(() -> {
+						try {
+							deliver(record);
+						} finally {
+							inFlightRequests.release();
+						}
+					});
+				}
+			}
+
+			// wait for the remaining requests
+			inFlightRequests.acquire(concurrency);
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+
+		if (logger.isInfoEnabled())
+			logger.info(
+					"Replayed request bundle '{}' to SOS instance with URL '{}' in {} ms: {} delivered, {} rejected, {} failed.",
+					bundleFile, sosURL, System.currentTimeMillis() - startTimeMillis, numberOfDeliveredRequests,
+					numberOfRejectedRequests, numberOfFailedRequests);
+
+		return numberOfRejectedRequests.get() == 0 && numberOfFailedRequests.get() == 0;
+	}
+
+	private long readMagic(FileChannel channel) throws IOException {
+		byte[] magic = RequestBundleWriter.MAGIC.getBytes(StandardCharsets.US_ASCII);
+
+		if (channel.size() < magic.length || !channel.map(FileChannel.MapMode.READ_ONLY, 0, magic.length)
+				.equals(ByteBuffer.wrap(magic)))
+			throw new IOException("File '" + bundleFile + "' is no request bundle.");
+
+		return magic.length;
+	}
+
+	/**
+	 * @return the size of the record starting at {@code position}, so that a
+	 *         record larger than {@link #MAPPED_REGION_SIZE} is mapped as a
+	 *         whole
+	 * @throws IOException
+	 *             if the length of the record is negative, which no mapping
+	 *             could satisfy
+	 */
+	private long requiredRegionSize(FileChannel channel, long position) throws IOException {
+		if (channel.size() - position < SosRequestRecord.HEADER_SIZE)
+			return 0;
+
+		int length = channel.map(FileChannel.MapMode.READ_ONLY, position, 4).getInt(0);
+		if (length < 0)
+			throw new IOException("Request bundle '" + bundleFile + "' has a corrupt record at byte " + position);
+
+		return SosRequestRecord.HEADER_SIZE + (long) length;
+	}
+
+	private void deliver(SosRequestRecord record) {
+		try {
+			String response;
+			if (record.getType() == SosRequestType.INSERT_SENSOR)
+				response = SosRequestSender.sendInsertSensorRequestToSOS(sosURL, record.getBody(),
+						authorization_token);
+			else
+				response = SosRequestSender.sendInsertObservationRequestToSOS(sosURL, record.getBody(),
+						authorization_token);
+
+			if (record.getType().isSuccessful(response)) {
+				numberOfDeliveredRequests.incrementAndGet();
+			} else {
+				numberOfRejectedRequests.incrementAndGet();
+
+				if (logger.isErrorEnabled())
+					logger.error("SOS instance rejected {} request. Response: {}", record.getType(), response);
+			}
+		} catch (IOException e) {
+			numberOfFailedRequests.incrementAndGet();
+
+			if (logger.isErrorEnabled())
+				logger.error("Sending {} request to SOS instance with URL '{}' failed.", record.getType(), sosURL, e);
+		}
+	}
+
+	/**
+	 * @return the number of requests accepted by the SOS instance
+	 */
+	public long getNumberOfDeliveredRequests() {
+		return numberOfDeliveredRequests.get();
+	}
+
+	/**
+	 * @return the number of requests rejected by the SOS instance
+	 */
+	public long getNumberOfRejectedRequests() {
+		return numberOfRejectedRequests.get();
+	}
+
+	/**
+	 * @return the number of requests that could not be sent
+	 */
+	public long getNumberOfFailedRequests() {
+		return numberOfFailedRequests.get();
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println(
+					"Usage: RequestBundleReplayer <bundleFile> <sosURL> [concurrency] [authorizationToken]");
+			System.exit(2);
+		}
+
+		int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CONCURRENCY;
+		String authorization_token = args.length > 3 ? args[3] : ResourceLoader.fetchAuthorizationToken();
+
+		RequestBundleReplayer replayer = new RequestBundleReplayer(Paths.get(args[0]), new URL(args[1]),
+				authorization_token, concurrency);
+
+		System.exit(replayer.replay() ? 0 : 1);
+	}
+
+}
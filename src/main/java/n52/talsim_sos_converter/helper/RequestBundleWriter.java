@@ -0,0 +1,122 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes all encoded SOS requests of one or more insertions into a single
+ * bundle file instead of sending them to a SOS instance. The bundle can be
+ * delivered later, e.g. from another host, by a {@link RequestBundleReplayer}
+ * without parsing and encoding the TalsimResult again.
+ *
+ * A bundle starts with the {@value #MAGIC} marker followed by
+ * {@link SosRequestRecord}s in the order the requests were accepted.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class RequestBundleWriter implements SosRequestSink, Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(RequestBundleWriter.class);
+
+	/**
+	 * marker at the start of each bundle file
+	 */
+	public static final String MAGIC = "TSOSBDL1";
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final Path bundleFile;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	private long numberOfRequests = 0;
+	private long bytesWritten = 0;
+
+	/**
+	 * @param bundleFile
+	 *            the bundle file; an existing file is overwritten
+	 * @throws IOException
+	 */
+	public RequestBundleWriter(Path bundleFile) throws IOException {
+		this.bundleFile = bundleFile;
+		this.channel = FileChannel.open(bundleFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+
+		buffer.put(MAGIC.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	@Override
+	public synchronized void accept(SosRequestType type, String request) throws IOException {
+		if (!channel.isOpen())
+			throw new IOException("Request bundle '" + bundleFile + "' has been closed.");
+
+		ByteBuffer record = new SosRequestRecord(type, request).encode();
+
+		if (record.remaining() > buffer.remaining())
+			writeBuffer();
+
+		if (record.remaining() > buffer.capacity())
+			writeFully(record);
+		else
+			buffer.put(record);
+
+		numberOfRequests++;
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		writeBuffer();
+		channel.force(false);
+	}
+
+	private void writeBuffer() throws IOException {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer source) throws IOException {
+		while (source.hasRemaining())
+			bytesWritten += channel.write(source);
+	}
+
+	/**
+	 * @return the number of requests written to the bundle so far
+	 */
+	public synchronized long getNumberOfRequests() {
+		return numberOfRequests;
+	}
+
+	/**
+	 * @return the size of the bundle in bytes
+	 */
+	public synchronized long getSize() {
+		return bytesWritten + buffer.position();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (!channel.isOpen())
+			return;
+
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+
+		if (logger.isInfoEnabled())
+			logger.info("Wrote {} requests ({} bytes) to request bundle '{}'.", numberOfRequests, bytesWritten,
+					bundleFile);
+	}
+
+}
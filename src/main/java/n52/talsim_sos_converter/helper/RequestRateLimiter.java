@@ -0,0 +1,47 @@
+package n52.talsim_sos_converter.helper;
+
+/**
+ * Limits the rate of requests sent to a SOS instance, e.g. to keep a
+ * low-priority backfill from taking the bandwidth of more urgent insertions.
+ * Requests are spaced evenly; there is no burst allowance.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class RequestRateLimiter {
+
+	private final long intervalNanos;
+	private long nextPermitNanos = System.nanoTime();
+
+	/**
+	 * @param requestsPerSecond
+	 *            maximum number of requests per second
+	 */
+	public RequestRateLimiter(double requestsPerSecond) {
+		if (!(requestsPerSecond > 0))
+			throw new IllegalArgumentException("requestsPerSecond must be positive, but was " + requestsPerSecond);
+
+		this.intervalNanos = (long) (1000000000L / requestsPerSecond);
+	}
+
+	/**
+	 * Blocks until the next request may be sent.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (nextPermitNanos < now)
+				nextPermitNanos = now;
+
+			waitNanos = nextPermitNanos - now;
+			nextPermitNanos += intervalNanos;
+		}
+
+		if (waitNanos > 0)
+			Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+	}
+
+}
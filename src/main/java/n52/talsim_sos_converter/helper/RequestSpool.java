@@ -0,0 +1,214 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store-and-forward buffer for encoded SOS requests on local disk. The
+ * converter appends its requests to the spool without waiting for the SOS
+ * instance; a {@link SpoolDrainer} delivers them in order as soon as the SOS
+ * instance is available.
+ *
+ * The spool consists of numbered segment files of {@link SosRequestRecord}s.
+ * Requests are appended to the latest segment until it exceeds the segment
+ * size, then a new segment is started. Segments are deleted by the
+ * {@link SpoolDrainer} once all of their requests have been delivered.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class RequestSpool implements SosRequestSink, Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(RequestSpool.class);
+
+	/**
+	 * default maximum size of a segment file in bytes
+	 */
+	public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+	private static final String SEGMENT_FILE_PREFIX = "segment-";
+	private static final String SEGMENT_FILE_EXTENSION = ".spool";
+
+	private final Path directory;
+	private final long segmentSize;
+
+	private long activeSegment;
+	private FileChannel activeChannel;
+	private long activeSegmentSize;
+
+	private boolean closed = false;
+
+	/**
+	 * @param directory
+	 *            the spool directory; it is created if it does not exist.
+	 *            Segments left by a previous process are kept and delivered
+	 *            first.
+	 * @throws IOException
+	 */
+	public RequestSpool(Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param directory
+	 *            the spool directory
+	 * @param segmentSize
+	 *            maximum size of a segment file in bytes; a single request
+	 *            larger than that gets a segment of its own
+	 * @throws IOException
+	 */
+	public RequestSpool(Path directory, long segmentSize) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.segmentSize = segmentSize;
+
+		List<Long> existingSegments = listSegments();
+		long nextSegment = existingSegments.isEmpty() ? 0 : existingSegments.get(existingSegments.size() - 1) + 1;
+
+		openSegment(nextSegment);
+
+		if (logger.isInfoEnabled() && !existingSegments.isEmpty())
+			logger.info("Request spool '{}' contains {} undelivered segment(s).", directory,
+					existingSegments.size());
+	}
+
+	private void openSegment(long segment) throws IOException {
+		activeSegment = segment;
+		activeChannel = FileChannel.open(getSegmentFile(segment), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.WRITE);
+		activeSegmentSize = 0;
+	}
+
+	@Override
+	public void accept(SosRequestType type, String request) throws IOException {
+		append(new SosRequestRecord(type, request));
+	}
+
+	/**
+	 * Appends a request that has already been encoded.
+	 *
+	 * @param type
+	 *            the kind of the request
+	 * @param request
+	 *            the full request body as UTF-8 encoded POX
+	 * @throws IOException
+	 */
+	public void accept(SosRequestType type, byte[] request) throws IOException {
+		append(new SosRequestRecord(type, request));
+	}
+
+	private synchronized void append(SosRequestRecord request) throws IOException {
+		if (closed)
+			throw new IOException("Request spool '" + directory + "' has been closed.");
+
+		ByteBuffer record = request.encode();
+
+		if (activeSegmentSize > 0 && activeSegmentSize + record.remaining() > segmentSize) {
+			activeChannel.force(false);
+			activeChannel.close();
+			openSegment(activeSegment + 1);
+		}
+
+		while (record.hasRemaining())
+			activeSegmentSize += activeChannel.write(record);
+
+		// wake up a waiting drainer
+		notifyAll();
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		if (!closed)
+			activeChannel.force(false);
+	}
+
+	/**
+	 * @return the numbers of all segments in ascending order
+	 * @throws IOException
+	 */
+	List<Long> listSegments() throws IOException {
+		List<Long> segments = new ArrayList<Long>();
+
+		try (DirectoryStream<Path> segmentFiles = Files.newDirectoryStream(directory,
+				SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_EXTENSION)) {
+			for (Path segmentFile : segmentFiles) {
+				String fileName = segmentFile.getFileName().toString();
+				segments.add(Long.parseLong(fileName.substring(SEGMENT_FILE_PREFIX.length(),
+						fileName.length() - SEGMENT_FILE_EXTENSION.length())));
+			}
+		}
+
+		Collections.sort(segments);
+		return segments;
+	}
+
+	Path getSegmentFile(long segment) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_FILE_PREFIX, segment, SEGMENT_FILE_EXTENSION));
+	}
+
+	Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return {@code true} if requests are still appended to the segment
+	 */
+	synchronized boolean isActive(long segment) {
+		return !closed && segment == activeSegment;
+	}
+
+	/**
+	 * Waits until the active segment grows beyond {@code position}, another
+	 * segment is started or the timeout elapses.
+	 */
+	synchronized void awaitData(long segment, long position, long timeoutMillis) throws InterruptedException {
+		if (isActive(segment) && position >= activeSegmentSize)
+			wait(timeoutMillis);
+	}
+
+	/**
+	 * @return the number of bytes written to the segment so far
+	 */
+	synchronized long getWrittenSize(long segment) throws IOException {
+		if (isActive(segment))
+			return activeSegmentSize;
+
+		Path segmentFile = getSegmentFile(segment);
+		return Files.exists(segmentFile) ? Files.size(segmentFile) : 0;
+	}
+
+	void deleteSegment(long segment) throws IOException {
+		Files.deleteIfExists(getSegmentFile(segment));
+
+		if (logger.isDebugEnabled())
+			logger.debug("Deleted delivered segment {} of request spool '{}'.", segment, directory);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed)
+			return;
+
+		closed = true;
+		activeChannel.force(false);
+		activeChannel.close();
+
+		// an empty segment does not need to be delivered
+		if (activeSegmentSize == 0)
+			Files.deleteIfExists(getSegmentFile(activeSegment));
+
+		notifyAll();
+	}
+
+}
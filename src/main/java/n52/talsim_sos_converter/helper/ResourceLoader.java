@@ -56,6 +56,22 @@ public class ResourceLoader {
 		return loadResourceAsString(Constants.PATH_TO_INSERT_SENSOR_REQUEST_TEMPLATE);
 	}
 
+	/**
+	 * Loads the content of the <b>SOS GetDataAvailability request template
+	 * file</b> located in src/main/resources and returns it as String.
+	 * 
+	 * @return a {@code String} representation of the file contents
+	 * @throws IOException
+	 */
+	public static String loadGetDataAvailabilityRequestTemplate() throws IOException {
+
+		if (logger.isDebugEnabled())
+			logger.debug("Trying to load getDataAvailabilityRequest template as String from resource '{}'",
+					Constants.PATH_TO_GET_DATA_AVAILABILITY_REQUEST_TEMPLATE);
+
+		return loadResourceAsString(Constants.PATH_TO_GET_DATA_AVAILABILITY_REQUEST_TEMPLATE);
+	}
+
 	private static String loadResourceAsString(String pathToResource) throws IOException {
 		InputStream input = Thread.currentThread().getContextClassLoader().getResourceAsStream(pathToResource);
 
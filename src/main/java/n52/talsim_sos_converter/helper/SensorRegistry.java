@@ -0,0 +1,254 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local, persistent registry of the procedures (stations) that are already
+ * registered at a SOS instance. It allows to skip the InsertSensor request of
+ * a station that has been inserted by a previous run.
+ *
+ * Each entry consists of the URL of the SOS instance, the procedure
+ * identifier and the offering identifier of a station. A station only counts
+ * as registered if all of them match, so that a changed offering still leads
+ * to an InsertSensor request. The feature of interest is not part of an
+ * entry: it is the same for all stations
+ * ({@link Constants#FEATURE_OF_INTEREST_SAMPLING_FEATURE}) and is not listed
+ * per offering by the capabilities.
+ *
+ * The registry is stored as tab separated text file. Each modification
+ * rewrites the file to a temporary file that atomically replaces the
+ * previous one, so the file is never left in a half-written state.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class SensorRegistry {
+
+	private static Logger logger = LoggerFactory.getLogger(SensorRegistry.class);
+
+	private static final String SEPARATOR = "\t";
+	private static final String COMMENT_PREFIX = "#";
+
+	private static final String OBSERVATION_OFFERING_ELEMENT = "ObservationOffering";
+	private static final String IDENTIFIER_ELEMENT = "identifier";
+	private static final String PROCEDURE_ELEMENT = "procedure";
+
+	private final Path registryFile;
+
+	private final Set<String> entries = new LinkedHashSet<String>();
+
+	/**
+	 * Loads the registry from {@code registryFile}. If the file does not
+	 * exist yet, the registry starts empty and the file is created with the
+	 * first registration.
+	 *
+	 * @param registryFile
+	 *            the file the registry is stored in
+	 * @throws IOException
+	 */
+	public SensorRegistry(Path registryFile) throws IOException {
+		this.registryFile = registryFile;
+
+		if (Files.exists(registryFile)) {
+			try (BufferedReader reader = Files.newBufferedReader(registryFile, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty() && !line.startsWith(COMMENT_PREFIX))
+						entries.add(line);
+				}
+			}
+		}
+
+		if (logger.isDebugEnabled())
+			logger.debug("Loaded {} registered sensor(s) from registry file '{}'.", entries.size(), registryFile);
+	}
+
+	/**
+	 * @param sosURL
+	 *            URL of the SOS instance
+	 * @param station
+	 *            the station to check
+	 * @return {@code true} if the procedure and offering of {@code station}
+	 *         are known to be registered at the SOS instance
+	 */
+	public synchronized boolean isRegistered(URL sosURL, TalsimStation station) {
+		return entries.contains(createEntry(sosURL, station.getProcedureIdentifier(),
+				station.getOfferingIdentifier()));
+	}
+
+	/**
+	 * Records that the InsertSensor request of {@code station} has been
+	 * accepted by the SOS instance and persists the registry.
+	 *
+	 * @param sosURL
+	 *            URL of the SOS instance
+	 * @param station
+	 *            the registered station
+	 * @throws IOException
+	 *             if the registry file could not be written
+	 */
+	public synchronized void register(URL sosURL, TalsimStation station) throws IOException {
+		if (entries.add(createEntry(sosURL, station.getProcedureIdentifier(), station.getOfferingIdentifier())))
+			store();
+	}
+
+	/**
+	 * Primes the registry with the procedure/offering pairs that the SOS
+	 * instance announces in the "Contents" section of its capabilities.
+	 *
+	 * @param sosURL
+	 *            URL of the SOS instance
+	 * @param authorization_token
+	 *            the token for the request header 'Authorization'
+	 * @return the number of procedure/offering pairs found in the
+	 *         capabilities
+	 * @throws Exception
+	 */
+	public int primeFromCapabilities(URL sosURL, String authorization_token) throws Exception {
+
+		if (logger.isInfoEnabled())
+			logger.info("Priming sensor registry from capabilities of SOS instance with URL '{}'.", sosURL);
+
+		String capabilities = SosRequestSender.sendGetCapabilitiesRequestToSOS(sosURL, authorization_token);
+
+		return primeFromCapabilities(sosURL,
+				new ByteArrayInputStream(capabilities.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Primes the registry from an already fetched SOS 2.0 capabilities
+	 * document.
+	 *
+	 * @param sosURL
+	 *            URL of the SOS instance the capabilities belong to
+	 * @param capabilities
+	 *            the capabilities document, it is not closed by this method
+	 * @return the number of procedure/offering pairs found in the
+	 *         capabilities
+	 * @throws XMLStreamException
+	 * @throws IOException
+	 * @see #primeFromCapabilities(URL, String)
+	 */
+	public synchronized int primeFromCapabilities(URL sosURL, InputStream capabilities)
+			throws XMLStreamException, IOException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		XMLStreamReader xmlReader = factory.createXMLStreamReader(capabilities);
+
+		int numberOfOfferings = 0;
+		boolean modified = false;
+		boolean withinOffering = false;
+		String offering = null;
+		Set<String> procedures = new LinkedHashSet<String>();
+
+		try {
+			while (xmlReader.hasNext()) {
+				int eventType = xmlReader.next();
+
+				if (eventType == XMLStreamConstants.START_ELEMENT) {
+					String elementName = xmlReader.getLocalName();
+
+					if (elementName.equals(OBSERVATION_OFFERING_ELEMENT)) {
+						withinOffering = true;
+						offering = null;
+						procedures.clear();
+					} else if (!withinOffering) {
+						continue;
+					} else if (elementName.equals(IDENTIFIER_ELEMENT) && offering == null) {
+						offering = xmlReader.getElementText().trim();
+					} else if (elementName.equals(PROCEDURE_ELEMENT)) {
+						procedures.add(xmlReader.getElementText().trim());
+					}
+
+				} else if (eventType == XMLStreamConstants.END_ELEMENT
+						&& xmlReader.getLocalName().equals(OBSERVATION_OFFERING_ELEMENT)) {
+
+					if (offering != null) {
+						for (String procedure : procedures) {
+							modified |= entries.add(createEntry(sosURL, procedure, offering));
+							numberOfOfferings++;
+						}
+					}
+					withinOffering = false;
+				}
+			}
+		} finally {
+			xmlReader.close();
+		}
+
+		if (modified)
+			store();
+
+		if (logger.isInfoEnabled())
+			logger.info("Found {} procedure/offering pair(s) within capabilities of SOS instance with URL '{}'.",
+					numberOfOfferings, sosURL);
+
+		return numberOfOfferings;
+	}
+
+	/**
+	 * @return the number of registered sensors over all SOS instances
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	private static String createEntry(URL sosURL, String procedure, String offering) {
+		return sosURL.toExternalForm() + SEPARATOR + procedure + SEPARATOR + offering;
+	}
+
+	private void store() throws IOException {
+		Path directory = registryFile.toAbsolutePath().getParent();
+		if (directory != null)
+			Files.createDirectories(directory);
+
+		Path temporaryFile = Files.createTempFile(directory, registryFile.getFileName().toString(), ".tmp");
+
+		try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+			BufferedWriter writer = new BufferedWriter(
+					new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+			writer.write(COMMENT_PREFIX + " sosURL" + SEPARATOR + "procedure" + SEPARATOR + "offering");
+			writer.newLine();
+			for (String entry : entries) {
+				writer.write(entry);
+				writer.newLine();
+			}
+			writer.flush();
+
+			// the content has to be durable before it replaces the registry file
+			channel.force(true);
+		}
+
+		Files.move(temporaryFile, registryFile, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		if (logger.isDebugEnabled())
+			logger.debug("Stored {} registered sensor(s) to registry file '{}'.", entries.size(), registryFile);
+	}
+
+}
@@ -0,0 +1,40 @@
+package n52.talsim_sos_converter.helper;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event spanning the insertion of a single series, from
+ * its first parsed event until all of its observations have been inserted.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+@Name("n52.talsim.SeriesInsertion")
+@Label("Series Insertion")
+@Category({ "TalsimSosConverter", "Conversion" })
+@Description("Insertion of the observations of a series into a SOS instance")
+@StackTrace(false)
+public class SeriesInsertionEvent extends Event {
+
+	@Label("Station")
+	@Description("locationId of the series")
+	public String station;
+
+	@Label("Parameter")
+	@Description("parameterId of the series")
+	public String parameter;
+
+	@Label("Observations")
+	@Description("Number of observations queued for insertion")
+	public int numberOfObservations;
+
+	@Label("Skipped Observations")
+	@Description("Number of observations already held by the SOS instance")
+	public int numberOfSkippedObservations;
+
+}
@@ -0,0 +1,220 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local mirror of the observations that have been inserted into the SOS
+ * instances, one file per SOS instance, station and "parameterId". It allows to detect which
+ * observations of a new TalsimResult are new or have changed values compared
+ * to the previous runs, even within the time window already inserted.
+ *
+ * Each series is stored as {@link CompressedSeries}; for TALSIM series with a
+ * regular time step and slowly changing values this takes only a few bits per
+ * observation, so years of 15-minute data fit into a few hundred kilobytes per
+ * series.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class SeriesMirror {
+
+	private static Logger logger = LoggerFactory.getLogger(SeriesMirror.class);
+
+	private static final int MAGIC = 0x54534d32; // "TSM2"
+	private static final String FILE_EXTENSION = ".gorilla";
+
+	private final Path directory;
+
+	/**
+	 * @param directory
+	 *            the directory containing the mirrored series; it is created
+	 *            if it does not exist
+	 * @throws IOException
+	 */
+	public SeriesMirror(Path directory) throws IOException {
+		this.directory = Files.createDirectories(directory);
+	}
+
+	/**
+	 * Loads the mirrored observations of the series described by
+	 * {@code header} that have been inserted into the SOS instance at
+	 * {@code sosURL}.
+	 *
+	 * @param sosURL
+	 *            URL of the SOS instance
+	 * @param header
+	 *            header of the series
+	 * @return the mirrored series, empty if the series has never been mirrored
+	 * @throws IOException
+	 */
+	public MirroredSeries load(URL sosURL, TalsimSeriesHeader header) throws IOException {
+		Path seriesFile = resolveSeriesFile(sosURL, header);
+
+		if (!Files.exists(seriesFile))
+			return new MirroredSeries(seriesFile, new long[0], new double[0]);
+
+		try (DataInputStream input = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(seriesFile)))) {
+			int magic = input.readInt();
+			if (magic != MAGIC)
+				throw new IOException("File '" + seriesFile + "' is not a mirrored series.");
+
+			int size = input.readInt();
+			byte[] bytes = new byte[input.readInt()];
+			input.readFully(bytes);
+
+			long[] timestamps = new long[size];
+			double[] values = new double[size];
+			CompressedSeries.decode(bytes, size, timestamps, values);
+
+			if (logger.isDebugEnabled())
+				logger.debug("Loaded {} mirrored observations ({} bytes) from '{}'.", size, bytes.length, seriesFile);
+
+			return new MirroredSeries(seriesFile, timestamps, values);
+		}
+	}
+
+	private Path resolveSeriesFile(URL sosURL, TalsimSeriesHeader header) {
+		String key = sosURL.toExternalForm() + "_" + header.getLocationId() + "_" + header.getStationName() + "_" + header.getParameterId();
+
+		return directory.resolve(key.replaceAll("[^A-Za-z0-9._-]", "_") + FILE_EXTENSION);
+	}
+
+	/**
+	 * The mirrored observations of a single series plus the observations that
+	 * have been inserted since it was loaded.
+	 */
+	public static class MirroredSeries {
+
+		private final Path seriesFile;
+
+		private long[] timestamps;
+		private double[] values;
+
+		private final TreeMap<Long, Double> updates = new TreeMap<Long, Double>();
+
+		private MirroredSeries(Path seriesFile, long[] timestamps, double[] values) {
+			this.seriesFile = seriesFile;
+			this.timestamps = timestamps;
+			this.values = values;
+		}
+
+		/**
+		 * @param timestamp
+		 *            phenomenon time in milliseconds since the epoch
+		 * @param value
+		 *            the value of the observation
+		 * @return {@code true} if the mirror contains an observation with the
+		 *         same timestamp and exactly the same value
+		 */
+		public synchronized boolean isUnchanged(long timestamp, double value) {
+			Double updatedValue = updates.get(timestamp);
+			if (updatedValue != null)
+				return Double.doubleToLongBits(updatedValue) == Double.doubleToLongBits(value);
+
+			int index = Arrays.binarySearch(timestamps, timestamp);
+
+			return index >= 0 && Double.doubleToLongBits(values[index]) == Double.doubleToLongBits(value);
+		}
+
+		/**
+		 * Records an observation that has been inserted into the SOS instance.
+		 */
+		public synchronized void record(long timestamp, double value) {
+			updates.put(timestamp, value);
+		}
+
+		/**
+		 * @return the number of mirrored observations
+		 */
+		public synchronized int size() {
+			int size = timestamps.length;
+			for (Long timestamp : updates.keySet()) {
+				if (Arrays.binarySearch(timestamps, timestamp) < 0)
+					size++;
+			}
+			return size;
+		}
+
+		/**
+		 * Merges the recorded observations into the mirror and replaces the
+		 * series file atomically.
+		 *
+		 * @throws IOException
+		 */
+		public synchronized void store() throws IOException {
+			if (updates.isEmpty())
+				return;
+
+			CompressedSeries compressedSeries = new CompressedSeries();
+			long[] mergedTimestamps = new long[timestamps.length + updates.size()];
+			double[] mergedValues = new double[mergedTimestamps.length];
+			int size = 0;
+
+			int index = 0;
+			for (Entry<Long, Double> update : updates.entrySet()) {
+				long updateTimestamp = update.getKey();
+
+				while (index < timestamps.length && timestamps[index] < updateTimestamp) {
+					mergedTimestamps[size] = timestamps[index];
+					mergedValues[size++] = values[index++];
+				}
+				if (index < timestamps.length && timestamps[index] == updateTimestamp)
+					index++; // replaced by the update
+
+				mergedTimestamps[size] = updateTimestamp;
+				mergedValues[size++] = update.getValue();
+			}
+			while (index < timestamps.length) {
+				mergedTimestamps[size] = timestamps[index];
+				mergedValues[size++] = values[index++];
+			}
+
+			for (int i = 0; i < size; i++)
+				compressedSeries.append(mergedTimestamps[i], mergedValues[i]);
+
+			Path temporaryFile = seriesFile.resolveSibling(seriesFile.getFileName() + ".tmp");
+			try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(Channels.newOutputStream(channel)));
+				output.writeInt(MAGIC);
+				output.writeInt(compressedSeries.size());
+				output.writeInt(compressedSeries.getByteLength());
+				output.write(compressedSeries.getBytes(), 0, compressedSeries.getByteLength());
+				output.flush();
+
+				// the content has to be durable before it replaces the series file
+				channel.force(true);
+			}
+			Files.move(temporaryFile, seriesFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+
+			timestamps = Arrays.copyOf(mergedTimestamps, size);
+			values = Arrays.copyOf(mergedValues, size);
+			updates.clear();
+
+			if (logger.isDebugEnabled())
+				logger.debug("Stored {} mirrored observations ({} bytes) to '{}'.", size,
+						compressedSeries.getByteLength(), seriesFile);
+		}
+	}
+
+}
@@ -0,0 +1,232 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Local index of the <i>high-watermark</i> of each series, i.e. the phenomenon
+ * time of the latest observation of a station and "parameterId" that has been
+ * inserted successfully into a SOS instance. The watermarks of different SOS
+ * instances are independent of each other. Consecutive TalsimResult files (e.g. forecast runs)
+ * overlap heavily, so observations up to the watermark can be skipped.
+ *
+ * The index is a small memory-mapped file of fixed-size slots:
+ *
+ * <pre>
+ * header: int magic | int version | int numberOfSlots | int reserved
+ * slot:   short keyLength | key (UTF-8) | ... | long watermark (last 8 bytes)
+ * </pre>
+ *
+ * To stay consistent after a crash, a new slot is written and forced to the
+ * storage device before {@code numberOfSlots} is increased, since the pages of
+ * a mapped file may be written back in any order. A watermark is updated by a
+ * single aligned 8-byte write. Hence, a crash may only lose the most recent
+ * updates, which just leads to the re-insertion of a few observations. Call
+ * {@link #force()} to flush the updates to the storage device.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class SeriesWatermarkIndex implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(SeriesWatermarkIndex.class);
+
+	/**
+	 * watermark of a series that has not been inserted yet
+	 */
+	public static final long NO_WATERMARK = Long.MIN_VALUE;
+
+	private static final int MAGIC = 0x54534957; // "TSIW"
+	private static final int VERSION = 1;
+
+	private static final String SEPARATOR = "\t";
+
+	private static final int HEADER_SIZE = 16;
+	private static final int NUMBER_OF_SLOTS_OFFSET = 8;
+
+	private static final int SLOT_SIZE = 256;
+	private static final int WATERMARK_OFFSET = SLOT_SIZE - 8;
+	private static final int MAX_KEY_LENGTH = WATERMARK_OFFSET - 2;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final Path indexFile;
+	private final FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int capacity;
+
+	private final Map<String, Integer> slotsByKey = new HashMap<String, Integer>();
+
+	/**
+	 * Opens the index stored in {@code indexFile} or creates a new, empty
+	 * index if the file does not exist.
+	 *
+	 * @param indexFile
+	 *            the file the index is stored in
+	 * @throws IOException
+	 *             if the file could not be opened or is not a watermark index
+	 */
+	public SeriesWatermarkIndex(Path indexFile) throws IOException {
+		this.indexFile = indexFile;
+		this.channel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		try {
+			long fileSize = channel.size();
+
+			if (fileSize == 0) {
+				map(INITIAL_CAPACITY);
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, VERSION);
+				buffer.putInt(NUMBER_OF_SLOTS_OFFSET, 0);
+			} else {
+				map((int) ((fileSize - HEADER_SIZE) / SLOT_SIZE));
+				if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+					throw new IOException("File '" + indexFile + "' is not a series watermark index.");
+
+				loadSlots();
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		if (logger.isDebugEnabled())
+			logger.debug("Opened series watermark index '{}' containing {} series.", indexFile, slotsByKey.size());
+	}
+
+	private void map(int newCapacity) throws IOException {
+		this.capacity = Math.max(newCapacity, INITIAL_CAPACITY);
+		this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+	}
+
+	private void loadSlots() {
+		int numberOfSlots = Math.min(buffer.getInt(NUMBER_OF_SLOTS_OFFSET), capacity);
+
+		for (int slot = 0; slot < numberOfSlots; slot++) {
+			int slotOffset = HEADER_SIZE + slot * SLOT_SIZE;
+			byte[] key = new byte[buffer.getShort(slotOffset)];
+			for (int i = 0; i < key.length; i++)
+				key[i] = buffer.get(slotOffset + 2 + i);
+
+			slotsByKey.put(new String(key, StandardCharsets.UTF_8), slot);
+		}
+	}
+
+	/**
+	 * @param sosURL
+	 *            URL of the SOS instance the series is inserted into
+	 * @param header
+	 *            header of the series
+	 * @return the phenomenon time (milliseconds since the epoch) of the latest
+	 *         inserted observation of the series or {@link #NO_WATERMARK}
+	 */
+	public synchronized long getWatermark(URL sosURL, TalsimSeriesHeader header) {
+		Integer slot = slotsByKey.get(createKey(sosURL, header));
+
+		if (slot == null)
+			return NO_WATERMARK;
+
+		return buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE + WATERMARK_OFFSET);
+	}
+
+	/**
+	 * Raises the watermark of the series to {@code phenomenonTimeMillis}. A
+	 * watermark is never lowered.
+	 *
+	 * @param sosURL
+	 *            URL of the SOS instance the observation has been inserted
+	 *            into
+	 * @param header
+	 *            header of the series
+	 * @param phenomenonTimeMillis
+	 *            phenomenon time of an inserted observation of the series
+	 * @throws IOException
+	 *             if the index file could not be extended
+	 */
+	public synchronized void advance(URL sosURL, TalsimSeriesHeader header, long phenomenonTimeMillis)
+			throws IOException {
+		String key = createKey(sosURL, header);
+		Integer slot = slotsByKey.get(key);
+
+		if (slot == null)
+			slot = addSlot(key);
+
+		int watermarkOffset = HEADER_SIZE + slot * SLOT_SIZE + WATERMARK_OFFSET;
+		if (phenomenonTimeMillis > buffer.getLong(watermarkOffset))
+			buffer.putLong(watermarkOffset, phenomenonTimeMillis);
+	}
+
+	private int addSlot(String key) throws IOException {
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		if (keyBytes.length > MAX_KEY_LENGTH)
+			throw new IllegalArgumentException("Series key '" + key + "' exceeds " + MAX_KEY_LENGTH + " bytes.");
+
+		int slot = slotsByKey.size();
+		if (slot == capacity)
+			map(capacity * 2);
+
+		int slotOffset = HEADER_SIZE + slot * SLOT_SIZE;
+		buffer.putShort(slotOffset, (short) keyBytes.length);
+		for (int i = 0; i < keyBytes.length; i++)
+			buffer.put(slotOffset + 2 + i, keyBytes[i]);
+		buffer.putLong(slotOffset + WATERMARK_OFFSET, NO_WATERMARK);
+
+		// publish the slot only after it has been written completely, the
+		// pages of the mapping are not written back in program order
+		buffer.force();
+		buffer.putInt(NUMBER_OF_SLOTS_OFFSET, slot + 1);
+
+		slotsByKey.put(key, slot);
+		return slot;
+	}
+
+	/**
+	 * Removes all watermarks, so that the next run inserts all observations
+	 * again.
+	 */
+	public synchronized void clear() {
+		buffer.putInt(NUMBER_OF_SLOTS_OFFSET, 0);
+		slotsByKey.clear();
+	}
+
+	/**
+	 * @return the number of series contained in the index
+	 */
+	public synchronized int size() {
+		return slotsByKey.size();
+	}
+
+	/**
+	 * Writes all updates of the index to the storage device.
+	 */
+	public synchronized void force() {
+		buffer.force();
+	}
+
+	private static String createKey(URL sosURL, TalsimSeriesHeader header) {
+		return sosURL.toExternalForm() + SEPARATOR + header.getLocationId() + SEPARATOR + header.getStationName()
+				+ SEPARATOR + header.getParameterId();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		buffer.force();
+		channel.close();
+
+		if (logger.isDebugEnabled())
+			logger.debug("Closed series watermark index '{}'.", indexFile);
+	}
+
+}
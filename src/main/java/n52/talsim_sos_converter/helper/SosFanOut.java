@@ -0,0 +1,293 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the requests of an insertion to further SOS instances (mirrors)
+ * besides the SOS instance the insertion is started for, e.g. a public
+ * read-only SOS and a test SOS. The TalsimResult is parsed and each request
+ * is encoded only once; all mirrors are sent the same encoded bytes.
+ *
+ * Each {@link Endpoint} has its own token, its own {@link RequestSpool} and
+ * its own {@link SpoolDrainer}, so a slow or unavailable mirror never holds up
+ * the insertion into the primary SOS instance or into the other mirrors:
+ * <ul>
+ * <li>requests are appended to the spool of the mirror and delivered in the
+ * background, strictly in order, so the observations of a station never
+ * overtake its InsertSensor request</li>
+ * <li>if a mirror cannot be reached, the requests wait in its spool, also
+ * across restarts, until it is available again; the mirror falls behind
+ * instead of losing requests</li>
+ * <li>requests rejected by a mirror (e.g. duplicate observations) are
+ * counted and skipped</li>
+ * </ul>
+ * Failures of a mirror never fail the insertion. The InsertSensor request of
+ * a station is sent to each mirror only once, see
+ * {@link #deliverInsertSensor(TalsimStation, byte[], SensorRegistry)}.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class SosFanOut implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(SosFanOut.class);
+
+	private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+
+	private MetricsRegistry metricsRegistry = null;
+
+	/**
+	 * Adds a mirror and starts delivering its spooled requests, including
+	 * those left undelivered by a previous process.
+	 *
+	 * @param sosURL
+	 *            URL of the SOS instance
+	 * @param authorization_token
+	 *            the token for the request header 'Authorization' of this SOS
+	 *            instance
+	 * @param spoolDirectory
+	 *            the directory of the {@link RequestSpool} of this SOS
+	 *            instance; each mirror needs a directory of its own
+	 * @return the endpoint
+	 * @throws IOException
+	 *             if the spool could not be opened
+	 */
+	public synchronized Endpoint addEndpoint(URL sosURL, String authorization_token, Path spoolDirectory)
+			throws IOException {
+		Endpoint endpoint = new Endpoint(sosURL, authorization_token, spoolDirectory);
+		endpoints.add(endpoint);
+
+		if (metricsRegistry != null)
+			endpoint.registerMetrics(metricsRegistry);
+
+		return endpoint;
+	}
+
+	/**
+	 * Publishes the backlog and the request counters of each mirror,
+	 * including mirrors added later, labelled with the URL of the mirror.
+	 *
+	 * @param metricsRegistry
+	 *            the registry of the live metrics
+	 */
+	public synchronized void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+		this.metricsRegistry = metricsRegistry;
+
+		for (Endpoint endpoint : endpoints)
+			endpoint.registerMetrics(metricsRegistry);
+	}
+
+	/**
+	 * @return the mirrors in the order they were added
+	 */
+	public synchronized List<Endpoint> getEndpoints() {
+		return new ArrayList<Endpoint>(endpoints);
+	}
+
+	/**
+	 * Spools an encoded request for all mirrors. Does not wait for the
+	 * mirrors.
+	 *
+	 * @param type
+	 *            the kind of the request
+	 * @param request
+	 *            the full request body as UTF-8 encoded POX
+	 * @throws IOException
+	 *             if the request could not be written to a spool
+	 */
+	public void deliver(SosRequestType type, byte[] request) throws IOException {
+		for (Endpoint endpoint : getEndpoints())
+			endpoint.spool.accept(type, request);
+	}
+
+	/**
+	 * @param station
+	 *            the station to check
+	 * @param sensorRegistry
+	 *            the registry of the stations known to the SOS instances, or
+	 *            {@code null}
+	 * @return {@code true} if all mirrors have been sent the InsertSensor
+	 *         request of {@code station}
+	 */
+	public boolean isSensorDelivered(TalsimStation station, SensorRegistry sensorRegistry) {
+		for (Endpoint endpoint : getEndpoints()) {
+			if (!endpoint.isSensorDelivered(station, sensorRegistry))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Spools the InsertSensor request of {@code station} for each mirror that
+	 * has not been sent it yet, i.e. that has neither been sent it by this
+	 * fan-out nor is registered for the mirror in {@code sensorRegistry}. The
+	 * station is registered for these mirrors, as the spool delivers the
+	 * request eventually.
+	 *
+	 * @param station
+	 *            the station
+	 * @param request
+	 *            the InsertSensor request of the station as UTF-8 encoded POX
+	 * @param sensorRegistry
+	 *            the registry of the stations known to the SOS instances, or
+	 *            {@code null} to remember the stations only as long as this
+	 *            fan-out is used
+	 * @throws IOException
+	 *             if the request could not be written to a spool or the
+	 *             registry could not be written
+	 */
+	public void deliverInsertSensor(TalsimStation station, byte[] request, SensorRegistry sensorRegistry)
+			throws IOException {
+		for (Endpoint endpoint : getEndpoints()) {
+			if (endpoint.isSensorDelivered(station, sensorRegistry))
+				continue;
+
+			endpoint.spool.accept(SosRequestType.INSERT_SENSOR, request);
+			endpoint.stations.add(station);
+
+			if (sensorRegistry != null)
+				sensorRegistry.register(endpoint.sosURL, station);
+
+			if (logger.isDebugEnabled())
+				logger.debug("Spooled InsertSensorRequest of station {} for SOS mirror '{}'.", station,
+						endpoint.sosURL);
+		}
+	}
+
+	/**
+	 * Waits until all mirrors have delivered their spooled requests.
+	 *
+	 * @param timeoutMillis
+	 *            maximum time to wait
+	 * @return {@code true} if all spools have been drained
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public boolean awaitDelivered(long timeoutMillis) throws InterruptedException, IOException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+
+		for (Endpoint endpoint : getEndpoints()) {
+			if (!endpoint.awaitDelivered(Math.max(0, deadline - System.currentTimeMillis())))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Stops the delivery to all mirrors. Requests not delivered yet remain in
+	 * the spools and are delivered once the mirror is added again with the
+	 * same spool directory; call {@link #awaitDelivered(long)} before to
+	 * deliver them now.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (Endpoint endpoint : getEndpoints())
+			endpoint.close();
+	}
+
+	/**
+	 * A mirror together with its spool and the drainer delivering it.
+	 */
+	public static class Endpoint {
+
+		private final URL sosURL;
+
+		private final RequestSpool spool;
+		private final SpoolDrainer drainer;
+
+		// stations whose InsertSensor request has been spooled by this fan-out
+		private final Set<TalsimStation> stations = ConcurrentHashMap.newKeySet();
+
+		private Endpoint(URL sosURL, String authorization_token, Path spoolDirectory) throws IOException {
+			this.sosURL = sosURL;
+			this.spool = new RequestSpool(spoolDirectory);
+			this.drainer = new SpoolDrainer(spool, sosURL, authorization_token);
+
+			drainer.start();
+		}
+
+		public URL getSosURL() {
+			return sosURL;
+		}
+
+		/**
+		 * @return the number of requests accepted by the SOS instance
+		 */
+		public long getNumberOfDeliveredRequests() {
+			return drainer.getNumberOfDeliveredRequests();
+		}
+
+		/**
+		 * @return the number of requests rejected by the SOS instance
+		 */
+		public long getNumberOfRejectedRequests() {
+			return drainer.getNumberOfRejectedRequests();
+		}
+
+		/**
+		 * @return the number of spooled bytes not delivered yet, or -1 if the
+		 *         spool could not be read
+		 */
+		public long getBacklogBytes() {
+			try {
+				return drainer.getBacklogBytes();
+			} catch (IOException e) {
+				return -1;
+			}
+		}
+
+		/**
+		 * Waits until the requests spooled so far have been delivered.
+		 *
+		 * @param timeoutMillis
+		 *            maximum time to wait
+		 * @return {@code true} if the spool has been drained
+		 * @throws InterruptedException
+		 * @throws IOException
+		 */
+		public boolean awaitDelivered(long timeoutMillis) throws InterruptedException, IOException {
+			return drainer.awaitDrained(timeoutMillis);
+		}
+
+		private boolean isSensorDelivered(TalsimStation station, SensorRegistry sensorRegistry) {
+			return stations.contains(station)
+					|| (sensorRegistry != null && sensorRegistry.isRegistered(sosURL, station));
+		}
+
+		private void registerMetrics(MetricsRegistry registry) {
+			String endpoint = sosURL.toExternalForm();
+
+			registry.registerGauge("talsim_fanout_backlog_bytes", "Spooled bytes waiting for delivery to a mirror",
+					this::getBacklogBytes, "endpoint", endpoint);
+
+			String help = "Requests handled by a mirror";
+			registry.registerCounter("talsim_fanout_requests_total", help, drainer::getNumberOfDeliveredRequests,
+					"endpoint", endpoint, "outcome", "delivered");
+			registry.registerCounter("talsim_fanout_requests_total", help, drainer::getNumberOfRejectedRequests,
+					"endpoint", endpoint, "outcome", "rejected");
+		}
+
+		private void close() throws IOException {
+			drainer.close();
+			spool.close();
+		}
+
+		@Override
+		public String toString() {
+			return "Endpoint [sosURL=" + sosURL + ", delivered=" + getNumberOfDeliveredRequests() + ", rejected="
+					+ getNumberOfRejectedRequests() + "]";
+		}
+
+	}
+
+}
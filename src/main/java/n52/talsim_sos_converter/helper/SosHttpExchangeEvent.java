@@ -0,0 +1,45 @@
+package n52.talsim_sos_converter.helper;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event of a single HTTP exchange with a SOS instance,
+ * from opening the connection until the response body has been read.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+@Name("n52.talsim.SosHttpExchange")
+@Label("SOS HTTP Exchange")
+@Category({ "TalsimSosConverter", "SOS" })
+@Description("HTTP request to a SOS instance and its response")
+@StackTrace(false)
+public class SosHttpExchangeEvent extends Event {
+
+	@Label("Operation")
+	@Description("SOS operation, e.g. InsertObservation")
+	public String operation;
+
+	@Label("URL")
+	public String url;
+
+	@Label("Request Size")
+	@DataAmount
+	public long requestBytes;
+
+	@Label("Response Size")
+	@Description("Size of the response body in bytes as received")
+	@DataAmount
+	public long responseBytes;
+
+	@Label("Response Code")
+	@Description("HTTP status code, or 0 if no response was received")
+	public int responseCode;
+
+}
@@ -1,7 +1,12 @@
 package n52.talsim_sos_converter.helper;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -28,6 +33,20 @@ public class SosRequestConstructor {
 
 	private static Logger logger = LoggerFactory.getLogger(SosRequestConstructor.class);
 
+	/**
+	 * only every n-th InsertObservation request of a series is logged in
+	 * detail at DEBUG level, all of them at TRACE level
+	 */
+	public static final int DETAIL_SAMPLING_INTERVAL = 100;
+
+	/**
+	 * the output parameters declared by the InsertSensor template
+	 */
+	private static final Set<String> KNOWN_OUTPUT_PARAMETERS = new HashSet<String>(Arrays.asList(
+			Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_1ZU, Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_VOL,
+			Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_WSP, Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_QA1,
+			Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_QH1));
+
 	/**
 	 * Extracts the relevant parameters for a {@code SOS InsertSensor request}
 	 * from {@code talsimDocument} and replaces the <i>placeholders</i> within
@@ -150,26 +169,104 @@ public class SosRequestConstructor {
 	 */
 	public static String createInsertSensorRequest(Document talsimDocument, String insertSensorTemplate)
 			throws Exception {
-		/*
-		 * extract the required information from talsimDocument
-		 */
 
-		if (logger.isDebugEnabled())
-			logger.debug("Extracting InsertSensor parameters from TalsimResult and other constant definitions.");
+		Map<TalsimStation, String> insertSensorRequests = createInsertSensorRequests(talsimDocument,
+				insertSensorTemplate);
 
-		Map<String, String> talsimInsertSensorParameters = createInsertSensorParametersMap(talsimDocument);
+		if (insertSensorRequests.size() > 1 && logger.isWarnEnabled())
+			logger.warn(
+					"TalsimResult contains {} stations, but only the InsertSensorRequest for the first station is returned. Use createInsertSensorRequests() instead.",
+					insertSensorRequests.size());
 
-		if (logger.isDebugEnabled())
-			logger.debug("Following parameters for InsertSensorRequest were extracted from TalsimResult: '{}'",
-					talsimInsertSensorParameters);
+		return insertSensorRequests.values().iterator().next();
+	}
 
-		if (logger.isDebugEnabled())
-			logger.debug(
-					"Replace all placeholders within InsertSensor template with extracted parameters and other constant definitions.");
+	/**
+	 * Groups all "series" nodes of {@code talsimDocument} by station (values of
+	 * nodes "locationId" and "stationName") and creates one
+	 * {@code SOS InsertSensor request} per station, as described for
+	 * {@link #createInsertSensorRequest(Document, String)}. Each request
+	 * declares the observable properties of all "series" nodes of its station.
+	 * 
+	 * @param talsimDocument
+	 *            the parsed contents of a {@code TalsimResult document}
+	 * @param insertSensorTemplate
+	 *            a String representation of an
+	 *            {@code InsertSensor request template} containing several
+	 *            <i>placeholders</i> that will be replaced by the contents from
+	 *            {@code talsimDocument}
+	 * @return a map of fully usable {@code SOS InsertSensor requests} per
+	 *         station in document order
+	 * @throws Exception
+	 */
+	public static Map<TalsimStation, String> createInsertSensorRequests(Document talsimDocument,
+			String insertSensorTemplate) throws Exception {
 
-		String insertSensorRequest = replacePlaceholdersInTemplate(insertSensorTemplate, talsimInsertSensorParameters);
+		Map<TalsimStation, List<Node>> seriesNodesPerStation = groupSeriesNodesByStation(talsimDocument);
 
-		return insertSensorRequest;
+		if (seriesNodesPerStation.isEmpty())
+			throw new Exception("No 'series' node could be found within TALSIM_Document!");
+
+		Map<TalsimStation, String> insertSensorRequests = new LinkedHashMap<TalsimStation, String>();
+
+		for (Entry<TalsimStation, List<Node>> stationEntry : seriesNodesPerStation.entrySet()) {
+			/*
+			 * extract the required information from talsimDocument
+			 */
+
+			if (logger.isDebugEnabled())
+				logger.debug("Extracting InsertSensor parameters for station {} from TalsimResult.",
+						stationEntry.getKey());
+
+			Map<String, String> talsimInsertSensorParameters = createInsertSensorParametersMap(stationEntry.getKey(),
+					stationEntry.getValue());
+
+			if (logger.isDebugEnabled())
+				logger.debug("Following parameters for InsertSensorRequest were extracted from TalsimResult: '{}'",
+						talsimInsertSensorParameters);
+
+			if (logger.isDebugEnabled())
+				logger.debug(
+						"Replace all placeholders within InsertSensor template with extracted parameters and other constant definitions.");
+
+			insertSensorRequests.put(stationEntry.getKey(),
+					replacePlaceholdersInTemplate(insertSensorTemplate, talsimInsertSensorParameters));
+		}
+
+		return insertSensorRequests;
+	}
+
+	private static Map<TalsimStation, List<Node>> groupSeriesNodesByStation(Document talsimDocument)
+			throws Exception {
+
+		Map<TalsimStation, List<Node>> seriesNodesPerStation = new LinkedHashMap<TalsimStation, List<Node>>();
+
+		NodeList seriesNodes = talsimDocument.getElementsByTagName(Constants.TALSIM_SERIES_NODE);
+		int numberOfSeriesNodes = seriesNodes.getLength();
+
+		for (int i = 0; i < numberOfSeriesNodes; i++) {
+			Node seriesNode = seriesNodes.item(i);
+
+			TalsimStation station = extractStationFromHeader(extractHeaderNodeFromSeriesNode(seriesNode));
+
+			List<Node> seriesNodesOfStation = seriesNodesPerStation.get(station);
+			if (seriesNodesOfStation == null) {
+				seriesNodesOfStation = new ArrayList<Node>();
+				seriesNodesPerStation.put(station, seriesNodesOfStation);
+			}
+			seriesNodesOfStation.add(seriesNode);
+		}
+
+		return seriesNodesPerStation;
+	}
+
+	private static TalsimStation extractStationFromHeader(Node headerNode) throws Exception {
+		String locationId = extractSingleNodeValueFromHeaderSection(headerNode,
+				Constants.TALSIM_RESULT_LOCATION_ID_NODE);
+		String stationName = extractSingleNodeValueFromHeaderSection(headerNode,
+				Constants.TALSIM_RESULT_STATION_NAME_NODE);
+
+		return new TalsimStation(locationId, stationName);
 	}
 
 	/**
@@ -317,24 +414,24 @@ public class SosRequestConstructor {
 		 * extract the required information from talsimDocument
 		 */
 
-		if (logger.isDebugEnabled())
-			logger.debug("Extracting InsertObservation parameters from TalsimResult and other constant definitions.");
+		if (logger.isTraceEnabled())
+			logger.trace("Extracting InsertObservation parameters from TalsimResult and other constant definitions.");
 
-		if (logger.isDebugEnabled())
-			logger.debug("Current 'header' node contents: {}", headerNode);
+		if (logger.isTraceEnabled())
+			logger.trace("Current 'header' node contents: {}", headerNode);
 
-		if (logger.isDebugEnabled())
-			logger.debug("Current 'event' node contents: {}", currentTalsimEventNode);
+		if (logger.isTraceEnabled())
+			logger.trace("Current 'event' node contents: {}", currentTalsimEventNode);
 
 		Map<String, String> talsimInsertObservationParameters = createInsertObservationParametersMap(headerNode,
 				currentTalsimEventNode, timeZone);
 
-		if (logger.isDebugEnabled())
-			logger.debug("Following parameters for InsertObservationRequest were extracted from TalsimResult: '{}'",
+		if (logger.isTraceEnabled())
+			logger.trace("Following parameters for InsertObservationRequest were extracted from TalsimResult: '{}'",
 					talsimInsertObservationParameters);
 
-		if (logger.isDebugEnabled())
-			logger.debug(
+		if (logger.isTraceEnabled())
+			logger.trace(
 					"Replace all placeholders within InsertObservation template with extracted parameters and other constant definitions.");
 
 		String insertObservationRequest = replacePlaceholdersInTemplate(insertObservationTemplate,
@@ -394,13 +491,16 @@ public class SosRequestConstructor {
 
 			String insertObservationTemplate_copy = insertObservationRequestTemplate;
 
-			if (logger.isInfoEnabled())
-				logger.info("Building InsertObservationRequest #{}", currentIndex);
+			boolean logDetails = logger.isTraceEnabled()
+					|| (logger.isDebugEnabled() && currentIndex % DETAIL_SAMPLING_INTERVAL == 0);
+
+			if (logDetails)
+				logger.debug("Building InsertObservationRequest #{}", currentIndex);
 
 			String insertObservationRequest = SosRequestConstructor.createInsertObservationRequest(
 					currentTalsimEventNode, headerNode, timeZone, insertObservationTemplate_copy);
 
-			if (logger.isDebugEnabled())
+			if (logDetails)
 				logger.debug("Following InsertObservationRequest was constructed: {}", insertObservationRequest);
 
 			insertObservationRequests.add(insertObservationRequest);
@@ -411,7 +511,245 @@ public class SosRequestConstructor {
 		return insertObservationRequests;
 	}
 
-	private static String replacePlaceholdersInTemplate(String requestTemplate, Map<String, String> talsimParameters) {
+	/**
+	 * Extracts the station name (used as procedure identifier) from the
+	 * "header" node of the first "series" node of {@code talsimDocument}.
+	 *
+	 * @param talsimDocument
+	 *            the whole Talsim output document
+	 * @return the value of node "stationName"
+	 * @throws Exception
+	 */
+	public static String extractStationName(Document talsimDocument) throws Exception {
+		NodeList seriesNodes = talsimDocument.getElementsByTagName(Constants.TALSIM_SERIES_NODE);
+
+		Node exemplarHeaderNode = extractHeaderNodeFromSeriesNode(seriesNodes.item(0));
+
+		return extractSingleNodeValueFromHeaderSection(exemplarHeaderNode, Constants.TALSIM_RESULT_STATION_NAME_NODE);
+	}
+
+	/**
+	 * Streaming counterpart of
+	 * {@link #createInsertSensorRequest(Document, String)}: builds the
+	 * {@code SOS InsertSensor request} for the station described by a single
+	 * {@link TalsimSeriesHeader}.
+	 *
+	 * As the remaining "series" nodes of the station are not known at this
+	 * point, all TALSIM output observable properties of the template are
+	 * declared. The unit of measure of the observable property of
+	 * {@code header} is taken from node "units"; all others use the default
+	 * units defined in {@link Constants}.
+	 *
+	 * @param header
+	 *            the header of a "series" node of the station
+	 * @param insertSensorTemplate
+	 *            a String representation of an
+	 *            {@code InsertSensor request template} containing several
+	 *            <i>placeholders</i>
+	 * @return a fully usable {@code SOS InsertSensor request} as String that
+	 *         can be send to a transactional SOS instance
+	 */
+	public static String createInsertSensorRequest(TalsimSeriesHeader header, String insertSensorTemplate) {
+		return createInsertSensorRequest(Collections.singletonList(header), insertSensorTemplate);
+	}
+
+	/**
+	 * Builds the {@code SOS InsertSensor request} for a station from the
+	 * headers of (some of) its "series" nodes. All TALSIM output observable
+	 * properties of the template are declared; their units of measure are
+	 * taken from node "units" of the given headers where available and from
+	 * the default units defined in {@link Constants} otherwise.
+	 *
+	 * @param headersOfStation
+	 *            headers of "series" nodes that all belong to the same
+	 *            station
+	 * @param insertSensorTemplate
+	 *            a String representation of an
+	 *            {@code InsertSensor request template} containing several
+	 *            <i>placeholders</i>
+	 * @return a fully usable {@code SOS InsertSensor request} as String that
+	 *         can be send to a transactional SOS instance
+	 */
+	public static String createInsertSensorRequest(List<TalsimSeriesHeader> headersOfStation,
+			String insertSensorTemplate) {
+
+		return createInsertSensorRequest(TalsimStation.of(headersOfStation.get(0)), headersOfStation,
+				insertSensorTemplate);
+	}
+
+	/**
+	 * Builds the {@code SOS InsertSensor request} like
+	 * {@link #createInsertSensorRequest(List, String)}, using the identifiers
+	 * of the given {@code station}.
+	 *
+	 * @param station
+	 *            the station of the headers, determines the procedure and
+	 *            offering identifiers
+	 * @param headersOfStation
+	 *            headers of "series" nodes that all belong to {@code station}
+	 * @param insertSensorTemplate
+	 *            {@code InsertSensor request template} containing several
+	 *            <i>placeholders</i>
+	 * @return a fully usable {@code SOS InsertSensor request} as String
+	 */
+	public static String createInsertSensorRequest(TalsimStation station, List<TalsimSeriesHeader> headersOfStation,
+			String insertSensorTemplate) {
+
+		TemplateRenderEvent event = new TemplateRenderEvent();
+		event.begin();
+
+		if (logger.isDebugEnabled())
+			logger.debug("Extracting InsertSensor parameters from TalsimResult headers {}.", headersOfStation);
+
+		Map<String, String> talsimInsertSensorParameters = createInsertSensorParametersMap(headersOfStation,
+				station);
+
+		if (logger.isDebugEnabled())
+			logger.debug("Following parameters for InsertSensorRequest were extracted from TalsimResult: '{}'",
+					talsimInsertSensorParameters);
+
+		String insertSensorRequest = replacePlaceholdersInTemplate(insertSensorTemplate,
+				talsimInsertSensorParameters);
+
+		commitTemplateRenderEvent(event, SosRequestType.INSERT_SENSOR, headersOfStation.get(0).getLocationId(), "",
+				insertSensorRequest);
+
+		return insertSensorRequest;
+	}
+
+	/**
+	 * Streaming counterpart of
+	 * {@link #createInsertObservationRequest(Node, Node, String, String)}:
+	 * builds the {@code SOS InsertObservation request} for a single
+	 * {@link TalsimObservation}.
+	 *
+	 * @param observation
+	 *            the parsed "event" node together with its "header" node
+	 * @param insertObservationTemplate
+	 *            a String representation of an
+	 *            {@code InsertObservation request template} containing several
+	 *            <i>placeholders</i>
+	 * @return a fully usable {@code SOS InsertObservation request} as String
+	 *         that can be send to a transactional SOS instance
+	 */
+	public static String createInsertObservationRequest(TalsimObservation observation,
+			String insertObservationTemplate) {
+
+		return createInsertObservationRequest(TalsimStation.of(observation.getHeader()), observation,
+				insertObservationTemplate);
+	}
+
+	/**
+	 * Builds the {@code SOS InsertObservation request} like
+	 * {@link #createInsertObservationRequest(TalsimObservation, String)},
+	 * using the identifiers of the given {@code station}.
+	 *
+	 * @param station
+	 *            the station of the observation, determines the procedure and
+	 *            offering identifiers
+	 * @param observation
+	 *            the parsed "event" node together with its "header" node
+	 * @param insertObservationTemplate
+	 *            {@code InsertObservation request template} containing
+	 *            several <i>placeholders</i>
+	 * @return a fully usable {@code SOS InsertObservation request} as String
+	 */
+	public static String createInsertObservationRequest(TalsimStation station, TalsimObservation observation,
+			String insertObservationTemplate) {
+
+		TemplateRenderEvent event = new TemplateRenderEvent();
+		event.begin();
+
+		TalsimSeriesHeader header = observation.getHeader();
+
+		Map<String, String> talsimInsertObservationParameters = createInsertObservationParametersMap(station,
+				header.getParameterId(), header.getUnits(), observation.getDate(),
+				observation.getTime(), observation.getValue(), header.getTimeZone());
+
+		if (logger.isTraceEnabled())
+			logger.trace("Following parameters for InsertObservationRequest were extracted from TalsimResult: '{}'",
+					talsimInsertObservationParameters);
+
+		String insertObservationRequest = replacePlaceholdersInTemplate(insertObservationTemplate,
+				talsimInsertObservationParameters);
+
+		commitTemplateRenderEvent(event, SosRequestType.INSERT_OBSERVATION, header.getLocationId(),
+				header.getParameterId(), insertObservationRequest);
+
+		return insertObservationRequest;
+	}
+
+	/**
+	 * Creates the SOS GetDataAvailability request for the given series, i.e.
+	 * for the procedure of its station and the observable property derived
+	 * from its "parameterId".
+	 * 
+	 * @param header
+	 *            the header of a "series" node
+	 * @param getDataAvailabilityTemplate
+	 *            {@code GetDataAvailability request template} containing
+	 *            several <i>placeholders</i>
+	 * @return a fully usable {@code SOS GetDataAvailability request} as String
+	 */
+	public static String createGetDataAvailabilityRequest(TalsimSeriesHeader header,
+			String getDataAvailabilityTemplate) {
+
+		return createGetDataAvailabilityRequest(TalsimStation.of(header), header, getDataAvailabilityTemplate);
+	}
+
+	/**
+	 * Creates the SOS GetDataAvailability request like
+	 * {@link #createGetDataAvailabilityRequest(TalsimSeriesHeader, String)},
+	 * for the procedure of the given {@code station}.
+	 *
+	 * @param station
+	 *            the station of the series, determines the procedure
+	 *            identifier
+	 * @param header
+	 *            the header of a "series" node
+	 * @param getDataAvailabilityTemplate
+	 *            {@code GetDataAvailability request template} containing
+	 *            several <i>placeholders</i>
+	 * @return a fully usable {@code SOS GetDataAvailability request} as String
+	 */
+	public static String createGetDataAvailabilityRequest(TalsimStation station, TalsimSeriesHeader header,
+			String getDataAvailabilityTemplate) {
+
+		TemplateRenderEvent event = new TemplateRenderEvent();
+		event.begin();
+
+		Map<String, String> getDataAvailabilityParameters = new HashMap<String, String>();
+
+		getDataAvailabilityParameters.put(Constants.GET_DATA_AVAILABILITY_PROCEDURE_IDENTIFIER_PLACEHOLDER,
+				station.getProcedureIdentifier());
+		getDataAvailabilityParameters.put(Constants.GET_DATA_AVAILABILITY_OBSERVABLE_PROPERTY_IDENTIFIER_PLACEHOLDER,
+				deriveObservablePropertyFromParameterId(header.getParameterId()));
+
+		String getDataAvailabilityRequest = replacePlaceholdersInTemplate(getDataAvailabilityTemplate,
+				getDataAvailabilityParameters);
+
+		commitTemplateRenderEvent(event, SosRequestType.GET_DATA_AVAILABILITY, header.getLocationId(),
+				header.getParameterId(), getDataAvailabilityRequest);
+
+		return getDataAvailabilityRequest;
+	}
+
+	private static void commitTemplateRenderEvent(TemplateRenderEvent event, SosRequestType requestType,
+			String station, String parameter, String request) {
+		event.end();
+
+		// the fields are only filled if the event is recorded
+		if (event.shouldCommit()) {
+			event.requestType = requestType.name();
+			event.station = station;
+			event.parameter = parameter;
+			event.requestBytes = request.getBytes(StandardCharsets.UTF_8).length;
+			event.commit();
+		}
+	}
+
+	// package-private for the benchmarks
+	static String replacePlaceholdersInTemplate(String requestTemplate, Map<String, String> talsimParameters) {
 
 		String request = requestTemplate;
 
@@ -421,8 +759,8 @@ public class SosRequestConstructor {
 			String parameterName = entry.getKey();
 			String parameterValue = entry.getValue();
 
-			if (logger.isDebugEnabled())
-				logger.debug("Replace all occurences of '{}' with value '{}'", parameterName, parameterValue);
+			if (logger.isTraceEnabled())
+				logger.trace("Replace all occurences of '{}' with value '{}'", parameterName, parameterValue);
 
 			request = request.replaceAll(parameterName, parameterValue);
 		}
@@ -430,7 +768,8 @@ public class SosRequestConstructor {
 		return request;
 	}
 
-	private static Map<String, String> createInsertSensorParametersMap(Document talsimDocument) throws Exception {
+	private static Map<String, String> createInsertSensorParametersMap(TalsimStation station,
+			List<Node> seriesNodesOfStation) throws Exception {
 
 		/*
 		 * create a map with all sensor parameters
@@ -441,14 +780,8 @@ public class SosRequestConstructor {
 		/*
 		 * each series node contains information for one observableProperty
 		 */
-		NodeList seriesNodes = talsimDocument.getElementsByTagName(Constants.TALSIM_SERIES_NODE);
-		int numberOfSeriesNodes = seriesNodes.getLength();
-
-		for (int i = 0; i < numberOfSeriesNodes; i++) {
-			Node seriesNode = seriesNodes.item(i);
-
+		for (Node seriesNode : seriesNodesOfStation) {
 			addObservablePropertyParameters_insertSensor(seriesNode, insertSensorParameters);
-
 		}
 
 		// STATIC SINGLE INPUT OBSERVABLE PROPERTY
@@ -457,12 +790,17 @@ public class SosRequestConstructor {
 		insertSensorParameters.put(Constants.INSERT_SENSOR_OBSERVABLE_PROPERTY_INPUT_VALUE_PLACEHOLDER,
 				Constants.OBSERVABLE_PROPERTY_INPUT_VALUE);
 
-		Node exemplarHeaderNode = extractHeaderNodeFromSeriesNode(seriesNodes.item(0));
+		addStationParameters_insertSensor(station, insertSensorParameters);
+
+		return insertSensorParameters;
+	}
+
+	private static void addStationParameters_insertSensor(TalsimStation station,
+			Map<String, String> insertSensorParameters) {
 
 		// STATION NAME
-		String stationName = extractSingleNodeValueFromHeaderSection(exemplarHeaderNode,
-				Constants.TALSIM_RESULT_STATION_NAME_NODE);
-		insertSensorParameters.put(Constants.INSERT_SENSOR_STATION_IDENTIFIER_PLACEHOLDER, stationName);
+		insertSensorParameters.put(Constants.INSERT_SENSOR_STATION_IDENTIFIER_PLACEHOLDER,
+				station.getProcedureIdentifier());
 
 		// STATION POSITION
 		// TODO FIXME replace with real position that is retrieved from
@@ -481,12 +819,68 @@ public class SosRequestConstructor {
 				Constants.FEATURE_OF_INTEREST_SAMPLING_FEATURE);
 
 		/*
-		 * OFFERING
+		 * OFFERING - one per station with qualified identifiers
 		 */
 		insertSensorParameters.put(Constants.INSERT_SENSOR_OFFERING_IDENTIFIER_NAME_PLACEHOLDER,
-				Constants.OFFERING_IDENTIFIER_NAME);
+				station.getOfferingIdentifier());
 		insertSensorParameters.put(Constants.INSERT_SENSOR_OFFERING_IDENTIFIER_VALUE_PLACEHOLDER,
-				Constants.OFFERING_IDENTIFIER_VALUE);
+				station.getOfferingIdentifier());
+	}
+
+	private static Map<String, String> createInsertSensorParametersMap(List<TalsimSeriesHeader> headersOfStation,
+			TalsimStation station) {
+
+		Map<String, String> insertSensorParameters = new HashMap<String, String>();
+
+		/*
+		 * the units of the series of the station, a series of an unknown
+		 * parameter takes the place of "1ZU" unless the station has a "1ZU"
+		 * series (see addObservablePropertyParameters_insertSensor)
+		 */
+		Map<String, String> unitsPerParameter = new HashMap<String, String>();
+		for (TalsimSeriesHeader header : headersOfStation) {
+			if (header.getParameterId() != null && header.getUnits() != null
+					&& KNOWN_OUTPUT_PARAMETERS.contains(header.getParameterId()))
+				unitsPerParameter.put(header.getParameterId(), header.getUnits());
+		}
+		for (TalsimSeriesHeader header : headersOfStation) {
+			if (header.getParameterId() != null && header.getUnits() != null
+					&& !KNOWN_OUTPUT_PARAMETERS.contains(header.getParameterId()))
+				unitsPerParameter.putIfAbsent(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_1ZU, header.getUnits());
+		}
+
+		/*
+		 * the template declares all output observable properties, those
+		 * without a series of the station get their default unit
+		 */
+		addObservablePropertyParameters_insertSensor(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_1ZU,
+				unitsPerParameter.getOrDefault(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_1ZU,
+						Constants.DEFAULT_UOM_1ZU),
+				insertSensorParameters);
+		addObservablePropertyParameters_insertSensor(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_VOL,
+				unitsPerParameter.getOrDefault(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_VOL,
+						Constants.DEFAULT_UOM_VOL),
+				insertSensorParameters);
+		addObservablePropertyParameters_insertSensor(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_WSP,
+				unitsPerParameter.getOrDefault(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_WSP,
+						Constants.DEFAULT_UOM_WSP),
+				insertSensorParameters);
+		addObservablePropertyParameters_insertSensor(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_QA1,
+				unitsPerParameter.getOrDefault(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_QA1,
+						Constants.DEFAULT_UOM_QA1),
+				insertSensorParameters);
+		addObservablePropertyParameters_insertSensor(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_QH1,
+				unitsPerParameter.getOrDefault(Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_QH1,
+						Constants.DEFAULT_UOM_QH1),
+				insertSensorParameters);
+
+		// STATIC SINGLE INPUT OBSERVABLE PROPERTY
+		insertSensorParameters.put(Constants.INSERT_SENSOR_OBSERVABLE_PROPERTY_INPUT_NAME_PLACEHOLDER,
+				Constants.OBSERVABLE_PROPERTY_INPUT_NAME);
+		insertSensorParameters.put(Constants.INSERT_SENSOR_OBSERVABLE_PROPERTY_INPUT_VALUE_PLACEHOLDER,
+				Constants.OBSERVABLE_PROPERTY_INPUT_VALUE);
+
+		addStationParameters_insertSensor(station, insertSensorParameters);
 
 		return insertSensorParameters;
 	}
@@ -504,17 +898,23 @@ public class SosRequestConstructor {
 
 		Node headerNode = extractHeaderNodeFromSeriesNode(seriesNode);
 
+		String parameterID = extractParameterIdFromHeader(headerNode);
+
+		String obsProp_uom_value = extractSingleNodeValueFromHeaderSection(headerNode,
+				Constants.TALSIM_RESULT_UNITS_UOM_NODE);
+
+		addObservablePropertyParameters_insertSensor(parameterID, obsProp_uom_value, insertSensorParameters);
+	}
+
+	private static void addObservablePropertyParameters_insertSensor(String parameterID, String obsProp_uom_value,
+			Map<String, String> insertSensorParameters) {
+
 		String obsProp_name_placeholder = "";
 		String obsProp_value_placeholder = "";
 		String obsProp_uom_placeholder = "";
 
 		String obsProp_name_value = "";
 		String obsProp_value_value = "";
-		String obsProp_uom_value = "";
-
-		String parameterID = extractParameterIdFromHeader(headerNode);
-
-		obsProp_uom_value = extractSingleNodeValueFromHeaderSection(headerNode, Constants.TALSIM_RESULT_UNITS_UOM_NODE);
 
 		switch (parameterID) {
 		case Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_1ZU:
@@ -587,6 +987,28 @@ public class SosRequestConstructor {
 	private static Map<String, String> createInsertObservationParametersMap(Node headerNode, Node talsimEventNode,
 			String timeZone) throws Exception {
 
+		TalsimStation station = extractStationFromHeader(headerNode);
+		String parameterId = extractParameterIdFromHeader(headerNode);
+		String uom = extractSingleNodeValueFromHeaderSection(headerNode, Constants.TALSIM_RESULT_UNITS_UOM_NODE);
+
+		String eventDate_date = extractSingleAttributeValueFromEventNode(talsimEventNode,
+				Constants.TALSIM_RESULT_EVENT_DATE_ATTRIBUTE);
+		String eventDate_time = extractSingleAttributeValueFromEventNode(talsimEventNode,
+				Constants.TALSIM_RESULT_EVENT_TIME_ATTRIBUTE);
+		String resultValue = extractSingleAttributeValueFromEventNode(talsimEventNode,
+				Constants.TALSIM_RESULT_EVENT_VALUE_ATTRIBUTE);
+
+		return createInsertObservationParametersMap(station, parameterId, uom, eventDate_date, eventDate_time,
+				resultValue, timeZone);
+	}
+
+	// package-private for the benchmarks
+	static Map<String, String> createInsertObservationParametersMap(TalsimStation station,
+			String parameterId, String uom, String eventDate_date, String eventDate_time, String resultValue,
+			String timeZone) {
+
+		String stationName = station.getProcedureIdentifier();
+
 		/*
 		 * create a map with all sensor parameters
 		 */
@@ -594,22 +1016,14 @@ public class SosRequestConstructor {
 		Map<String, String> insertObservationParameters = new HashMap<String, String>();
 
 		// STATION NAME
-		String stationName = extractSingleNodeValueFromHeaderSection(headerNode,
-				Constants.TALSIM_RESULT_STATION_NAME_NODE);
 		insertObservationParameters.put(Constants.INSERT_OBSERVATION_PROCEDURE_IDENTIFIER_PLACEHOLDER, stationName);
 
 		// EVENT DATE AND TIME
-		String eventDate_date = extractSingleAttributeValueFromEventNode(talsimEventNode,
-				Constants.TALSIM_RESULT_EVENT_DATE_ATTRIBUTE);
-		String eventDate_time = extractSingleAttributeValueFromEventNode(talsimEventNode,
-				Constants.TALSIM_RESULT_EVENT_TIME_ATTRIBUTE);
-
 		String startDateAndTimeForRequest = generateDateAndTimeString(eventDate_date, eventDate_time, timeZone);
 		insertObservationParameters.put(Constants.INSERT_OBSERVATION_PHENOMENON_TIME_PLACEHOLDER,
 				startDateAndTimeForRequest);
 
 		// UOM
-		String uom = extractSingleNodeValueFromHeaderSection(headerNode, Constants.TALSIM_RESULT_UNITS_UOM_NODE);
 		insertObservationParameters.put(Constants.INSERT_OBSERVATION_UOM_NAME_PLACEHOLDER, uom);
 
 		/*
@@ -618,7 +1032,7 @@ public class SosRequestConstructor {
 		 * depends on the value of the "parameterId" node within the "header"
 		 * node
 		 */
-		String observableProperty = deriveObservablePropertyFromParameterId(headerNode);
+		String observableProperty = deriveObservablePropertyFromParameterId(parameterId);
 
 		insertObservationParameters.put(Constants.INSERT_OBSERVATION_OBSERVABLE_PROPERTY_IDENTIFIER_PLACEHOLDER,
 				observableProperty);
@@ -628,12 +1042,10 @@ public class SosRequestConstructor {
 		// stationMetadata
 		String station_lon_in_deg = Constants.STATION_LON_IN_DEG;
 		String station_lat_in_deg = Constants.STATION_LAT_IN_DEG;
-		String station_alt_in_meters = Constants.STATION_ALT_IN_METERS;
 		insertObservationParameters.put(
 				Constants.INSERT_OBSERVATION_FEATURE_OF_INTEREST_POSITION_LON_IN_DEG_PLACEHOLDER, station_lon_in_deg);
 		insertObservationParameters.put(
 				Constants.INSERT_OBSERVATION_FEATURE_OF_INTEREST_POSITION_LAT_IN_DEG_PLACEHOLDER, station_lat_in_deg);
-		// insertObservationParameters.put(, station_alt_in_meters);
 
 		// TODO FIXME replace FOI with the real value --> ask Benjamin/Christoph
 		insertObservationParameters.put(
@@ -647,7 +1059,7 @@ public class SosRequestConstructor {
 		 * OFFERING
 		 */
 		insertObservationParameters.put(Constants.INSERT_OBSERVATION_OFFERING_IDENTIFIER_PLACEHOLDER,
-				Constants.OFFERING_IDENTIFIER_NAME);
+				station.getOfferingIdentifier());
 
 		// OBSERVATION IDENTIFIER
 		String observationId = generateObservationIdentifier(stationName, observableProperty,
@@ -655,16 +1067,22 @@ public class SosRequestConstructor {
 		insertObservationParameters.put(Constants.INSERT_OBSERVATION_OBSERVATION_IDENTIFIER_PLACEHOLDER, observationId);
 
 		// RESULT VALUE
-		String resultValue = extractSingleAttributeValueFromEventNode(talsimEventNode,
-				Constants.TALSIM_RESULT_EVENT_VALUE_ATTRIBUTE);
 		insertObservationParameters.put(Constants.INSERT_OBSERVATION_RESULT_VALUE_PLACEHOLDER, resultValue);
 
 		return insertObservationParameters;
 	}
 
-	private static String deriveObservablePropertyFromParameterId(Node headerNode) throws Exception {
+	/**
+	 * Maps the value of node "parameterId" to the identifier of the associated
+	 * observable property (e.g. "WSP" to "Wasserstand"). Unknown parameter
+	 * identifiers are mapped to the observable property of "1ZU".
+	 * 
+	 * @param parameterID
+	 *            the value of node "parameterId"
+	 * @return the observable property identifier
+	 */
+	public static String deriveObservablePropertyFromParameterId(String parameterID) {
 		String observableProperty = "";
-		String parameterID = extractParameterIdFromHeader(headerNode);
 
 		switch (parameterID) {
 		case Constants.TALSIM_OUTPUT_PARAMETER_IDENTIFIER_1ZU:
@@ -695,7 +1113,8 @@ public class SosRequestConstructor {
 		return observableProperty;
 	}
 
-	private static String generateDateAndTimeString(String date, String time, String timeZone) {
+	// package-private for the benchmarks
+	static String generateDateAndTimeString(String date, String time, String timeZone) {
 		// TODO Auto-generated method stub
 
 		/*
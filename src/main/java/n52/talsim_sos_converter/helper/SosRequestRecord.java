@@ -0,0 +1,103 @@
+package n52.talsim_sos_converter.helper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single encoded SOS request as stored within spool and bundle files:
+ *
+ * <pre>
+ * int length | byte type code | request body (UTF-8, length bytes)
+ * </pre>
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class SosRequestRecord {
+
+	/**
+	 * size of the length and type fields preceding the request body
+	 */
+	public static final int HEADER_SIZE = 5;
+
+	private final SosRequestType type;
+	private final byte[] body;
+
+	public SosRequestRecord(SosRequestType type, String request) {
+		this(type, request.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param body
+	 *            the UTF-8 encoded request
+	 */
+	public SosRequestRecord(SosRequestType type, byte[] body) {
+		this.type = type;
+		this.body = body;
+	}
+
+	public SosRequestType getType() {
+		return type;
+	}
+
+	/**
+	 * @return the decoded request; use {@link #getBody()} to send it
+	 */
+	public String getRequest() {
+		return new String(body, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the UTF-8 encoded request, not copied
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * @return the record as buffer ready to be written
+	 */
+	public ByteBuffer encode() {
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + body.length);
+		buffer.putInt(body.length);
+		buffer.put(type.getCode());
+		buffer.put(body);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reads the record at the current position of {@code buffer} and advances
+	 * the position behind it.
+	 *
+	 * @param buffer
+	 *            buffer positioned at the start of a record
+	 * @return the record, or {@code null} if the buffer does not contain the
+	 *         complete record (the position is left unchanged then)
+	 */
+	public static SosRequestRecord decode(ByteBuffer buffer) {
+		if (buffer.remaining() < HEADER_SIZE)
+			return null;
+
+		int start = buffer.position();
+		int length = buffer.getInt(start);
+
+		if (length < 0 || buffer.remaining() < HEADER_SIZE + length)
+			return null;
+
+		SosRequestType type = SosRequestType.fromCode(buffer.get(start + 4));
+
+		byte[] body = new byte[length];
+		buffer.position(start + HEADER_SIZE);
+		buffer.get(body);
+
+		// the bytes are sent as they are, without decoding the request
+		return new SosRequestRecord(type, body);
+	}
+
+	@Override
+	public String toString() {
+		return "SosRequestRecord [type=" + type + ", length=" + body.length + "]";
+	}
+
+}
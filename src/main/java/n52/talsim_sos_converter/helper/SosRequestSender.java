@@ -1,12 +1,13 @@
 package n52.talsim_sos_converter.helper;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +23,8 @@ public class SosRequestSender {
 
 	private static Logger logger = LoggerFactory.getLogger(SosRequestSender.class);
 
+	private static final String EXCEPTION_REPORT_STRING = "ExceptionReport";
+
 	/**
 	 * Sends a HTTP POST request containing the SOS InsertObservation request as
 	 * POX request body (Content-Type "application/xml").
@@ -39,11 +42,31 @@ public class SosRequestSender {
 	 */
 	public static String sendInsertObservationRequestToSOS(URL sosURL, String insertObservationRequest,
 			String authorization_token) throws ProtocolException, IOException {
-		String response_insertObservation = send_http_post(sosURL, insertObservationRequest, authorization_token);
+		String response_insertObservation = send_http_post(sosURL, insertObservationRequest, authorization_token,
+				"InsertObservation");
 
 		return response_insertObservation;
 	}
 
+	/**
+	 * Like {@link #sendInsertObservationRequestToSOS(URL, String, String)}, but
+	 * with the request body already encoded, e.g. to send the same request to
+	 * several SOS instances without encoding it again.
+	 * 
+	 * @param sosURL
+	 *            the URL of the SOS instance, to which the request is sent
+	 * @param insertObservationRequest
+	 *            full SOS InsertObservation request body as UTF-8 encoded POX
+	 * @param authorization_token
+	 *            the token for the request header 'Authorization'
+	 * @return the response (body) of the SOS instance as String
+	 * @throws IOException
+	 */
+	public static String sendInsertObservationRequestToSOS(URL sosURL, byte[] insertObservationRequest,
+			String authorization_token) throws IOException {
+		return send_http_post(sosURL, insertObservationRequest, authorization_token, "InsertObservation");
+	}
+
 	/**
 	 * Sends a HTTP POST request containing the SOS InsertSensor request as POX
 	 * request body (Content-Type "application/xml").
@@ -60,11 +83,106 @@ public class SosRequestSender {
 	 */
 	public static String sendInsertSensorRequestToSOS(URL sosURL, String insertSensorRequest,
 			String authorization_token) throws IOException {
-		String response_insertSensor = send_http_post(sosURL, insertSensorRequest, authorization_token);
+		String response_insertSensor = send_http_post(sosURL, insertSensorRequest, authorization_token,
+				"InsertSensor");
 
 		return response_insertSensor;
 	}
 
+	/**
+	 * Like {@link #sendInsertSensorRequestToSOS(URL, String, String)}, but with
+	 * the request body already encoded.
+	 * 
+	 * @param sosURL
+	 *            the URL of the SOS instance, to which the request is sent
+	 * @param insertSensorRequest
+	 *            full SOS InsertSensor request body as UTF-8 encoded POX
+	 * @param authorization_token
+	 *            the token for the request header 'Authorization'
+	 * @return the response (body) of the SOS instance as String
+	 * @throws IOException
+	 */
+	public static String sendInsertSensorRequestToSOS(URL sosURL, byte[] insertSensorRequest,
+			String authorization_token) throws IOException {
+		return send_http_post(sosURL, insertSensorRequest, authorization_token, "InsertSensor");
+	}
+
+	/**
+	 * Sends a HTTP POST request containing the SOS GetDataAvailability request
+	 * as POX request body (Content-Type "application/xml").
+	 * 
+	 * @param sosURL
+	 *            the URL of the SOS instance, to which the request is sent
+	 * @param getDataAvailabilityRequest
+	 *            full SOS GetDataAvailability request body as POX
+	 * @param authorization_token
+	 *            the token for the request header 'Authorization'
+	 * @return the response (body) of the SOS instance as String
+	 * @throws IOException
+	 */
+	public static String sendGetDataAvailabilityRequestToSOS(URL sosURL, String getDataAvailabilityRequest,
+			String authorization_token) throws IOException {
+		return send_http_post(sosURL, getDataAvailabilityRequest, authorization_token, "GetDataAvailability");
+	}
+
+	/**
+	 * Like {@link #sendGetDataAvailabilityRequestToSOS(URL, String, String)},
+	 * but with the request body already encoded.
+	 * 
+	 * @param sosURL
+	 *            the URL of the SOS instance, to which the request is sent
+	 * @param getDataAvailabilityRequest
+	 *            full SOS GetDataAvailability request body as UTF-8 encoded
+	 *            POX
+	 * @param authorization_token
+	 *            the token for the request header 'Authorization'
+	 * @return the response (body) of the SOS instance as String
+	 * @throws IOException
+	 */
+	public static String sendGetDataAvailabilityRequestToSOS(URL sosURL, byte[] getDataAvailabilityRequest,
+			String authorization_token) throws IOException {
+		return send_http_post(sosURL, getDataAvailabilityRequest, authorization_token, "GetDataAvailability");
+	}
+
+	/**
+	 * Sends a HTTP GET request for the "Contents" section of the SOS 2.0
+	 * capabilities (KVP binding).
+	 * 
+	 * @param sosURL
+	 *            the URL of the SOS instance, to which the request is sent
+	 * @param authorization_token
+	 *            the token for the request header 'Authorization'
+	 * @return the capabilities document returned by the SOS instance as String
+	 * @throws IOException
+	 */
+	public static String sendGetCapabilitiesRequestToSOS(URL sosURL, String authorization_token)
+			throws IOException {
+		String separator = sosURL.getQuery() == null ? "?" : "&";
+		URL getCapabilitiesURL = new URL(sosURL.toExternalForm() + separator
+				+ "service=SOS&request=GetCapabilities&AcceptVersions=2.0.0&Sections=Contents");
+
+		if (logger.isDebugEnabled())
+			logger.debug("Constructing HTTP GET request against URL '{}'", getCapabilitiesURL);
+
+		HttpURLConnection connection = (HttpURLConnection) getCapabilitiesURL.openConnection();
+
+		connection.setRequestMethod("GET");
+		connection.setRequestProperty("Accept", "application/xml");
+		if (authorization_token != null)
+			connection.setRequestProperty("Authorization", authorization_token);
+
+		int responseCode = connection.getResponseCode();
+
+		if (logger.isDebugEnabled())
+			logger.debug("Response Code: '{}'", responseCode);
+
+		String responseBody = decodeResponseBody(readResponseBody(connection.getInputStream()));
+
+		connection.disconnect();
+
+		return responseBody;
+	}
+
 	/**
 	 * Opens the connection to the {@code sosURL} and sends an HTTP POST request
 	 * containing the attached POX {@code post_body} using header
@@ -80,58 +198,134 @@ public class SosRequestSender {
 	 * @throws IOException
 	 * @throws ProtocolException
 	 */
-	private static String send_http_post(URL sosURL, String post_body, String authorization_token)
+	private static String send_http_post(URL sosURL, String post_body, String authorization_token, String operation)
 			throws IOException, ProtocolException {
 
-		if (logger.isDebugEnabled())
-			logger.debug("Constructing HTTP POST request against URL '{}' with request body {}", sosURL, post_body);
+		if (logger.isTraceEnabled())
+			logger.trace("Constructing HTTP POST request against URL '{}' with request body {}", sosURL, post_body);
 
-		HttpURLConnection connection = (HttpURLConnection) sosURL.openConnection();
+		// the request templates declare UTF-8
+		return send_http_post(sosURL, post_body.getBytes(StandardCharsets.UTF_8), authorization_token, operation);
+	}
 
-		// request header
-		connection.setRequestMethod("POST");
-		connection.setRequestProperty("Accept-Language", "en-US,en;q=0.5");
-		connection.setRequestProperty("Content-Type", "application/xml");
-		connection.setRequestProperty("Authorization", authorization_token);
+	private static String send_http_post(URL sosURL, byte[] post_body, String authorization_token, String operation)
+			throws IOException, ProtocolException {
 
-		if (logger.isDebugEnabled())
-			logger.debug("The following request properties/headers were set: '{}'", connection.getRequestProperties());
+		SosHttpExchangeEvent event = new SosHttpExchangeEvent();
+		event.begin();
 
-		if (logger.isDebugEnabled())
-			logger.debug("Execute request.");
+		int responseCode = 0;
+		byte[] responseBytes = null;
+		try {
+			HttpURLConnection connection = (HttpURLConnection) sosURL.openConnection();
 
-		// Send post request
-		connection.setDoOutput(true);
-		DataOutputStream outStream = new DataOutputStream(connection.getOutputStream());
-		outStream.writeBytes(post_body);
-		outStream.flush();
-		outStream.close();
+			// request header
+			connection.setRequestMethod("POST");
+			connection.setRequestProperty("Accept-Language", "en-US,en;q=0.5");
+			connection.setRequestProperty("Content-Type", "application/xml");
+			connection.setRequestProperty("Authorization", authorization_token);
 
-		int responseCode = connection.getResponseCode();
+			if (logger.isTraceEnabled())
+				logger.trace("The following request properties/headers were set: '{}'",
+						connection.getRequestProperties());
 
-		if (logger.isDebugEnabled())
-			logger.debug("Response Code: '{}'", responseCode);
+			if (logger.isTraceEnabled())
+				logger.trace("Execute request.");
 
-		if (logger.isDebugEnabled())
-			logger.debug("Fetching response body.");
+			// Send post request
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(post_body.length);
+			OutputStream outStream = connection.getOutputStream();
+			outStream.write(post_body);
+			outStream.flush();
+			outStream.close();
+
+			responseCode = connection.getResponseCode();
+
+			if (logger.isTraceEnabled())
+				logger.trace("Response Code: '{}'", responseCode);
+
+			if (logger.isTraceEnabled())
+				logger.trace("Fetching response body.");
+
+			/*
+			 * a SOS instance reports rejected requests (e.g. duplicate
+			 * observations) as exception report with a client error status;
+			 * return it like any other response, so that the caller can
+			 * inspect it. Server errors (5xx) still raise an IOException, as
+			 * do the client errors that may pass on their own.
+			 */
+			if (isTransientClientError(responseCode)) {
+				connection.disconnect();
+				throw new IOException("SOS instance with URL '" + sosURL + "' answered with HTTP status "
+						+ responseCode + ", request may be retried later.");
+			}
+
+			if (responseCode >= 400 && responseCode < 500 && connection.getErrorStream() != null)
+				responseBytes = readResponseBody(connection.getErrorStream());
+			else
+				responseBytes = readResponseBody(connection.getInputStream());
 
-		// fetch response
-		BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-		String inputLine;
-		StringBuffer response = new StringBuffer();
+			// disconnect
+			connection.disconnect();
 
-		while ((inputLine = in.readLine()) != null) {
-			response.append(inputLine);
+			return decodeResponseBody(responseBytes);
+		} finally {
+			event.end();
+
+			if (event.shouldCommit()) {
+				event.operation = operation;
+				event.url = sosURL.toExternalForm();
+				event.requestBytes = post_body.length;
+				event.responseBytes = responseBytes != null ? responseBytes.length : 0;
+				event.responseCode = responseCode;
+				event.commit();
+			}
 		}
-		in.close();
+	}
+
+	/**
+	 * @return {@code true} for the client errors that do not depend on the
+	 *         request itself: an expired or missing authorization (401, 403),
+	 *         a request timeout (408) and rate limiting (429)
+	 */
+	static boolean isTransientClientError(int responseCode) {
+		return responseCode == 401 || responseCode == 403 || responseCode == 408 || responseCode == 429;
+	}
+
+	/**
+	 * @param response
+	 *            the response of the SOS instance
+	 * @return {@code true} if the response is an OWS ExceptionReport, i.e. the
+	 *         SOS instance processed and rejected the request
+	 */
+	public static boolean isExceptionReport(String response) {
+		return response != null && response.contains(EXCEPTION_REPORT_STRING);
+	}
+
+	/**
+	 * @return the response body as received, so that its size in bytes is
+	 *         known
+	 */
+	private static byte[] readResponseBody(InputStream responseStream) throws IOException {
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+		try (InputStream in = responseStream) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				response.write(buffer, 0, read);
+		}
+
+		return response.toByteArray();
+	}
+
+	private static String decodeResponseBody(byte[] responseBytes) {
+		String responseBody = new String(responseBytes, StandardCharsets.UTF_8);
 
-		// disconnect
-		connection.disconnect();
-		
 		// log result
-		String responseBody = response.toString();
-		if (logger.isDebugEnabled())
-			logger.debug("Response body: {}", responseBody);
+		if (logger.isTraceEnabled())
+			logger.trace("Response body: {}", responseBody);
 
 		return responseBody;
 	}
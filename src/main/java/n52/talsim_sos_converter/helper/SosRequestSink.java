@@ -0,0 +1,34 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.IOException;
+
+/**
+ * Receives the encoded SOS requests instead of sending them to the SOS
+ * instance directly, e.g. to deliver them later.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public interface SosRequestSink {
+
+	/**
+	 * Accepts an encoded request. Implementations have to be thread-safe and
+	 * have to keep the order of the requests.
+	 *
+	 * @param type
+	 *            the kind of the request
+	 * @param request
+	 *            the full request body as POX
+	 * @throws IOException
+	 *             if the request could not be stored
+	 */
+	void accept(SosRequestType type, String request) throws IOException;
+
+	/**
+	 * Makes all accepted requests durable.
+	 *
+	 * @throws IOException
+	 */
+	void flush() throws IOException;
+
+}
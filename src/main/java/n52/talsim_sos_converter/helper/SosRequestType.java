@@ -0,0 +1,63 @@
+package n52.talsim_sos_converter.helper;
+
+/**
+ * The kinds of requests the converter sends to a SOS instance, together with
+ * the String that identifies a successful response.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public enum SosRequestType {
+
+	INSERT_SENSOR((byte) 1, "InsertSensorResponse"),
+
+	INSERT_OBSERVATION((byte) 2, "InsertObservationResponse"),
+
+	/**
+	 * only sent to reconcile with the SOS instance, never spooled or bundled
+	 */
+	GET_DATA_AVAILABILITY((byte) 3, "GetDataAvailabilityResponse");
+
+	private final byte code;
+	private final String responseString;
+
+	private SosRequestType(byte code, String responseString) {
+		this.code = code;
+		this.responseString = responseString;
+	}
+
+	/**
+	 * @return the code identifying the request type within spool and bundle
+	 *         files
+	 */
+	public byte getCode() {
+		return code;
+	}
+
+	/**
+	 * @param response
+	 *            the response of the SOS instance
+	 * @return {@code true} if the response contains the String
+	 *         "InsertSensorResponse", "InsertObservationResponse" respectively
+	 *         "GetDataAvailabilityResponse"
+	 */
+	public boolean isSuccessful(String response) {
+		return response.contains(responseString);
+	}
+
+	/**
+	 * @param code
+	 *            a code returned by {@link #getCode()}
+	 * @return the request type with the given code
+	 * @throws IllegalArgumentException
+	 *             if there is no request type with this code
+	 */
+	public static SosRequestType fromCode(byte code) {
+		for (SosRequestType type : values()) {
+			if (type.code == code)
+				return type;
+		}
+		throw new IllegalArgumentException("Unknown request type code " + code);
+	}
+
+}
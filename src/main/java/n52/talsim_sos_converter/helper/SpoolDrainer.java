@@ -0,0 +1,332 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background thread that delivers the requests of a {@link RequestSpool} to a
+ * SOS instance, strictly in the order they were spooled.
+ *
+ * If the SOS instance cannot be reached or answers with a server error, the
+ * request is retried with exponential backoff, so an outage only delays the
+ * delivery. The same applies to the client errors that pass on their own (an
+ * expired authorization, a request timeout or rate limiting) and to responses
+ * that are not understood, e.g. the error page of a proxy. Only a request
+ * rejected by the SOS instance with an ExceptionReport (e.g. a duplicate
+ * observation) is logged and skipped, as retrying it would block the spool
+ * forever.
+ *
+ * The position of the next request to deliver is kept in file
+ * {@value #OFFSET_FILE_NAME} within the spool directory. After a crash, at
+ * most the request that was in flight is delivered twice.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class SpoolDrainer implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(SpoolDrainer.class);
+
+	static final String OFFSET_FILE_NAME = "drainer.offset";
+
+	private static final long MIN_BACKOFF_MILLIS = 500;
+	private static final long MAX_BACKOFF_MILLIS = 30 * 1000;
+	private static final long AWAIT_DATA_MILLIS = 1000;
+
+	private final RequestSpool spool;
+	private final URL sosURL;
+	private final String authorization_token;
+
+	private final FileChannel offsetChannel;
+	private final ByteBuffer offsetBuffer = ByteBuffer.allocate(16);
+
+	private long segment;
+	private long position;
+
+	private FileChannel readChannel = null;
+	private int currentRecordSize;
+
+	private final AtomicLong numberOfDeliveredRequests = new AtomicLong();
+	private final AtomicLong numberOfRejectedRequests = new AtomicLong();
+
+	private final Thread thread;
+	private volatile boolean running = false;
+
+	/**
+	 * @param spool
+	 *            the spool to drain
+	 * @param sosURL
+	 *            URL of the SOS instance the requests are delivered to
+	 * @param authorization_token
+	 *            the token for the request header 'Authorization'
+	 * @throws IOException
+	 *             if the offset file could not be opened
+	 */
+	public SpoolDrainer(RequestSpool spool, URL sosURL, String authorization_token) throws IOException {
+		this.spool = spool;
+		this.sosURL = sosURL;
+		this.authorization_token = authorization_token;
+
+		Path offsetFile = spool.getDirectory().resolve(OFFSET_FILE_NAME);
+		this.offsetChannel = FileChannel.open(offsetFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+
+		if (offsetChannel.read(offsetBuffer, 0) == 16) {
+			segment = offsetBuffer.getLong(0);
+			position = offsetBuffer.getLong(8);
+		}
+
+		this.thread = new Thread(this::drain, "spool-drainer-" + sosURL.getHost());
+		this.thread.setDaemon(true);
+	}
+
+	/**
+	 * Starts delivering the spooled requests in the background.
+	 */
+	public void start() {
+		running = true;
+		thread.start();
+	}
+
+	/**
+	 * @return the number of requests accepted by the SOS instance
+	 */
+	public long getNumberOfDeliveredRequests() {
+		return numberOfDeliveredRequests.get();
+	}
+
+	/**
+	 * @return the number of requests rejected by the SOS instance
+	 */
+	public long getNumberOfRejectedRequests() {
+		return numberOfRejectedRequests.get();
+	}
+
+	/**
+	 * Waits until all requests spooled so far have been delivered.
+	 *
+	 * @param timeoutMillis
+	 *            maximum time to wait
+	 * @return {@code true} if the spool has been drained
+	 * @throws InterruptedException
+	 * @throws IOException
+	 */
+	public boolean awaitDrained(long timeoutMillis) throws InterruptedException, IOException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+
+		while (!isDrained()) {
+			if (System.currentTimeMillis() >= deadline)
+				return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of spooled bytes that have not been delivered yet
+	 * @throws IOException
+	 */
+	public synchronized long getBacklogBytes() throws IOException {
+		long backlogBytes = 0;
+
+		for (long spooledSegment : spool.listSegments()) {
+			if (spooledSegment == segment)
+				backlogBytes += Math.max(0, spool.getWrittenSize(spooledSegment) - position);
+			else if (spooledSegment > segment)
+				backlogBytes += spool.getWrittenSize(spooledSegment);
+		}
+		return backlogBytes;
+	}
+
+	private synchronized boolean isDrained() throws IOException {
+		List<Long> segments = spool.listSegments();
+
+		if (segments.isEmpty())
+			return true;
+
+		return segments.size() == 1 && segments.get(0) == segment && spool.isActive(segment)
+				&& position >= spool.getWrittenSize(segment);
+	}
+
+	private void drain() {
+		long backoffMillis = MIN_BACKOFF_MILLIS;
+
+		while (running) {
+			try {
+				SosRequestRecord record = readNextRecord();
+
+				if (record == null)
+					continue;
+
+				try {
+					deliver(record);
+					backoffMillis = MIN_BACKOFF_MILLIS;
+				} catch (IOException e) {
+					if (logger.isWarnEnabled())
+						logger.warn("SOS instance with URL '{}' is not available, retrying in {} ms: {}", sosURL,
+								backoffMillis, e.getMessage());
+
+					Thread.sleep(backoffMillis);
+					backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+					continue;
+				}
+
+				acknowledge(currentRecordSize);
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				// e.g. a spool file that could not be read, keep the spool draining
+				if (logger.isErrorEnabled())
+					logger.error("Draining request spool failed, retrying in {} ms.", backoffMillis, e);
+
+				try {
+					Thread.sleep(backoffMillis);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * @return the next record or {@code null} if none is available yet or the
+	 *         drainer moved on to the next segment
+	 */
+	private SosRequestRecord readNextRecord() throws IOException, InterruptedException {
+		List<Long> segments = spool.listSegments();
+
+		if (segments.isEmpty()) {
+			Thread.sleep(AWAIT_DATA_MILLIS / 10);
+			return null;
+		}
+
+		/*
+		 * the current segment has been delivered and deleted before (e.g. by
+		 * a previous process), or all segments have been delivered and the
+		 * spool started numbering from scratch
+		 */
+		if (segment < segments.get(0) || segment > segments.get(segments.size() - 1)) {
+			moveToSegment(segments.get(0));
+			return null;
+		}
+
+		long writtenSize = spool.getWrittenSize(segment);
+
+		if (position < writtenSize) {
+			if (readChannel == null)
+				readChannel = FileChannel.open(spool.getSegmentFile(segment), StandardOpenOption.READ);
+
+			ByteBuffer header = ByteBuffer.allocate(SosRequestRecord.HEADER_SIZE);
+			if (readFully(readChannel, header, position)) {
+				long recordSize = SosRequestRecord.HEADER_SIZE + (long) header.getInt(0);
+
+				if (header.getInt(0) >= 0 && position + recordSize <= writtenSize) {
+					ByteBuffer buffer = ByteBuffer.allocate((int) recordSize);
+					if (readFully(readChannel, buffer, position)) {
+						currentRecordSize = (int) recordSize;
+						return SosRequestRecord.decode(buffer);
+					}
+				}
+			}
+		}
+
+		if (spool.isActive(segment)) {
+			spool.awaitData(segment, position, AWAIT_DATA_MILLIS);
+		} else {
+			// segment delivered completely (a record torn by a crash is dropped)
+			closeReadChannel();
+			// the offset must not point into a deleted segment after a crash
+			offsetChannel.force(false);
+			spool.deleteSegment(segment);
+			moveToSegment(segment + 1);
+		}
+		return null;
+	}
+
+	private void closeReadChannel() throws IOException {
+		if (readChannel != null) {
+			readChannel.close();
+			readChannel = null;
+		}
+	}
+
+	private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				return false;
+		}
+		buffer.flip();
+		return true;
+	}
+
+	private void deliver(SosRequestRecord record) throws IOException {
+		String response;
+		if (record.getType() == SosRequestType.INSERT_SENSOR)
+			response = SosRequestSender.sendInsertSensorRequestToSOS(sosURL, record.getBody(), authorization_token);
+		else
+			response = SosRequestSender.sendInsertObservationRequestToSOS(sosURL, record.getBody(),
+					authorization_token);
+
+		if (record.getType().isSuccessful(response)) {
+			numberOfDeliveredRequests.incrementAndGet();
+		} else if (!SosRequestSender.isExceptionReport(response)) {
+			throw new IOException("Unexpected response to spooled " + record.getType() + " request: " + response);
+		} else {
+			numberOfRejectedRequests.incrementAndGet();
+
+			if (logger.isErrorEnabled())
+				logger.error("SOS instance rejected spooled {} request, skipping it. Response: {}",
+						record.getType(), response);
+		}
+	}
+
+	private synchronized void acknowledge(int recordSize) throws IOException {
+		position += recordSize;
+		storeOffset();
+	}
+
+	private synchronized void moveToSegment(long nextSegment) throws IOException {
+		closeReadChannel();
+		segment = nextSegment;
+		position = 0;
+		storeOffset();
+	}
+
+	private void storeOffset() throws IOException {
+		offsetBuffer.clear();
+		offsetBuffer.putLong(segment).putLong(position).flip();
+		while (offsetBuffer.hasRemaining())
+			offsetChannel.write(offsetBuffer, offsetBuffer.position());
+	}
+
+	/**
+	 * Stops the drainer. Requests not delivered yet remain in the spool.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closeReadChannel();
+		offsetChannel.close();
+	}
+
+}
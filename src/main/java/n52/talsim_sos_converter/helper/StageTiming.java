@@ -0,0 +1,57 @@
+package n52.talsim_sos_converter.helper;
+
+/**
+ * The time spent within an {@link IngestionStage}, summed over all threads.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class StageTiming {
+
+	/**
+	 * timing of a stage that has never been entered
+	 */
+	public static final StageTiming NONE = new StageTiming(0, 0, 0);
+
+	private final long numberOfInvocations;
+	private final long wallTimeNanos;
+	private final long cpuTimeNanos;
+
+	public StageTiming(long numberOfInvocations, long wallTimeNanos, long cpuTimeNanos) {
+		this.numberOfInvocations = numberOfInvocations;
+		this.wallTimeNanos = wallTimeNanos;
+		this.cpuTimeNanos = cpuTimeNanos;
+	}
+
+	/**
+	 * @return how often the stage has been entered, e.g. the number of
+	 *         requests built
+	 */
+	public long getNumberOfInvocations() {
+		return numberOfInvocations;
+	}
+
+	/**
+	 * @return the elapsed time within the stage in nanoseconds; as several
+	 *         threads may be within the stage at the same time, it may exceed
+	 *         the duration of the insertion
+	 */
+	public long getWallTimeNanos() {
+		return wallTimeNanos;
+	}
+
+	/**
+	 * @return the CPU time of the threads within the stage in nanoseconds, or
+	 *         0 if the JVM does not measure the CPU time of threads
+	 */
+	public long getCpuTimeNanos() {
+		return cpuTimeNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "StageTiming [numberOfInvocations=" + numberOfInvocations + ", wallTimeMillis="
+				+ wallTimeNanos / 1000000 + ", cpuTimeMillis=" + cpuTimeNanos / 1000000 + "]";
+	}
+
+}
@@ -0,0 +1,207 @@
+package n52.talsim_sos_converter.helper;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Filter applied by the {@link TalsimStreamReader} while parsing, so that
+ * dropped "event" nodes never reach the SOS insertion:
+ * <ul>
+ * <li>events whose value equals the "missVal" of their series</li>
+ * <li>events outside a time window, e.g. the spin-up period of a forecast</li>
+ * </ul>
+ *
+ * Whole series whose "startDate" and "endDate" lie outside the time window are
+ * skipped without materializing any event. If the events of each series are in
+ * time order (as written by TALSIM), the reader also skips the rest of a
+ * series as soon as an event lies after the end of the time window.
+ *
+ * Times are interpreted in UTC, like the phenomenon time of the
+ * InsertObservation requests.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class TalsimEventFilter {
+
+	private boolean dropMissingValues = false;
+	private long windowBeginMillis = Long.MIN_VALUE;
+	private long windowEndMillis = Long.MAX_VALUE;
+	private boolean eventsInTimeOrder = true;
+
+	/**
+	 * @param dropMissingValues
+	 *            if {@code true}, events whose value equals the "missVal" of
+	 *            their series are dropped
+	 */
+	public void setDropMissingValues(boolean dropMissingValues) {
+		this.dropMissingValues = dropMissingValues;
+	}
+
+	public boolean isDropMissingValues() {
+		return dropMissingValues;
+	}
+
+	/**
+	 * Restricts the events to a time window.
+	 *
+	 * @param begin
+	 *            begin of the window (inclusive), or {@code null} for no lower
+	 *            bound
+	 * @param end
+	 *            end of the window (inclusive), or {@code null} for no upper
+	 *            bound
+	 */
+	public void setTimeWindow(DateTime begin, DateTime end) {
+		this.windowBeginMillis = begin == null ? Long.MIN_VALUE : begin.getMillis();
+		this.windowEndMillis = end == null ? Long.MAX_VALUE : end.getMillis();
+	}
+
+	/**
+	 * @param beginMillis
+	 *            begin of a time window (inclusive) in milliseconds since the
+	 *            epoch
+	 * @param endMillis
+	 *            end of a time window (inclusive) in milliseconds since the
+	 *            epoch
+	 * @return a copy of this filter whose time window is the intersection of
+	 *         its own time window and the given one
+	 */
+	public TalsimEventFilter restrictTimeWindow(long beginMillis, long endMillis) {
+		TalsimEventFilter restrictedFilter = new TalsimEventFilter();
+		restrictedFilter.dropMissingValues = dropMissingValues;
+		restrictedFilter.eventsInTimeOrder = eventsInTimeOrder;
+		restrictedFilter.windowBeginMillis = Math.max(windowBeginMillis, beginMillis);
+		restrictedFilter.windowEndMillis = Math.min(windowEndMillis, endMillis);
+		return restrictedFilter;
+	}
+
+	/**
+	 * @param eventsInTimeOrder
+	 *            {@code true} (default) if the events of each series are in
+	 *            ascending time order, which allows to stop reading a series
+	 *            after the end of the time window; {@code false} to check all
+	 *            events
+	 */
+	public void setEventsInTimeOrder(boolean eventsInTimeOrder) {
+		this.eventsInTimeOrder = eventsInTimeOrder;
+	}
+
+	public boolean isEventsInTimeOrder() {
+		return eventsInTimeOrder;
+	}
+
+	/**
+	 * @return {@code true} if a time window has been set
+	 */
+	public boolean hasTimeWindow() {
+		return windowBeginMillis != Long.MIN_VALUE || windowEndMillis != Long.MAX_VALUE;
+	}
+
+	/**
+	 * @param phenomenonTimeMillis
+	 *            phenomenon time of an event
+	 * @return {@code true} if the event lies after the end of the time window
+	 */
+	public boolean isAfterTimeWindow(long phenomenonTimeMillis) {
+		return phenomenonTimeMillis > windowEndMillis;
+	}
+
+	/**
+	 * @param phenomenonTimeMillis
+	 *            phenomenon time of an event
+	 * @return {@code true} if the event lies within the time window
+	 */
+	public boolean isWithinTimeWindow(long phenomenonTimeMillis) {
+		return phenomenonTimeMillis >= windowBeginMillis && phenomenonTimeMillis <= windowEndMillis;
+	}
+
+	/**
+	 * @param header
+	 *            the header of a "series" node
+	 * @return {@code true} if, according to its "startDate" and "endDate",
+	 *         the series has no event within the time window; {@code false}
+	 *         if it may have or the dates are missing
+	 */
+	public boolean excludes(TalsimSeriesHeader header) {
+		if (!hasTimeWindow())
+			return false;
+
+		try {
+			long startMillis = parseMillis(header.getStartDate(), header.getStartTime());
+			long endMillis = parseMillis(header.getEndDate(), header.getEndTime());
+
+			return endMillis < windowBeginMillis || startMillis > windowEndMillis;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param observation
+	 *            an event
+	 * @return {@code true} if the event is to be dropped
+	 */
+	public boolean drops(TalsimObservation observation) {
+		if (dropMissingValues && isMissingValue(observation))
+			return true;
+
+		return hasTimeWindow() && !isWithinTimeWindow(observation.getPhenomenonTimeMillis());
+	}
+
+	private static boolean isMissingValue(TalsimObservation observation) {
+		String missVal = observation.getHeader().getMissVal();
+		if (missVal == null)
+			return false;
+
+		String value = observation.getValue();
+		if (value.equals(missVal))
+			return true;
+
+		// e.g. "-9999.999" and "-9999.9990"
+		try {
+			return Double.parseDouble(value) == Double.parseDouble(missVal);
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param header
+	 *            the header of a "series" node
+	 * @return the time of the "startDate" of the series in milliseconds since
+	 *         the epoch, or {@link Long#MIN_VALUE} if it is missing or invalid
+	 */
+	public static long getStartMillis(TalsimSeriesHeader header) {
+		try {
+			return parseMillis(header.getStartDate(), header.getStartTime());
+		} catch (RuntimeException e) {
+			return Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * @param header
+	 *            the header of a "series" node
+	 * @return the time of the "endDate" of the series in milliseconds since
+	 *         the epoch, or {@link Long#MIN_VALUE} if it is missing or invalid
+	 */
+	public static long getEndMillis(TalsimSeriesHeader header) {
+		try {
+			return parseMillis(header.getEndDate(), header.getEndTime());
+		} catch (RuntimeException e) {
+			return Long.MIN_VALUE;
+		}
+	}
+
+	private static long parseMillis(String date, String time) {
+		String[] dateComponents = date.split("-");
+		String[] timeComponents = time.split(":");
+
+		return new DateTime(Integer.parseInt(dateComponents[0]), Integer.parseInt(dateComponents[1]),
+				Integer.parseInt(dateComponents[2]), Integer.parseInt(timeComponents[0]),
+				Integer.parseInt(timeComponents[1]), Integer.parseInt(timeComponents[2]), DateTimeZone.UTC)
+						.getMillis();
+	}
+
+}
@@ -0,0 +1,106 @@
+package n52.talsim_sos_converter.helper;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Immutable representation of a single "event" node of a TalsimResult
+ * document, i.e. one measurement of the observable property described by the
+ * associated {@link TalsimSeriesHeader}.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class TalsimObservation {
+
+	private final TalsimSeriesHeader header;
+	private final int eventIndex;
+	private final String date;
+	private final String time;
+	private final String value;
+
+	/*
+	 * lazily computed from date and time; benign data race as the result is
+	 * always the same
+	 */
+	private long phenomenonTimeMillis = Long.MIN_VALUE;
+
+	public TalsimObservation(TalsimSeriesHeader header, int eventIndex, String date, String time, String value) {
+		this.header = header;
+		this.eventIndex = eventIndex;
+		this.date = date;
+		this.time = time;
+		this.value = value;
+	}
+
+	/**
+	 * @return the header of the "series" node this event belongs to
+	 */
+	public TalsimSeriesHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return the zero-based position of the "event" node within its "series"
+	 *         node
+	 */
+	public int getEventIndex() {
+		return eventIndex;
+	}
+
+	/**
+	 * @return the value of attribute "date" (yyyy-mm-dd)
+	 */
+	public String getDate() {
+		return date;
+	}
+
+	/**
+	 * @return the value of attribute "time" (hh:mm:ss)
+	 */
+	public String getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the value of attribute "value"
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * @return the value of attribute "value" as number
+	 * @throws NumberFormatException
+	 *             if the value is not a number
+	 */
+	public double getValueAsDouble() {
+		return Double.parseDouble(value);
+	}
+
+	/**
+	 * Interprets attributes "date" and "time" in UTC, like the phenomenon time
+	 * of the InsertObservation request.
+	 *
+	 * @return the phenomenon time of the event in milliseconds since the epoch
+	 */
+	public long getPhenomenonTimeMillis() {
+		if (phenomenonTimeMillis == Long.MIN_VALUE) {
+			String[] dateComponents = date.split("-");
+			String[] timeComponents = time.split(":");
+
+			phenomenonTimeMillis = new DateTime(Integer.parseInt(dateComponents[0]),
+					Integer.parseInt(dateComponents[1]), Integer.parseInt(dateComponents[2]),
+					Integer.parseInt(timeComponents[0]), Integer.parseInt(timeComponents[1]),
+					Integer.parseInt(timeComponents[2]), DateTimeZone.UTC).getMillis();
+		}
+		return phenomenonTimeMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "TalsimObservation [station=" + header.getStationName() + ", parameterId=" + header.getParameterId()
+				+ ", eventIndex=" + eventIndex + ", date=" + date + ", time=" + time + ", value=" + value + "]";
+	}
+
+}
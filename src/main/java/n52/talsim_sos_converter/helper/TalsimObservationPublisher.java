@@ -0,0 +1,392 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Flow.Publisher} that parses a TalsimResult document with a
+ * {@link TalsimStreamReader} and emits each "event" node as
+ * {@link TalsimObservation} to all of its subscribers. This way, several
+ * consumers (e.g. the SOS insertion, a cache or an alerting check) can be fed
+ * from a single parse of the document.
+ *
+ * The publisher respects the demand of its subscribers: the next "event" node
+ * is only parsed once <i>every</i> subscriber has requested at least one more
+ * item. Thus, the slowest subscriber throttles parsing and no item is ever
+ * buffered.
+ *
+ * A subscriber whose {@code onNext} throws is cancelled and receives the
+ * exception via {@code onError}; the other subscribers are not affected.
+ *
+ * All subscribers have to subscribe before {@link #connect()} is called.
+ * Parsing and emission take place on the {@link Executor} passed to the
+ * constructor; signals to the subscribers are never delivered concurrently.
+ * The whole parse is recorded as {@link TalsimParseEvent} by the Java Flight
+ * Recorder.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class TalsimObservationPublisher implements Flow.Publisher<TalsimObservation> {
+
+	private static Logger logger = LoggerFactory.getLogger(TalsimObservationPublisher.class);
+
+	private final CountingInputStream talsimOutput;
+	private final Executor executor;
+
+	private final List<ObservationSubscription> subscriptions = new CopyOnWriteArrayList<ObservationSubscription>();
+
+	private final AtomicBoolean connected = new AtomicBoolean(false);
+	private final AtomicInteger wip = new AtomicInteger();
+
+	private volatile TalsimEventFilter eventFilter = null;
+	private volatile IngestionMetrics metrics = null;
+
+	// only accessed from within the drain loop
+	private TalsimStreamReader reader;
+	private boolean done = false;
+	private boolean endOfDocument = false;
+	private TalsimSeriesHeader currentHeader = null;
+	private final TalsimParseEvent parseEvent = new TalsimParseEvent();
+
+	/**
+	 * @param talsimOutput
+	 *            an {@link InputStream} of the TASLIM XML output; it is closed
+	 *            once parsing has finished or was aborted
+	 * @param executor
+	 *            the {@link Executor} that parses the document and emits the
+	 *            items to the subscribers
+	 */
+	public TalsimObservationPublisher(InputStream talsimOutput, Executor executor) {
+		this.talsimOutput = new CountingInputStream(talsimOutput);
+		this.executor = executor;
+	}
+
+	/**
+	 * Has to be called before {@link #connect()}.
+	 *
+	 * @param eventFilter
+	 *            filter that drops "event" nodes while parsing, may be
+	 *            {@code null} to emit all events
+	 */
+	public void setEventFilter(TalsimEventFilter eventFilter) {
+		this.eventFilter = eventFilter;
+	}
+
+	/**
+	 * Has to be called before {@link #connect()}.
+	 *
+	 * @param metrics
+	 *            receives the time spent parsing and the number of parsed
+	 *            and filtered events, may be {@code null}
+	 */
+	public void setMetrics(IngestionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super TalsimObservation> subscriber) {
+		if (subscriber == null)
+			throw new NullPointerException("subscriber must not be null");
+
+		if (connected.get()) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException(
+					"TalsimObservationPublisher is already connected; subscribers have to subscribe beforehand."));
+			return;
+		}
+
+		ObservationSubscription subscription = new ObservationSubscription(subscriber);
+		subscriptions.add(subscription);
+		subscriber.onSubscribe(subscription);
+	}
+
+	/**
+	 * Starts parsing the TalsimResult document. Items are emitted as soon as
+	 * all subscribers signalled demand.
+	 *
+	 * @throws IllegalStateException
+	 *             if the publisher has already been connected
+	 */
+	public void connect() {
+		if (!connected.compareAndSet(false, true))
+			throw new IllegalStateException("TalsimObservationPublisher has already been connected.");
+
+		if (logger.isDebugEnabled())
+			logger.debug("Connecting TalsimObservationPublisher with {} subscriber(s).", subscriptions.size());
+
+		parseEvent.begin();
+		drain();
+	}
+
+	private void drain() {
+		if (!connected.get())
+			return;
+
+		if (wip.getAndIncrement() == 0)
+			executor.execute(this::drainLoop);
+	}
+
+	private void drainLoop() {
+		int missed = 1;
+		for (;;) {
+			emitWhileDemanded();
+
+			missed = wip.addAndGet(-missed);
+			if (missed == 0)
+				break;
+		}
+	}
+
+	private void emitWhileDemanded() {
+		if (done)
+			return;
+
+		try {
+			signalRequestErrors();
+
+			if (subscriptions.isEmpty()) {
+				if (logger.isDebugEnabled())
+					logger.debug("All subscribers cancelled their subscription. Stop parsing TalsimResult.");
+
+				finish();
+				return;
+			}
+
+			if (reader == null) {
+				reader = new TalsimStreamReader(talsimOutput);
+				reader.setEventFilter(eventFilter);
+			}
+
+			while (!done && hasDemandOfAllSubscribers()) {
+				TalsimObservation observation = readNext();
+
+				if (observation == null) {
+					if (logger.isInfoEnabled() && reader.getNumberOfDroppedEvents() > 0)
+						logger.info("Dropped {} 'event' nodes of TalsimResult by filter.",
+								reader.getNumberOfDroppedEvents());
+
+					if (metrics != null)
+						metrics.addFilteredEvents(reader.getNumberOfDroppedEvents());
+
+					endOfDocument = true;
+
+					finish();
+					for (ObservationSubscription subscription : subscriptions) {
+						try {
+							subscription.subscriber.onComplete();
+						} catch (Throwable e) {
+							if (logger.isErrorEnabled())
+								logger.error("Subscriber {} failed to complete.", subscription.subscriber, e);
+						}
+					}
+					subscriptions.clear();
+					return;
+				}
+
+				for (ObservationSubscription subscription : subscriptions) {
+					subscription.produced();
+					try {
+						subscription.subscriber.onNext(observation);
+					} catch (Throwable e) {
+						cancelFailedSubscriber(subscription, observation, e);
+					}
+				}
+
+				signalRequestErrors();
+				if (subscriptions.isEmpty()) {
+					finish();
+					return;
+				}
+			}
+		} catch (Throwable e) {
+			if (logger.isErrorEnabled())
+				logger.error("Parsing of TalsimResult failed.", e);
+
+			finish();
+			for (ObservationSubscription subscription : subscriptions)
+				signalError(subscription, e);
+			subscriptions.clear();
+		}
+	}
+
+	/**
+	 * Treats the subscription of a subscriber that threw from {@code onNext}
+	 * as cancelled, so that parsing continues for the other subscribers.
+	 */
+	private void cancelFailedSubscriber(ObservationSubscription subscription, TalsimObservation observation,
+			Throwable failure) {
+		subscriptions.remove(subscription);
+
+		if (logger.isErrorEnabled())
+			logger.error("Subscriber {} failed to process {}. Cancelling its subscription.", subscription.subscriber,
+					observation, failure);
+
+		signalError(subscription, failure);
+	}
+
+	/**
+	 * Cancels the subscriptions of subscribers that signalled an invalid
+	 * request and delivers the error from within the drain loop, so that
+	 * {@code onError} is never called on the thread of {@code request}.
+	 */
+	private void signalRequestErrors() {
+		for (ObservationSubscription subscription : subscriptions) {
+			if (subscription.requestError != null) {
+				subscriptions.remove(subscription);
+				signalError(subscription, subscription.requestError);
+			}
+		}
+	}
+
+	private void signalError(ObservationSubscription subscription, Throwable failure) {
+		try {
+			subscription.subscriber.onError(failure);
+		} catch (Throwable e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Subscriber {} failed to handle its own error.", subscription.subscriber, e);
+		}
+	}
+
+	private TalsimObservation readNext() throws Exception {
+		IngestionMetrics.Measurement parsing = metrics != null ? metrics.start(IngestionStage.PARSE) : null;
+		TalsimObservation observation = reader.next();
+		if (parsing != null)
+			parsing.stop();
+
+		if (observation != null) {
+			if (metrics != null)
+				metrics.incrementParsedEvents();
+
+			parseEvent.numberOfEvents++;
+			if (observation.getHeader() != currentHeader) {
+				currentHeader = observation.getHeader();
+				parseEvent.numberOfSeries++;
+			}
+		}
+		return observation;
+	}
+
+	private boolean hasDemandOfAllSubscribers() {
+		if (subscriptions.isEmpty())
+			return false;
+
+		for (ObservationSubscription subscription : subscriptions) {
+			if (subscription.demand.get() <= 0)
+				return false;
+		}
+		return true;
+	}
+
+	private void finish() {
+		done = true;
+		try {
+			if (reader != null)
+				reader.close();
+			talsimOutput.close();
+		} catch (IOException e) {
+			if (logger.isWarnEnabled())
+				logger.warn("Could not close TalsimResult InputStream.", e);
+		}
+
+		parseEvent.end();
+		if (parseEvent.shouldCommit()) {
+			parseEvent.numberOfFilteredEvents = reader != null ? reader.getNumberOfDroppedEvents() : 0;
+			parseEvent.bytesRead = talsimOutput.count;
+			parseEvent.aborted = !endOfDocument;
+			parseEvent.commit();
+		}
+	}
+
+	/**
+	 * Counts the bytes read from the TalsimResult; only read from within the
+	 * drain loop.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+
+		private long count = 0;
+
+		private CountingInputStream(InputStream input) {
+			super(input);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int read = super.read();
+			if (read != -1)
+				count++;
+			return read;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0)
+				count += read;
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+	}
+
+	private class ObservationSubscription implements Flow.Subscription {
+
+		private final Flow.Subscriber<? super TalsimObservation> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		private volatile IllegalArgumentException requestError = null;
+
+		ObservationSubscription(Flow.Subscriber<? super TalsimObservation> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		void produced() {
+			demand.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - 1);
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				// delivered by the drain loop, see rule 1.3 of the specification
+				if (requestError == null)
+					requestError = new IllegalArgumentException("non-positive request: " + n);
+				drain();
+				return;
+			}
+
+			// cap at Long.MAX_VALUE, which signals unbounded demand
+			demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			if (subscriptions.remove(this))
+				drain();
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+package n52.talsim_sos_converter.helper;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event spanning the whole parse of a TalsimResult by a
+ * {@link TalsimObservationPublisher}, from connecting the publisher until the
+ * end of the document. As parsing is throttled by the subscribers, the
+ * duration includes the time waiting for their demand.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+@Name("n52.talsim.TalsimParse")
+@Label("TalsimResult Parse")
+@Category({ "TalsimSosConverter", "Conversion" })
+@Description("Streaming parse of a TalsimResult document")
+@StackTrace(false)
+public class TalsimParseEvent extends Event {
+
+	@Label("Series")
+	@Description("Number of series with at least one emitted event")
+	public int numberOfSeries;
+
+	@Label("Events")
+	@Description("Number of emitted events")
+	public long numberOfEvents;
+
+	@Label("Filtered Events")
+	@Description("Number of events dropped by the event filter")
+	public long numberOfFilteredEvents;
+
+	@Label("Bytes Read")
+	@DataAmount
+	public long bytesRead;
+
+	@Label("Aborted")
+	@Description("Parsing failed or all subscribers cancelled")
+	public boolean aborted;
+
+}
@@ -0,0 +1,119 @@
+package n52.talsim_sos_converter.helper;
+
+/**
+ * Immutable representation of the "header" node of a single "series" node of
+ * a TalsimResult document. Together with the document-wide "timeZone" value it
+ * holds all information required to build SOS requests for the "event" nodes
+ * of the series.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class TalsimSeriesHeader {
+
+	private final int seriesIndex;
+	private final String timeZone;
+
+	private final String type;
+	private final String locationId;
+	private final String parameterId;
+	private final String timeStepUnit;
+	private final String timeStepMultiplier;
+	private final String startDate;
+	private final String startTime;
+	private final String endDate;
+	private final String endTime;
+	private final String missVal;
+	private final String stationName;
+	private final String units;
+
+	public TalsimSeriesHeader(int seriesIndex, String timeZone, String type, String locationId, String parameterId,
+			String timeStepUnit, String timeStepMultiplier, String startDate, String startTime, String endDate,
+			String endTime, String missVal, String stationName, String units) {
+		this.seriesIndex = seriesIndex;
+		this.timeZone = timeZone;
+		this.type = type;
+		this.locationId = locationId;
+		this.parameterId = parameterId;
+		this.timeStepUnit = timeStepUnit;
+		this.timeStepMultiplier = timeStepMultiplier;
+		this.startDate = startDate;
+		this.startTime = startTime;
+		this.endDate = endDate;
+		this.endTime = endTime;
+		this.missVal = missVal;
+		this.stationName = stationName;
+		this.units = units;
+	}
+
+	/**
+	 * @return the zero-based position of the "series" node within the
+	 *         TalsimResult document
+	 */
+	public int getSeriesIndex() {
+		return seriesIndex;
+	}
+
+	/**
+	 * @return the value of the document-wide "timeZone" node
+	 */
+	public String getTimeZone() {
+		return timeZone;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getLocationId() {
+		return locationId;
+	}
+
+	public String getParameterId() {
+		return parameterId;
+	}
+
+	public String getTimeStepUnit() {
+		return timeStepUnit;
+	}
+
+	public String getTimeStepMultiplier() {
+		return timeStepMultiplier;
+	}
+
+	public String getStartDate() {
+		return startDate;
+	}
+
+	public String getStartTime() {
+		return startTime;
+	}
+
+	public String getEndDate() {
+		return endDate;
+	}
+
+	public String getEndTime() {
+		return endTime;
+	}
+
+	public String getMissVal() {
+		return missVal;
+	}
+
+	public String getStationName() {
+		return stationName;
+	}
+
+	public String getUnits() {
+		return units;
+	}
+
+	@Override
+	public String toString() {
+		return "TalsimSeriesHeader [seriesIndex=" + seriesIndex + ", locationId=" + locationId + ", parameterId="
+				+ parameterId + ", stationName=" + stationName + ", units=" + units + ", startDate=" + startDate + " "
+				+ startTime + ", endDate=" + endDate + " " + endTime + "]";
+	}
+
+}
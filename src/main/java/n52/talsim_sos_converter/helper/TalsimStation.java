@@ -0,0 +1,122 @@
+package n52.talsim_sos_converter.helper;
+
+/**
+ * Identifies a single station (i.e. SOS procedure) within a TalsimResult
+ * document. A TalsimResult may contain "series" nodes of several stations;
+ * they are distinguished by the values of nodes "locationId" and
+ * "stationName" of their "header" node.
+ *
+ * By default, the SOS identifiers of a station are those of previous
+ * versions: the procedure is named after the "stationName" and all stations
+ * share offering {@link Constants#OFFERING_IDENTIFIER_VALUE}. With
+ * <i>qualified identifiers</i>, both are suffixed with "_" and the
+ * "locationId", so that stations sharing a "stationName" get procedures of
+ * their own and each station gets an offering of its own.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class TalsimStation {
+
+	private final String locationId;
+	private final String stationName;
+	private final boolean qualifiedIdentifiers;
+
+	public TalsimStation(String locationId, String stationName) {
+		this(locationId, stationName, false);
+	}
+
+	/**
+	 * @param qualifiedIdentifiers
+	 *            {@code true} to suffix the SOS identifiers of the station
+	 *            with its "locationId"
+	 */
+	public TalsimStation(String locationId, String stationName, boolean qualifiedIdentifiers) {
+		this.locationId = locationId;
+		this.stationName = stationName;
+		this.qualifiedIdentifiers = qualifiedIdentifiers;
+	}
+
+	/**
+	 * @param header
+	 *            the header of a "series" node
+	 * @return the station the "series" node belongs to
+	 */
+	public static TalsimStation of(TalsimSeriesHeader header) {
+		return of(header, false);
+	}
+
+	/**
+	 * @param header
+	 *            the header of a "series" node
+	 * @param qualifiedIdentifiers
+	 *            {@code true} to suffix the SOS identifiers of the station
+	 *            with its "locationId"
+	 * @return the station the "series" node belongs to
+	 */
+	public static TalsimStation of(TalsimSeriesHeader header, boolean qualifiedIdentifiers) {
+		return new TalsimStation(header.getLocationId(), header.getStationName(), qualifiedIdentifiers);
+	}
+
+	public String getLocationId() {
+		return locationId;
+	}
+
+	public String getStationName() {
+		return stationName;
+	}
+
+	/**
+	 * @return the SOS procedure identifier of the station, the value of node
+	 *         "stationName", with qualified identifiers suffixed with "_" and
+	 *         the value of node "locationId"
+	 */
+	public String getProcedureIdentifier() {
+		if (!qualifiedIdentifiers || locationId == null || locationId.isEmpty())
+			return stationName;
+
+		return stationName + "_" + locationId;
+	}
+
+	/**
+	 * @return the SOS offering identifier of the station,
+	 *         {@link Constants#OFFERING_IDENTIFIER_VALUE}, with qualified
+	 *         identifiers suffixed with "_" and the value of node "locationId"
+	 */
+	public String getOfferingIdentifier() {
+		if (!qualifiedIdentifiers || locationId == null || locationId.isEmpty())
+			return Constants.OFFERING_IDENTIFIER_VALUE;
+
+		return Constants.OFFERING_IDENTIFIER_VALUE + "_" + locationId;
+	}
+
+	// the identifier scheme does not affect which station is meant
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((locationId == null) ? 0 : locationId.hashCode());
+		result = prime * result + ((stationName == null) ? 0 : stationName.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		TalsimStation other = (TalsimStation) obj;
+		if (locationId == null ? other.locationId != null : !locationId.equals(other.locationId))
+			return false;
+		if (stationName == null ? other.stationName != null : !stationName.equals(other.stationName))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "TalsimStation [locationId=" + locationId + ", stationName=" + stationName + "]";
+	}
+
+}
@@ -0,0 +1,312 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pull-based (StAX) reader for TalsimResult documents. In contrast to a DOM
+ * based approach, the document is never held in memory as a whole: each call
+ * of {@link #next()} only reads as far as the next "event" node and returns it
+ * as {@link TalsimObservation}. Hence, the caller controls the pace of parsing.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+public class TalsimStreamReader implements Closeable {
+
+	private static Logger logger = LoggerFactory.getLogger(TalsimStreamReader.class);
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+	private final XMLStreamReader xmlReader;
+
+	private String timeZone = "";
+	private TalsimSeriesHeader currentHeader = null;
+	private int numberOfSeries = 0;
+	private int currentEventIndex = 0;
+
+	private TalsimEventFilter eventFilter = null;
+	private long numberOfDroppedEvents = 0;
+
+	/**
+	 * @param talsimOutput
+	 *            an {@link InputStream} of the TASLIM XML output
+	 * @throws XMLStreamException
+	 */
+	public TalsimStreamReader(InputStream talsimOutput) throws XMLStreamException {
+		this.xmlReader = XML_INPUT_FACTORY.createXMLStreamReader(talsimOutput);
+	}
+
+	/**
+	 * @param eventFilter
+	 *            filter that drops "event" nodes while reading, may be
+	 *            {@code null} to return all events
+	 */
+	public void setEventFilter(TalsimEventFilter eventFilter) {
+		this.eventFilter = eventFilter;
+	}
+
+	private static XMLInputFactory createXmlInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+
+	/**
+	 * Reads the TalsimResult up to the next "event" node.
+	 *
+	 * Events dropped by the {@link TalsimEventFilter} are skipped.
+	 *
+	 * @return the next {@link TalsimObservation} or {@code null} if the end of
+	 *         the document has been reached
+	 * @throws Exception
+	 *             if the document is not well-formed or an "event" node lacks
+	 *             a mandatory attribute
+	 */
+	public TalsimObservation next() throws Exception {
+
+		while (xmlReader.hasNext()) {
+			int eventType = xmlReader.next();
+
+			if (eventType != XMLStreamConstants.START_ELEMENT)
+				continue;
+
+			String elementName = xmlReader.getLocalName();
+
+			if (elementName.equals(Constants.TALSIM_RESULT_TIME_ZONE_NODE)) {
+				timeZone = xmlReader.getElementText().trim();
+
+			} else if (elementName.equals(Constants.TALSIM_HEADER_NODE)) {
+				currentHeader = readHeader();
+				currentEventIndex = 0;
+
+				if (logger.isDebugEnabled())
+					logger.debug("Parsed 'header' node: {}", currentHeader);
+
+				if (eventFilter != null && eventFilter.excludes(currentHeader)) {
+					if (logger.isDebugEnabled())
+						logger.debug("Series {} lies outside the time window and is skipped.", currentHeader);
+
+					skipRestOfSeries();
+				}
+
+			} else if (elementName.equals(Constants.TALSIM_RESULT_EVENT_NODE)) {
+				TalsimObservation observation = readEvent();
+
+				if (eventFilter == null || !eventFilter.drops(observation))
+					return observation;
+
+				numberOfDroppedEvents++;
+
+				if (eventFilter.isEventsInTimeOrder()
+						&& eventFilter.isAfterTimeWindow(observation.getPhenomenonTimeMillis())) {
+					if (logger.isDebugEnabled())
+						logger.debug("Reached end of time window within series {}. Skipping its remaining events.",
+								currentHeader);
+
+					skipRestOfSeries();
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Skips all remaining "event" nodes of the current "series" node without
+	 * materializing them.
+	 */
+	private void skipRestOfSeries() throws XMLStreamException {
+		while (xmlReader.hasNext()) {
+			int eventType = xmlReader.next();
+
+			if (eventType == XMLStreamConstants.START_ELEMENT
+					&& xmlReader.getLocalName().equals(Constants.TALSIM_RESULT_EVENT_NODE)) {
+				numberOfDroppedEvents++;
+			} else if (eventType == XMLStreamConstants.END_ELEMENT
+					&& xmlReader.getLocalName().equals(Constants.TALSIM_SERIES_NODE)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reads the TalsimResult up to the next "header" node. All "event" nodes
+	 * in between are skipped without being materialized.
+	 *
+	 * @return the next {@link TalsimSeriesHeader} or {@code null} if the end
+	 *         of the document has been reached
+	 * @throws XMLStreamException
+	 *             if the document is not well-formed
+	 */
+	public TalsimSeriesHeader nextHeader() throws XMLStreamException {
+
+		while (xmlReader.hasNext()) {
+			int eventType = xmlReader.next();
+
+			if (eventType != XMLStreamConstants.START_ELEMENT)
+				continue;
+
+			String elementName = xmlReader.getLocalName();
+
+			if (elementName.equals(Constants.TALSIM_RESULT_TIME_ZONE_NODE)) {
+				timeZone = xmlReader.getElementText().trim();
+
+			} else if (elementName.equals(Constants.TALSIM_HEADER_NODE)) {
+				currentHeader = readHeader();
+				currentEventIndex = 0;
+				return currentHeader;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reads the "header" nodes of all "series" nodes of a TalsimResult, e.g.
+	 * to find out which stations it contains before inserting any observation.
+	 *
+	 * @param talsimOutput
+	 *            an {@link InputStream} of the TASLIM XML output; it is not
+	 *            closed by this method
+	 * @return the headers of all "series" nodes in document order
+	 * @throws XMLStreamException
+	 *             if the document is not well-formed
+	 */
+	public static List<TalsimSeriesHeader> readAllHeaders(InputStream talsimOutput) throws XMLStreamException {
+		List<TalsimSeriesHeader> headers = new ArrayList<TalsimSeriesHeader>();
+
+		TalsimStreamReader reader = new TalsimStreamReader(talsimOutput);
+		try {
+			TalsimSeriesHeader header;
+			while ((header = reader.nextHeader()) != null)
+				headers.add(header);
+		} finally {
+			reader.xmlReader.close();
+		}
+
+		return headers;
+	}
+
+	/**
+	 * @return the header of the "series" node that is currently being read,
+	 *         or {@code null} if no "header" node has been read yet
+	 */
+	public TalsimSeriesHeader getCurrentHeader() {
+		return currentHeader;
+	}
+
+	/**
+	 * @return the number of "header" nodes read so far
+	 */
+	public int getNumberOfSeries() {
+		return numberOfSeries;
+	}
+
+	/**
+	 * @return the number of "event" nodes dropped by the
+	 *         {@link TalsimEventFilter} so far
+	 */
+	public long getNumberOfDroppedEvents() {
+		return numberOfDroppedEvents;
+	}
+
+	private TalsimObservation readEvent() throws Exception {
+		if (currentHeader == null)
+			throw new Exception("Found 'event' node before any 'header' node within TALSIM_Document!");
+
+		String date = requireEventAttribute(Constants.TALSIM_RESULT_EVENT_DATE_ATTRIBUTE);
+		String time = requireEventAttribute(Constants.TALSIM_RESULT_EVENT_TIME_ATTRIBUTE);
+		String value = requireEventAttribute(Constants.TALSIM_RESULT_EVENT_VALUE_ATTRIBUTE);
+
+		return new TalsimObservation(currentHeader, currentEventIndex++, date, time, value);
+	}
+
+	private String requireEventAttribute(String attributeName) throws Exception {
+		String attributeValue = xmlReader.getAttributeValue(null, attributeName);
+
+		if (attributeValue == null) {
+			if (logger.isErrorEnabled())
+				logger.error(
+						"No attribute named '{}' could be found within the 'event' node of TALSIM_Document! Current 'series' node: {}",
+						attributeName, currentHeader);
+
+			throw new Exception(
+					"No attribute '" + attributeName + "' could be found within the 'event' node of TALSIM_Document!");
+		}
+
+		return attributeValue;
+	}
+
+	private TalsimSeriesHeader readHeader() throws XMLStreamException {
+		Map<String, String> nodeValues = new HashMap<String, String>();
+
+		while (xmlReader.hasNext()) {
+			int eventType = xmlReader.next();
+
+			if (eventType == XMLStreamConstants.END_ELEMENT
+					&& xmlReader.getLocalName().equals(Constants.TALSIM_HEADER_NODE))
+				break;
+
+			if (eventType != XMLStreamConstants.START_ELEMENT)
+				continue;
+
+			String elementName = xmlReader.getLocalName();
+
+			if (elementName.equals(Constants.TALSIM_RESULT_TIME_STEP_NODE)) {
+				putAttribute(nodeValues, Constants.TALSIM_RESULT_TIME_STEP_UNIT_ATTRIBUTE);
+				putAttribute(nodeValues, Constants.TALSIM_RESULT_TIME_STEP_MULTIPLIER_ATTRIBUTE);
+			} else if (elementName.equals(Constants.TALSIM_RESULT_START_DATE_NODE)
+					|| elementName.equals(Constants.TALSIM_RESULT_END_DATE_NODE)) {
+				// startDate and endDate share the same attribute names
+				nodeValues.put(elementName + "@date",
+						xmlReader.getAttributeValue(null, Constants.TALSIM_RESULT_START_DATE_DATE_ATTRIBUTE));
+				nodeValues.put(elementName + "@time",
+						xmlReader.getAttributeValue(null, Constants.TALSIM_RESULT_START_DATE_TIME_ATTRIBUTE));
+			} else {
+				nodeValues.put(elementName, xmlReader.getElementText());
+			}
+		}
+
+		return new TalsimSeriesHeader(numberOfSeries++, timeZone, nodeValues.get(Constants.TALSIM_RESULT_TYPE_NODE),
+				nodeValues.get(Constants.TALSIM_RESULT_LOCATION_ID_NODE),
+				nodeValues.get(Constants.TALSIM_RESULT_PARAMETER_ID_NODE),
+				nodeValues.get(Constants.TALSIM_RESULT_TIME_STEP_UNIT_ATTRIBUTE),
+				nodeValues.get(Constants.TALSIM_RESULT_TIME_STEP_MULTIPLIER_ATTRIBUTE),
+				nodeValues.get(Constants.TALSIM_RESULT_START_DATE_NODE + "@date"),
+				nodeValues.get(Constants.TALSIM_RESULT_START_DATE_NODE + "@time"),
+				nodeValues.get(Constants.TALSIM_RESULT_END_DATE_NODE + "@date"),
+				nodeValues.get(Constants.TALSIM_RESULT_END_DATE_NODE + "@time"),
+				nodeValues.get(Constants.TALSIM_RESULT_MISSING_VALUE_NODE),
+				nodeValues.get(Constants.TALSIM_RESULT_STATION_NAME_NODE),
+				nodeValues.get(Constants.TALSIM_RESULT_UNITS_UOM_NODE));
+	}
+
+	private void putAttribute(Map<String, String> nodeValues, String attributeName) {
+		nodeValues.put(attributeName, xmlReader.getAttributeValue(null, attributeName));
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			xmlReader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+
+}
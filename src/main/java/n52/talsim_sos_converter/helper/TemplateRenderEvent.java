@@ -0,0 +1,42 @@
+package n52.talsim_sos_converter.helper;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event of building a single request from its template:
+ * deriving the parameters (e.g. the date and time Strings) and replacing the
+ * placeholders of the template.
+ *
+ * @author Christian Danowski-Buhren (contact: c.danowski@52north.org)
+ *
+ */
+@Name("n52.talsim.TemplateRender")
+@Label("Request Template Rendering")
+@Category({ "TalsimSosConverter", "Conversion" })
+@Description("Rendering of an InsertSensor, InsertObservation or GetDataAvailability request")
+@StackTrace(false)
+public class TemplateRenderEvent extends Event {
+
+	@Label("Request Type")
+	public String requestType;
+
+	@Label("Station")
+	@Description("locationId of the series")
+	public String station;
+
+	@Label("Parameter")
+	@Description("parameterId of the series, empty for InsertSensor requests")
+	public String parameter;
+
+	@Label("Request Size")
+	@Description("Size of the rendered request in bytes (UTF-8)")
+	@DataAmount
+	public long requestBytes;
+
+}
@@ -0,0 +1,199 @@
+package n52.talsim_sos_converter;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.Constants;
+import n52.talsim_sos_converter.helper.TalsimObservation;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+
+/**
+ * Tests {@link TalsimSosConverter#insertOutputToSOSAsync(InputStream, URL,
+ * java.util.concurrent.Executor, IngestionProgressListener)} against a
+ * {@link StubSos}.
+ */
+public class AsyncInsertionTest extends TestCase {
+
+	private ExecutorService executor;
+
+	public AsyncInsertionTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(AsyncInsertionTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	public void testInsertionCompletesAsynchronously() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			sos.setResponseDelayMillis(20);
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+
+			CompletableFuture<IngestionReport> result = converter.insertOutputToSOSAsync(
+					DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL(), executor, null);
+
+			// the calling thread returns before the first response arrives
+			assertFalse(result.isDone());
+
+			IngestionReport report = result.get(10, TimeUnit.SECONDS);
+			assertEquals(2, report.getNumberOfSeries());
+			assertEquals(8, report.getNumberOfInsertedObservations());
+			assertEquals(1, sos.getInsertSensorRequests());
+			assertEquals(8, sos.getInsertObservationRequests());
+		}
+	}
+
+	public void testCancellationStopsFurtherRequests() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			sos.setResponseDelayMillis(50);
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+
+			CountDownLatch firstObservationInserted = new CountDownLatch(1);
+			CompletableFuture<IngestionReport> result = converter.insertOutputToSOSAsync(
+					DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL(), executor,
+					new IngestionProgressListener() {
+						@Override
+						public void onObservationInserted(TalsimObservation observation) {
+							firstObservationInserted.countDown();
+						}
+					});
+
+			assertTrue(firstObservationInserted.await(10, TimeUnit.SECONDS));
+			assertTrue(result.cancel(true));
+
+			// at most the request in flight while cancelling is answered
+			Thread.sleep(100);
+			int requests = sos.getInsertObservationRequests();
+			Thread.sleep(300);
+			assertEquals(requests, sos.getInsertObservationRequests());
+			assertTrue(String.valueOf(requests), requests < 8);
+			assertTrue(result.isCancelled());
+		}
+	}
+
+	public void testProgressListenerIsNotifiedInOrder() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+
+			List<String> callbacks = Collections.synchronizedList(new ArrayList<String>());
+			IngestionProgressListener listener = new IngestionProgressListener() {
+				@Override
+				public void onSensorInserted(String procedureIdentifier) {
+					callbacks.add("sensor " + procedureIdentifier);
+				}
+
+				@Override
+				public void onSeriesStarted(TalsimSeriesHeader header) {
+					callbacks.add("started " + header.getParameterId());
+				}
+
+				@Override
+				public void onObservationInserted(TalsimObservation observation) {
+					callbacks.add("observation " + observation.getTime());
+				}
+
+				@Override
+				public void onSeriesCompleted(TalsimSeriesHeader header) {
+					callbacks.add("completed " + header.getParameterId());
+				}
+
+				@Override
+				public void onTalsimResultCompleted(int numberOfSeries) {
+					callbacks.add("result " + numberOfSeries);
+				}
+			};
+
+			converter.insertOutputToSOSAsync(DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL(),
+					executor, listener).get(10, TimeUnit.SECONDS);
+
+			// both series belong to the same station, so their callbacks are not interleaved
+			assertEquals(Arrays.asList("sensor Bever-Talsperre", "started 1ZU", "observation 00:00:00",
+					"observation 00:15:00", "observation 00:30:00", "observation 00:45:00", "completed 1ZU",
+					"started WSP", "observation 00:00:00", "observation 00:15:00", "observation 00:30:00",
+					"observation 00:45:00", "completed WSP", "result 2"), callbacks);
+		}
+	}
+
+	public void testFailedSetupDoesNotParseTalsimResult() throws Exception {
+		ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+
+		// the authorization token cannot be found, the request templates can
+		Thread.currentThread().setContextClassLoader(new ClassLoader(contextClassLoader) {
+			@Override
+			public InputStream getResourceAsStream(String name) {
+				return name.equals(Constants.PATH_TO_TOKEN_PROPERTIES_FILE) ? null : super.getResourceAsStream(name);
+			}
+		});
+
+		try (StubSos sos = new StubSos()) {
+			AtomicInteger tasks = new AtomicInteger();
+			Executor countingExecutor = task -> {
+				tasks.incrementAndGet();
+				executor.execute(task);
+			};
+
+			AtomicBoolean closed = new AtomicBoolean();
+			InputStream talsimOutput = new FilterInputStream(new ByteArrayInputStream(
+					DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8))) {
+				@Override
+				public void close() throws IOException {
+					closed.set(true);
+					super.close();
+				}
+			};
+
+			CompletableFuture<IngestionReport> result = new TalsimSosConverter().insertOutputToSOSAsync(talsimOutput,
+					sos.getURL(), countingExecutor, null);
+
+			try {
+				result.get(10, TimeUnit.SECONDS);
+				fail("insertion should fail");
+			} catch (ExecutionException e) {
+				// expected
+			}
+
+			// the publisher is not connected, so the executor is never used
+			assertEquals(0, tasks.get());
+			assertTrue(closed.get());
+			assertEquals(0, sos.getInsertSensorRequests());
+		} finally {
+			Thread.currentThread().setContextClassLoader(contextClassLoader);
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+package n52.talsim_sos_converter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.SeriesWatermarkIndex;
+
+/**
+ * Tests the {@link BatchIngestion} of several files against a {@link StubSos}.
+ */
+public class BatchIngestionTest extends TestCase {
+
+	private Path directory;
+
+	public BatchIngestionTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(BatchIngestionTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("batchIngestion");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	public void testFilesAreInsertedWithinGlobalRequestLimit() throws Exception {
+		for (int i = 0; i < 4; i++)
+			Files.write(directory.resolve("result" + i + ".xml"),
+					DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("broken.xml"), "<TalsimResult><series>".getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("notes.txt"), "not a TalsimResult".getBytes(StandardCharsets.UTF_8));
+
+		ForkJoinPool pool = new ForkJoinPool(8);
+
+		try (StubSos sos = new StubSos()) {
+			// all files contain the same station
+			sos.acceptDuplicateProcedures();
+			sos.setResponseDelayMillis(10);
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setMaxInFlightRequests(2);
+
+			List<Path> completedFiles = Collections.synchronizedList(new ArrayList<Path>());
+			List<Path> failedFiles = Collections.synchronizedList(new ArrayList<Path>());
+
+			BatchIngestion batch = new BatchIngestion(converter, sos.getURL(), pool);
+			batch.setProgressListener(new BatchProgressListener() {
+				@Override
+				public void onFileCompleted(Path talsimFile, IngestionReport report) {
+					completedFiles.add(talsimFile);
+				}
+
+				@Override
+				public void onFileFailed(Path talsimFile, Throwable failure) {
+					failedFiles.add(talsimFile);
+				}
+			});
+
+			BatchReport report = batch.insertAsync(directory, BatchIngestion.DEFAULT_GLOB).get();
+
+			assertFalse(report.isSuccessful());
+			assertEquals(4, report.getReports().size());
+			assertEquals(1, report.getFailures().size());
+			assertTrue(report.getFailures().containsKey(directory.resolve("broken.xml")));
+
+			assertEquals(4, completedFiles.size());
+			assertEquals(Collections.singletonList(directory.resolve("broken.xml")), failedFiles);
+
+			// four files with two series of four observations each
+			assertEquals(32, report.getNumberOfInsertedObservations());
+			assertEquals(32, sos.getInsertObservationRequests());
+
+			assertTrue("max concurrent requests " + sos.getMaxConcurrentRequests(),
+					sos.getMaxConcurrentRequests() <= 2);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	public void testOlderFilesOfAStationAreInsertedFirst() throws Exception {
+		// the newer file is larger and would be started first
+		Files.write(directory.resolve("result0.xml"),
+				DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+		Files.write(directory.resolve("result1.xml"), createNewerTalsimResult().getBytes(StandardCharsets.UTF_8));
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		try (StubSos sos = new StubSos();
+				SeriesWatermarkIndex watermarkIndex = new SeriesWatermarkIndex(directory.resolve("watermarks"))) {
+			sos.acceptDuplicateProcedures();
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setWatermarkIndex(watermarkIndex);
+
+			List<Path> startedFiles = Collections.synchronizedList(new ArrayList<Path>());
+
+			BatchIngestion batch = new BatchIngestion(converter, sos.getURL(), pool);
+			batch.setProgressListener(new BatchProgressListener() {
+				@Override
+				public void onFileStarted(Path talsimFile) {
+					startedFiles.add(talsimFile);
+				}
+			});
+
+			BatchReport report = batch.insertAsync(directory, BatchIngestion.DEFAULT_GLOB).get();
+
+			assertTrue(report.isSuccessful());
+			assertEquals(Arrays.asList(directory.resolve("result0.xml"), directory.resolve("result1.xml")),
+					startedFiles);
+
+			// the watermarks of the newer file did not suppress the older observations
+			assertEquals(2 * 4 + 2 * 8, report.getNumberOfInsertedObservations());
+			assertEquals(2 * 4 + 2 * 8, sos.getInsertObservationRequests());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return a TalsimResult of the same station as
+	 *         {@link DataAvailabilityReconciliationTest#TALSIM_RESULT} with 8
+	 *         later events per series
+	 */
+	private static String createNewerTalsimResult() {
+		StringBuilder talsimResult = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<TimeSeries xmlns=\"http://www.wldelft.nl/fews/PI\" version=\"1.2\"><timeZone>0.0</timeZone>");
+
+		for (String parameterId : Arrays.asList("1ZU", "WSP")) {
+			talsimResult.append("<series><header><type>instantaneous</type><locationId>TBEV</locationId>"
+					+ "<parameterId>" + parameterId + "</parameterId><timeStep unit=\"second\" multiplier=\"900\"/>"
+					+ "<startDate date=\"2014-02-10\" time=\"01:00:00\"/>"
+					+ "<endDate date=\"2014-02-10\" time=\"02:45:00\"/><missVal>-9999.9990</missVal>"
+					+ "<stationName>Bever-Talsperre</stationName><units>m3/s</units></header>");
+			for (int i = 0; i < 8; i++)
+				talsimResult.append(String.format("<event date=\"2014-02-10\" time=\"%02d:%02d:00\" value=\"%d.0\"/>",
+						1 + i / 4, 15 * (i % 4), i));
+			talsimResult.append("</series>");
+		}
+
+		return talsimResult.append("</TimeSeries>").toString();
+	}
+
+}
@@ -0,0 +1,79 @@
+package n52.talsim_sos_converter;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests the reconciliation with the data availability of the SOS instance
+ * (see {@link TalsimSosConverter#setReconcileWithDataAvailability(boolean)})
+ * against a {@link StubSos}.
+ */
+public class DataAvailabilityReconciliationTest extends TestCase {
+
+	static final String TALSIM_RESULT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<TimeSeries xmlns=\"http://www.wldelft.nl/fews/PI\" version=\"1.2\"><timeZone>0.0</timeZone>"
+			+ createSeries("1ZU", "m3/s") + createSeries("WSP", "mNN") + "</TimeSeries>";
+
+	public DataAvailabilityReconciliationTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(DataAvailabilityReconciliationTest.class);
+	}
+
+	public void testObservationsWithinAvailableTimeRangesAreSkipped() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			// the first two events of "1ZU" are already available, "WSP" is unknown
+			sos.setDataAvailability("Zufluss", "2014-02-10T00:00:00.000Z", "2014-02-10T00:15:00.000Z");
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setReconcileWithDataAvailability(true);
+
+			converter.insertOutputToSOS(openTalsimResult(), sos.getURL());
+
+			assertEquals(2, sos.getGetDataAvailabilityRequests());
+			assertEquals(1, sos.getInsertSensorRequests());
+			assertEquals(2 + 4, sos.getInsertObservationRequests());
+		}
+	}
+
+	public void testWithoutReconciliationAllObservationsAreInserted() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			sos.setDataAvailability("Zufluss", "2014-02-10T00:00:00.000Z", "2014-02-10T00:15:00.000Z");
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+
+			converter.insertOutputToSOS(openTalsimResult(), sos.getURL());
+
+			assertEquals(0, sos.getGetDataAvailabilityRequests());
+			assertEquals(8, sos.getInsertObservationRequests());
+		}
+	}
+
+	static ByteArrayInputStream openTalsimResult() {
+		return new ByteArrayInputStream(TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String createSeries(String parameterId, String units) {
+		return createSeries("TBEV", "Bever-Talsperre", parameterId, units);
+	}
+
+	static String createSeries(String locationId, String stationName, String parameterId, String units) {
+		return "<series><header><type>instantaneous</type><locationId>" + locationId + "</locationId><parameterId>"
+				+ parameterId + "</parameterId><timeStep unit=\"second\" multiplier=\"900\"/>"
+				+ "<startDate date=\"2014-02-10\" time=\"00:00:00\"/><endDate date=\"2014-02-10\" time=\"00:45:00\"/>"
+				+ "<missVal>-9999.9990</missVal><stationName>" + stationName + "</stationName><units>" + units
+				+ "</units></header>" + "<event date=\"2014-02-10\" time=\"00:00:00\" value=\"1.0\"/>"
+				+ "<event date=\"2014-02-10\" time=\"00:15:00\" value=\"2.0\"/>"
+				+ "<event date=\"2014-02-10\" time=\"00:30:00\" value=\"3.0\"/>"
+				+ "<event date=\"2014-02-10\" time=\"00:45:00\" value=\"4.0\"/></series>";
+	}
+
+}
@@ -0,0 +1,97 @@
+package n52.talsim_sos_converter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.SeriesInsertionEvent;
+import n52.talsim_sos_converter.helper.SosHttpExchangeEvent;
+import n52.talsim_sos_converter.helper.TalsimParseEvent;
+import n52.talsim_sos_converter.helper.TemplateRenderEvent;
+
+/**
+ * Tests the Java Flight Recorder events emitted during an insertion into a
+ * {@link StubSos}.
+ */
+public class FlightRecorderEventsTest extends TestCase {
+
+	public FlightRecorderEventsTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(FlightRecorderEventsTest.class);
+	}
+
+	public void testEveryStageIsRecorded() throws Exception {
+		Path recordingFile = Files.createTempFile("talsimSosConverter", ".jfr");
+
+		try (StubSos sos = new StubSos(); Recording recording = new Recording()) {
+			recording.enable(TalsimParseEvent.class);
+			recording.enable(SeriesInsertionEvent.class);
+			recording.enable(TemplateRenderEvent.class);
+			recording.enable(SosHttpExchangeEvent.class);
+			recording.start();
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.insertOutputToSOS(DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL());
+
+			recording.stop();
+			recording.dump(recordingFile);
+
+			List<RecordedEvent> parses = readEvents(recordingFile, "n52.talsim.TalsimParse");
+			assertEquals(1, parses.size());
+			assertEquals(2, parses.get(0).getInt("numberOfSeries"));
+			assertEquals(8, parses.get(0).getLong("numberOfEvents"));
+			assertEquals(DataAvailabilityReconciliationTest.TALSIM_RESULT.length(),
+					parses.get(0).getLong("bytesRead"));
+			assertFalse(parses.get(0).getBoolean("aborted"));
+
+			List<RecordedEvent> series = readEvents(recordingFile, "n52.talsim.SeriesInsertion");
+			assertEquals(2, series.size());
+			for (RecordedEvent event : series) {
+				assertEquals("TBEV", event.getString("station"));
+				assertEquals(4, event.getInt("numberOfObservations"));
+			}
+
+			List<RecordedEvent> renders = readEvents(recordingFile, "n52.talsim.TemplateRender");
+			assertEquals(1 + 8, renders.size());
+			long renderedBytes = 0;
+			for (RecordedEvent event : renders)
+				renderedBytes += event.getLong("requestBytes");
+
+			List<RecordedEvent> exchanges = readEvents(recordingFile, "n52.talsim.SosHttpExchange");
+			assertEquals(1 + 8, exchanges.size());
+			long sentBytes = 0;
+			for (RecordedEvent event : exchanges) {
+				assertEquals(200, event.getInt("responseCode"));
+				assertTrue(event.getLong("requestBytes") > 0);
+				assertTrue(event.getLong("responseBytes") > 0);
+				sentBytes += event.getLong("requestBytes");
+			}
+
+			// both count the UTF-8 encoded requests
+			assertEquals(sentBytes, renderedBytes);
+		} finally {
+			Files.deleteIfExists(recordingFile);
+		}
+	}
+
+	private static List<RecordedEvent> readEvents(Path recordingFile, String eventName) throws Exception {
+		List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile)) {
+			if (event.getEventType().getName().equals(eventName))
+				events.add(event);
+		}
+		return events;
+	}
+
+}
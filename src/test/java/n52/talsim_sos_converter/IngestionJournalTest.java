@@ -0,0 +1,107 @@
+package n52.talsim_sos_converter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.IngestionJournal;
+
+/**
+ * Tests resuming a failed insertion from its
+ * {@link n52.talsim_sos_converter.helper.IngestionJournal} against a
+ * {@link StubSos}.
+ */
+public class IngestionJournalTest extends TestCase {
+
+	private Path directory;
+	private Path talsimFile;
+	private Path journalDirectory;
+
+	public IngestionJournalTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(IngestionJournalTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("journal");
+		talsimFile = Files.write(directory.resolve("TalsimResult.xml"),
+				DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+		journalDirectory = directory.resolve("journals");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	public void testRerunResumesAfterLastAcknowledgedObservation() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setJournalDirectory(journalDirectory);
+
+			// the SOS instance fails with the first observation of the second series
+			sos.failInsertObservationRequestsFrom(5);
+			try {
+				converter.insertOutputToSOS(talsimFile, sos.getURL());
+				fail("insertion should fail");
+			} catch (Exception e) {
+				// expected
+			}
+			assertEquals(5, sos.getInsertObservationRequests());
+
+			// the rerun only inserts the four observations of the second series
+			sos.failInsertObservationRequestsFrom(Integer.MAX_VALUE);
+			converter.insertOutputToSOS(talsimFile, sos.getURL());
+			assertEquals(5 + 4, sos.getInsertObservationRequests());
+
+			// the station registered by the failed run is not registered again
+			assertEquals(1, sos.getInsertSensorRequests());
+			assertEquals(0, sos.getRejectedInsertSensorRequests());
+
+			// a completed file is not inserted again
+			converter.insertOutputToSOS(talsimFile, sos.getURL());
+			assertEquals(5 + 4, sos.getInsertObservationRequests());
+		}
+	}
+
+	public void testJournalsOfCompletedFilesExpire() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setJournalDirectory(journalDirectory);
+
+			converter.insertOutputToSOS(talsimFile, sos.getURL());
+			assertEquals(1, countJournals());
+
+			// the journal of an incomplete file is kept regardless of its age
+			Path incompleteJournal = Files.write(journalDirectory.resolve("incomplete.journal"),
+					"E 0 3\n".getBytes(StandardCharsets.UTF_8));
+			Files.setLastModifiedTime(incompleteJournal, FileTime.fromMillis(0));
+
+			Thread.sleep(20);
+			assertEquals(1, IngestionJournal.deleteExpiredJournals(journalDirectory, 10));
+			assertEquals(1, countJournals());
+			assertTrue(Files.exists(incompleteJournal));
+		}
+	}
+
+	private long countJournals() throws Exception {
+		try (Stream<Path> files = Files.list(journalDirectory)) {
+			return files.count();
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package n52.talsim_sos_converter;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.IngestionFailure;
+import n52.talsim_sos_converter.helper.IngestionStage;
+import n52.talsim_sos_converter.helper.SosRequestType;
+import n52.talsim_sos_converter.helper.TalsimEventFilter;
+
+/**
+ * Tests the counts, timings and failures of the {@link IngestionReport}
+ * returned by {@link TalsimSosConverter#insertOutputToSOS(java.io.InputStream, java.net.URL)}.
+ */
+public class IngestionReportTest extends TestCase {
+
+	public IngestionReportTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(IngestionReportTest.class);
+	}
+
+	public void testReportCoversAllStages() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			sos.setResponseDelayMillis(5);
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+
+			IngestionReport report = converter.insertOutputToSOS(
+					DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL());
+
+			assertEquals(2, report.getNumberOfSeries());
+			assertEquals(8, report.getNumberOfParsedEvents());
+			assertEquals(8, report.getNumberOfInsertedObservations());
+
+			assertEquals(1, report.getNumberOfRequests(SosRequestType.INSERT_SENSOR));
+			assertEquals(8, report.getNumberOfRequests(SosRequestType.INSERT_OBSERVATION));
+			assertEquals(9, report.getNumberOfRequests());
+			assertTrue(report.getNumberOfBytesSent() > 9 * 100);
+
+			// the last invocation reaches the end of the document
+			assertEquals(8 + 1, report.getStageTiming(IngestionStage.PARSE).getNumberOfInvocations());
+			assertEquals(9, report.getStageTiming(IngestionStage.BUILD).getNumberOfInvocations());
+			assertEquals(9, report.getStageTiming(IngestionStage.SEND).getNumberOfInvocations());
+			assertEquals(9, report.getStageTiming(IngestionStage.VERIFY).getNumberOfInvocations());
+
+			// every response of the stub SOS is delayed
+			assertTrue(report.getResponseTimePercentileMillis(50) >= 5);
+			assertTrue(report.getResponseTimePercentileMillis(50) <= report.getResponseTimePercentileMillis(99));
+			assertTrue(report.getStageTiming(IngestionStage.SEND).getWallTimeNanos() >= 9 * 5000000L);
+
+			assertTrue(report.getFailures().isEmpty());
+		}
+	}
+
+	public void testSkippedEventsAndFailuresAreReported() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			// the first two events of "1ZU" are available, "WSP" is unknown to the SOS instance
+			sos.setDataAvailability("Zufluss", "2014-02-10T00:00:00.000Z", "2014-02-10T00:15:00.000Z");
+
+			// drops the last event of each series
+			TalsimEventFilter eventFilter = new TalsimEventFilter();
+			eventFilter.setTimeWindow(null, new DateTime(2014, 2, 10, 0, 30, DateTimeZone.UTC));
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setReconcileWithDataAvailability(true);
+			converter.setEventFilter(eventFilter);
+
+			IngestionReport report = converter.insertOutputToSOS(
+					DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL());
+
+			assertEquals(6, report.getNumberOfParsedEvents());
+			assertEquals(2, report.getNumberOfFilteredEvents());
+			assertEquals(2, report.getNumberOfSkippedObservations());
+			assertEquals(1 + 3, report.getNumberOfInsertedObservations());
+			assertEquals(2, report.getNumberOfRequests(SosRequestType.GET_DATA_AVAILABILITY));
+
+			assertEquals(1, report.getFailures().size());
+			IngestionFailure failure = report.getFailures().get(0);
+			// the exception report of the SOS instance is no GetDataAvailability response
+			assertEquals(IngestionStage.VERIFY, failure.getStage());
+			assertTrue(failure.getSubject().contains("WSP"));
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+package n52.talsim_sos_converter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.IngestionScheduler.Priority;
+import n52.talsim_sos_converter.helper.TalsimObservation;
+
+/**
+ * Tests the quotas, the fair sharing and the priorities of the
+ * {@link IngestionScheduler} against a {@link StubSos}.
+ */
+public class IngestionSchedulerTest extends TestCase {
+
+	private Path directory;
+	private Path talsimFile;
+	private ExecutorService executor;
+
+	public IngestionSchedulerTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(IngestionSchedulerTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("ingestionScheduler");
+		talsimFile = Files.write(directory.resolve("TalsimResult.xml"),
+				DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	public void testCapacityIsSharedByWeight() throws Exception {
+		try (StubSos sos = new StubSos(); IngestionScheduler scheduler = createScheduler()) {
+			// all jobs insert the same TalsimResult
+			sos.acceptDuplicateProcedures();
+			sos.setResponseDelayMillis(10);
+			scheduler.setEndpointQuota(sos.getURL(), 1, 0);
+
+			AtomicInteger lightObservations = new AtomicInteger();
+			IngestionProgressListener lightListener = new IngestionProgressListener() {
+				@Override
+				public void onObservationInserted(TalsimObservation observation) {
+					lightObservations.incrementAndGet();
+				}
+			};
+
+			CompletableFuture<IngestionReport> heavy = scheduler.submit(talsimFile, sos.getURL(), Priority.NORMAL, 3,
+					null);
+			CompletableFuture<IngestionReport> light = scheduler.submit(talsimFile, sos.getURL(), Priority.NORMAL, 1,
+					lightListener);
+
+			CompletableFuture<Integer> lightObservationsWhenHeavyDone = heavy.thenApply(
+					report -> lightObservations.get());
+
+			assertEquals(8, heavy.get().getNumberOfInsertedObservations());
+			assertEquals(8, light.get().getNumberOfInsertedObservations());
+
+			// the heavy job got three requests per request of the light job
+			assertTrue("light observations " + lightObservationsWhenHeavyDone.get(),
+					lightObservationsWhenHeavyDone.get() <= 5);
+
+			assertEquals(1, sos.getMaxConcurrentRequests());
+		}
+	}
+
+	public void testUrgentJobJumpsAhead() throws Exception {
+		try (StubSos sos = new StubSos(); IngestionScheduler scheduler = createScheduler()) {
+			// all jobs insert the same TalsimResult
+			sos.acceptDuplicateProcedures();
+			sos.setResponseDelayMillis(10);
+			scheduler.setEndpointQuota(sos.getURL(), 2, 50);
+			scheduler.setMaxRunningJobs(2);
+
+			List<CompletableFuture<IngestionReport>> bulkJobs = new ArrayList<CompletableFuture<IngestionReport>>();
+			for (int i = 0; i < 4; i++)
+				bulkJobs.add(scheduler.submit(talsimFile, sos.getURL(), Priority.BULK, 1, null));
+
+			Thread.sleep(50);
+			IngestionReport urgentReport = scheduler
+					.submit(talsimFile, sos.getURL(), Priority.URGENT, 1, null).get();
+
+			assertEquals(8, urgentReport.getNumberOfInsertedObservations());
+			for (int i = 0; i < bulkJobs.size(); i++) {
+				IngestionReport bulkReport = bulkJobs.get(i).get();
+				assertEquals(8, bulkReport.getNumberOfInsertedObservations());
+
+				// the bulk jobs pending when the urgent job was submitted did not get ahead of it
+				if (i >= 2)
+					assertTrue(urgentReport.getEndTimeMillis() <= bulkReport.getEndTimeMillis());
+			}
+
+			assertTrue(sos.getMaxConcurrentRequests() <= 2);
+		}
+	}
+
+	private IngestionScheduler createScheduler() {
+		TalsimSosConverter converter = new TalsimSosConverter();
+		converter.setAuthorizationToken("test");
+		return new IngestionScheduler(converter, executor);
+	}
+
+}
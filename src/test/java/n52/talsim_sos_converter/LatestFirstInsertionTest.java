@@ -0,0 +1,107 @@
+package n52.talsim_sos_converter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.SeriesWatermarkIndex;
+import n52.talsim_sos_converter.helper.TalsimObservation;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+
+/**
+ * Tests the latest-first insertion with backfill against a {@link StubSos}.
+ */
+public class LatestFirstInsertionTest extends TestCase {
+
+	private static final long FIFTEEN_MINUTES_MILLIS = 15 * 60 * 1000L;
+
+	private Path directory;
+	private Path talsimFile;
+
+	public LatestFirstInsertionTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(LatestFirstInsertionTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("latestFirst");
+		talsimFile = Files.write(directory.resolve("TalsimResult.xml"),
+				DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	public void testRecentObservationsAreInsertedBeforeBackfill() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try (StubSos sos = new StubSos();
+				SeriesWatermarkIndex watermarkIndex = new SeriesWatermarkIndex(directory.resolve("watermarks"))) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setWatermarkIndex(watermarkIndex);
+
+			List<String> insertedTimes = Collections.synchronizedList(new ArrayList<String>());
+			List<TalsimSeriesHeader> headers = Collections.synchronizedList(new ArrayList<TalsimSeriesHeader>());
+			IngestionProgressListener listener = new IngestionProgressListener() {
+				@Override
+				public void onObservationInserted(TalsimObservation observation) {
+					insertedTimes.add(observation.getTime());
+					headers.add(observation.getHeader());
+				}
+			};
+
+			// the last 15 minutes first, then a backfill of at most 20 requests per second
+			long startMillis = System.currentTimeMillis();
+			LatestFirstInsertion insertion = converter.insertOutputToSOSLatestFirstAsync(talsimFile, sos.getURL(),
+					FIFTEEN_MINUTES_MILLIS, 20, executor, listener);
+
+			IngestionReport recentReport = insertion.getRecentResult().get();
+			assertEquals(4, recentReport.getNumberOfInsertedObservations());
+
+			// the watermarks are not advanced before the backfill succeeded
+			assertEquals(SeriesWatermarkIndex.NO_WATERMARK, watermarkIndex.getWatermark(sos.getURL(), headers.get(0)));
+
+			IngestionReport backfillReport = insertion.getBackfillResult().get();
+			assertEquals(4, backfillReport.getNumberOfInsertedObservations());
+			assertEquals(8, sos.getInsertObservationRequests());
+
+			// the stub rejects duplicate procedures, the backfill must not register the station again
+			assertEquals(1, sos.getInsertSensorRequests());
+			assertEquals(0, sos.getRejectedInsertSensorRequests());
+			assertTrue(System.currentTimeMillis() - startMillis >= 3 * 50);
+
+			for (String time : insertedTimes.subList(0, 4))
+				assertTrue(time, time.equals("00:30:00") || time.equals("00:45:00"));
+			for (String time : insertedTimes.subList(4, 8))
+				assertTrue(time, time.equals("00:00:00") || time.equals("00:15:00"));
+
+			assertEquals(new DateTime(2014, 2, 10, 0, 45, DateTimeZone.UTC).getMillis(),
+					watermarkIndex.getWatermark(sos.getURL(), headers.get(0)));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
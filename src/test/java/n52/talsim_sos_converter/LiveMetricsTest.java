@@ -0,0 +1,104 @@
+package n52.talsim_sos_converter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.MetricsRegistry;
+import n52.talsim_sos_converter.helper.PrometheusEndpoint;
+
+/**
+ * Tests the live metrics of an ingestion, as read from the
+ * {@link MetricsRegistry}, via JMX and from the {@link PrometheusEndpoint}.
+ */
+public class LiveMetricsTest extends TestCase {
+
+	public LiveMetricsTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(LiveMetricsTest.class);
+	}
+
+	public void testIngestionUpdatesMetrics() throws Exception {
+		MetricsRegistry registry = new MetricsRegistry();
+
+		try (StubSos sos = new StubSos()) {
+			// the same TalsimResult is inserted twice
+			sos.acceptDuplicateProcedures();
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setMetricsRegistry(registry);
+
+			converter.insertOutputToSOS(DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL());
+			converter.insertOutputToSOS(DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL());
+		}
+
+		Map<String, Double> samples = registry.getSamples();
+
+		// counters accumulate over both insertions
+		assertEquals(16.0, samples.get("talsim_events_parsed_total"));
+		assertEquals(16.0, samples.get("talsim_observations_inserted_total"));
+		assertEquals(2.0, samples.get("talsim_sos_requests_total{type=\"INSERT_SENSOR\"}"));
+		assertEquals(16.0, samples.get("talsim_sos_requests_total{type=\"INSERT_OBSERVATION\"}"));
+		assertEquals(18.0, samples.get("talsim_sos_response_seconds_count"));
+		assertEquals(2.0, samples.get("talsim_insertions_total{outcome=\"succeeded\"}"));
+
+		// gauges are back to zero once the insertions have completed
+		assertEquals(0.0, samples.get("talsim_sos_requests_in_flight"));
+		assertEquals(0.0, samples.get("talsim_pending_observations"));
+		assertEquals(0.0, samples.get("talsim_insertions_running"));
+	}
+
+	public void testMetricsAreExposedViaJmx() throws Exception {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("talsim_test_total", "a test counter", "kind", "jmx").add(3);
+
+		ObjectName name = registry.registerMBean();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(3.0, server.getAttribute(name, "talsim_test_total{kind=\"jmx\"}"));
+		} finally {
+			registry.unregisterMBean();
+		}
+
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+	public void testMetricsAreServedInPrometheusFormat() throws Exception {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.counter("talsim_test_total", "a test counter").increment();
+		registry.registerGauge("talsim_test_queue_depth", "a test gauge", () -> 7, "endpoint", "a");
+		registry.histogram("talsim_test_seconds", "a test summary").record(2000000000L);
+
+		try (PrometheusEndpoint endpoint = new PrometheusEndpoint(registry, new InetSocketAddress(0))) {
+			HttpURLConnection connection = (HttpURLConnection) endpoint.getURL().openConnection();
+			assertEquals(200, connection.getResponseCode());
+			assertTrue(connection.getContentType().startsWith("text/plain"));
+
+			String body;
+			try (InputStream input = connection.getInputStream()) {
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+				input.transferTo(buffer);
+				body = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+			}
+
+			assertTrue(body.contains("# TYPE talsim_test_total counter\ntalsim_test_total 1\n"));
+			assertTrue(body.contains("talsim_test_queue_depth{endpoint=\"a\"} 7\n"));
+			assertTrue(body.contains("# TYPE talsim_test_seconds summary\n"));
+			assertTrue(body.contains("talsim_test_seconds_count 1\n"));
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+package n52.talsim_sos_converter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests the insertion of a TalsimResult containing several stations, two of
+ * them sharing a "stationName", against a {@link StubSos}, using qualified
+ * station identifiers.
+ */
+public class MultiStationInsertionTest extends TestCase {
+
+	/*
+	 * three stations: "Pegel" at two locations and "Bever-Talsperre", whose
+	 * water level is given in cm
+	 */
+	static final String MULTI_STATION_TALSIM_RESULT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<TimeSeries xmlns=\"http://www.wldelft.nl/fews/PI\" version=\"1.2\"><timeZone>0.0</timeZone>"
+			+ DataAvailabilityReconciliationTest.createSeries("PWUP", "Pegel", "1ZU", "m3/s")
+			+ DataAvailabilityReconciliationTest.createSeries("PBEV", "Pegel", "1ZU", "m3/s")
+			+ DataAvailabilityReconciliationTest.createSeries("TBEV", "Bever-Talsperre", "1ZU", "m3/s")
+			+ DataAvailabilityReconciliationTest.createSeries("TBEV", "Bever-Talsperre", "WSP", "cm")
+			+ "</TimeSeries>";
+
+	private Path talsimFile;
+
+	public MultiStationInsertionTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(MultiStationInsertionTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		talsimFile = Files.createTempFile("multiStation", ".xml");
+		Files.write(talsimFile, MULTI_STATION_TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.deleteIfExists(talsimFile);
+	}
+
+	public void testEachStationIsRegisteredOnce() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setQualifiedStationIdentifiers(true);
+
+			// the headers of the file are read in advance, so each station declares all its series
+			IngestionReport report = converter.insertOutputToSOS(talsimFile, sos.getURL());
+
+			// the stub rejects duplicate procedures
+			assertEquals(3, sos.getInsertSensorRequests());
+			assertEquals(0, sos.getRejectedInsertSensorRequests());
+			assertEquals(new HashSet<String>(Arrays.asList("Pegel_PWUP", "Pegel_PBEV", "Bever-Talsperre_TBEV")),
+					sos.getProcedures());
+			assertEquals(4 * 4, report.getNumberOfInsertedObservations());
+
+			// the units of the series, not the default units
+			String insertSensorRequest = sos.getInsertSensorRequest("Bever-Talsperre_TBEV");
+			assertTrue(insertSensorRequest, insertSensorRequest.contains("<swe:uom code=\"cm\"/>"));
+			assertFalse(insertSensorRequest, insertSensorRequest.contains("<swe:uom code=\"mNN\"/>"));
+
+			// each station has an offering of its own
+			assertTrue(insertSensorRequest, insertSensorRequest.contains("TalsimResult_TBEV"));
+		}
+	}
+
+	public void testStationLanesRunIndependently() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try (StubSos sos = new StubSos()) {
+			sos.setResponseDelayMillis(20);
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setQualifiedStationIdentifiers(true);
+
+			converter.insertOutputToSOSAsync(talsimFile, sos.getURL(), executor, IngestionProgressListener.NONE).get();
+
+			// the requests of different stations overlap, those of a station never do
+			assertEquals(3 + 4 * 4, sos.getInsertSensorRequests() + sos.getInsertObservationRequests());
+			assertTrue(String.valueOf(sos.getMaxConcurrentRequests()), sos.getMaxConcurrentRequests() > 1);
+			assertTrue(String.valueOf(sos.getMaxConcurrentRequests()), sos.getMaxConcurrentRequests() <= 3);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
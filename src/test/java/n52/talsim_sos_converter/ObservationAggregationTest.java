@@ -0,0 +1,116 @@
+package n52.talsim_sos_converter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.ObservationAggregation;
+import n52.talsim_sos_converter.helper.ObservationAggregation.Aggregate;
+import n52.talsim_sos_converter.helper.ObservationAggregation.SeriesAggregator;
+import n52.talsim_sos_converter.helper.TalsimObservation;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+import n52.talsim_sos_converter.helper.TalsimStation;
+
+/**
+ * Tests the downsampling of series by {@link ObservationAggregation}, alone
+ * and within an insertion against a {@link StubSos}.
+ */
+public class ObservationAggregationTest extends TestCase {
+
+	private final TalsimSeriesHeader header = new TalsimSeriesHeader(1, "0.0", "instantaneous", "TBEV", "1ZU",
+			"second", "900", "2014-02-10", "00:00:00", "2014-02-10", "01:45:00", "-9999.9990", "Bever-Talsperre",
+			"m3/s");
+
+	public ObservationAggregationTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ObservationAggregationTest.class);
+	}
+
+	public void testSeriesIsAggregatedHourly() {
+		ObservationAggregation aggregation = new ObservationAggregation(4, Aggregate.MEAN, Aggregate.MIN,
+				Aggregate.MAX);
+		SeriesAggregator aggregator = aggregation.forSeries(header);
+
+		String[] values = { "1.0", "2.0", "-9999.999", "3.0", "10.0", "20.0", "30.0", "40.0" };
+
+		for (int i = 0; i < 4; i++)
+			assertTrue(aggregator.accept(observation(i, values[i])).isEmpty());
+
+		// the first event of the next hour completes the first hour
+		List<TalsimObservation> firstHour = aggregator.accept(observation(4, values[4]));
+		assertEquals(3, firstHour.size());
+		assertEquals("2.0", firstHour.get(0).getValue());
+		assertEquals("1.0", firstHour.get(1).getValue());
+		assertEquals("3.0", firstHour.get(2).getValue());
+		assertEquals("00:00:00", firstHour.get(0).getTime());
+
+		for (int i = 5; i < values.length; i++)
+			assertTrue(aggregator.accept(observation(i, values[i])).isEmpty());
+
+		List<TalsimObservation> secondHour = aggregator.complete();
+		assertEquals("25.0", secondHour.get(0).getValue());
+		assertEquals("01:00:00", secondHour.get(0).getTime());
+		assertEquals(1, secondHour.get(0).getEventIndex());
+
+		// each aggregate is a series with a procedure and offering of its own
+		TalsimSeriesHeader meanHeader = secondHour.get(0).getHeader();
+		assertEquals("Bever-Talsperre_PT1H_mean", TalsimStation.of(meanHeader).getProcedureIdentifier());
+		assertEquals("TalsimResult_TBEV_PT1H_mean", TalsimStation.of(meanHeader, true).getOfferingIdentifier());
+		assertEquals("3600", meanHeader.getTimeStepMultiplier());
+		assertEquals(3, meanHeader.getSeriesIndex());
+	}
+
+	public void testAggregatedSeriesAreInserted() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try (StubSos sos = new StubSos()) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setAggregation(new ObservationAggregation(2, Aggregate.MEAN, Aggregate.MAX));
+
+			Map<String, String> insertedValues = new ConcurrentHashMap<String, String>();
+			IngestionProgressListener listener = new IngestionProgressListener() {
+				@Override
+				public void onObservationInserted(TalsimObservation observation) {
+					insertedValues.put(TalsimStation.of(observation.getHeader()).getProcedureIdentifier() + " "
+							+ observation.getHeader().getParameterId() + " " + observation.getTime(),
+							observation.getValue());
+				}
+			};
+
+			IngestionReport report = converter.insertOutputToSOSAsync(
+					DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL(), executor, listener).get();
+
+			// 2 series with 4 events each, aggregated half-hourly: 2 cells x 2 aggregates per series
+			assertEquals(4, report.getNumberOfSeries());
+			assertEquals(8, sos.getInsertObservationRequests());
+			assertEquals(2, sos.getInsertSensorRequests());
+
+			Map<String, String> expectedValues = new TreeMap<String, String>();
+			for (String parameterId : new String[] { "1ZU", "WSP" }) {
+				expectedValues.put("Bever-Talsperre_PT30M_mean " + parameterId + " 00:00:00", "1.5");
+				expectedValues.put("Bever-Talsperre_PT30M_mean " + parameterId + " 00:30:00", "3.5");
+				expectedValues.put("Bever-Talsperre_PT30M_max " + parameterId + " 00:00:00", "2.0");
+				expectedValues.put("Bever-Talsperre_PT30M_max " + parameterId + " 00:30:00", "4.0");
+			}
+			assertEquals(expectedValues, new TreeMap<String, String>(insertedValues));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private TalsimObservation observation(int eventIndex, String value) {
+		return new TalsimObservation(header, eventIndex, "2014-02-10",
+				String.format("%02d:%02d:00", eventIndex / 4, eventIndex % 4 * 15), value);
+	}
+
+}
@@ -0,0 +1,87 @@
+package n52.talsim_sos_converter;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.TalsimObservation;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+
+/**
+ * Unit test for the rate-limited {@link ProgressReporter}.
+ */
+public class ProgressReporterTest extends TestCase {
+
+	public ProgressReporterTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ProgressReporterTest.class);
+	}
+
+	public void testNumberOfEventsIsEstimatedFromHeader() {
+		// one day at 15 minute intervals
+		assertEquals(96, ProgressReporter.estimateNumberOfEvents(createHeader(0, "1ZU", "second", "900")));
+		assertEquals(24, ProgressReporter.estimateNumberOfEvents(createHeader(0, "1ZU", "hour", "1")));
+		assertEquals(0, ProgressReporter.estimateNumberOfEvents(createHeader(0, "1ZU", "fortnight", "1")));
+	}
+
+	public void testPercentDoneOfSeriesAndTalsimResult() {
+		TalsimSeriesHeader inflow = createHeader(0, "1ZU", "second", "900");
+		TalsimSeriesHeader waterLevel = createHeader(1, "WSP", "second", "900");
+
+		AtomicInteger forwardedObservations = new AtomicInteger();
+		IngestionProgressListener delegate = new IngestionProgressListener() {
+			@Override
+			public void onObservationInserted(TalsimObservation observation) {
+				forwardedObservations.incrementAndGet();
+			}
+		};
+
+		ProgressReporter reporter = new ProgressReporter(delegate, 60000, Arrays.asList(inflow, waterLevel));
+		assertEquals(0.0, reporter.getPercentDone());
+
+		reporter.onSeriesStarted(inflow);
+		for (int i = 0; i < 48; i++)
+			reporter.onObservationInserted(new TalsimObservation(inflow, i, "2014-02-10", "00:00:00", "0.1"));
+
+		assertEquals(48, forwardedObservations.get());
+		assertEquals(50.0, reporter.getPercentDone(inflow));
+		assertEquals(25.0, reporter.getPercentDone());
+		assertEquals(-1.0, reporter.getPercentDone(waterLevel));
+
+		String progress = reporter.formatProgress(System.nanoTime());
+		assertTrue(progress, progress.startsWith("Inserted 48 observations, 25.0% of 192 done"));
+		assertTrue(progress, progress.contains("Running series: TBEV/1ZU 50.0%"));
+
+		// the remaining events of the series were filtered
+		reporter.onSeriesCompleted(inflow);
+		assertEquals(50.0, reporter.getPercentDone());
+		assertFalse(reporter.formatProgress(System.nanoTime()).contains("Running series"));
+	}
+
+	public void testSeriesNotKnownInAdvanceAreCountedWhenStarted() {
+		TalsimSeriesHeader inflow = createHeader(0, "1ZU", "hour", "1");
+
+		ProgressReporter reporter = new ProgressReporter(null, 60000, null);
+		reporter.onSeriesStarted(inflow);
+		for (int i = 0; i < 6; i++)
+			reporter.onObservationInserted(new TalsimObservation(inflow, i, "2014-02-10", "00:00:00", "0.1"));
+
+		assertEquals(25.0, reporter.getPercentDone());
+
+		reporter.onSeriesCompleted(inflow);
+		assertEquals(100.0, reporter.getPercentDone());
+	}
+
+	private static TalsimSeriesHeader createHeader(int seriesIndex, String parameterId, String timeStepUnit,
+			String timeStepMultiplier) {
+		return new TalsimSeriesHeader(seriesIndex, "0.0", "instantaneous", "TBEV", parameterId, timeStepUnit,
+				timeStepMultiplier, "2014-02-10", "00:00:00", "2014-02-10", "23:45:00", "-9999.999", "Bever-Talsperre",
+				"m3/s");
+	}
+
+}
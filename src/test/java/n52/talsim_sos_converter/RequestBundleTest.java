@@ -0,0 +1,91 @@
+package n52.talsim_sos_converter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.RequestBundleReplayer;
+import n52.talsim_sos_converter.helper.RequestBundleWriter;
+
+/**
+ * Tests writing a request bundle with {@link RequestBundleWriter} and
+ * replaying it with {@link RequestBundleReplayer} against a {@link StubSos}.
+ */
+public class RequestBundleTest extends TestCase {
+
+	private Path bundleFile;
+
+	public RequestBundleTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(RequestBundleTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		bundleFile = Files.createTempFile("talsim", ".bundle");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.deleteIfExists(bundleFile);
+	}
+
+	public void testBundleIsReplayedConcurrently() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+
+			try (RequestBundleWriter writer = new RequestBundleWriter(bundleFile)) {
+				// no authorization token is needed to write a bundle
+				converter.setRequestSink(writer);
+				converter.insertOutputToSOS(DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL());
+
+				assertEquals(1 + 8, writer.getNumberOfRequests());
+			}
+			assertEquals(0, sos.getInsertSensorRequests() + sos.getInsertObservationRequests());
+
+			RequestBundleReplayer replayer = new RequestBundleReplayer(bundleFile, sos.getURL(), "test", 4);
+			assertTrue(replayer.replay());
+
+			assertEquals(1 + 8, replayer.getNumberOfDeliveredRequests());
+			assertEquals(1, sos.getInsertSensorRequests());
+			assertEquals(8, sos.getInsertObservationRequests());
+		}
+	}
+
+	public void testRecordWithNegativeLengthIsRejected() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+
+			try (RequestBundleWriter writer = new RequestBundleWriter(bundleFile)) {
+				converter.setRequestSink(writer);
+				converter.insertOutputToSOS(DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL());
+			}
+
+			// overwrite the length of the first record
+			try (FileChannel channel = FileChannel.open(bundleFile, StandardOpenOption.WRITE)) {
+				ByteBuffer length = ByteBuffer.allocate(4).putInt(-1);
+				length.flip();
+				channel.write(length, RequestBundleWriter.MAGIC.length());
+			}
+
+			RequestBundleReplayer replayer = new RequestBundleReplayer(bundleFile, sos.getURL(), "test", 4);
+			try {
+				replayer.replay();
+				fail("corrupt record has not been detected");
+			} catch (IOException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("corrupt record at byte 8"));
+			}
+			assertEquals(0, sos.getInsertSensorRequests() + sos.getInsertObservationRequests());
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package n52.talsim_sos_converter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.RequestSpool;
+import n52.talsim_sos_converter.helper.SpoolDrainer;
+
+/**
+ * Tests the store-and-forward delivery via {@link RequestSpool} and
+ * {@link SpoolDrainer} against a {@link StubSos}.
+ */
+public class RequestSpoolTest extends TestCase {
+
+	private Path spoolDirectory;
+
+	public RequestSpoolTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(RequestSpoolTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		spoolDirectory = Files.createTempDirectory("spool");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(spoolDirectory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	public void testSpooledRequestsAreDeliveredInBackground() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			// small segments, so that several segments are written and deleted
+			RequestSpool spool = new RequestSpool(spoolDirectory, 8 * 1024);
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setRequestSink(spool);
+
+			// the SOS instance is not contacted while converting
+			converter.insertOutputToSOS(DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL());
+			assertEquals(0, sos.getInsertObservationRequests());
+			assertTrue(listSegments().length > 1);
+
+			try (SpoolDrainer drainer = new SpoolDrainer(spool, sos.getURL(), "test")) {
+				drainer.start();
+				assertTrue(drainer.awaitDrained(10000));
+
+				assertEquals(1 + 8, drainer.getNumberOfDeliveredRequests());
+				assertEquals(1, sos.getInsertSensorRequests());
+				assertEquals(8, sos.getInsertObservationRequests());
+			}
+
+			// delivered segments are deleted, only the active one remains
+			assertEquals(1, listSegments().length);
+			spool.close();
+		}
+	}
+
+	public void testTransientClientErrorsAreRetried() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			RequestSpool spool = new RequestSpool(spoolDirectory, 8 * 1024);
+
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setRequestSink(spool);
+			converter.insertOutputToSOS(DataAvailabilityReconciliationTest.openTalsimResult(), sos.getURL());
+
+			// rate limited and an expired authorization, neither may drop a request
+			sos.respondWithStatus(429, 1);
+			try (SpoolDrainer drainer = new SpoolDrainer(spool, sos.getURL(), "test")) {
+				drainer.start();
+				Thread.sleep(100);
+				sos.respondWithStatus(401, 1);
+				assertTrue(drainer.awaitDrained(10000));
+
+				assertEquals(1 + 8, drainer.getNumberOfDeliveredRequests());
+				assertEquals(0, drainer.getNumberOfRejectedRequests());
+				assertEquals(1, sos.getInsertSensorRequests());
+				assertEquals(8, sos.getInsertObservationRequests());
+			}
+			spool.close();
+		}
+	}
+
+	private Object[] listSegments() throws Exception {
+		try (Stream<Path> files = Files.list(spoolDirectory)) {
+			return files.filter(file -> file.toString().endsWith(".spool") && file.toFile().length() > 0).toArray();
+		}
+	}
+
+}
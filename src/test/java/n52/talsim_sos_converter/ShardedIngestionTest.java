@@ -0,0 +1,172 @@
+package n52.talsim_sos_converter;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.LeaseDirectory;
+import n52.talsim_sos_converter.helper.LeaseDirectory.Lease;
+import n52.talsim_sos_converter.helper.TalsimSeriesHeader;
+import n52.talsim_sos_converter.helper.TalsimStation;
+import n52.talsim_sos_converter.helper.TalsimStreamReader;
+
+/**
+ * Tests several {@link ShardedIngestion} workers sharing a
+ * {@link LeaseDirectory}.
+ */
+public class ShardedIngestionTest extends TestCase {
+
+	private static final long LEASE_DURATION_MILLIS = 2000;
+
+	private Path directory;
+	private Path leases;
+	private ExecutorService executor;
+
+	public ShardedIngestionTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(ShardedIngestionTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("shardedIngestion");
+		leases = directory.resolve("leases");
+		executor = Executors.newFixedThreadPool(8);
+
+		for (int i = 0; i < 6; i++)
+			Files.write(directory.resolve("result" + i + ".xml"),
+					DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	public void testWorkersSplitFiles() throws Exception {
+		try (StubSos sos = new StubSos()) {
+			// all files contain the same station
+			sos.acceptDuplicateProcedures();
+			sos.setResponseDelayMillis(5);
+
+			CompletableFuture<BatchReport> first = startWorker(sos, "worker1");
+			CompletableFuture<BatchReport> second = startWorker(sos, "worker2");
+
+			BatchReport firstReport = first.get();
+			BatchReport secondReport = second.get();
+
+			// each file is inserted exactly once
+			assertEquals(6, firstReport.getReports().size() + secondReport.getReports().size());
+			assertEquals(6 * 8, sos.getInsertObservationRequests());
+
+			// all files contain the same station, so they are never inserted concurrently
+			assertTrue(firstReport.isSuccessful() && secondReport.isSuccessful());
+		}
+	}
+
+	public void testStationHeldByOtherWorkerIsNotInserted() throws Exception {
+		LeaseDirectory otherWorker = new LeaseDirectory(leases, "other", LEASE_DURATION_MILLIS);
+		Lease stationLease = otherWorker.tryAcquire("station-" + getProcedureIdentifier());
+		assertNotNull(stationLease);
+
+		try (StubSos sos = new StubSos()) {
+			// all files contain the same station
+			sos.acceptDuplicateProcedures();
+			CompletableFuture<BatchReport> worker = startWorker(sos, "worker");
+
+			Thread.sleep(300);
+			assertEquals(0, sos.getInsertObservationRequests());
+			assertFalse(worker.isDone());
+
+			stationLease.close();
+
+			assertEquals(6, worker.get().getReports().size());
+			assertEquals(6 * 8, sos.getInsertObservationRequests());
+		}
+	}
+
+	public void testExpiredLeaseIsTakenOver() throws Exception {
+		LeaseDirectory crashedWorker = new LeaseDirectory(leases, "crashed", LEASE_DURATION_MILLIS);
+		assertNotNull(crashedWorker.tryAcquire("file-result0.xml"));
+
+		LeaseDirectory otherWorker = new LeaseDirectory(leases, "other", LEASE_DURATION_MILLIS);
+		assertNull(otherWorker.tryAcquire("file-result0.xml"));
+
+		// the crashed worker did not renew its lease
+		Files.setLastModifiedTime(leases.resolve("file-result0.xml.lease"),
+				FileTime.fromMillis(System.currentTimeMillis() - 2 * LEASE_DURATION_MILLIS));
+
+		try (StubSos sos = new StubSos()) {
+			// all files contain the same station
+			sos.acceptDuplicateProcedures();
+			BatchReport report = startWorker(sos, "worker").get();
+
+			assertEquals(6, report.getReports().size());
+			assertTrue(report.getReports().containsKey(directory.resolve("result0.xml")));
+		}
+	}
+
+	public void testLostLeaseIsDetectedOnRenewal() throws Exception {
+		LeaseDirectory slowWorker = new LeaseDirectory(leases, "slow", LEASE_DURATION_MILLIS);
+		Lease lostLease = slowWorker.tryAcquire("file-result0.xml");
+		assertNotNull(lostLease);
+
+		// the slow worker did not renew its lease in time
+		Files.setLastModifiedTime(leases.resolve("file-result0.xml.lease"),
+				FileTime.fromMillis(System.currentTimeMillis() - 2 * LEASE_DURATION_MILLIS));
+
+		LeaseDirectory otherWorker = new LeaseDirectory(leases, "other", LEASE_DURATION_MILLIS);
+		Lease lease = otherWorker.tryAcquire("file-result0.xml");
+		assertNotNull(lease);
+
+		assertFalse(lostLease.renew());
+
+		// releasing the lost lease does not release the lease of the other worker
+		lostLease.close();
+		assertTrue(lease.renew());
+		assertNull(slowWorker.tryAcquire("file-result0.xml"));
+		lease.close();
+	}
+
+	private CompletableFuture<BatchReport> startWorker(StubSos sos, String workerId) throws Exception {
+		TalsimSosConverter converter = new TalsimSosConverter();
+		converter.setAuthorizationToken("test");
+
+		ShardedIngestion worker = new ShardedIngestion(converter, sos.getURL(), executor,
+				new LeaseDirectory(leases, workerId, LEASE_DURATION_MILLIS));
+		worker.setPollIntervalMillis(20);
+
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return worker.insert(directory, BatchIngestion.DEFAULT_GLOB);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+	}
+
+	private String getProcedureIdentifier() throws Exception {
+		try (InputStream talsimOutput = Files.newInputStream(directory.resolve("result0.xml"))) {
+			List<TalsimSeriesHeader> headers = TalsimStreamReader.readAllHeaders(talsimOutput);
+			return TalsimStation.of(headers.get(0)).getProcedureIdentifier();
+		}
+	}
+
+}
@@ -0,0 +1,161 @@
+package n52.talsim_sos_converter;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.SensorRegistry;
+import n52.talsim_sos_converter.helper.SosFanOut;
+import n52.talsim_sos_converter.helper.SosFanOut.Endpoint;
+
+/**
+ * Tests the delivery of a single insertion to several {@link StubSos}
+ * instances via {@link SosFanOut}.
+ */
+public class SosFanOutTest extends TestCase {
+
+	private Path directory;
+
+	public SosFanOutTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(SosFanOutTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("fanOut");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	public void testUnavailableMirrorDoesNotHoldUpPrimaryNorLoseRequests() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try (StubSos primary = new StubSos(); StubSos mirror = new StubSos()) {
+			// a SOS instance that is not running
+			URL unavailableURL;
+			try (StubSos stopped = new StubSos()) {
+				unavailableURL = stopped.getURL();
+			}
+
+			try (SosFanOut fanOut = new SosFanOut()) {
+				Endpoint mirrorEndpoint = fanOut.addEndpoint(mirror.getURL(), "mirrorToken",
+						directory.resolve("mirror"));
+				Endpoint unavailableEndpoint = fanOut.addEndpoint(unavailableURL, "token",
+						directory.resolve("unavailable"));
+
+				TalsimSosConverter converter = new TalsimSosConverter();
+				converter.setAuthorizationToken("test");
+				converter.setFanOut(fanOut);
+
+				IngestionReport report = converter.insertOutputToSOSAsync(
+						DataAvailabilityReconciliationTest.openTalsimResult(), primary.getURL(), executor,
+						IngestionProgressListener.NONE).get();
+
+				// the insertion completed although the unavailable mirror has not received anything
+				assertEquals(8, report.getNumberOfInsertedObservations());
+				assertEquals(8, primary.getInsertObservationRequests());
+				assertEquals(0, unavailableEndpoint.getNumberOfDeliveredRequests());
+				assertTrue(unavailableEndpoint.getBacklogBytes() > 0);
+
+				assertTrue(mirrorEndpoint.awaitDelivered(10000));
+				assertEquals(1, mirror.getInsertSensorRequests());
+				assertEquals(8, mirror.getInsertObservationRequests());
+				assertEquals(9, mirrorEndpoint.getNumberOfDeliveredRequests());
+				assertEquals(0, mirrorEndpoint.getBacklogBytes());
+			}
+
+			// the requests wait in the spool until the mirror is available again
+			try (StubSos recovered = new StubSos(); SosFanOut fanOut = new SosFanOut()) {
+				Endpoint recoveredEndpoint = fanOut.addEndpoint(recovered.getURL(), "token",
+						directory.resolve("unavailable"));
+
+				assertTrue(fanOut.awaitDelivered(10000));
+				assertEquals(1, recovered.getInsertSensorRequests());
+				assertEquals(8, recovered.getInsertObservationRequests());
+				assertEquals(9, recoveredEndpoint.getNumberOfDeliveredRequests());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testMirrorsReceiveInsertSensorRequestOnce() throws Exception {
+		Path talsimFile = Files.write(directory.resolve("TalsimResult.xml"),
+				DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+
+		try (StubSos primary = new StubSos(); StubSos mirror = new StubSos()) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setSensorRegistry(new SensorRegistry(directory.resolve("sensors.registry")));
+
+			// the station is registered before the mirror is added
+			converter.insertOutputToSOS(talsimFile, primary.getURL());
+
+			for (int run = 0; run < 2; run++) {
+				try (SosFanOut fanOut = new SosFanOut()) {
+					fanOut.addEndpoint(mirror.getURL(), "mirrorToken", directory.resolve("mirror"));
+					converter.setFanOut(fanOut);
+
+					converter.insertOutputToSOS(talsimFile, primary.getURL());
+					assertTrue(fanOut.awaitDelivered(10000));
+				}
+			}
+
+			assertEquals(1, primary.getInsertSensorRequests());
+			assertEquals(1, mirror.getInsertSensorRequests());
+			assertEquals(0, mirror.getRejectedInsertSensorRequests());
+			assertEquals(2 * 8, mirror.getInsertObservationRequests());
+		}
+	}
+
+	public void testStationOfInterruptedRunIsSentToMirrors() throws Exception {
+		Path talsimFile = Files.write(directory.resolve("TalsimResult.xml"),
+				DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+
+		try (StubSos primary = new StubSos(); StubSos mirror = new StubSos()) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+			converter.setJournalDirectory(directory.resolve("journals"));
+
+			// the station is registered by a run that fails before the mirror is added
+			primary.failInsertObservationRequestsFrom(5);
+			try {
+				converter.insertOutputToSOS(talsimFile, primary.getURL());
+				fail("insertion should fail");
+			} catch (Exception e) {
+				// expected
+			}
+			primary.failInsertObservationRequestsFrom(Integer.MAX_VALUE);
+
+			try (SosFanOut fanOut = new SosFanOut()) {
+				fanOut.addEndpoint(mirror.getURL(), "mirrorToken", directory.resolve("mirror"));
+				converter.setFanOut(fanOut);
+
+				converter.insertOutputToSOS(talsimFile, primary.getURL());
+				assertTrue(fanOut.awaitDelivered(10000));
+			}
+
+			assertEquals(1, primary.getInsertSensorRequests());
+			assertEquals(1, mirror.getInsertSensorRequests());
+			assertEquals(4, mirror.getInsertObservationRequests());
+		}
+	}
+
+}
@@ -0,0 +1,369 @@
+package n52.talsim_sos_converter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stand-in for a transactional SOS instance (SOS-T) on the JDK HTTP server,
+ * used by the tests and by the load test of the benchmarks module (shipped as
+ * test-jar). It answers InsertSensor, InsertObservation and
+ * GetDataAvailability requests with responses like those of the
+ * 52&deg;North SOS, counts them and simulates
+ * <ul>
+ * <li>the registration of procedures: like the 52&deg;North SOS, a second
+ * InsertSensor request for an already registered procedure is rejected with
+ * an ExceptionReport, unless {@link #acceptDuplicateProcedures()} is
+ * called</li>
+ * <li>the processing time of a request: a fixed delay plus a uniformly
+ * distributed jitter</li>
+ * <li>failures: a share of the requests, the InsertObservation requests from
+ * a given one on or the next requests with a given HTTP status</li>
+ * <li>a limited number of worker threads: further requests wait in the queue
+ * of the server, like in a servlet container</li>
+ * </ul>
+ * The behaviour may be changed while the server is running.
+ */
+public class StubSos implements AutoCloseable {
+
+	public static final String PATH = "/sos/service";
+
+	private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+	private static final Pattern PROCEDURE_IDENTIFIER = Pattern
+			.compile("uniqueID\">\\s*<sml:Term[^>]*>\\s*<sml:value>([^<]*)</sml:value>");
+	private static final Pattern OFFERING_IDENTIFIER = Pattern.compile("<swe:value>([^<]*)</swe:value>");
+
+	private final HttpServer server;
+	private final ExecutorService workers;
+
+	private final AtomicInteger insertSensorRequests = new AtomicInteger();
+	private final AtomicInteger rejectedInsertSensorRequests = new AtomicInteger();
+	private final Map<String, String> procedures = new ConcurrentHashMap<String, String>();
+	private final AtomicInteger insertObservationRequests = new AtomicInteger();
+	private final AtomicInteger getDataAvailabilityRequests = new AtomicInteger();
+	private final AtomicInteger exceptionReports = new AtomicInteger();
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	private volatile int failingInsertObservationRequest = Integer.MAX_VALUE;
+	private volatile long responseDelayMillis = 0;
+	private volatile long responseDelayJitterMillis = 0;
+	private volatile double errorRate = 0;
+	private volatile boolean acceptDuplicateProcedures = false;
+
+	private final AtomicInteger remainingStatusResponses = new AtomicInteger();
+	private volatile int statusResponse = 200;
+
+	private final AtomicInteger concurrentRequests = new AtomicInteger();
+	private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+
+	/*
+	 * observable property -> [begin, end] of the available observations
+	 */
+	private final Map<String, String[]> dataAvailability = new ConcurrentHashMap<String, String[]>();
+
+	/**
+	 * Starts a stub SOS instance handling each request on its own thread.
+	 */
+	public StubSos() throws IOException {
+		this(0);
+	}
+
+	/**
+	 * Starts a stub SOS instance listening on a free port of the loopback
+	 * interface.
+	 *
+	 * @param workerThreads
+	 *            the number of requests handled at the same time, or 0 for
+	 *            no limit
+	 */
+	public StubSos(int workerThreads) throws IOException {
+		/*
+		 * without TCP_NODELAY, the response is delayed by about 40 ms by
+		 * Nagle's algorithm and delayed ACKs, which would dominate the
+		 * response times; read once by the first HttpServer of the JVM
+		 */
+		if (System.getProperty(NODELAY_PROPERTY) == null)
+			System.setProperty(NODELAY_PROPERTY, "true");
+
+		workers = workerThreads > 0 ? Executors.newFixedThreadPool(workerThreads) : Executors.newCachedThreadPool();
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext(PATH, this::handle);
+		server.setExecutor(workers);
+		server.start();
+	}
+
+	public URL getURL() throws IOException {
+		return new URL("http", "localhost", server.getAddress().getPort(), PATH);
+	}
+
+	public void setDataAvailability(String observableProperty, String begin, String end) {
+		dataAvailability.put(observableProperty, new String[] { begin, end });
+	}
+
+	/**
+	 * Lets the n-th (1-based) and all subsequent InsertObservation requests
+	 * fail.
+	 */
+	public void failInsertObservationRequestsFrom(int n) {
+		failingInsertObservationRequest = n;
+	}
+
+	/**
+	 * Accepts the InsertSensor request of an already registered procedure,
+	 * for tests that insert the same TalsimResult several times without
+	 * tracking the registered stations.
+	 */
+	public void acceptDuplicateProcedures() {
+		acceptDuplicateProcedures = true;
+	}
+
+	/**
+	 * Answers the next n requests with the given HTTP status and an empty
+	 * body, e.g. 429 to simulate rate limiting.
+	 */
+	public void respondWithStatus(int status, int n) {
+		statusResponse = status;
+		remainingStatusResponses.set(n);
+	}
+
+	/**
+	 * Delays each response, e.g. to let requests overlap.
+	 */
+	public void setResponseDelayMillis(long responseDelayMillis) {
+		setResponseDelay(responseDelayMillis, 0);
+	}
+
+	/**
+	 * @param delayMillis
+	 *            the minimum processing time of a request (default 0)
+	 * @param jitterMillis
+	 *            the maximum additional processing time of a request
+	 *            (default 0)
+	 */
+	public void setResponseDelay(long delayMillis, long jitterMillis) {
+		this.responseDelayMillis = delayMillis;
+		this.responseDelayJitterMillis = jitterMillis;
+	}
+
+	/**
+	 * @param errorRate
+	 *            the share of the requests in [0, 1] that are answered with
+	 *            an ExceptionReport and HTTP status 500 (default 0)
+	 */
+	public void setErrorRate(double errorRate) {
+		if (errorRate < 0 || errorRate > 1)
+			throw new IllegalArgumentException("errorRate must be within [0, 1]");
+
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * @return the maximum number of requests handled at the same time
+	 */
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests.get();
+	}
+
+	public int getInsertSensorRequests() {
+		return insertSensorRequests.get();
+	}
+
+	/**
+	 * @return the number of InsertSensor requests rejected as their procedure
+	 *         had already been registered
+	 */
+	public int getRejectedInsertSensorRequests() {
+		return rejectedInsertSensorRequests.get();
+	}
+
+	/**
+	 * @return the identifiers of the registered procedures
+	 */
+	public Set<String> getProcedures() {
+		return procedures.keySet();
+	}
+
+	/**
+	 * @return the accepted InsertSensor request of the procedure, or
+	 *         {@code null} if it is not registered
+	 */
+	public String getInsertSensorRequest(String procedure) {
+		return procedures.get(procedure);
+	}
+
+	public int getInsertObservationRequests() {
+		return insertObservationRequests.get();
+	}
+
+	public int getGetDataAvailabilityRequests() {
+		return getDataAvailabilityRequests.get();
+	}
+
+	/**
+	 * @return the number of requests answered with an ExceptionReport
+	 */
+	public int getExceptionReports() {
+		return exceptionReports.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		maxConcurrentRequests.accumulateAndGet(concurrentRequests.incrementAndGet(), Math::max);
+		try {
+			String request = readBody(exchange.getRequestBody());
+			simulateProcessingTime();
+			handleRequest(exchange, request);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			concurrentRequests.decrementAndGet();
+			exchange.close();
+		}
+	}
+
+	private void simulateProcessingTime() throws InterruptedException {
+		long millis = responseDelayMillis;
+		if (responseDelayJitterMillis > 0)
+			millis += ThreadLocalRandom.current().nextLong(responseDelayJitterMillis + 1);
+
+		if (millis > 0)
+			Thread.sleep(millis);
+	}
+
+	private void handleRequest(HttpExchange exchange, String request) throws IOException {
+		if (remainingStatusResponses.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+			respond(exchange, statusResponse, "");
+			return;
+		}
+
+		if (!"POST".equals(exchange.getRequestMethod())) {
+			respondException(exchange, 400, "OperationNotSupported", null, "Only POST requests are supported.");
+
+		} else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+			respondException(exchange, 500, "NoApplicableCode", null, "Simulated failure of the stub SOS instance.");
+
+		} else if (request.contains("InsertSensor")) {
+			insertSensorRequests.incrementAndGet();
+			respondInsertSensor(exchange, request);
+
+		} else if (request.contains("InsertObservation")) {
+			if (insertObservationRequests.incrementAndGet() >= failingInsertObservationRequest)
+				respondException(exchange, 400, "NoApplicableCode", null,
+						"The observation could not be inserted.");
+			else
+				respond(exchange, 200, "<sos:InsertObservationResponse xmlns:sos=\"http://www.opengis.net/sos/2.0\"/>");
+
+		} else if (request.contains("GetDataAvailability")) {
+			getDataAvailabilityRequests.incrementAndGet();
+			respondDataAvailability(exchange, request);
+
+		} else {
+			respondException(exchange, 400, "OperationNotSupported", "request",
+					"The requested operation is not supported.");
+		}
+	}
+
+	private void respondInsertSensor(HttpExchange exchange, String request) throws IOException {
+		Matcher procedure = PROCEDURE_IDENTIFIER.matcher(request);
+		if (!procedure.find()) {
+			respondException(exchange, 400, "MissingParameterValue", "procedureIdentifier",
+					"The request does not contain a procedure identifier.");
+			return;
+		}
+		String identifier = procedure.group(1).trim();
+
+		if (procedures.putIfAbsent(identifier, request) != null && !acceptDuplicateProcedures) {
+			rejectedInsertSensorRequests.incrementAndGet();
+			respondException(exchange, 400, "InvalidParameterValue", "procedureIdentifier",
+					"The procedure with the identifier '" + identifier + "' is already registered at this service.");
+			return;
+		}
+
+		Matcher offering = OFFERING_IDENTIFIER.matcher(request);
+		respond(exchange, 200, "<swes:InsertSensorResponse xmlns:swes=\"http://www.opengis.net/swes/2.0\">"
+				+ "<swes:assignedProcedure>" + identifier + "</swes:assignedProcedure>"
+				+ (offering.find() ? "<swes:assignedOffering>" + offering.group(1).trim() + "</swes:assignedOffering>"
+						: "")
+				+ "</swes:InsertSensorResponse>");
+	}
+
+	private void respondDataAvailability(HttpExchange exchange, String request) throws IOException {
+		for (Map.Entry<String, String[]> entry : dataAvailability.entrySet()) {
+			if (request.contains(">" + entry.getKey() + "<")) {
+				respond(exchange, 200, "<gda:GetDataAvailabilityResponse xmlns:gda=\"http://www.opengis.net/sosgda/1.0\""
+						+ " xmlns:gml=\"http://www.opengis.net/gml/3.2\"><gda:dataAvailabilityMember>"
+						+ "<gda:phenomenonTime><gml:TimePeriod><gml:beginPosition>" + entry.getValue()[0]
+						+ "</gml:beginPosition><gml:endPosition>" + entry.getValue()[1]
+						+ "</gml:endPosition></gml:TimePeriod></gda:phenomenonTime>"
+						+ "</gda:dataAvailabilityMember></gda:GetDataAvailabilityResponse>");
+				return;
+			}
+		}
+
+		// unknown procedure/observable property, like a real SOS instance
+		respondException(exchange, 400, "InvalidParameterValue", "observedProperty",
+				"The requested observed property is not supported by this service.");
+	}
+
+	private void respondException(HttpExchange exchange, int status, String exceptionCode, String locator,
+			String exceptionText) throws IOException {
+		exceptionReports.incrementAndGet();
+
+		respond(exchange, status, "<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows/1.1\" version=\"2.0.0\">"
+				+ "<ows:Exception exceptionCode=\"" + exceptionCode + "\""
+				+ (locator != null ? " locator=\"" + locator + "\"" : "") + ">"
+				+ "<ows:ExceptionText>" + exceptionText + "</ows:ExceptionText></ows:Exception>"
+				+ "</ows:ExceptionReport>");
+	}
+
+	private String readBody(InputStream body) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		body.transferTo(buffer);
+		bytesReceived.addAndGet(buffer.size());
+		return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/xml");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		workers.shutdownNow();
+		try {
+			workers.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+package n52.talsim_sos_converter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests the {@link WatchFolderDaemon} against a {@link StubSos}.
+ */
+public class WatchFolderDaemonTest extends TestCase {
+
+	private static final long TIMEOUT_MILLIS = 30 * 1000;
+
+	private Path directory;
+	private ExecutorService executor;
+
+	public WatchFolderDaemonTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(WatchFolderDaemonTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("watchFolder");
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		executor.shutdownNow();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	public void testRenamedFilesAreIngested() throws Exception {
+		Path dropDirectory = directory.resolve("drop");
+
+		try (StubSos sos = new StubSos()) {
+			// all files contain the same station
+			sos.acceptDuplicateProcedures();
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+
+			try (WatchFolderDaemon daemon = new WatchFolderDaemon(converter, sos.getURL(), executor)) {
+				daemon.addDropDirectory(dropDirectory);
+
+				// dropped before the daemon was started
+				Files.write(dropDirectory.resolve("first.xml"),
+						DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+				daemon.start();
+
+				drop(dropDirectory, "broken.xml", "<TalsimResult><series>");
+				drop(dropDirectory, "second.xml", DataAvailabilityReconciliationTest.TALSIM_RESULT);
+
+				awaitFile(dropDirectory.resolve(WatchFolderDaemon.DONE_DIRECTORY_NAME).resolve("second.xml"));
+				awaitFile(dropDirectory.resolve(WatchFolderDaemon.FAILED_DIRECTORY_NAME).resolve("broken.xml"));
+				awaitFile(dropDirectory.resolve(WatchFolderDaemon.DONE_DIRECTORY_NAME).resolve("first.xml"));
+
+				assertEquals(2, daemon.getNumberOfIngestedFiles());
+				assertEquals(1, daemon.getNumberOfFailedFiles());
+			}
+
+			// two files with two series of four observations each
+			assertEquals(16, sos.getInsertObservationRequests());
+			assertFalse(Files.exists(dropDirectory.resolve("first.xml")));
+			assertFalse(Files.exists(dropDirectory.resolve("second.xml.tmp")));
+		}
+	}
+
+	public void testFilesAreIngestedOnceMarkerExists() throws Exception {
+		Path dropDirectory = directory.resolve("drop");
+
+		try (StubSos sos = new StubSos()) {
+			TalsimSosConverter converter = new TalsimSosConverter();
+			converter.setAuthorizationToken("test");
+
+			try (WatchFolderDaemon daemon = new WatchFolderDaemon(converter, sos.getURL(), executor)) {
+				daemon.addDropDirectory(dropDirectory);
+				daemon.setMarkerFileExtension(".ready");
+				daemon.start();
+
+				// written in place, so it must not be ingested without a marker
+				Path talsimFile = Files.write(dropDirectory.resolve("result.xml"),
+						DataAvailabilityReconciliationTest.TALSIM_RESULT.getBytes(StandardCharsets.UTF_8));
+				Thread.sleep(500);
+				assertEquals(0, sos.getInsertObservationRequests());
+				assertTrue(Files.exists(talsimFile));
+
+				Files.createFile(dropDirectory.resolve("result.xml.ready"));
+
+				awaitFile(dropDirectory.resolve(WatchFolderDaemon.DONE_DIRECTORY_NAME).resolve("result.xml"));
+				assertEquals(1, daemon.getNumberOfIngestedFiles());
+			}
+
+			assertEquals(8, sos.getInsertObservationRequests());
+			assertFalse(Files.exists(dropDirectory.resolve("result.xml.ready")));
+		}
+	}
+
+	/**
+	 * Writes the file under a temporary name and renames it atomically, like a
+	 * well-behaved producer.
+	 */
+	private static void drop(Path dropDirectory, String fileName, String content) throws Exception {
+		Path temporaryFile = Files.write(dropDirectory.resolve(fileName + ".tmp"),
+				content.getBytes(StandardCharsets.UTF_8));
+		Files.move(temporaryFile, dropDirectory.resolve(fileName), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void awaitFile(Path file) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (!Files.exists(file)) {
+			assertTrue("file " + file + " did not appear", System.currentTimeMillis() < deadline);
+			Thread.sleep(20);
+		}
+	}
+
+}
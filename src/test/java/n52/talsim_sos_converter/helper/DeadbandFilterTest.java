@@ -0,0 +1,83 @@
+package n52.talsim_sos_converter.helper;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.DeadbandFilter.SeriesFilter;
+
+/**
+ * Unit test for {@link DeadbandFilter}.
+ */
+public class DeadbandFilterTest extends TestCase {
+
+	private static final long ONE_HOUR_MILLIS = 60 * 60 * 1000L;
+
+	private final TalsimSeriesHeader header = new TalsimSeriesHeader(0, "0.0", "instantaneous", "TBEV", "1ZU",
+			"second", "900", "2014-02-10", "00:00:00", "2014-02-10", "23:45:00", "-9999.9990", "Bever-Talsperre",
+			"m3/s");
+
+	public DeadbandFilterTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(DeadbandFilterTest.class);
+	}
+
+	public void testNearlyFlatSeriesIsThinnedOut() {
+		DeadbandFilter filter = new DeadbandFilter();
+		filter.setDeadband("1ZU", 0.0055, 0.0, 3 * ONE_HOUR_MILLIS);
+
+		SeriesFilter seriesFilter = filter.forSeries(header);
+
+		// 15-minute values: 0.119 - 0.121, one jump at 02:00, flat until 08:00
+		String[] values = { "0.120", "0.121", "0.119", "0.120", "0.121", "0.120", "0.119", "0.120", "0.500", "0.501",
+				"0.502", "0.503", "0.504", "0.505", "0.506", "0.507", "0.508", "0.509", "0.510", "0.511", "0.512",
+				"0.513", "0.514", "0.515", "0.516", "0.517", "0.518", "0.519", "0.520", "0.521", "0.522", "0.523",
+				"0.524" };
+
+		StringBuilder emitted = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			String time = String.format("%02d:%02d:00", i / 4, i % 4 * 15);
+			if (seriesFilter.accept(new TalsimObservation(header, i, "2014-02-10", time, values[i])))
+				emitted.append(i).append(' ');
+		}
+
+		// first event, jump, drift beyond the tolerance
+		assertEquals("0 8 14 20 26 32 ", emitted.toString());
+
+		// the last event has been emitted, nothing to add
+		assertNull(seriesFilter.complete());
+		assertEquals(values.length - 6, seriesFilter.getNumberOfSuppressedObservations());
+	}
+
+	public void testLastObservationAndMaximumGapAreKept() {
+		DeadbandFilter filter = new DeadbandFilter();
+		filter.setDefaultDeadband(0.0, 0.01, ONE_HOUR_MILLIS);
+
+		SeriesFilter seriesFilter = filter.forSeries(header);
+
+		StringBuilder emitted = new StringBuilder();
+		for (int i = 0; i < 10; i++) {
+			String time = String.format("%02d:%02d:00", i / 4, i % 4 * 15);
+			if (seriesFilter.accept(new TalsimObservation(header, i, "2014-02-10", time, "312.5")))
+				emitted.append(i).append(' ');
+		}
+
+		// one observation per hour
+		assertEquals("0 4 8 ", emitted.toString());
+
+		TalsimObservation last = seriesFilter.complete();
+		assertNotNull(last);
+		assertEquals(9, last.getEventIndex());
+		assertEquals(6, seriesFilter.getNumberOfSuppressedObservations());
+	}
+
+	public void testParameterWithoutDeadbandIsNotFiltered() {
+		DeadbandFilter filter = new DeadbandFilter();
+		filter.setDeadband("WSP", 0.01, 0.0, Long.MAX_VALUE);
+
+		assertNull(filter.forSeries(header));
+	}
+
+}
@@ -0,0 +1,61 @@
+package n52.talsim_sos_converter.helper;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest extends TestCase {
+
+	public LatencyHistogramTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(LatencyHistogramTest.class);
+	}
+
+	public void testPercentilesAreAccurateToSixPercent() {
+		LatencyHistogram histogram = new LatencyHistogram();
+
+		// 1 ms ... 1000 ms
+		for (long millis = 1; millis <= 1000; millis++)
+			histogram.record(millis * 1000000);
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000 * 1000000L, histogram.getMaxNanos());
+
+		assertWithin(500 * 1000000L, histogram.getPercentileNanos(50));
+		assertWithin(990 * 1000000L, histogram.getPercentileNanos(99));
+		assertEquals(histogram.getMaxNanos(), histogram.getPercentileNanos(100));
+
+		for (int percentile = 1; percentile < 100; percentile++)
+			assertTrue(histogram.getPercentileNanos(percentile) <= histogram.getPercentileNanos(percentile + 1));
+	}
+
+	public void testHistogramsCanBeCombined() {
+		LatencyHistogram fast = new LatencyHistogram();
+		LatencyHistogram slow = new LatencyHistogram();
+
+		for (int i = 0; i < 90; i++)
+			fast.record(10);
+		for (int i = 0; i < 10; i++)
+			slow.record(Long.MAX_VALUE / 2);
+
+		LatencyHistogram combined = fast.copy();
+		combined.add(slow);
+
+		assertEquals(100, combined.getCount());
+		assertEquals(10, combined.getPercentileNanos(90));
+		assertEquals(Long.MAX_VALUE / 2, combined.getPercentileNanos(91));
+		assertEquals(0, new LatencyHistogram().getPercentileNanos(99));
+	}
+
+	private static void assertWithin(long expectedNanos, long actualNanos) {
+		assertTrue("expected about " + expectedNanos + " but was " + actualNanos,
+				Math.abs(actualNanos - expectedNanos) <= expectedNanos * 0.0625);
+	}
+
+}
@@ -0,0 +1,76 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link SensorRegistry}.
+ */
+public class SensorRegistryTest extends TestCase {
+
+	private static final String CAPABILITIES = "<sos:Capabilities xmlns:sos=\"http://www.opengis.net/sos/2.0\""
+			+ " xmlns:swes=\"http://www.opengis.net/swes/2.0\"><sos:contents><sos:Contents>"
+			+ "<swes:offering><sos:ObservationOffering>"
+			+ "<swes:identifier>TalsimResult_TBEV</swes:identifier>"
+			+ "<swes:procedure>Bever-Talsperre_TBEV</swes:procedure>"
+			+ "</sos:ObservationOffering></swes:offering>"
+			+ "</sos:Contents></sos:contents></sos:Capabilities>";
+
+	private Path directory;
+	private URL sosURL;
+
+	public SensorRegistryTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(SensorRegistryTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("sensorRegistry");
+		sosURL = new URL("http://localhost:8080/sos/service");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (Path file : Files.newDirectoryStream(directory))
+			Files.delete(file);
+		Files.delete(directory);
+	}
+
+	public void testRegistrationIsPersisted() throws Exception {
+		Path registryFile = directory.resolve("sensors.tsv");
+		TalsimStation station = new TalsimStation("TBEV", "Bever-Talsperre");
+
+		SensorRegistry registry = new SensorRegistry(registryFile);
+		assertFalse(registry.isRegistered(sosURL, station));
+
+		registry.register(sosURL, station);
+		assertTrue(registry.isRegistered(sosURL, station));
+
+		SensorRegistry reloaded = new SensorRegistry(registryFile);
+		assertTrue(reloaded.isRegistered(sosURL, station));
+		assertFalse(reloaded.isRegistered(new URL("http://localhost:8080/other/service"), station));
+		assertFalse(reloaded.isRegistered(sosURL, new TalsimStation("TLIN", "Lingese-Talsperre")));
+	}
+
+	public void testPrimeFromCapabilities() throws Exception {
+		SensorRegistry registry = new SensorRegistry(directory.resolve("sensors.tsv"));
+
+		int numberOfOfferings = registry.primeFromCapabilities(sosURL,
+				new ByteArrayInputStream(CAPABILITIES.getBytes(StandardCharsets.UTF_8)));
+
+		assertEquals(1, numberOfOfferings);
+		assertTrue(registry.isRegistered(sosURL, new TalsimStation("TBEV", "Bever-Talsperre", true)));
+	}
+
+}
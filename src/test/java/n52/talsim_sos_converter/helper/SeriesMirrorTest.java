@@ -0,0 +1,145 @@
+package n52.talsim_sos_converter.helper;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import n52.talsim_sos_converter.helper.SeriesMirror.MirroredSeries;
+
+/**
+ * Unit test for {@link SeriesMirror} and {@link CompressedSeries}.
+ */
+public class SeriesMirrorTest extends TestCase {
+
+	private static final long TIME_STEP_MILLIS = 900 * 1000L;
+	private static final long ONE_YEAR_OF_TIME_STEPS = 365 * 24 * 4;
+
+	private static final String SOS_URL = "http://localhost:8080/52n-sos-webapp/service";
+	private static final String OTHER_SOS_URL = "http://localhost:8081/52n-sos-webapp/service";
+
+	private Path directory;
+
+	public SeriesMirrorTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(SeriesMirrorTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("seriesMirror");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (Path file : Files.newDirectoryStream(directory))
+			Files.delete(file);
+		Files.delete(directory);
+	}
+
+	public void testCompressedSeriesRoundTrip() throws Exception {
+		Random random = new Random(42);
+		int size = (int) ONE_YEAR_OF_TIME_STEPS;
+
+		CompressedSeries compressedSeries = new CompressedSeries();
+		long[] timestamps = new long[size];
+		double[] values = new double[size];
+
+		long timestamp = 1392000000000L;
+		double value = 312.5;
+		for (int i = 0; i < size; i++) {
+			// regular time step with an occasional gap, slowly changing values
+			timestamp += i % 1000 == 0 ? 3 * TIME_STEP_MILLIS : TIME_STEP_MILLIS;
+			if (random.nextInt(10) == 0)
+				value += (random.nextInt(21) - 10) / 1000.0;
+
+			timestamps[i] = timestamp;
+			values[i] = value;
+			compressedSeries.append(timestamp, value);
+		}
+
+		long[] decodedTimestamps = new long[size];
+		double[] decodedValues = new double[size];
+		CompressedSeries.decode(compressedSeries.getBytes(), size, decodedTimestamps, decodedValues);
+
+		for (int i = 0; i < size; i++) {
+			assertEquals(timestamps[i], decodedTimestamps[i]);
+			assertEquals(values[i], decodedValues[i], 0.0);
+		}
+
+		// 16 bytes per observation uncompressed
+		assertTrue("compressed size " + compressedSeries.getByteLength(),
+				compressedSeries.getByteLength() < size * 16 / 10);
+	}
+
+	public void testIrregularTimeStepsTakeShortBuckets() throws Exception {
+		Random random = new Random(42);
+		int size = 10000;
+
+		CompressedSeries compressedSeries = new CompressedSeries();
+		long[] timestamps = new long[size];
+
+		// each time step deviates by up to 30 seconds, the value is constant
+		for (int i = 0; i < size; i++) {
+			timestamps[i] = 1392000000000L + i * TIME_STEP_MILLIS + random.nextInt(30000);
+			compressedSeries.append(timestamps[i], 1.0);
+		}
+
+		long[] decodedTimestamps = new long[size];
+		CompressedSeries.decode(compressedSeries.getBytes(), size, decodedTimestamps, new double[size]);
+		for (int i = 0; i < size; i++)
+			assertEquals(timestamps[i], decodedTimestamps[i]);
+
+		// 2 + 17 bits for the timestamp and 1 bit for the value, except for the first observations
+		assertTrue("compressed size " + compressedSeries.getByteLength(),
+				compressedSeries.getByteLength() <= size * 20 / 8 + 32);
+	}
+
+	public void testChangedValuesAreDetected() throws Exception {
+		TalsimSeriesHeader header = new TalsimSeriesHeader(0, "0.0", "instantaneous", "TBEV", "WSP", "second", "900",
+				"2014-02-10", "00:00:00", "2014-02-19", "23:45:00", "-9999.9990", "Bever-Talsperre", "mNN");
+
+		SeriesMirror mirror = new SeriesMirror(directory);
+		MirroredSeries series = mirror.load(new URL(SOS_URL), header);
+		for (int i = 0; i < 100; i++)
+			series.record(i * TIME_STEP_MILLIS, 300.0 + i);
+		series.store();
+
+		MirroredSeries reloaded = new SeriesMirror(directory).load(new URL(SOS_URL), header);
+		assertEquals(100, reloaded.size());
+		assertTrue(reloaded.isUnchanged(10 * TIME_STEP_MILLIS, 310.0));
+		assertFalse(reloaded.isUnchanged(10 * TIME_STEP_MILLIS, 310.5));
+		assertFalse(reloaded.isUnchanged(100 * TIME_STEP_MILLIS, 400.0));
+
+		// overwrite a value and append a new one
+		reloaded.record(10 * TIME_STEP_MILLIS, 310.5);
+		reloaded.record(100 * TIME_STEP_MILLIS, 400.0);
+		reloaded.store();
+
+		MirroredSeries merged = new SeriesMirror(directory).load(new URL(SOS_URL), header);
+		assertEquals(101, merged.size());
+		assertTrue(merged.isUnchanged(10 * TIME_STEP_MILLIS, 310.5));
+		assertTrue(merged.isUnchanged(100 * TIME_STEP_MILLIS, 400.0));
+		assertTrue(merged.isUnchanged(99 * TIME_STEP_MILLIS, 399.0));
+	}
+
+	public void testSeriesAreMirroredPerSosInstance() throws Exception {
+		TalsimSeriesHeader header = new TalsimSeriesHeader(0, "0.0", "instantaneous", "TBEV", "WSP", "second", "900",
+				"2014-02-10", "00:00:00", "2014-02-19", "23:45:00", "-9999.9990", "Bever-Talsperre", "mNN");
+
+		MirroredSeries series = new SeriesMirror(directory).load(new URL(SOS_URL), header);
+		series.record(0, 300.0);
+		series.store();
+
+		SeriesMirror mirror = new SeriesMirror(directory);
+		assertEquals(1, mirror.load(new URL(SOS_URL), header).size());
+		assertEquals(0, mirror.load(new URL(OTHER_SOS_URL), header).size());
+	}
+
+}
@@ -0,0 +1,104 @@
+package n52.talsim_sos_converter.helper;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link SeriesWatermarkIndex}.
+ */
+public class SeriesWatermarkIndexTest extends TestCase {
+
+	private static final URL SOS_URL = createURL("http://localhost:8080/sos/service");
+	private static final URL OTHER_SOS_URL = createURL("http://localhost:8081/sos/service");
+
+	private Path indexFile;
+
+	public SeriesWatermarkIndexTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(SeriesWatermarkIndexTest.class);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		indexFile = Files.createTempFile("watermarks", ".idx");
+		Files.delete(indexFile);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.deleteIfExists(indexFile);
+	}
+
+	public void testWatermarksArePersisted() throws Exception {
+		TalsimSeriesHeader zufluss = createHeader("1ZU");
+		TalsimSeriesHeader volumen = createHeader("VOL");
+
+		try (SeriesWatermarkIndex index = new SeriesWatermarkIndex(indexFile)) {
+			assertEquals(SeriesWatermarkIndex.NO_WATERMARK, index.getWatermark(SOS_URL, zufluss));
+
+			index.advance(SOS_URL, zufluss, 2000L);
+			index.advance(SOS_URL, zufluss, 1000L); // never lowered
+			index.advance(SOS_URL, volumen, 3000L);
+
+			assertEquals(2000L, index.getWatermark(SOS_URL, zufluss));
+		}
+
+		try (SeriesWatermarkIndex index = new SeriesWatermarkIndex(indexFile)) {
+			assertEquals(2, index.size());
+			assertEquals(2000L, index.getWatermark(SOS_URL, zufluss));
+			assertEquals(3000L, index.getWatermark(SOS_URL, volumen));
+		}
+	}
+
+	public void testIndexGrows() throws Exception {
+		int numberOfSeries = 1000;
+
+		try (SeriesWatermarkIndex index = new SeriesWatermarkIndex(indexFile)) {
+			for (int i = 0; i < numberOfSeries; i++)
+				index.advance(SOS_URL, createHeader("P" + i), i);
+		}
+
+		try (SeriesWatermarkIndex index = new SeriesWatermarkIndex(indexFile)) {
+			assertEquals(numberOfSeries, index.size());
+			assertEquals(999L, index.getWatermark(SOS_URL, createHeader("P999")));
+		}
+	}
+
+	public void testWatermarksAreKeptPerSosInstance() throws Exception {
+		TalsimSeriesHeader zufluss = createHeader("1ZU");
+
+		try (SeriesWatermarkIndex index = new SeriesWatermarkIndex(indexFile)) {
+			index.advance(SOS_URL, zufluss, 2000L);
+
+			// the series has not been inserted into the other SOS instance yet
+			assertEquals(SeriesWatermarkIndex.NO_WATERMARK, index.getWatermark(OTHER_SOS_URL, zufluss));
+
+			index.advance(OTHER_SOS_URL, zufluss, 1000L);
+			assertEquals(2000L, index.getWatermark(SOS_URL, zufluss));
+			assertEquals(1000L, index.getWatermark(OTHER_SOS_URL, zufluss));
+		}
+	}
+
+	private static URL createURL(String url) {
+		try {
+			return new URL(url);
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static TalsimSeriesHeader createHeader(String parameterId) {
+		return new TalsimSeriesHeader(0, "0.0", "instantaneous", "TBEV", parameterId, "second", "900", "2014-02-10",
+				"00:00:00", "2014-02-19", "23:45:00", "-9999.9990", "Bever-Talsperre", "m3/s");
+	}
+
+}
@@ -0,0 +1,197 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link TalsimObservationPublisher}.
+ */
+public class TalsimObservationPublisherTest extends TestCase {
+
+	private static final String PATH_TO_TALSIM_EXAMPLE_FILE = "TalsimResult_example.xml";
+	private static final int NUMBER_OF_EVENTS_IN_EXAMPLE_FILE = 4800;
+
+	public TalsimObservationPublisherTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(TalsimObservationPublisherTest.class);
+	}
+
+	public void testAllObservationsAreEmitted() throws Exception {
+		TalsimObservationPublisher publisher = new TalsimObservationPublisher(openExampleFile(), Runnable::run);
+
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		publisher.subscribe(subscriber);
+		publisher.connect();
+
+		assertTrue(subscriber.completed);
+		assertNull(subscriber.error);
+		assertEquals(NUMBER_OF_EVENTS_IN_EXAMPLE_FILE, subscriber.received.size());
+
+		TalsimObservation first = subscriber.received.get(0);
+		assertEquals("Bever-Talsperre", first.getHeader().getStationName());
+		assertEquals("1ZU", first.getHeader().getParameterId());
+		assertEquals("0.0", first.getHeader().getTimeZone());
+		assertEquals("900", first.getHeader().getTimeStepMultiplier());
+		assertEquals("2014-02-10", first.getDate());
+		assertEquals("00:00:00", first.getTime());
+		assertEquals("0.120", first.getValue());
+
+		TalsimObservation last = subscriber.received.get(NUMBER_OF_EVENTS_IN_EXAMPLE_FILE - 1);
+		assertEquals("QH1", last.getHeader().getParameterId());
+		assertEquals(4, last.getHeader().getSeriesIndex());
+	}
+
+	public void testSlowestSubscriberThrottlesEmission() throws Exception {
+		TalsimObservationPublisher publisher = new TalsimObservationPublisher(openExampleFile(), Runnable::run);
+
+		RecordingSubscriber fast = new RecordingSubscriber(Long.MAX_VALUE);
+		RecordingSubscriber slow = new RecordingSubscriber(3);
+		publisher.subscribe(fast);
+		publisher.subscribe(slow);
+		publisher.connect();
+
+		assertEquals(3, fast.received.size());
+		assertEquals(3, slow.received.size());
+		assertFalse(fast.completed);
+
+		slow.subscription.request(2);
+
+		assertEquals(5, fast.received.size());
+		assertEquals(5, slow.received.size());
+
+		// once the slow subscriber leaves, the fast one receives everything
+		slow.subscription.cancel();
+
+		assertTrue(fast.completed);
+		assertEquals(NUMBER_OF_EVENTS_IN_EXAMPLE_FILE, fast.received.size());
+	}
+
+	public void testFailingSubscriberDoesNotAffectOthers() throws Exception {
+		TalsimObservationPublisher publisher = new TalsimObservationPublisher(openExampleFile(), Runnable::run);
+
+		RecordingSubscriber healthy = new RecordingSubscriber(Long.MAX_VALUE);
+		RecordingSubscriber failing = new RecordingSubscriber(Long.MAX_VALUE) {
+			@Override
+			public void onNext(TalsimObservation item) {
+				super.onNext(item);
+				if (received.size() == 2)
+					throw new IllegalStateException("subscriber failed");
+			}
+		};
+		publisher.subscribe(failing);
+		publisher.subscribe(healthy);
+		publisher.connect();
+
+		assertEquals(2, failing.received.size());
+		assertTrue(failing.error instanceof IllegalStateException);
+		assertFalse(failing.completed);
+
+		assertTrue(healthy.completed);
+		assertNull(healthy.error);
+		assertEquals(NUMBER_OF_EVENTS_IN_EXAMPLE_FILE, healthy.received.size());
+	}
+
+	public void testNonPositiveRequestIsSignalledByTheDrainLoop() throws Exception {
+		TalsimObservationPublisher publisher = new TalsimObservationPublisher(openExampleFile(), Runnable::run);
+
+		RecordingSubscriber healthy = new RecordingSubscriber(Long.MAX_VALUE);
+		RecordingSubscriber invalid = new RecordingSubscriber(0);
+		publisher.subscribe(invalid);
+		publisher.subscribe(healthy);
+
+		// not signalled from within request, i.e. from within onSubscribe
+		assertNull(invalid.error);
+
+		publisher.connect();
+
+		assertTrue(invalid.error instanceof IllegalArgumentException);
+		assertTrue(invalid.received.isEmpty());
+		assertTrue(healthy.completed);
+		assertEquals(NUMBER_OF_EVENTS_IN_EXAMPLE_FILE, healthy.received.size());
+	}
+
+	public void testParseErrorReachesAllSubscribers() throws Exception {
+		InputStream brokenStream = new InputStream() {
+			@Override
+			public int read() throws IOException {
+				throw new IOException("stream broken");
+			}
+		};
+		TalsimObservationPublisher publisher = new TalsimObservationPublisher(brokenStream, Runnable::run);
+
+		RecordingSubscriber failing = new RecordingSubscriber(Long.MAX_VALUE) {
+			@Override
+			public void onError(Throwable throwable) {
+				super.onError(throwable);
+				throw new IllegalStateException("subscriber failed");
+			}
+		};
+		RecordingSubscriber healthy = new RecordingSubscriber(Long.MAX_VALUE);
+		publisher.subscribe(failing);
+		publisher.subscribe(healthy);
+		publisher.connect();
+
+		assertNotNull(failing.error);
+		assertNotNull(healthy.error);
+		assertFalse(healthy.completed);
+	}
+
+	public void testLateSubscriberIsRejected() throws Exception {
+		TalsimObservationPublisher publisher = new TalsimObservationPublisher(openExampleFile(), Runnable::run);
+		publisher.subscribe(new RecordingSubscriber(1));
+		publisher.connect();
+
+		RecordingSubscriber late = new RecordingSubscriber(1);
+		publisher.subscribe(late);
+
+		assertTrue(late.error instanceof IllegalStateException);
+	}
+
+	private InputStream openExampleFile() {
+		return Thread.currentThread().getContextClassLoader().getResourceAsStream(PATH_TO_TALSIM_EXAMPLE_FILE);
+	}
+
+	private static class RecordingSubscriber implements Flow.Subscriber<TalsimObservation> {
+
+		private final long initialRequest;
+		protected final List<TalsimObservation> received = new ArrayList<TalsimObservation>();
+		private Flow.Subscription subscription;
+		private boolean completed = false;
+		private Throwable error;
+
+		RecordingSubscriber(long initialRequest) {
+			this.initialRequest = initialRequest;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(initialRequest);
+		}
+
+		@Override
+		public void onNext(TalsimObservation item) {
+			received.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			this.error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			this.completed = true;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package n52.talsim_sos_converter.helper;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the {@link TalsimEventFilter} applied by the
+ * {@link TalsimStreamReader}.
+ */
+public class TalsimStreamReaderTest extends TestCase {
+
+	private static final String PATH_TO_TALSIM_EXAMPLE_FILE = "TalsimResult_example.xml";
+
+	public TalsimStreamReaderTest(String testName) {
+		super(testName);
+	}
+
+	public static Test suite() {
+		return new TestSuite(TalsimStreamReaderTest.class);
+	}
+
+	public void testOnlyEventsWithinTimeWindowAreRead() throws Exception {
+		TalsimEventFilter eventFilter = new TalsimEventFilter();
+		// the last of ten days of 15-minute values
+		eventFilter.setTimeWindow(new DateTime(2014, 2, 19, 0, 0, DateTimeZone.UTC),
+				new DateTime(2014, 2, 19, 23, 45, DateTimeZone.UTC));
+
+		int numberOfEvents = 0;
+		try (TalsimStreamReader reader = new TalsimStreamReader(openExampleFile())) {
+			reader.setEventFilter(eventFilter);
+
+			TalsimObservation observation;
+			while ((observation = reader.next()) != null) {
+				assertEquals("2014-02-19", observation.getDate());
+				numberOfEvents++;
+			}
+
+			assertEquals(5, reader.getNumberOfSeries());
+			assertEquals(5 * 96, numberOfEvents);
+			assertEquals(5 * (960 - 96), reader.getNumberOfDroppedEvents());
+		}
+	}
+
+	public void testSeriesOutsideTimeWindowAreSkipped() throws Exception {
+		TalsimEventFilter eventFilter = new TalsimEventFilter();
+		eventFilter.setTimeWindow(new DateTime(2014, 2, 9, 0, 0, DateTimeZone.UTC),
+				new DateTime(2014, 2, 9, 23, 45, DateTimeZone.UTC));
+
+		TalsimSeriesHeader header = new TalsimSeriesHeader(0, "0.0", "instantaneous", "TBEV", "WSP", "second",
+				"900", "2014-02-10", "00:00:00", "2014-02-19", "23:45:00", "-9999.9990", "Bever-Talsperre", "mNN");
+		assertTrue(eventFilter.excludes(header));
+
+		try (TalsimStreamReader reader = new TalsimStreamReader(openExampleFile())) {
+			reader.setEventFilter(eventFilter);
+
+			assertNull(reader.next());
+			assertEquals(5 * 960, reader.getNumberOfDroppedEvents());
+		}
+	}
+
+	public void testMissingValuesAreDropped() throws Exception {
+		String talsimResult = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<TimeSeries xmlns=\"http://www.wldelft.nl/fews/PI\" version=\"1.2\"><timeZone>0.0</timeZone>"
+				+ "<series><header><type>instantaneous</type><locationId>TBEV</locationId>"
+				+ "<parameterId>1ZU</parameterId><timeStep unit=\"second\" multiplier=\"900\"/>"
+				+ "<missVal>-9999.9990</missVal><stationName>Bever-Talsperre</stationName><units>m3/s</units>"
+				+ "</header><event date=\"2014-02-10\" time=\"00:00:00\" value=\"0.120\"/>"
+				+ "<event date=\"2014-02-10\" time=\"00:15:00\" value=\"-9999.999\"/>"
+				+ "<event date=\"2014-02-10\" time=\"00:30:00\" value=\"-9999.9990\"/>"
+				+ "<event date=\"2014-02-10\" time=\"00:45:00\" value=\"0.121\"/></series></TimeSeries>";
+
+		TalsimEventFilter eventFilter = new TalsimEventFilter();
+		eventFilter.setDropMissingValues(true);
+
+		try (TalsimStreamReader reader = new TalsimStreamReader(
+				new ByteArrayInputStream(talsimResult.getBytes(StandardCharsets.UTF_8)))) {
+			reader.setEventFilter(eventFilter);
+
+			assertEquals(0, reader.next().getEventIndex());
+			// the event index still refers to the position within the series
+			assertEquals(3, reader.next().getEventIndex());
+			assertNull(reader.next());
+			assertEquals(2, reader.getNumberOfDroppedEvents());
+		}
+	}
+
+	private static InputStream openExampleFile() {
+		return Thread.currentThread().getContextClassLoader().getResourceAsStream(PATH_TO_TALSIM_EXAMPLE_FILE);
+	}
+
+}